@@ -0,0 +1,78 @@
+#!/usr/bin/env bash
+# Benchmark for the platform analytics pipeline (/api/admin/analytics): seeds synthetic users with
+# expenses in a month nobody else uses (1990-01), runs one job over it, and prints its duration,
+# throughput and spend percentiles next to the exact ones computed by Postgres. The seeded rows
+# and users are removed afterwards.
+#
+# Needs the database the app is configured for (DB_HOST, DB_PORT, ... as usual) and psql (override
+# with PSQL="<command taking one SQL argument>").
+#
+#   ./admin-analytics-benchmark.sh [users] [rows per user]     default 100000 users, 10 rows each
+#   SKIP_BUILD=1 ./admin-analytics-benchmark.sh                reuse target/expense-0.0.1.jar
+set -euo pipefail
+
+cd "$(dirname "$0")"
+USERS=${1:-100000}
+ROWS_PER_USER=${2:-10}
+PORT=${BENCH_PORT:-3996}
+JAR=target/expense-0.0.1.jar
+WORK=target/admin-analytics-benchmark
+ADMIN=analytics-admin@example.com
+PSQL=${PSQL:-env PGPASSWORD=${DB_PASSWORD:-pass} psql -h ${DB_HOST:-localhost} -p ${DB_PORT:-5433} -U ${DB_USERNAME:-user} -d expensetrackerdb -tAc}
+
+if [ "${SKIP_BUILD:-0}" != "1" ]; then
+    ./mvnw -B -q -DskipTests package
+fi
+mkdir -p "$WORK"
+
+cleanup() {
+    kill "${pid:-}" 2> /dev/null || true
+    for table in expenses expense_tombstones expense_change_counters; do
+        $PSQL "DELETE FROM $table WHERE created_by LIKE 'analytics-%@load.test'" > /dev/null
+    done
+    $PSQL "DELETE FROM users WHERE email LIKE 'analytics-%@load.test'" > /dev/null
+}
+trap cleanup EXIT
+
+echo "seeding $USERS users with $ROWS_PER_USER expenses each"
+$PSQL "INSERT INTO users (email, first_name, last_name, password)
+       SELECT 'analytics-' || g || '@load.test', 'Load', 'Test', 'x' FROM generate_series(1, $USERS) g" > /dev/null
+$PSQL "INSERT INTO expenses (created_by, date, type, category, amount, description, payment_method, created_at, version)
+       SELECT 'analytics-' || (1 + g % $USERS) || '@load.test', DATE '1990-01-01' + (g % 31),
+              (ARRAY['EXPENSE','EXPENSE','EXPENSE','INCOME'])[1 + g % 4], (ARRAY['Food','Rent','Travel'])[1 + g % 3],
+              1 + (g * 7919) % 997, 'load', 'Cash', now(), 0
+       FROM generate_series(1, $USERS * $ROWS_PER_USER) g" > /dev/null
+$PSQL "ANALYZE expenses" > /dev/null
+
+java -jar "$JAR" --server.port="$PORT" --expense.admin.emails="$ADMIN" > "$WORK/run.log" 2>&1 &
+pid=$!
+until curl -sf -o /dev/null "http://localhost:$PORT/api/auth/exists?email=$ADMIN"; do
+    if ! kill -0 "$pid" 2> /dev/null; then
+        echo "startup failed, see $WORK/run.log" >&2
+        exit 1
+    fi
+    sleep 0.2
+done
+curl -s -o /dev/null -X POST "http://localhost:$PORT/api/auth/register" -H 'Content-Type: application/json' \
+    -d "{\"email\":\"$ADMIN\",\"password\":\"secret1\",\"firstName\":\"Analytics\",\"lastName\":\"Admin\"}"
+token=$(curl -sf -X POST "http://localhost:$PORT/api/auth/login" -H 'Content-Type: application/json' \
+    -d "{\"email\":\"$ADMIN\",\"password\":\"secret1\"}" | sed -n 's/.*"token":"\([^"]*\)".*/\1/p')
+
+job=$(curl -sf -X POST -H "Authorization: Bearer $token" "http://localhost:$PORT/api/admin/analytics/jobs?from=1990-01" \
+    | sed -n 's/.*"id":"\([^"]*\)".*/\1/p')
+while true; do
+    curl -sf -H "Authorization: Bearer $token" "http://localhost:$PORT/api/admin/analytics/jobs/$job" > "$WORK/job.json"
+    grep -q '"status":"RUNNING"' "$WORK/job.json" || break
+    echo "  $(grep -o '"progress":{[^}]*}' "$WORK/job.json")"
+    sleep 2
+done
+
+grep -q '"status":"DONE"' "$WORK/job.json" || { echo "job failed: $(cat "$WORK/job.json")" >&2; exit 1; }
+elapsed=$(sed -n 's/.*"elapsedMs":\([0-9]*\).*/\1/p' "$WORK/job.json")
+rows=$((USERS * ROWS_PER_USER))
+echo "job: $rows rows of $USERS users in $elapsed ms ($((rows * 1000 / (elapsed + 1))) rows/s)"
+echo "sketch: $(grep -o '"spendPerUser":{[^}]*}' "$WORK/job.json")"
+echo "exact:  $($PSQL "SELECT 'p50 ' || v[1] || ', p90 ' || v[2] || ', p99 ' || v[3] FROM (
+    SELECT percentile_disc(ARRAY[0.5, 0.9, 0.99]) WITHIN GROUP (ORDER BY spend) v FROM (
+        SELECT sum(CASE WHEN type = 'EXPENSE' THEN amount ELSE 0 END) spend FROM expenses
+        WHERE created_by LIKE 'analytics-%@load.test' GROUP BY created_by) per_user) t")"
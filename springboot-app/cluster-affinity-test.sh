@@ -0,0 +1,120 @@
+#!/usr/bin/env bash
+# User affinity test with several local instances. Starts three instances with
+# expense.cluster.enabled and asks every instance for the same users' summaries: each user must be
+# served by one owner node (X-Expense-Node) whichever instance the request went to. Then one
+# instance is stopped, which may only move the users it owned, and started again, which must give
+# every user back to its original owner.
+#
+# Needs the database the app is configured for (DB_HOST, DB_PORT, ... as usual).
+#
+#   ./cluster-affinity-test.sh [users]             default 12 users
+#   SKIP_BUILD=1 ./cluster-affinity-test.sh        reuse target/expense-0.0.1.jar
+set -euo pipefail
+
+cd "$(dirname "$0")"
+USERS=${1:-12}
+PORTS=(${CLUSTER_PORTS:-3995 3996 3997})
+JAR=target/expense-0.0.1.jar
+WORK=target/cluster-affinity-test
+SECRET=cluster-affinity-test-$RANDOM
+
+if [ "${SKIP_BUILD:-0}" != "1" ]; then
+    ./mvnw -B -q -DskipTests package
+fi
+mkdir -p "$WORK"
+
+declare -A pids
+trap 'kill "${pids[@]}" 2> /dev/null || true' EXIT
+
+start_instance() {
+    local port=$1
+    java -jar "$JAR" --server.port="$port" --expense.cluster.enabled=true --expense.cluster.secret="$SECRET" \
+        --expense.cluster.advertise-url="http://localhost:$port" \
+        --expense.cluster.heartbeat-seconds=1 --expense.cluster.timeout-seconds=3 \
+        > "$WORK/instance-$port.log" 2>&1 &
+    pids[$port]=$!
+    until curl -sf -o /dev/null "http://localhost:$port/api/auth/exists?email=affinity@example.com"; do
+        if ! kill -0 "${pids[$port]}" 2> /dev/null; then
+            echo "instance on port $port failed to start, see $WORK/instance-$port.log" >&2
+            exit 1
+        fi
+        sleep 0.2
+    done
+}
+
+for port in "${PORTS[@]}"; do
+    start_instance "$port"
+done
+sleep 2 # Every instance has seen every heartbeat
+
+tokens=()
+for i in $(seq 1 "$USERS"); do
+    email="affinity-$i@example.com"
+    curl -s -o /dev/null -X POST "http://localhost:${PORTS[0]}/api/auth/register" -H 'Content-Type: application/json' \
+        -d "{\"email\":\"$email\",\"password\":\"secret1\",\"firstName\":\"Affinity\",\"lastName\":\"Test\"}"
+    tokens+=("$(curl -sf -X POST "http://localhost:${PORTS[0]}/api/auth/login" -H 'Content-Type: application/json' \
+        -d "{\"email\":\"$email\",\"password\":\"secret1\"}" | sed -n 's/.*"token":"\([^"]*\)".*/\1/p')")
+done
+
+# Owner of user $1 according to the instance on port $2
+served_by() {
+    curl -s -D - -o /dev/null -H "Authorization: Bearer ${tokens[$1]}" "http://localhost:$2/api/expenses/summary" \
+        | sed -n 's/^X-Expense-Node: *\([^[:space:]]*\).*/\1/Ip'
+}
+
+# Prints each user's owner, failing if the given instances disagree
+owners() {
+    local user port owner first
+    for user in "${!tokens[@]}"; do
+        first=
+        for port in "$@"; do
+            owner=$(served_by "$user" "$port")
+            if [ -z "$first" ]; then
+                first=$owner
+            elif [ "$owner" != "$first" ]; then
+                echo "FAIL: user $user served by $first via one instance and $owner via port $port" >&2
+                return 1
+            fi
+        done
+        echo "$first"
+    done
+}
+
+failed=0
+owners "${PORTS[@]}" > "$WORK/before" || failed=1
+mapfile -t before < "$WORK/before"
+echo "owners with ${#PORTS[@]} instances (every instance agrees):"
+printf '%s\n' "${before[@]}" | sort | uniq -c
+
+leaving=${PORTS[${#PORTS[@]} - 1]}
+kill "${pids[$leaving]}" && wait "${pids[$leaving]}" 2> /dev/null || true
+unset "pids[$leaving]"
+sleep 4
+owners "${PORTS[@]:0:${#PORTS[@]} - 1}" > "$WORK/during" || failed=1
+mapfile -t during < "$WORK/during"
+moved=0
+for user in "${!before[@]}"; do
+    if [ "${before[$user]}" != "${during[$user]}" ]; then
+        moved=$((moved + 1))
+        if [ "${before[$user]}" != "http://localhost:$leaving" ]; then
+            echo "FAIL: user $user moved from ${before[$user]} to ${during[$user]} though its owner is still up" >&2
+            failed=1
+        fi
+    elif [ "${before[$user]}" = "http://localhost:$leaving" ]; then
+        echo "FAIL: user $user still routed to the stopped instance" >&2
+        failed=1
+    fi
+done
+echo "after port $leaving left: $moved of $USERS users moved, all of them from the leaving instance"
+
+start_instance "$leaving"
+sleep 2
+owners "${PORTS[@]}" > "$WORK/after" || failed=1
+mapfile -t after < "$WORK/after"
+if [ "${before[*]}" = "${after[*]}" ]; then
+    echo "OK: after port $leaving rejoined every user is back with its original owner"
+else
+    echo "FAIL: ownership after rejoining differs from the original" >&2
+    failed=1
+fi
+exit $failed
@@ -0,0 +1,117 @@
+#!/usr/bin/env bash
+# Two-instance cache invalidation test. Both instances run against the same database; a user's
+# settings are read (and cached) on instance B, changed on instance A, and read again on B, which
+# must return the new value and a new ETag rather than its cached copy or a 304. The second round
+# drops the LISTEN connections first, so A's notification is lost and B only recovers through its
+# version check on reconnect.
+#
+# Needs the database the app is configured for (DB_HOST, DB_PORT, ... as usual) and psql to drop
+# the listener connections (override with PSQL="<command taking one SQL argument>").
+#
+#   ./invalidation-cluster-test.sh
+#   SKIP_BUILD=1 ./invalidation-cluster-test.sh     reuse target/expense-0.0.1.jar
+set -euo pipefail
+
+cd "$(dirname "$0")"
+A=${CLUSTER_PORTS_A:-3993}
+B=${CLUSTER_PORTS_B:-3994}
+JAR=target/expense-0.0.1.jar
+WORK=target/invalidation-cluster-test
+EMAIL=invalidation-test@example.com
+PSQL=${PSQL:-env PGPASSWORD=${DB_PASSWORD:-pass} psql -h ${DB_HOST:-localhost} -p ${DB_PORT:-5433} -U ${DB_USERNAME:-user} -d expensetrackerdb -tAc}
+
+if [ "${SKIP_BUILD:-0}" != "1" ]; then
+    ./mvnw -B -q -DskipTests package
+fi
+mkdir -p "$WORK"
+
+pids=()
+trap 'kill "${pids[@]}" 2> /dev/null || true' EXIT
+for port in $A $B; do
+    java -jar "$JAR" --server.port="$port" --expense.invalidation.check-seconds=5 > "$WORK/instance-$port.log" 2>&1 &
+    pids+=($!)
+done
+for port in $A $B; do
+    until curl -sf -o /dev/null "http://localhost:$port/api/auth/exists?email=$EMAIL"; do
+        if ! kill -0 "${pids[0]}" 2> /dev/null || ! kill -0 "${pids[1]}" 2> /dev/null; then
+            echo "an instance failed to start, see $WORK/instance-*.log" >&2
+            exit 1
+        fi
+        sleep 0.2
+    done
+done
+
+curl -s -o /dev/null -X POST "http://localhost:$A/api/auth/register" -H 'Content-Type: application/json' \
+    -d "{\"email\":\"$EMAIL\",\"password\":\"secret1\",\"firstName\":\"Cache\",\"lastName\":\"Test\"}"
+TOKEN=$(curl -sf -X POST "http://localhost:$A/api/auth/login" -H 'Content-Type: application/json' \
+    -d "{\"email\":\"$EMAIL\",\"password\":\"secret1\"}" | sed -n 's/.*"token":"\([^"]*\)".*/\1/p')
+if [ -z "$TOKEN" ]; then
+    echo "login failed" >&2
+    exit 1
+fi
+
+# Prints "<status> <etag> <currency>" for GET /api/settings on the given port
+get_settings() {
+    local port=$1 etag=${2:-}
+    curl -s -D "$WORK/headers" -o "$WORK/body" -w '%{http_code}' -H "Authorization: Bearer $TOKEN" \
+        ${etag:+-H "If-None-Match: $etag"} "http://localhost:$port/api/settings" > "$WORK/status"
+    echo "$(cat "$WORK/status") $(sed -n 's/^ETag: *\([^[:space:]]*\).*/\1/Ip' "$WORK/headers")" \
+        "$(sed -n 's/.*"currency":"\([^"]*\)".*/\1/p' "$WORK/body")"
+}
+
+put_currency() {
+    curl -sf -o /dev/null -X PUT "http://localhost:$A/api/settings" -H "Authorization: Bearer $TOKEN" \
+        -H 'Content-Type: application/json' -d "{\"currency\":\"$1\"}"
+}
+
+# Polls B with its cached ETag until it serves the given currency; prints the milliseconds taken
+wait_for_currency() {
+    local currency=$1 etag=$2 timeout_ms=$3 start status got
+    start=$(date +%s%N)
+    while true; do
+        read -r status _ got < <(get_settings $B "$etag")
+        if [ "$status" = "200" ] && [ "$got" = "$currency" ]; then
+            echo $(( ($(date +%s%N) - start) / 1000000 ))
+            return 0
+        fi
+        if [ $(( ($(date +%s%N) - start) / 1000000 )) -gt "$timeout_ms" ]; then
+            echo "FAIL: B still serves status $status currency '$got' after ${timeout_ms} ms, expected $currency" >&2
+            return 1
+        fi
+        sleep 0.05
+    done
+}
+
+failed=0
+
+# Round 1: notification
+put_currency USD
+sleep 1
+read -r _ etag currency < <(get_settings $B)
+echo "B cached currency=$currency etag=$etag"
+put_currency EUR
+if ms=$(wait_for_currency EUR "$etag" 2000); then
+    echo "OK: B saw A's change through NOTIFY after $ms ms"
+else
+    failed=1
+fi
+read -r _ etag_a _ < <(get_settings $A)
+read -r _ etag_b _ < <(get_settings $B)
+if [ "$etag_a" = "$etag_b" ]; then
+    echo "OK: both instances give ETag $etag_a"
+else
+    echo "FAIL: ETags differ, A $etag_a, B $etag_b" >&2
+    failed=1
+fi
+
+# Round 2: notification lost while the listeners reconnect
+read -r _ etag _ < <(get_settings $B)
+$PSQL "SELECT pg_terminate_backend(pid) FROM pg_stat_activity WHERE application_name = 'expense-invalidation-listener'" > /dev/null
+put_currency GBP
+if ms=$(wait_for_currency GBP "$etag" 15000); then
+    echo "OK: B recovered the missed change from user_data_versions after $ms ms"
+else
+    failed=1
+fi
+
+exit $failed
@@ -0,0 +1,81 @@
+#!/usr/bin/env bash
+# Multi-instance rate limit test: starts two instances on the same database with the given bucket
+# store, sends one client's requests to them alternately and counts how many got through. With a
+# shared store (postgres, redis) that is the configured limit, plus at most sync-tokens per instance
+# that hadn't been written back yet; with memory each instance allows the full limit on its own.
+#
+# Needs the database the app is configured for (DB_HOST, DB_PORT, ... as usual), and Redis at
+# expense.ratelimit.redis-url for the redis store.
+#
+#   ./rate-limit-cluster-test.sh [store]          postgres (default), redis or memory
+#   SKIP_BUILD=1 ./rate-limit-cluster-test.sh     reuse target/expense-0.0.1.jar
+set -euo pipefail
+
+cd "$(dirname "$0")"
+STORE=${1:-postgres}
+PORTS=(${CLUSTER_PORTS:-3991 3992})
+LIMIT=60
+SYNC_TOKENS=5
+REQUESTS=$((LIMIT * ${#PORTS[@]} + 30))
+JAR=target/expense-0.0.1.jar
+WORK=target/rate-limit-cluster-test
+EMAIL=rate-limit-test@example.com
+
+if [ "${SKIP_BUILD:-0}" != "1" ]; then
+    ./mvnw -B -q -DskipTests package
+fi
+mkdir -p "$WORK"
+
+pids=()
+trap 'kill "${pids[@]}" 2> /dev/null || true' EXIT
+for port in "${PORTS[@]}"; do
+    java -jar "$JAR" --server.port="$port" --expense.ratelimit.store="$STORE" \
+        --expense.ratelimit.requests-per-minute=$LIMIT --expense.ratelimit.sync-tokens=$SYNC_TOKENS \
+        > "$WORK/instance-$port.log" 2>&1 &
+    pids+=($!)
+done
+for i in "${!PORTS[@]}"; do
+    until curl -sf -o /dev/null "http://localhost:${PORTS[$i]}/api/auth/exists?email=$EMAIL"; do
+        if ! kill -0 "${pids[$i]}" 2> /dev/null; then
+            echo "instance on port ${PORTS[$i]} failed to start, see $WORK/instance-${PORTS[$i]}.log" >&2
+            exit 1
+        fi
+        sleep 0.2
+    done
+done
+
+# A fresh token, so no earlier run has used up its bucket
+curl -s -o /dev/null -X POST "http://localhost:${PORTS[0]}/api/auth/register" -H 'Content-Type: application/json' \
+    -d "{\"email\":\"$EMAIL\",\"password\":\"secret1\",\"firstName\":\"Rate\",\"lastName\":\"Limit\"}"
+TOKEN=$(curl -sf -X POST "http://localhost:${PORTS[0]}/api/auth/login" -H 'Content-Type: application/json' \
+    -d "{\"email\":\"$EMAIL\",\"password\":\"secret1\"}" | sed -n 's/.*"token":"\([^"]*\)".*/\1/p')
+if [ -z "$TOKEN" ]; then
+    echo "login failed" >&2
+    exit 1
+fi
+
+allowed=0
+rejected=0
+start=$(date +%s%N)
+for i in $(seq 0 $((REQUESTS - 1))); do
+    port=${PORTS[$((i % ${#PORTS[@]}))]}
+    status=$(curl -s -o /dev/null -w '%{http_code}' -H "Authorization: Bearer $TOKEN" \
+        "http://localhost:$port/api/auth/exists?email=$EMAIL")
+    case $status in
+        429) rejected=$((rejected + 1)) ;;
+        *) allowed=$((allowed + 1)) ;;
+    esac
+done
+elapsed=$(( ($(date +%s%N) - start) / 1000000 ))
+
+max_allowed=$((LIMIT + SYNC_TOKENS * ${#PORTS[@]}))
+echo "store=$STORE instances=${#PORTS[@]} limit=$LIMIT/min requests=$REQUESTS allowed=$allowed rejected=$rejected" \
+    "($((elapsed * 1000 / REQUESTS)) us/request incl. curl)"
+if [ "$STORE" = "memory" ]; then
+    echo "memory store: each instance enforces the limit separately, expected about $((LIMIT * ${#PORTS[@]})) allowed"
+elif [ "$allowed" -gt "$max_allowed" ] || [ "$allowed" -lt "$LIMIT" ]; then
+    echo "FAIL: expected $LIMIT-$max_allowed allowed across the cluster" >&2
+    exit 1
+else
+    echo "OK: limit enforced once for the whole cluster"
+fi
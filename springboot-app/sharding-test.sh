@@ -0,0 +1,159 @@
+#!/usr/bin/env bash
+# Sharding test with two databases on one Postgres server: the configured one as the primary and a
+# freshly provisioned expense_shard_test as shard "shard1". It creates expenses for a user on the
+# primary, moves the user to shard1 and back with the ShardMover command line while polling the API
+# (which must answer 503 during the move, and the same data before and after), and checks that a
+# user registered with new-user-shards=shard1 is written to the shard only.
+#
+# Needs the database the app is configured for (DB_HOST, DB_PORT, ... as usual), migrated through
+# V12, and psql (override with PSQL="<command taking a database name and one SQL argument>").
+#
+#   ./sharding-test.sh
+#   SKIP_BUILD=1 ./sharding-test.sh     reuse target/expense-0.0.1.jar
+set -euo pipefail
+
+cd "$(dirname "$0")"
+PORT=${SHARDING_PORT:-3995}
+JAR=target/expense-0.0.1.jar
+WORK=target/sharding-test
+SHARD_DB=expense_shard_test
+PRIMARY_DB=expensetrackerdb
+SHARD_URL="jdbc:postgresql://${DB_HOST:-localhost}:${DB_PORT:-5433}/$SHARD_DB"
+EMAIL=sharding-test@example.com
+NEW_EMAIL=sharding-test-new@example.com
+
+if [ "${SKIP_BUILD:-0}" != "1" ]; then
+    ./mvnw -B -q -DskipTests package
+fi
+mkdir -p "$WORK"
+
+# sql <database> <statements>
+sql() {
+    if [ -n "${PSQL:-}" ]; then
+        $PSQL "$1" "$2"
+    else
+        PGPASSWORD=${DB_PASSWORD:-pass} psql -h "${DB_HOST:-localhost}" -p "${DB_PORT:-5433}" -U "${DB_USERNAME:-user}" -d "$1" -tAc "$2"
+    fi
+}
+
+# Provisioning: schema from the entity model, then the migrations and an id range of its own
+sql "$PRIMARY_DB" "DROP DATABASE IF EXISTS $SHARD_DB" > /dev/null
+sql "$PRIMARY_DB" "CREATE DATABASE $SHARD_DB" > /dev/null
+java -jar "$JAR" --spring.main.web-application-type=none --spring.context.exit=onRefresh \
+    --spring.datasource.url="$SHARD_URL" > "$WORK/provision.log" 2>&1
+for migration in $(ls src/main/resources/db/migration | sort -V); do
+    [ "$migration" = "V12__add_user_shards.sql" ] && continue # Directory tables live in the primary only
+    sql "$SHARD_DB" "$(cat "src/main/resources/db/migration/$migration")" > /dev/null
+done
+sql "$SHARD_DB" "SELECT setval('expenses_seq', 1000000000000000, false)" > /dev/null
+
+# Leftovers of an earlier run
+for db in $PRIMARY_DB $SHARD_DB; do
+    for table in expenses expense_tombstones expense_change_counters expense_tag_bitmaps expense_batch_idempotency; do
+        sql "$db" "DELETE FROM $table WHERE created_by IN ('$EMAIL', '$NEW_EMAIL')" > /dev/null
+    done
+done
+sql "$PRIMARY_DB" "DELETE FROM user_shards WHERE user_email IN ('$EMAIL', '$NEW_EMAIL')" > /dev/null
+sql "$PRIMARY_DB" "DELETE FROM user_settings WHERE user_email IN ('$EMAIL', '$NEW_EMAIL')" > /dev/null 2>&1 || true
+sql "$PRIMARY_DB" "DELETE FROM users WHERE email IN ('$EMAIL', '$NEW_EMAIL')" > /dev/null
+
+SHARDING=(--expense.sharding.enabled=true --expense.sharding.shards.shard1.url="$SHARD_URL"
+    --expense.sharding.directory-cache-seconds=2)
+
+java -jar "$JAR" --server.port="$PORT" --expense.ratelimit.requests-per-minute=1000 "${SHARDING[@]}" > "$WORK/instance.log" 2>&1 &
+pid=$!
+trap 'kill "$pid" 2> /dev/null || true' EXIT
+until curl -sf -o /dev/null "http://localhost:$PORT/api/auth/exists?email=$EMAIL"; do
+    if ! kill -0 "$pid" 2> /dev/null; then
+        echo "the instance failed to start, see $WORK/instance.log" >&2
+        exit 1
+    fi
+    sleep 0.2
+done
+
+login() {
+    curl -s -o /dev/null -X POST "http://localhost:$PORT/api/auth/register" -H 'Content-Type: application/json' \
+        -d "{\"email\":\"$1\",\"password\":\"secret1\",\"firstName\":\"Sharding\",\"lastName\":\"Test\"}"
+    curl -sf -X POST "http://localhost:$PORT/api/auth/login" -H 'Content-Type: application/json' \
+        -d "{\"email\":\"$1\",\"password\":\"secret1\"}" | sed -n 's/.*"token":"\([^"]*\)".*/\1/p'
+}
+
+add_expenses() {
+    local i
+    for i in $(seq 1 "$2"); do
+        curl -sf -o /dev/null -X POST "http://localhost:$PORT/api/expenses" -H "Authorization: Bearer $1" \
+            -H 'Content-Type: application/json' \
+            -d "{\"type\":\"EXPENSE\",\"description\":\"Sharded $i\",\"amount\":$i.5,\"date\":\"2026-03-1$((i % 10))\",\"category\":\"Food\",\"paymentMethod\":\"Cash\",\"tags\":[\"t$((i % 2))\"]}"
+    done
+}
+
+# Ids, amounts and tags of the user's expenses as served by the API; empty on any error
+listing() {
+    curl -sf -H "Authorization: Bearer $1" "http://localhost:$PORT/api/expenses?size=100&sort=amount" \
+        | grep -o '"id":[0-9]*\|"amount":[0-9.]*\|"tags":\[[^]]*\]' | tr '\n' ' ' || true
+}
+
+rows() {
+    sql "$1" "SELECT count(*) FROM expenses WHERE created_by = '$2'"
+}
+
+failed=0
+check() {
+    if [ "$2" = "$3" ]; then
+        echo "OK: $1"
+    else
+        echo "FAIL: $1 (expected '$3', got '$2')" >&2
+        failed=1
+    fi
+}
+
+token=$(login "$EMAIL")
+add_expenses "$token" 20
+before=$(listing "$token")
+tagged=$(curl -sf -H "Authorization: Bearer $token" "http://localhost:$PORT/api/expenses?tags=t1&size=100" | grep -o '"totalElements":[0-9]*')
+check "20 expenses created on the primary" "$(rows $PRIMARY_DB $EMAIL)/$(rows $SHARD_DB $EMAIL)" "20/0"
+
+# Moves the user with the command-line tool, recording the API's status codes meanwhile
+move() {
+    local status_log="$WORK/statuses-$1"
+    java -jar "$JAR" --spring.main.web-application-type=none "${SHARDING[@]}" \
+        --expense.sharding.move-user="$EMAIL" --expense.sharding.move-to="$1" > "$WORK/move-$1.log" 2>&1 &
+    local mover=$!
+    : > "$status_log"
+    while kill -0 "$mover" 2> /dev/null; do
+        curl -s -o /dev/null -w '%{http_code}\n' -H "Authorization: Bearer $token" \
+            "http://localhost:$PORT/api/expenses?size=100" >> "$status_log"
+        sleep 0.2
+    done
+    wait "$mover" || { echo "FAIL: move to $1, see $WORK/move-$1.log" >&2; failed=1; }
+    echo "move to $1: $(sort "$status_log" | uniq -c | tr -s ' ' | tr '\n' ',') $(grep -ho 'Moved .*' "$WORK/move-$1.log")"
+    grep -q '^503$' "$status_log" || { echo "FAIL: no request was held off during the move" >&2; failed=1; }
+    sleep 3 # The instance's directory cache
+}
+
+move shard1
+check "rows moved to shard1" "$(rows $PRIMARY_DB $EMAIL)/$(rows $SHARD_DB $EMAIL)" "0/20"
+check "same listing served from shard1" "$(listing "$token")" "$before"
+check "tag filter on shard1" "$(curl -sf -H "Authorization: Bearer $token" "http://localhost:$PORT/api/expenses?tags=t1&size=100" | grep -o '"totalElements":[0-9]*')" "$tagged"
+extra=$(curl -sf -X POST "http://localhost:$PORT/api/expenses" -H "Authorization: Bearer $token" -H 'Content-Type: application/json' \
+    -d '{"type":"EXPENSE","description":"Extra","amount":99,"date":"2026-04-01","category":"Food","paymentMethod":"Cash"}' \
+    | grep -o '"id":[0-9]*' | head -1 | cut -d: -f2)
+check "new expense written to shard1" "$(rows $PRIMARY_DB $EMAIL)/$(rows $SHARD_DB $EMAIL)" "0/21"
+
+move primary
+check "rows moved back to the primary" "$(rows $PRIMARY_DB $EMAIL)/$(rows $SHARD_DB $EMAIL)" "21/0"
+curl -sf -o /dev/null -X DELETE -H "Authorization: Bearer $token" "http://localhost:$PORT/api/expenses/$extra"
+check "same listing served from the primary" "$(listing "$token")" "$before"
+
+# New users go where new-user-shards says, once the instance is configured so
+kill "$pid" && wait "$pid" 2> /dev/null || true
+java -jar "$JAR" --server.port="$PORT" --expense.ratelimit.requests-per-minute=1000 "${SHARDING[@]}" --expense.sharding.new-user-shards=shard1 > "$WORK/instance.log" 2>&1 &
+pid=$!
+until curl -sf -o /dev/null "http://localhost:$PORT/api/auth/exists?email=$EMAIL"; do
+    sleep 0.2
+done
+new_token=$(login "$NEW_EMAIL")
+add_expenses "$new_token" 3
+check "new user's expenses on shard1 only" "$(rows $PRIMARY_DB $NEW_EMAIL)/$(rows $SHARD_DB $NEW_EMAIL)" "0/3"
+check "shard1 ids from its own range" "$(sql "$SHARD_DB" "SELECT bool_and(id >= 1000000000000000) FROM expenses WHERE created_by = '$NEW_EMAIL'")" "t"
+exit $failed
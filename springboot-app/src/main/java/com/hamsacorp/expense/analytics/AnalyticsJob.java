@@ -0,0 +1,102 @@
+package com.hamsacorp.expense.analytics;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.time.YearMonth;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/** One run of the platform analytics pipeline: its progress while running, then its result. */
+public class AnalyticsJob {
+    public enum Status { RUNNING, DONE, FAILED }
+
+    private final String id;
+    private final YearMonth from;
+    private final YearMonth to;
+    private final Instant startedAt = Instant.now();
+    private final AtomicInteger partitionsDone = new AtomicInteger();
+    private final AtomicLong rowsScanned = new AtomicLong();
+    private final AtomicLong usersScanned = new AtomicLong();
+    private volatile int partitions;
+    private volatile Status status = Status.RUNNING;
+    private volatile Instant finishedAt;
+    private volatile String error;
+    private volatile Map<YearMonth, MonthAggregate> months;
+
+    AnalyticsJob(String id, YearMonth from, YearMonth to) {
+        this.id = id;
+        this.from = from;
+        this.to = to;
+    }
+
+    public String getId() {
+        return id;
+    }
+
+    public Status getStatus() {
+        return status;
+    }
+
+    YearMonth getFrom() {
+        return from;
+    }
+
+    YearMonth getTo() {
+        return to;
+    }
+
+    void setPartitions(int partitions) {
+        this.partitions = partitions;
+    }
+
+    void partitionDone(long rows, long users) {
+        rowsScanned.addAndGet(rows);
+        usersScanned.addAndGet(users);
+        partitionsDone.incrementAndGet();
+    }
+
+    void addRows(long rows) {
+        rowsScanned.addAndGet(rows);
+    }
+
+    void finish(Map<YearMonth, MonthAggregate> months) {
+        this.months = months;
+        this.finishedAt = Instant.now();
+        this.status = Status.DONE;
+    }
+
+    void fail(String error) {
+        this.error = error;
+        this.finishedAt = Instant.now();
+        this.status = Status.FAILED;
+    }
+
+    public Map<String, Object> toMap() {
+        Map<String, Object> progress = new LinkedHashMap<>();
+        progress.put("partitions", partitions);
+        progress.put("partitionsDone", partitionsDone.get());
+        progress.put("percent", partitions == 0 ? 0 : Math.round(1000.0 * partitionsDone.get() / partitions) / 10.0);
+        progress.put("rowsScanned", rowsScanned.get());
+        progress.put("usersScanned", usersScanned.get());
+
+        Map<String, Object> result = new LinkedHashMap<>();
+        result.put("id", id);
+        result.put("from", from.toString());
+        result.put("to", to.toString());
+        result.put("status", status);
+        result.put("startedAt", startedAt.toString());
+        result.put("elapsedMs", Duration.between(startedAt, finishedAt != null ? finishedAt : Instant.now()).toMillis());
+        result.put("progress", progress);
+        if (error != null) {
+            result.put("error", error);
+        }
+        if (months != null) {
+            Map<String, Object> byMonth = new LinkedHashMap<>();
+            months.forEach((month, aggregate) -> byMonth.put(month.toString(), aggregate.toMap()));
+            result.put("months", byMonth);
+        }
+        return result;
+    }
+}
@@ -0,0 +1,56 @@
+package com.hamsacorp.expense.analytics;
+
+/**
+ * Largest-Triangle-Three-Buckets downsampling (Steinarsson, 2013): keeps the first and last points
+ * and, from each of {@code threshold - 2} equal buckets in between, the point forming the largest
+ * triangle with the point kept before it and the average of the next bucket. Peaks and dips survive,
+ * which averaging them into wider buckets would flatten.
+ */
+public final class Lttb {
+    private Lttb() {
+    }
+
+    /** Indices of the points to keep, ascending; all of them if there are no more than threshold. */
+    public static int[] select(double[] x, double[] y, int threshold) {
+        int n = x.length;
+        if (threshold >= n || threshold < 3) {
+            int[] all = new int[n];
+            for (int i = 0; i < n; i++) {
+                all[i] = i;
+            }
+            return all;
+        }
+        int[] kept = new int[threshold];
+        double every = (double) (n - 2) / (threshold - 2);
+        int a = 0;
+        for (int i = 0; i < threshold - 2; i++) {
+            // Average of the next bucket, the third corner of the triangle
+            int nextStart = (int) Math.floor((i + 1) * every) + 1;
+            int nextEnd = Math.min((int) Math.floor((i + 2) * every) + 1, n);
+            double avgX = 0;
+            double avgY = 0;
+            for (int j = nextStart; j < nextEnd; j++) {
+                avgX += x[j];
+                avgY += y[j];
+            }
+            avgX /= nextEnd - nextStart;
+            avgY /= nextEnd - nextStart;
+
+            int start = (int) Math.floor(i * every) + 1;
+            int end = (int) Math.floor((i + 1) * every) + 1;
+            double maxArea = -1;
+            int chosen = start;
+            for (int j = start; j < end; j++) {
+                double area = Math.abs((x[a] - avgX) * (y[j] - y[a]) - (x[a] - x[j]) * (avgY - y[a]));
+                if (area > maxArea) {
+                    maxArea = area;
+                    chosen = j;
+                }
+            }
+            kept[i + 1] = chosen;
+            a = chosen;
+        }
+        kept[threshold - 1] = n - 1;
+        return kept;
+    }
+}
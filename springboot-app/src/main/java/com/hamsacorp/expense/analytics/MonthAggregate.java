@@ -0,0 +1,82 @@
+package com.hamsacorp.expense.analytics;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Platform-wide figures for one month, built from one partition of users and merged with the other
+ * partitions' aggregates. Every field merges exactly, so the result doesn't depend on how users
+ * were partitioned or in which order partitions finished.
+ */
+public class MonthAggregate {
+
+    private static final class Total {
+        double amount;
+        long count;
+
+        void add(double value) {
+            amount += value;
+            count++;
+        }
+
+        void merge(Total other) {
+            amount += other.amount;
+            count += other.count;
+        }
+    }
+
+    private final Map<String, Total> byType = new TreeMap<>();
+    private final Map<String, Total> expenseByCategory = new TreeMap<>();
+    private final SpendHistogram userSpend = new SpendHistogram();
+    private long activeUsers;
+
+    public void addTransaction(String type, String category, double amount) {
+        byType.computeIfAbsent(type, t -> new Total()).add(amount);
+        if ("EXPENSE".equals(type)) {
+            expenseByCategory.computeIfAbsent(category == null ? "Uncategorized" : category, c -> new Total()).add(amount);
+        }
+    }
+
+    /** One user with at least one transaction in the month, and their expense total (0 for income only). */
+    public void addActiveUser(double spend) {
+        activeUsers++;
+        userSpend.add(spend);
+    }
+
+    public void merge(MonthAggregate other) {
+        other.byType.forEach((type, total) -> byType.computeIfAbsent(type, t -> new Total()).merge(total));
+        other.expenseByCategory.forEach((category, total) -> expenseByCategory.computeIfAbsent(category, c -> new Total()).merge(total));
+        userSpend.merge(other.userSpend);
+        activeUsers += other.activeUsers;
+    }
+
+    public Map<String, Object> toMap() {
+        Map<String, Object> totals = new LinkedHashMap<>();
+        byType.forEach((type, total) -> totals.put(type, totalMap(total)));
+
+        double expenseTotal = expenseByCategory.values().stream().mapToDouble(total -> total.amount).sum();
+        Map<String, Object> categories = new LinkedHashMap<>();
+        expenseByCategory.entrySet().stream()
+                .sorted((a, b) -> Double.compare(b.getValue().amount, a.getValue().amount))
+                .forEach(entry -> {
+                    Map<String, Object> category = totalMap(entry.getValue());
+                    category.put("share", expenseTotal == 0 ? 0 : Math.round(1000.0 * entry.getValue().amount / expenseTotal) / 1000.0);
+                    categories.put(entry.getKey(), category);
+                });
+
+        Map<String, Object> result = new LinkedHashMap<>();
+        result.put("activeUsers", activeUsers);
+        result.put("totals", totals);
+        result.put("expenseCategories", categories);
+        result.put("spendPerUser", userSpend.toMap());
+        return result;
+    }
+
+    private static Map<String, Object> totalMap(Total total) {
+        Map<String, Object> map = new LinkedHashMap<>();
+        map.put("amount", Math.round(total.amount * 100.0) / 100.0);
+        map.put("count", total.count);
+        return map;
+    }
+}
@@ -0,0 +1,202 @@
+package com.hamsacorp.expense.analytics;
+
+import com.hamsacorp.expense.repository.ExpenseScanRepository;
+import com.hamsacorp.expense.sharding.ShardContext;
+import com.hamsacorp.expense.sharding.ShardDirectory;
+import jakarta.annotation.PreDestroy;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jdbc.core.RowCallbackHandler;
+import org.springframework.stereotype.Service;
+
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.time.YearMonth;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.UUID;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Platform-wide monthly analytics (totals by type, expense categories, active users, percentiles
+ * of spend per user) for operators.
+ *
+ * A job splits users into about expense.admin.analytics.partitions email ranges per shard and
+ * scans them on a pool of expense.admin.analytics.parallelism workers, each holding one database
+ * connection, so the pool must stay well below the connection pool size. A worker streams its
+ * range ordered by user and keeps only the current user's monthly spend besides its partial
+ * aggregates; the coordinator merges partials as they complete. Jobs run one at a time, in the
+ * background, and are kept in memory on the instance that ran them.
+ */
+@Service
+public class PlatformAnalyticsService {
+    public static final int MAX_MONTHS = 24;
+    private static final int MAX_JOBS_KEPT = 20;
+    private static final int PROGRESS_ROWS = 10_000;
+
+    @Autowired
+    private ExpenseScanRepository scanRepository;
+
+    @Autowired
+    private ShardDirectory shardDirectory;
+
+    @Value("${expense.admin.analytics.partitions:64}")
+    private int partitionsPerShard;
+
+    private final ExecutorService workers;
+    private final ExecutorService coordinator = Executors.newSingleThreadExecutor(daemonThreads("analytics-job"));
+    private final Map<String, AnalyticsJob> jobs = new LinkedHashMap<>();
+
+    public PlatformAnalyticsService(@Value("${expense.admin.analytics.parallelism:4}") int parallelism) {
+        this.workers = Executors.newFixedThreadPool(parallelism, daemonThreads("analytics-scan"));
+    }
+
+    /** Starts a job over the months from..to (inclusive); fails if one is already running. */
+    public synchronized AnalyticsJob start(YearMonth from, YearMonth to) {
+        if (to.isBefore(from)) {
+            throw new IllegalArgumentException("to must not be before from");
+        }
+        if (from.plusMonths(MAX_MONTHS).isBefore(to.plusMonths(1))) {
+            throw new IllegalArgumentException("At most " + MAX_MONTHS + " months per job");
+        }
+        for (AnalyticsJob job : jobs.values()) {
+            if (job.getStatus() == AnalyticsJob.Status.RUNNING) {
+                throw new IllegalStateException("Analytics job " + job.getId() + " is still running");
+            }
+        }
+        AnalyticsJob job = new AnalyticsJob(UUID.randomUUID().toString(), from, to);
+        jobs.put(job.getId(), job);
+        Iterator<String> oldest = jobs.keySet().iterator();
+        while (jobs.size() > MAX_JOBS_KEPT) {
+            oldest.next();
+            oldest.remove();
+        }
+        coordinator.execute(() -> run(job));
+        return job;
+    }
+
+    public synchronized AnalyticsJob getJob(String id) {
+        return jobs.get(id);
+    }
+
+    public synchronized List<AnalyticsJob> getJobs() {
+        return new ArrayList<>(jobs.values());
+    }
+
+    private void run(AnalyticsJob job) {
+        List<Future<Map<YearMonth, MonthAggregate>>> futures = new ArrayList<>();
+        try {
+            List<String> boundaries = ShardContext.call(ShardContext.PRIMARY, () -> scanRepository.findUserBoundaries(partitionsPerShard));
+            CompletionService<Map<YearMonth, MonthAggregate>> completion = new ExecutorCompletionService<>(workers);
+            for (String shard : shardDirectory.getShardNames()) {
+                for (int i = 0; i <= boundaries.size(); i++) {
+                    String fromUser = i == 0 ? null : boundaries.get(i - 1);
+                    String toUser = i == boundaries.size() ? null : boundaries.get(i);
+                    futures.add(completion.submit(() -> ShardContext.call(shard, () -> scanPartition(job, fromUser, toUser))));
+                }
+            }
+            job.setPartitions(futures.size());
+
+            Map<YearMonth, MonthAggregate> months = new TreeMap<>();
+            for (YearMonth month = job.getFrom(); !month.isAfter(job.getTo()); month = month.plusMonths(1)) {
+                months.put(month, new MonthAggregate());
+            }
+            for (int i = 0; i < futures.size(); i++) {
+                completion.take().get().forEach((month, partial) -> months.get(month).merge(partial));
+            }
+            job.finish(months);
+        } catch (ExecutionException e) {
+            futures.forEach(future -> future.cancel(true));
+            System.err.println("Analytics job " + job.getId() + " failed: " + e.getCause());
+            job.fail(String.valueOf(e.getCause().getMessage()));
+        } catch (InterruptedException e) {
+            futures.forEach(future -> future.cancel(true));
+            job.fail("Interrupted");
+            Thread.currentThread().interrupt();
+        } catch (RuntimeException e) {
+            futures.forEach(future -> future.cancel(true));
+            System.err.println("Analytics job " + job.getId() + " failed: " + e);
+            job.fail(String.valueOf(e.getMessage()));
+        }
+    }
+
+    private Map<YearMonth, MonthAggregate> scanPartition(AnalyticsJob job, String fromUser, String toUser) {
+        PartitionScan scan = new PartitionScan(job);
+        scanRepository.scan(job.getFrom().atDay(1), job.getTo().plusMonths(1).atDay(1), fromUser, toUser, scan);
+        scan.finishUser();
+        job.partitionDone(scan.rows % PROGRESS_ROWS, scan.users);
+        return scan.months;
+    }
+
+    /** Folds one partition's rows, which arrive grouped by user, into per-month aggregates. */
+    private static final class PartitionScan implements RowCallbackHandler {
+        final AnalyticsJob job;
+        final Map<YearMonth, MonthAggregate> months = new HashMap<>();
+        // The current user's expense total per month they were active in
+        final Map<YearMonth, Double> userSpend = new HashMap<>();
+        String user;
+        long rows;
+        long users;
+
+        PartitionScan(AnalyticsJob job) {
+            this.job = job;
+        }
+
+        @Override
+        public void processRow(ResultSet rs) throws SQLException {
+            String owner = rs.getString(1);
+            if (!owner.equals(user)) {
+                finishUser();
+                user = owner;
+            }
+            YearMonth month = YearMonth.from(rs.getDate(2).toLocalDate());
+            String type = rs.getString(3);
+            double amount = rs.getDouble(5);
+            months.computeIfAbsent(month, m -> new MonthAggregate()).addTransaction(type, rs.getString(4), amount);
+            userSpend.merge(month, "EXPENSE".equals(type) ? amount : 0, Double::sum);
+            if (++rows % PROGRESS_ROWS == 0) {
+                job.addRows(PROGRESS_ROWS);
+                if (Thread.currentThread().isInterrupted()) {
+                    throw new SQLException("Analytics job cancelled");
+                }
+            }
+        }
+
+        void finishUser() {
+            if (user == null) {
+                return;
+            }
+            userSpend.forEach((month, spend) -> months.get(month).addActiveUser(spend));
+            userSpend.clear();
+            users++;
+            user = null;
+        }
+    }
+
+    @PreDestroy
+    public void stop() {
+        coordinator.shutdownNow();
+        workers.shutdownNow();
+    }
+
+    private static ThreadFactory daemonThreads(String name) {
+        AtomicInteger count = new AtomicInteger();
+        return runnable -> {
+            Thread thread = new Thread(runnable, name + "-" + count.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        };
+    }
+}
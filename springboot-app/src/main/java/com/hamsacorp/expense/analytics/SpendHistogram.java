@@ -0,0 +1,77 @@
+package com.hamsacorp.expense.analytics;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Mergeable quantile sketch for non-negative amounts: logarithmic buckets whose bounds are 2% apart,
+ * so any quantile is reported within 1% of a value actually in the data. Memory grows with the
+ * spread of the values (a few hundred buckets cover 0.01 to 10^9), not with their number, and
+ * sketches of separate partitions merge exactly.
+ */
+public class SpendHistogram {
+    private static final double RELATIVE_ACCURACY = 0.01;
+    private static final double GAMMA = (1 + RELATIVE_ACCURACY) / (1 - RELATIVE_ACCURACY);
+    private static final double LOG_GAMMA = Math.log(GAMMA);
+
+    private final TreeMap<Integer, Long> buckets = new TreeMap<>();
+    private long zeros;
+    private long count;
+    private double max;
+
+    public void add(double value) {
+        if (value <= 0) {
+            zeros++;
+        } else {
+            buckets.merge((int) Math.ceil(Math.log(value) / LOG_GAMMA), 1L, Long::sum);
+            max = Math.max(max, value);
+        }
+        count++;
+    }
+
+    public void merge(SpendHistogram other) {
+        other.buckets.forEach((index, n) -> buckets.merge(index, n, Long::sum));
+        zeros += other.zeros;
+        count += other.count;
+        max = Math.max(max, other.max);
+    }
+
+    public long getCount() {
+        return count;
+    }
+
+    /** Value at quantile {@code q} (0 to 1), or null when empty. */
+    public Double quantile(double q) {
+        if (count == 0) {
+            return null;
+        }
+        long rank = (long) Math.floor(q * (count - 1));
+        if (rank < zeros) {
+            return 0.0;
+        }
+        long seen = zeros;
+        for (Map.Entry<Integer, Long> bucket : buckets.entrySet()) {
+            seen += bucket.getValue();
+            if (seen > rank) {
+                // Midpoint of the bucket (GAMMA^(i-1), GAMMA^i] in relative terms
+                return Math.min(max, 2 * Math.pow(GAMMA, bucket.getKey()) / (GAMMA + 1));
+            }
+        }
+        return max;
+    }
+
+    public Map<String, Object> toMap() {
+        Map<String, Object> result = new LinkedHashMap<>();
+        result.put("p50", round(quantile(0.5)));
+        result.put("p75", round(quantile(0.75)));
+        result.put("p90", round(quantile(0.9)));
+        result.put("p99", round(quantile(0.99)));
+        result.put("max", count == 0 ? null : round(max));
+        return result;
+    }
+
+    private static Double round(Double value) {
+        return value == null ? null : Math.round(value * 100.0) / 100.0;
+    }
+}
@@ -0,0 +1,123 @@
+package com.hamsacorp.expense.cluster;
+
+import com.hamsacorp.expense.repository.ClusterNodeRepository;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Service;
+
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.util.List;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Which API instances are up and which of them owns each user.
+ *
+ * With expense.cluster.enabled every instance upserts a heartbeat row in cluster_nodes every
+ * heartbeat-seconds under its advertised URL, and the instances with a heartbeat in the last
+ * timeout-seconds form a {@link ConsistentHashRing} that maps each user to an owner. A clean
+ * shutdown deletes the row so peers rebalance at their next refresh; a crashed instance drops out
+ * after the timeout. Disabled, this instance owns every user.
+ */
+@Service
+public class ClusterMembership {
+    private static final Logger LOG = LoggerFactory.getLogger("expense.cluster");
+    private static final int POINTS_PER_NODE = 128;
+
+    @Autowired
+    private ClusterNodeRepository clusterNodeRepository;
+
+    @Value("${expense.cluster.enabled:false}")
+    private boolean enabled;
+
+    @Value("${expense.cluster.heartbeat-seconds:5}")
+    private int heartbeatSeconds;
+
+    @Value("${expense.cluster.timeout-seconds:15}")
+    private int timeoutSeconds;
+
+    private final String self;
+    private volatile ConsistentHashRing ring;
+    private final ScheduledExecutorService heartbeat = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "cluster-heartbeat");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    public ClusterMembership(@Value("${expense.cluster.advertise-url:}") String advertiseUrl,
+                             @Value("${server.port:3000}") int serverPort) {
+        this.self = advertiseUrl.isEmpty() ? defaultUrl(serverPort) : advertiseUrl;
+        this.ring = new ConsistentHashRing(List.of(self), POINTS_PER_NODE);
+    }
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void start() {
+        if (!enabled) {
+            return;
+        }
+        clusterNodeRepository.deleteOlderThanHours(24);
+        refresh();
+        heartbeat.scheduleWithFixedDelay(this::refresh, heartbeatSeconds, heartbeatSeconds, TimeUnit.SECONDS);
+    }
+
+    @PreDestroy
+    public void stop() {
+        heartbeat.shutdownNow();
+        if (enabled) {
+            try {
+                clusterNodeRepository.delete(self);
+            } catch (RuntimeException e) {
+                LOG.warn("Error leaving cluster: {}", e.getMessage());
+            }
+        }
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /** The URL peers reach this instance at, which is also its node id. */
+    public String getSelf() {
+        return self;
+    }
+
+    public String ownerOf(String userEmail) {
+        return ring.ownerOf(userEmail);
+    }
+
+    public List<String> getNodes() {
+        return ring.getNodes();
+    }
+
+    private void refresh() {
+        try {
+            clusterNodeRepository.heartbeat(self);
+            Set<String> alive = new TreeSet<>(clusterNodeRepository.findAlive(timeoutSeconds));
+            alive.add(self);
+            if (!alive.equals(new TreeSet<>(ring.getNodes()))) {
+                ring = new ConsistentHashRing(alive, POINTS_PER_NODE);
+                LOG.info("Cluster membership changed: {}", alive);
+            }
+        } catch (RuntimeException e) {
+            // Keep the last known ring; forwarding falls back to serving locally if a peer is gone
+            LOG.warn("Error refreshing cluster membership: {}", e.getMessage());
+        }
+    }
+
+    private static String defaultUrl(int serverPort) {
+        try {
+            return "http://" + InetAddress.getLocalHost().getHostAddress() + ":" + serverPort;
+        } catch (UnknownHostException e) {
+            return "http://localhost:" + serverPort;
+        }
+    }
+}
@@ -0,0 +1,54 @@
+package com.hamsacorp.expense.cluster;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.TreeMap;
+
+/**
+ * Immutable consistent-hash ring over node URLs. Each node is placed at many points (virtual
+ * nodes) so load spreads evenly, and a key belongs to the first node point at or after its hash.
+ * When a node joins it only takes over keys from its own points; when it leaves only its keys
+ * move, each to the node that follows it on the ring.
+ */
+public final class ConsistentHashRing {
+    private final NavigableMap<Long, String> points = new TreeMap<>();
+    private final List<String> nodes;
+
+    public ConsistentHashRing(Collection<String> nodes, int pointsPerNode) {
+        this.nodes = nodes.stream().sorted().toList();
+        for (String node : this.nodes) {
+            for (int i = 0; i < pointsPerNode; i++) {
+                points.put(hash(node + "#" + i), node);
+            }
+        }
+    }
+
+    /** The owning node for {@code key}, or null for an empty ring. */
+    public String ownerOf(String key) {
+        if (points.isEmpty()) {
+            return null;
+        }
+        Map.Entry<Long, String> point = points.ceilingEntry(hash(key));
+        return point != null ? point.getValue() : points.firstEntry().getValue();
+    }
+
+    public List<String> getNodes() {
+        return nodes;
+    }
+
+    // Leading 64 bits of SHA-256: evenly spread and identical on every JVM, unlike String.hashCode mixing
+    private static long hash(String value) {
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-256").digest(value.getBytes(StandardCharsets.UTF_8));
+            return ByteBuffer.wrap(digest).getLong();
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
@@ -0,0 +1,17 @@
+package com.hamsacorp.expense.cluster;
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * Marks a handler backed by per-user in-memory state (analytics, search, suggestions), so that in
+ * a cluster it is served by the user's owner node and only that node warms the user: the GETs that
+ * read the state and the writes that keep it current. Other nodes forward the request, see
+ * {@link OwnerRoutingInterceptor}.
+ */
+@Target(ElementType.METHOD)
+@Retention(RetentionPolicy.RUNTIME)
+public @interface OwnerRouted {
+}
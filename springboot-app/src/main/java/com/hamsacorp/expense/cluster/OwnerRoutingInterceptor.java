@@ -0,0 +1,131 @@
+package com.hamsacorp.expense.cluster;
+
+import jakarta.annotation.PostConstruct;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import org.springframework.web.method.HandlerMethod;
+import org.springframework.web.servlet.HandlerInterceptor;
+
+import java.io.IOException;
+import java.net.ConnectException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpConnectTimeoutException;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.time.Duration;
+import java.util.List;
+
+/**
+ * Forwards {@link OwnerRouted} requests for users this instance doesn't own to the owner node and
+ * relays its response, so per-user analytics state is only built on one node. Writes are forwarded
+ * with their body too: the owner then applies them to its warm state itself, where a write on
+ * another node would reach it only as an invalidation that drops that state.
+ *
+ * Runs after ConditionalGetInterceptor: data versions are shared, so a 304 is answered locally
+ * without a hop. A forwarded request carries the {@link #FORWARDED_HEADER} with the cluster
+ * secret; the owner serves it itself whatever its view of the ring, which avoids forwarding loops
+ * while membership is changing, and RateLimitingFilter doesn't count it a second time. If the
+ * owner can't be reached the request is served locally; a write only if the connection failed, since
+ * after that the owner may have applied it, and it is answered with a 502 instead.
+ */
+@Component
+public class OwnerRoutingInterceptor implements HandlerInterceptor {
+    public static final String FORWARDED_HEADER = "X-Expense-Forwarded";
+    public static final String NODE_HEADER = "X-Expense-Node";
+    private static final Logger LOG = LoggerFactory.getLogger("expense.cluster");
+    private static final List<String> REQUEST_HEADERS = List.of("Authorization", "Accept", "Content-Type");
+    private static final List<String> RESPONSE_HEADERS = List.of("Content-Type", "ETag", "Cache-Control", "Vary", "Retry-After", NODE_HEADER);
+
+    @Autowired
+    private ClusterMembership clusterMembership;
+
+    @Value("${expense.cluster.secret:}")
+    private String secret;
+
+    @Value("${expense.cluster.forward-timeout-ms:30000}")
+    private long forwardTimeoutMillis;
+
+    private final HttpClient httpClient = HttpClient.newBuilder()
+            .connectTimeout(Duration.ofSeconds(1))
+            .build();
+
+    @PostConstruct
+    public void checkSecret() {
+        if (clusterMembership.isEnabled() && secret.isEmpty()) {
+            // Without it forwarded requests can't be told apart, and differing ring views would loop
+            throw new IllegalStateException("expense.cluster.secret must be set when expense.cluster.enabled=true");
+        }
+    }
+
+    @Override
+    public boolean preHandle(HttpServletRequest request, HttpServletResponse response, Object handler) throws IOException {
+        if (!clusterMembership.isEnabled()
+                || !(handler instanceof HandlerMethod handlerMethod) || !handlerMethod.hasMethodAnnotation(OwnerRouted.class)) {
+            return true;
+        }
+        String userEmail = (String) request.getAttribute("userEmail");
+        String owner = userEmail == null ? null : clusterMembership.ownerOf(userEmail);
+        if (owner == null || owner.equals(clusterMembership.getSelf()) || isForwarded(request)) {
+            response.setHeader(NODE_HEADER, clusterMembership.getSelf());
+            return true;
+        }
+        try {
+            forward(owner, request, response);
+            return false;
+        } catch (ConnectException | HttpConnectTimeoutException e) {
+            LOG.warn("Error connecting to {}, serving locally: {}", owner, e.getMessage());
+        } catch (IOException e) {
+            if (!isRead(request)) {
+                LOG.error("Error forwarding write to {}: {}", owner, e.getMessage());
+                response.sendError(HttpServletResponse.SC_BAD_GATEWAY, "The write may not have been applied, please check and retry");
+                return false;
+            }
+            LOG.warn("Error forwarding to {}, serving locally: {}", owner, e.getMessage());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        response.setHeader(NODE_HEADER, clusterMembership.getSelf());
+        return true;
+    }
+
+    /** True for requests forwarded by a peer, which must be served here. */
+    public boolean isForwarded(HttpServletRequest request) {
+        String header = request.getHeader(FORWARDED_HEADER);
+        return header != null && !secret.isEmpty()
+                && MessageDigest.isEqual(header.getBytes(StandardCharsets.UTF_8), secret.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static boolean isRead(HttpServletRequest request) {
+        return "GET".equalsIgnoreCase(request.getMethod()) || "HEAD".equalsIgnoreCase(request.getMethod());
+    }
+
+    private void forward(String owner, HttpServletRequest request, HttpServletResponse response) throws IOException, InterruptedException {
+        String query = request.getQueryString();
+        HttpRequest.Builder forwarded = HttpRequest.newBuilder(URI.create(owner + request.getRequestURI() + (query == null ? "" : "?" + query)))
+                .timeout(Duration.ofMillis(forwardTimeoutMillis))
+                .header(FORWARDED_HEADER, secret)
+                .method(request.getMethod(), isRead(request) ? HttpRequest.BodyPublishers.noBody()
+                        : HttpRequest.BodyPublishers.ofByteArray(request.getInputStream().readAllBytes()));
+        for (String name : REQUEST_HEADERS) {
+            String value = request.getHeader(name);
+            if (value != null) {
+                forwarded.header(name, value);
+            }
+        }
+        // No Accept-Encoding: the owner answers uncompressed and our compression filter applies as usual
+        HttpResponse<byte[]> ownerResponse = httpClient.send(forwarded.build(), HttpResponse.BodyHandlers.ofByteArray());
+        response.setStatus(ownerResponse.statusCode());
+        for (String name : RESPONSE_HEADERS) {
+            ownerResponse.headers().firstValue(name).ifPresent(value -> response.setHeader(name, value));
+        }
+        response.getOutputStream().write(ownerResponse.body());
+    }
+}
@@ -0,0 +1,79 @@
+package com.hamsacorp.expense.config;
+
+import com.hamsacorp.expense.service.DataVersionService;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+import org.springframework.web.method.HandlerMethod;
+import org.springframework.web.servlet.HandlerInterceptor;
+
+/**
+ * Emits a strong ETag for {@link VersionedResource} handlers and short-circuits matching
+ * If-None-Match requests with 304, so no repository query or serialisation happens.
+ */
+@Component
+public class ConditionalGetInterceptor implements HandlerInterceptor {
+    @Autowired
+    private DataVersionService dataVersionService;
+
+    @Override
+    public boolean preHandle(HttpServletRequest request, HttpServletResponse response, Object handler) {
+        if (!"GET".equalsIgnoreCase(request.getMethod()) || !(handler instanceof HandlerMethod handlerMethod)
+                || !handlerMethod.hasMethodAnnotation(VersionedResource.class)) {
+            return true;
+        }
+        String userEmail = (String) request.getAttribute("userEmail");
+        if (userEmail == null) {
+            return true;
+        }
+        String etag = dataVersionService.getETag(userEmail) + encodingSuffix(request);
+        // Let the browser keep the body but revalidate on every use
+        response.setHeader("Cache-Control", "private, no-cache");
+        response.addHeader("Vary", "Accept");
+        String matched = matchIfNoneMatch(request.getHeader("If-None-Match"), etag);
+        if (matched != null) {
+            response.setHeader("ETag", matched);
+            response.setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+            return false;
+        }
+        response.setHeader("ETag", "\"" + etag + "\"");
+        return true;
+    }
+
+    /**
+     * Returns the client's tag if it names the current version, with or without the suffix
+     * {@link ResponseCompressionFilter} adds to compressed bodies; null otherwise.
+     */
+    private String matchIfNoneMatch(String ifNoneMatch, String etag) {
+        if (ifNoneMatch == null) {
+            return null;
+        }
+        for (String candidate : ifNoneMatch.split(",")) {
+            String tag = candidate.trim();
+            if (tag.startsWith("W/")) {
+                tag = tag.substring(2);
+            }
+            String value = tag.length() >= 2 && tag.startsWith("\"") && tag.endsWith("\"") ? tag.substring(1, tag.length() - 1) : tag;
+            if (value.equals(etag) || value.equals(etag + ResponseCompressionFilter.GZIP_ETAG_SUFFIX)) {
+                return tag;
+            }
+        }
+        return null;
+    }
+
+    // Strong ETags must differ per representation, and the same data can be sent as JSON, CBOR or Smile
+    private String encodingSuffix(HttpServletRequest request) {
+        String accept = request.getHeader("Accept");
+        if (accept == null) {
+            return "";
+        }
+        if (accept.contains("application/cbor")) {
+            return "-cbor";
+        }
+        if (accept.contains("application/x-jackson-smile")) {
+            return "-smile";
+        }
+        return "";
+    }
+}
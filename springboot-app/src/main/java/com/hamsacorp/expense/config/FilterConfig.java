@@ -1,5 +1,6 @@
 package com.hamsacorp.expense.config;
 
+import com.hamsacorp.expense.tracing.QueryTraceFilter;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.web.servlet.FilterRegistrationBean;
 import org.springframework.context.annotation.Bean;
@@ -11,6 +12,33 @@ public class FilterConfig {
     @Autowired
     private JwtAuthFilter jwtAuthFilter;
 
+    @Autowired
+    private QueryTraceFilter queryTraceFilter;
+
+    @Autowired
+    private ResponseCompressionFilter responseCompressionFilter;
+
+    @Autowired
+    private RateLimitingFilter rateLimitingFilter;
+
+    @Bean
+    public FilterRegistrationBean<ResponseCompressionFilter> compressionFilter() {
+        FilterRegistrationBean<ResponseCompressionFilter> registrationBean = new FilterRegistrationBean<>();
+        registrationBean.setFilter(responseCompressionFilter);
+        registrationBean.addUrlPatterns("/api/*");
+        registrationBean.setOrder(-2); // Wraps everything so it sees the final body and headers
+        return registrationBean;
+    }
+
+    @Bean
+    public FilterRegistrationBean<QueryTraceFilter> queryTracingFilter() {
+        FilterRegistrationBean<QueryTraceFilter> registrationBean = new FilterRegistrationBean<>();
+        registrationBean.setFilter(queryTraceFilter);
+        registrationBean.addUrlPatterns("/api/*");
+        registrationBean.setOrder(-1); // Before rate limiting and auth, so the trace covers them too
+        return registrationBean;
+    }
+
     @Bean
     public FilterRegistrationBean<JwtAuthFilter> jwtFilter() {
         FilterRegistrationBean<JwtAuthFilter> registrationBean = new FilterRegistrationBean<>();
@@ -21,9 +49,9 @@ public class FilterConfig {
     }
 
     @Bean
-    public FilterRegistrationBean<RateLimitingFilter> rateLimitingFilter() {
+    public FilterRegistrationBean<RateLimitingFilter> rateLimitFilter() {
         FilterRegistrationBean<RateLimitingFilter> registrationBean = new FilterRegistrationBean<>();
-        registrationBean.setFilter(new RateLimitingFilter());
+        registrationBean.setFilter(rateLimitingFilter);
         registrationBean.addUrlPatterns("/api/*");
         registrationBean.setOrder(0); // Run before JwtAuthFilter
         return registrationBean;
@@ -33,6 +33,10 @@ public class JwtAuthFilter extends OncePerRequestFilter {
             return;
         }
         String header = request.getHeader("Authorization");
+        // Browser EventSource can't send headers, so the live stream may pass the token as a query parameter
+        if (header == null && path.endsWith("/api/expenses/stream") && request.getParameter("access_token") != null) {
+            header = "Bearer " + request.getParameter("access_token");
+        }
         if (header == null || !header.startsWith("Bearer ")) {
             response.setStatus(HttpServletResponse.SC_UNAUTHORIZED);
             response.getWriter().write("Missing or invalid Authorization header");
@@ -0,0 +1,39 @@
+package com.hamsacorp.expense.config;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import io.github.bucket4j.Bandwidth;
+import io.github.bucket4j.Bucket;
+import io.github.bucket4j.BucketConfiguration;
+import io.github.bucket4j.local.LocalBucketBuilder;
+
+import java.time.Duration;
+
+/**
+ * Buckets in a map in this JVM: exact and cheapest, but each instance enforces the limit separately.
+ * A bucket left alone for {@code refillTime} is full again and is dropped; beyond
+ * {@code maxCachedClients} the least recently used ones go first.
+ */
+public class LocalRateLimitBucketStore implements RateLimitBucketStore {
+    private final Cache<String, Bucket> buckets;
+    private final BucketConfiguration configuration;
+
+    public LocalRateLimitBucketStore(BucketConfiguration configuration, long maxCachedClients, Duration refillTime) {
+        this.configuration = configuration;
+        this.buckets = Caffeine.newBuilder()
+                .maximumSize(maxCachedClients)
+                .expireAfterAccess(refillTime)
+                .build();
+    }
+
+    @Override
+    public Bucket resolve(String key) {
+        return buckets.get(key, k -> {
+            LocalBucketBuilder builder = Bucket.builder();
+            for (Bandwidth bandwidth : configuration.getBandwidths()) {
+                builder.addLimit(bandwidth);
+            }
+            return builder.build();
+        });
+    }
+}
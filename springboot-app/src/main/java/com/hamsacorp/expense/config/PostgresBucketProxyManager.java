@@ -0,0 +1,77 @@
+package com.hamsacorp.expense.config;
+
+import io.github.bucket4j.distributed.proxy.ClientSideConfig;
+import io.github.bucket4j.distributed.proxy.generic.compare_and_swap.AbstractCompareAndSwapBasedProxyManager;
+import io.github.bucket4j.distributed.proxy.generic.compare_and_swap.AsyncCompareAndSwapOperation;
+import io.github.bucket4j.distributed.proxy.generic.compare_and_swap.CompareAndSwapOperation;
+import io.github.bucket4j.distributed.remote.RemoteBucketState;
+import org.springframework.jdbc.core.JdbcTemplate;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Bucket4j proxy manager storing serialized bucket state in the rate_limit_buckets table, so
+ * instances can share rate limits without Redis. Updates are compare-and-swap on the whole state:
+ * a write only lands if the row still holds what was read, and Bucket4j retries otherwise.
+ *
+ * Rows of clients that have been idle longer than it takes to refill a bucket are equivalent to
+ * no row at all, and {@link #deleteIdle(Duration)} removes them.
+ */
+public class PostgresBucketProxyManager extends AbstractCompareAndSwapBasedProxyManager<Long> {
+    private final JdbcTemplate jdbcTemplate;
+
+    public PostgresBucketProxyManager(JdbcTemplate jdbcTemplate) {
+        super(ClientSideConfig.getDefault());
+        this.jdbcTemplate = jdbcTemplate;
+    }
+
+    @Override
+    protected CompareAndSwapOperation beginCompareAndSwapOperation(Long key) {
+        return new CompareAndSwapOperation() {
+            @Override
+            public Optional<byte[]> getStateData() {
+                List<byte[]> states = jdbcTemplate.query("SELECT state FROM rate_limit_buckets WHERE id = ?",
+                        (rs, rowNum) -> rs.getBytes(1), key);
+                return states.isEmpty() ? Optional.empty() : Optional.of(states.get(0));
+            }
+
+            @Override
+            public boolean compareAndSwap(byte[] originalData, byte[] newData, RemoteBucketState newState) {
+                if (originalData == null) {
+                    return jdbcTemplate.update("INSERT INTO rate_limit_buckets (id, state, updated_at) VALUES (?, ?, now()) ON CONFLICT (id) DO NOTHING",
+                            key, newData) == 1;
+                }
+                return jdbcTemplate.update("UPDATE rate_limit_buckets SET state = ?, updated_at = now() WHERE id = ? AND state = ?",
+                        newData, key, originalData) == 1;
+            }
+        };
+    }
+
+    @Override
+    protected AsyncCompareAndSwapOperation beginAsyncCompareAndSwapOperation(Long key) {
+        throw new UnsupportedOperationException("JDBC has no async API");
+    }
+
+    @Override
+    public boolean isAsyncModeSupported() {
+        return false;
+    }
+
+    @Override
+    public void removeProxy(Long key) {
+        jdbcTemplate.update("DELETE FROM rate_limit_buckets WHERE id = ?", key);
+    }
+
+    @Override
+    protected CompletableFuture<Void> removeAsync(Long key) {
+        throw new UnsupportedOperationException("JDBC has no async API");
+    }
+
+    public int deleteIdle(Duration idle) {
+        return jdbcTemplate.update("DELETE FROM rate_limit_buckets WHERE updated_at < now() - make_interval(secs => ?)",
+                idle.toSeconds());
+    }
+}
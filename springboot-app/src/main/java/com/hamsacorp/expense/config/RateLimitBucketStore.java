@@ -0,0 +1,17 @@
+package com.hamsacorp.expense.config;
+
+import io.github.bucket4j.Bucket;
+
+/**
+ * Where {@link RateLimitingFilter} keeps its token buckets, chosen with expense.ratelimit.store:
+ * in this JVM ({@code memory}, the default for a single instance) or shared by every instance in
+ * Postgres or Redis, so that running several instances doesn't multiply each client's quota.
+ */
+public interface RateLimitBucketStore {
+
+    /**
+     * The bucket for a client key. Keys are already hashed by the filter, so stores never see raw
+     * bearer tokens.
+     */
+    Bucket resolve(String key);
+}
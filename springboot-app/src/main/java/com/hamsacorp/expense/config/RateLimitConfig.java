@@ -0,0 +1,115 @@
+package com.hamsacorp.expense.config;
+
+import io.github.bucket4j.Bandwidth;
+import io.github.bucket4j.BucketConfiguration;
+import io.github.bucket4j.Refill;
+import io.github.bucket4j.distributed.ExpirationAfterWriteStrategy;
+import io.github.bucket4j.redis.lettuce.cas.LettuceBasedProxyManager;
+import io.lettuce.core.RedisClient;
+import io.lettuce.core.api.StatefulRedisConnection;
+import io.lettuce.core.codec.ByteArrayCodec;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.context.annotation.Lazy;
+import org.springframework.jdbc.core.JdbcTemplate;
+
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Chooses the rate limit bucket store from expense.ratelimit.store: {@code memory} (per instance),
+ * {@code postgres} (the application database, table rate_limit_buckets) or {@code redis}
+ * (expense.ratelimit.redis-url). The shared stores sync with the backend every
+ * expense.ratelimit.sync-tokens requests or expense.ratelimit.sync-interval-ms, see
+ * {@link SharedRateLimitBucketStore}.
+ *
+ * The Redis client and connection are lazy beans, created only for the redis store and closed with
+ * the context. They are not conditional beans, which an AOT build would fix at build time.
+ */
+@Configuration
+public class RateLimitConfig {
+
+    @Value("${expense.ratelimit.store:memory}")
+    private String store;
+
+    @Value("${expense.ratelimit.requests-per-minute:60}")
+    private int requestsPerMinute;
+
+    @Value("${expense.ratelimit.sync-tokens:5}")
+    private long syncTokens;
+
+    @Value("${expense.ratelimit.sync-interval-ms:500}")
+    private long syncIntervalMs;
+
+    @Value("${expense.ratelimit.max-cached-clients:100000}")
+    private long maxCachedClients;
+
+    @Value("${expense.ratelimit.redis-url:redis://localhost:6379}")
+    private String redisUrl;
+
+    @Bean(destroyMethod = "shutdown")
+    @Lazy
+    public RedisClient rateLimitRedisClient() {
+        return RedisClient.create(redisUrl);
+    }
+
+    @Bean(destroyMethod = "close")
+    @Lazy
+    public StatefulRedisConnection<byte[], byte[]> rateLimitRedisConnection(RedisClient rateLimitRedisClient) {
+        return rateLimitRedisClient.connect(ByteArrayCodec.INSTANCE);
+    }
+
+    @Bean
+    public RateLimitBucketStore rateLimitBucketStore(JdbcTemplate jdbcTemplate,
+                                                     ObjectProvider<StatefulRedisConnection<byte[], byte[]>> rateLimitRedisConnection) {
+        Duration refillTime = Duration.ofMinutes(1);
+        BucketConfiguration configuration = BucketConfiguration.builder()
+                .addLimit(Bandwidth.classic(requestsPerMinute, Refill.greedy(requestsPerMinute, refillTime)))
+                .build();
+        Duration syncInterval = Duration.ofMillis(syncIntervalMs);
+        switch (store) {
+            case "memory":
+                return new LocalRateLimitBucketStore(configuration, maxCachedClients, refillTime);
+            case "postgres":
+                PostgresBucketProxyManager postgres = new PostgresBucketProxyManager(jdbcTemplate);
+                scheduleIdleBucketCleanup(postgres);
+                return new SharedRateLimitBucketStore<>(postgres, RateLimitConfig::toLongKey, configuration,
+                        syncTokens, syncInterval, maxCachedClients);
+            case "redis":
+                StatefulRedisConnection<byte[], byte[]> connection = rateLimitRedisConnection.getObject();
+                // Redis drops a key once its bucket would have refilled anyway
+                LettuceBasedProxyManager redis = LettuceBasedProxyManager.builderFor(connection)
+                        .withExpirationStrategy(ExpirationAfterWriteStrategy.basedOnTimeForRefillingBucketUpToMax(Duration.ofSeconds(10)))
+                        .build();
+                return new SharedRateLimitBucketStore<>(redis, key -> ("expense:ratelimit:" + key).getBytes(StandardCharsets.UTF_8),
+                        configuration, syncTokens, syncInterval, maxCachedClients);
+            default:
+                throw new IllegalArgumentException("Unknown expense.ratelimit.store: " + store + " (memory, postgres or redis)");
+        }
+    }
+
+    // Table keys are the leading 64 bits of the filter's SHA-256 key
+    private static Long toLongKey(String key) {
+        return Long.parseUnsignedLong(key.substring(0, 16), 16);
+    }
+
+    private static void scheduleIdleBucketCleanup(PostgresBucketProxyManager proxyManager) {
+        ScheduledExecutorService cleaner = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "rate-limit-cleanup");
+            thread.setDaemon(true);
+            return thread;
+        });
+        cleaner.scheduleWithFixedDelay(() -> {
+            try {
+                proxyManager.deleteIdle(Duration.ofMinutes(10));
+            } catch (RuntimeException e) {
+                System.err.println("Rate limit bucket cleanup failed: " + e.getMessage());
+            }
+        }, 5, 5, TimeUnit.MINUTES);
+    }
+}
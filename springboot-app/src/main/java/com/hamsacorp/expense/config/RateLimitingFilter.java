@@ -1,9 +1,7 @@
 package com.hamsacorp.expense.config;
 
-import io.github.bucket4j.Bandwidth;
+import com.hamsacorp.expense.cluster.OwnerRoutingInterceptor;
 import io.github.bucket4j.Bucket;
-import io.github.bucket4j.Bucket4j;
-import io.github.bucket4j.Refill;
 import jakarta.servlet.Filter;
 import jakarta.servlet.FilterChain;
 import jakarta.servlet.ServletException;
@@ -11,28 +9,34 @@ import jakarta.servlet.ServletRequest;
 import jakarta.servlet.ServletResponse;
 import jakarta.servlet.http.HttpServletRequest;
 import jakarta.servlet.http.HttpServletResponse;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
 
 import java.io.IOException;
-import java.time.Duration;
-import java.util.Map;
-import java.util.concurrent.ConcurrentHashMap;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HexFormat;
 
+@Component
 public class RateLimitingFilter implements Filter {
-    private final Map<String, Bucket> buckets = new ConcurrentHashMap<>();
-    private static final int REQUESTS_PER_MINUTE = 60; // Customize as needed
 
-    private Bucket resolveBucket(String key) {
-        return buckets.computeIfAbsent(key, k -> Bucket4j.builder()
-                .addLimit(Bandwidth.classic(REQUESTS_PER_MINUTE, Refill.greedy(REQUESTS_PER_MINUTE, Duration.ofMinutes(1))))
-                .build());
-    }
+    @Autowired
+    private RateLimitBucketStore bucketStore;
+
+    @Autowired
+    private OwnerRoutingInterceptor ownerRoutingInterceptor;
 
     @Override
     public void doFilter(ServletRequest request, ServletResponse response, FilterChain chain) throws IOException, ServletException {
         HttpServletRequest httpRequest = (HttpServletRequest) request;
         HttpServletResponse httpResponse = (HttpServletResponse) response;
+        if (ownerRoutingInterceptor.isForwarded(httpRequest)) {
+            chain.doFilter(request, response); // Already counted by the node that forwarded it
+            return;
+        }
         String key = getKey(httpRequest);
-        Bucket bucket = resolveBucket(key);
+        Bucket bucket = bucketStore.resolve(key);
         if (bucket.tryConsume(1)) {
             chain.doFilter(request, response);
         } else {
@@ -47,8 +51,17 @@ public class RateLimitingFilter implements Filter {
         if (authHeader != null && authHeader.startsWith("Bearer ")) {
             // Optionally, parse JWT to extract email for per-user limiting
             // For now, use the token itself as key
-            return authHeader;
+            return sha256("token:" + authHeader);
+        }
+        return sha256("ip:" + request.getRemoteAddr());
+    }
+
+    // Shared stores persist keys, and a bearer token shouldn't end up in a database or Redis
+    private static String sha256(String value) {
+        try {
+            return HexFormat.of().formatHex(MessageDigest.getInstance("SHA-256").digest(value.getBytes(StandardCharsets.UTF_8)));
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
         }
-        return request.getRemoteAddr();
     }
 }
@@ -0,0 +1,86 @@
+package com.hamsacorp.expense.config;
+
+import jakarta.servlet.FilterChain;
+import jakarta.servlet.ServletException;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import org.springframework.web.filter.OncePerRequestFilter;
+import org.springframework.web.util.ContentCachingResponseWrapper;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.List;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Gzips API responses above a size threshold.
+ *
+ * Tomcat's built-in compression refuses to touch responses carrying a strong ETag, which is every
+ * versioned GET, so compression happens here instead and the ETag gets a "-gzip" suffix to keep
+ * it unique per representation. {@link ConditionalGetInterceptor} accepts either form.
+ */
+@Component
+public class ResponseCompressionFilter extends OncePerRequestFilter {
+    public static final String GZIP_ETAG_SUFFIX = "-gzip";
+
+    @Value("${expense.compression.enabled:true}")
+    private boolean enabled;
+
+    @Value("${expense.compression.min-response-size:2048}")
+    private int minResponseSize;
+
+    @Value("${expense.compression.mime-types:application/json,application/cbor,application/x-jackson-smile,text/plain}")
+    private List<String> mimeTypes;
+
+    @Override
+    protected boolean shouldNotFilter(HttpServletRequest request) {
+        String acceptEncoding = request.getHeader("Accept-Encoding");
+        String accept = request.getHeader("Accept");
+        return !enabled
+                || acceptEncoding == null || !acceptEncoding.toLowerCase().contains("gzip")
+                // Streaming responses must not be buffered
+                || (accept != null && accept.contains("text/event-stream"))
+                || request.getRequestURI().endsWith("/stream");
+    }
+
+    @Override
+    protected void doFilterInternal(HttpServletRequest request, HttpServletResponse response, FilterChain filterChain)
+            throws ServletException, IOException {
+        ContentCachingResponseWrapper wrapper = new ContentCachingResponseWrapper(response);
+        filterChain.doFilter(request, wrapper);
+
+        byte[] body = wrapper.getContentAsByteArray();
+        if (body.length < minResponseSize || !isCompressible(wrapper.getContentType())
+                || wrapper.getHeader("Content-Encoding") != null) {
+            wrapper.copyBodyToResponse();
+            return;
+        }
+
+        ByteArrayOutputStream compressed = new ByteArrayOutputStream(body.length / 4);
+        try (GZIPOutputStream gzip = new GZIPOutputStream(compressed)) {
+            gzip.write(body);
+        }
+        String etag = wrapper.getHeader("ETag");
+        if (etag != null && etag.startsWith("\"") && etag.endsWith("\"")) {
+            response.setHeader("ETag", etag.substring(0, etag.length() - 1) + GZIP_ETAG_SUFFIX + "\"");
+        }
+        response.setHeader("Content-Encoding", "gzip");
+        response.addHeader("Vary", "Accept-Encoding");
+        response.setContentLength(compressed.size());
+        compressed.writeTo(response.getOutputStream());
+    }
+
+    private boolean isCompressible(String contentType) {
+        if (contentType == null) {
+            return false;
+        }
+        for (String mimeType : mimeTypes) {
+            if (contentType.startsWith(mimeType.trim())) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
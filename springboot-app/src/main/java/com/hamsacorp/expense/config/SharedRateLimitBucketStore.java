@@ -0,0 +1,52 @@
+package com.hamsacorp.expense.config;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import io.github.bucket4j.Bucket;
+import io.github.bucket4j.BucketConfiguration;
+import io.github.bucket4j.distributed.proxy.ProxyManager;
+import io.github.bucket4j.distributed.proxy.optimization.DelayParameters;
+import io.github.bucket4j.distributed.proxy.optimization.Optimization;
+import io.github.bucket4j.distributed.proxy.optimization.Optimizations;
+
+import java.time.Duration;
+import java.util.function.Function;
+
+/**
+ * Buckets kept in a shared backend through a Bucket4j {@link ProxyManager}, so the limit holds
+ * across all instances.
+ *
+ * A round trip per request would put the backend on every API call, so each instance keeps its
+ * bucket proxies and lets them run ahead of the shared state: consumption is counted locally and
+ * written back once {@code syncTokens} tokens have been used or {@code syncInterval} has passed,
+ * whichever comes first, with concurrent requests on one instance batched into a single write.
+ * A client can therefore get up to {@code syncTokens} more requests per instance than the limit
+ * before being stopped, in exchange for most requests never leaving the JVM.
+ */
+public class SharedRateLimitBucketStore<K> implements RateLimitBucketStore {
+    private final ProxyManager<K> proxyManager;
+    private final Function<String, K> keyMapper;
+    private final BucketConfiguration configuration;
+    private final Optimization optimization;
+    private final Cache<String, Bucket> proxies;
+
+    public SharedRateLimitBucketStore(ProxyManager<K> proxyManager, Function<String, K> keyMapper, BucketConfiguration configuration,
+                                      long syncTokens, Duration syncInterval, long maxCachedClients) {
+        this.proxyManager = proxyManager;
+        this.keyMapper = keyMapper;
+        this.configuration = configuration;
+        this.optimization = syncTokens > 0 ? Optimizations.delaying(new DelayParameters(syncTokens, syncInterval)) : Optimizations.batching();
+        // The local state lives in the proxy, so it has to be reused across requests; idle clients age out
+        this.proxies = Caffeine.newBuilder()
+                .maximumSize(maxCachedClients)
+                .expireAfterAccess(Duration.ofMinutes(10))
+                .build();
+    }
+
+    @Override
+    public Bucket resolve(String key) {
+        return proxies.get(key, k -> proxyManager.builder()
+                .withOptimization(optimization)
+                .build(keyMapper.apply(k), configuration));
+    }
+}
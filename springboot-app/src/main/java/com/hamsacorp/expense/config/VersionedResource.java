@@ -0,0 +1,16 @@
+package com.hamsacorp.expense.config;
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * Marks a GET handler whose response depends only on the authenticated user's own data, so it can be
+ * served with an ETag from {@link com.hamsacorp.expense.service.DataVersionService} and answered
+ * with 304 Not Modified before the handler runs.
+ */
+@Target(ElementType.METHOD)
+@Retention(RetentionPolicy.RUNTIME)
+public @interface VersionedResource {
+}
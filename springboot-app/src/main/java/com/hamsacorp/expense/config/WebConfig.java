@@ -1,12 +1,38 @@
 package com.hamsacorp.expense.config;
 
+import com.fasterxml.jackson.dataformat.cbor.CBORFactory;
+import com.hamsacorp.expense.cluster.OwnerRoutingInterceptor;
+import com.fasterxml.jackson.dataformat.smile.SmileFactory;
+import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
+import org.springframework.http.converter.cbor.MappingJackson2CborHttpMessageConverter;
+import org.springframework.http.converter.json.Jackson2ObjectMapperBuilder;
+import org.springframework.http.converter.smile.MappingJackson2SmileHttpMessageConverter;
 import org.springframework.web.servlet.config.annotation.CorsRegistry;
+import org.springframework.web.servlet.config.annotation.InterceptorRegistry;
 import org.springframework.web.servlet.config.annotation.WebMvcConfigurer;
 
 @Configuration
 public class WebConfig {
+  @Autowired
+  private ConditionalGetInterceptor conditionalGetInterceptor;
+
+  @Autowired
+  private OwnerRoutingInterceptor ownerRoutingInterceptor;
+
+  // Binary encodings negotiated via Accept: application/cbor or application/x-jackson-smile.
+  // Built from Boot's builder so dates and other settings match the JSON output.
+  @Bean
+  public MappingJackson2CborHttpMessageConverter cborHttpMessageConverter(Jackson2ObjectMapperBuilder builder) {
+    return new MappingJackson2CborHttpMessageConverter(builder.factory(new CBORFactory()).build());
+  }
+
+  @Bean
+  public MappingJackson2SmileHttpMessageConverter smileHttpMessageConverter(Jackson2ObjectMapperBuilder builder) {
+    return new MappingJackson2SmileHttpMessageConverter(builder.factory(new SmileFactory()).build());
+  }
+
   @Bean
   public WebMvcConfigurer corsConfigurer() {
     return new WebMvcConfigurer() {
@@ -18,6 +44,13 @@ public class WebConfig {
           .allowedHeaders("*")
           .allowCredentials(false);
       }
+
+      @Override
+      public void addInterceptors(InterceptorRegistry registry) {
+        registry.addInterceptor(conditionalGetInterceptor).addPathPatterns("/api/**");
+        // After the ETag check, so a 304 never needs a hop to the owner
+        registry.addInterceptor(ownerRoutingInterceptor).addPathPatterns("/api/**");
+      }
     };
   }
 }
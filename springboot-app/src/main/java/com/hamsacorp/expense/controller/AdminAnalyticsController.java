@@ -0,0 +1,72 @@
+package com.hamsacorp.expense.controller;
+
+import com.hamsacorp.expense.analytics.AnalyticsJob;
+import com.hamsacorp.expense.analytics.PlatformAnalyticsService;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.*;
+
+import java.time.YearMonth;
+import java.time.format.DateTimeParseException;
+import java.util.Set;
+
+/**
+ * Platform-wide analytics for operators (users listed in expense.admin.emails). A job is started
+ * with POST /jobs?from=2026-01&to=2026-03 and polled with GET /jobs/{id}, which reports progress
+ * while it runs and the per-month figures once it is done.
+ */
+@RestController
+@RequestMapping("/api/admin/analytics")
+@CrossOrigin(origins = "*")
+public class AdminAnalyticsController {
+
+    @Autowired
+    private PlatformAnalyticsService analyticsService;
+
+    @Value("${expense.admin.emails:}")
+    private Set<String> adminEmails;
+
+    @PostMapping("/jobs")
+    public ResponseEntity<?> startJob(@RequestParam String from, @RequestParam(required = false) String to,
+                                      @RequestAttribute("userEmail") String email) {
+        if (!adminEmails.contains(email)) {
+            return ResponseEntity.status(403).body("Admin access required");
+        }
+        try {
+            YearMonth fromMonth = YearMonth.parse(from);
+            AnalyticsJob job = analyticsService.start(fromMonth, to == null ? fromMonth : YearMonth.parse(to));
+            return ResponseEntity.accepted().body(job.toMap());
+        } catch (DateTimeParseException e) {
+            return ResponseEntity.badRequest().body("Months must be given as yyyy-MM");
+        } catch (IllegalArgumentException e) {
+            return ResponseEntity.badRequest().body(e.getMessage());
+        } catch (IllegalStateException e) {
+            return ResponseEntity.status(409).body(e.getMessage());
+        }
+    }
+
+    @GetMapping("/jobs/{id}")
+    public ResponseEntity<?> getJob(@PathVariable String id, @RequestAttribute("userEmail") String email) {
+        if (!adminEmails.contains(email)) {
+            return ResponseEntity.status(403).body("Admin access required");
+        }
+        AnalyticsJob job = analyticsService.getJob(id);
+        if (job == null) {
+            return ResponseEntity.status(404).body("No such job on this instance");
+        }
+        return ResponseEntity.ok(job.toMap());
+    }
+
+    @GetMapping("/jobs")
+    public ResponseEntity<?> getJobs(@RequestAttribute("userEmail") String email) {
+        if (!adminEmails.contains(email)) {
+            return ResponseEntity.status(403).body("Admin access required");
+        }
+        return ResponseEntity.ok(analyticsService.getJobs().stream().map(job -> {
+            java.util.Map<String, Object> summary = job.toMap();
+            summary.remove("months");
+            return summary;
+        }).toList());
+    }
+}
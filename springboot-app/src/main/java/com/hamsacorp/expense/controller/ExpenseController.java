@@ -1,14 +1,32 @@
 package com.hamsacorp.expense.controller;
 
+import com.hamsacorp.expense.cluster.OwnerRouted;
+import com.hamsacorp.expense.config.VersionedResource;
 import com.hamsacorp.expense.model.Expense;
+import com.hamsacorp.expense.model.ExpenseBatchOperation;
+import com.hamsacorp.expense.service.AnomalyDetectionService;
+import com.hamsacorp.expense.service.DescriptionSuggestService;
+import com.hamsacorp.expense.service.ExpenseBatchService;
 import com.hamsacorp.expense.service.ExpenseService;
+import com.hamsacorp.expense.service.ExpenseSketchService;
+import com.hamsacorp.expense.service.ExpenseStreamHub;
+import com.hamsacorp.expense.service.ExpenseSyncService;
+import com.hamsacorp.expense.service.ForecastService;
+import com.hamsacorp.expense.service.TagIndexService;
+import com.hamsacorp.expense.service.TrendService;
+import com.hamsacorp.expense.sharding.UserMovingException;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.dao.DuplicateKeyException;
 import org.springframework.data.domain.PageRequest;
 import org.springframework.data.domain.Pageable;
+import org.springframework.data.domain.Sort;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
 
 import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+import java.io.IOException;
 import java.util.Optional;
 
 @RestController
@@ -18,35 +36,119 @@ public class ExpenseController {
     @Autowired
     private ExpenseService expenseService;
 
+    @Autowired
+    private ExpenseStreamHub expenseStreamHub;
+
+    @Autowired
+    private ForecastService forecastService;
+
+    @Autowired
+    private DescriptionSuggestService descriptionSuggestService;
+
+    @Autowired
+    private TagIndexService tagIndexService;
+
+    @Autowired
+    private ExpenseBatchService expenseBatchService;
+
+    @Autowired
+    private ExpenseSyncService expenseSyncService;
+
+    @Autowired
+    private ExpenseSketchService expenseSketchService;
+
+    @Autowired
+    private AnomalyDetectionService anomalyDetectionService;
+
+    @Autowired
+    private TrendService trendService;
+
     @PostMapping
-    public ResponseEntity<Expense> addExpense(@RequestBody Expense expense, @RequestAttribute("userEmail") String email) {
+    @OwnerRouted
+    public ResponseEntity<?> addExpense(@RequestBody Expense expense, @RequestAttribute("userEmail") String email) {
         expense.setCreatedBy(email);
-        return ResponseEntity.ok(expenseService.saveExpense(expense));
+        try {
+            return ResponseEntity.ok(expenseService.saveExpense(expense));
+        } catch (IllegalArgumentException e) {
+            return ResponseEntity.badRequest().body(e.getMessage());
+        } catch (UserMovingException e) {
+            return moving(e);
+        }
     }
 
     @PutMapping("/{id}")
-    public ResponseEntity<Expense> updateExpense(@PathVariable Long id, @RequestBody Expense expense, @RequestAttribute("userEmail") String email) {
-        Optional<Expense> existingExpenseOpt = expenseService.getExpenseById(id);
-        if (existingExpenseOpt.isEmpty()) {
+    @OwnerRouted
+    public ResponseEntity<?> updateExpense(@PathVariable Long id, @RequestBody Expense expense, @RequestAttribute("userEmail") String email) {
+        expense.setId(id);
+        expense.setCreatedBy(email); // Ensure the updated expense is still associated with the authenticated user
+        Optional<Expense> updated;
+        try {
+            updated = expenseService.updateExpense(expense);
+        } catch (IllegalArgumentException e) {
+            return ResponseEntity.badRequest().body(e.getMessage());
+        } catch (UserMovingException e) {
+            return moving(e);
+        }
+        return updated.<ResponseEntity<?>>map(ResponseEntity::ok).orElseGet(() -> writeRejected(id, email));
+    }
+
+    @PostMapping("/batch")
+    @OwnerRouted
+    public ResponseEntity<?> applyBatch(@RequestBody java.util.List<ExpenseBatchOperation> operations,
+                                        @RequestAttribute("userEmail") String email) {
+        try {
+            ExpenseBatchService.BatchResult result = expenseBatchService.apply(email, operations);
+            java.util.Map<String, Object> body = new java.util.HashMap<>();
+            body.put("applied", result.status() == 200);
+            body.put("results", result.results());
+            return ResponseEntity.status(result.status()).body(body);
+        } catch (IllegalArgumentException e) {
+            return ResponseEntity.badRequest().body(e.getMessage());
+        } catch (DuplicateKeyException e) {
+            // A concurrent retry of the same batch committed first; this one was rolled back
+            return ResponseEntity.status(409).body("An operation in this batch is already being applied");
+        } catch (UserMovingException e) {
+            return moving(e);
+        }
+    }
+
+    // The write raced a shard move and wasn't applied, like the requests ShardRoutingFilter turns away
+    private static ResponseEntity<?> moving(UserMovingException e) {
+        return ResponseEntity.status(503).header("Retry-After", "5").body(e.getMessage());
+    }
+
+    /**
+     * Why a conditional write matched no row. Only runs on the failure path, so the happy path stays
+     * a single statement.
+     */
+    private ResponseEntity<?> writeRejected(Long id, String email) {
+        Optional<Expense> current = expenseService.getExpenseById(id);
+        if (current.isEmpty()) {
             return ResponseEntity.notFound().build();
         }
-        Expense existingExpense = existingExpenseOpt.get();
-        if (!email.equals(existingExpense.getCreatedBy())) {
+        if (!email.equals(current.get().getCreatedBy())) {
             return ResponseEntity.status(403).build(); // Forbidden
         }
-        expense.setId(id);
-        expense.setCreatedBy(email); // Ensure the updated expense is still associated with the authenticated user
-        // Preserve createdAt if not present in update payload
-        if (expense.getCreatedAt() == null && existingExpense.getCreatedAt() != null) {
-            expense.setCreatedAt(existingExpense.getCreatedAt());
-        }
-        return ResponseEntity.ok(expenseService.saveExpense(expense));
+        java.util.Map<String, Object> conflict = new java.util.HashMap<>();
+        conflict.put("error", "Expense was modified by another request");
+        conflict.put("currentVersion", current.get().getVersion());
+        return ResponseEntity.status(409).body(conflict);
     }
 
     @GetMapping
+    @VersionedResource
     public ResponseEntity<?> getAllExpenses(
             @RequestParam(required = false) String from,
             @RequestParam(required = false) String to,
+            @RequestParam(required = false) String type,
+            @RequestParam(required = false) java.util.List<String> category,
+            @RequestParam(required = false) java.util.List<String> paymentMethod,
+            @RequestParam(required = false) Double minAmount,
+            @RequestParam(required = false) Double maxAmount,
+            @RequestParam(required = false) java.util.List<String> tags,
+            @RequestParam(required = false) java.util.List<String> anyTags,
+            @RequestParam(required = false) java.util.List<String> excludeTags,
+            @RequestParam(required = false) String sort,
             @RequestParam(defaultValue = "0") int page,
             @RequestParam(defaultValue = "10") int size,
             HttpServletRequest request) {
@@ -54,15 +156,68 @@ public class ExpenseController {
         if (userEmail == null) {
             return ResponseEntity.status(401).body("Unauthorized: No user info in token");
         }
-        if (from != null && to != null) {
-            // No pagination if both dates are provided
-            return ResponseEntity.ok(expenseService.getExpensesByDateRangeAndCreatedBy(from, to, userEmail));
-        } else {
-            Pageable pageable = PageRequest.of(page, size);
-            return ResponseEntity.ok(expenseService.getAllExpensesByCreatedBy(userEmail, pageable));
+        try {
+            var filter = expenseService.buildExpenseFilter(userEmail, type, category, paymentMethod, minAmount, maxAmount, from, to)
+                .and(expenseService.buildTagFilter(userEmail, tags, anyTags, excludeTags));
+            Sort order = ExpenseService.parseExpenseSort(sort);
+            if (from != null && to != null) {
+                // No pagination if both dates are provided
+                return ResponseEntity.ok(expenseService.findExpenses(filter, order));
+            } else {
+                Pageable pageable = PageRequest.of(page, size, order);
+                return ResponseEntity.ok(expenseService.findExpenses(filter, pageable));
+            }
+        } catch (IllegalArgumentException e) {
+            return ResponseEntity.badRequest().body(e.getMessage());
+        }
+    }
+
+    @GetMapping("/search")
+    @OwnerRouted
+    @VersionedResource
+    public ResponseEntity<?> searchExpenses(
+            @RequestParam String q,
+            @RequestParam(defaultValue = "0") int page,
+            @RequestParam(defaultValue = "10") int size,
+            @RequestAttribute("userEmail") String email) {
+        try {
+            Pageable pageable = PageRequest.of(page, Math.min(size, 100));
+            return ResponseEntity.ok(expenseService.searchExpenses(email, q, pageable));
+        } catch (IllegalArgumentException e) {
+            return ResponseEntity.badRequest().body(e.getMessage());
+        }
+    }
+
+    @GetMapping("/changes")
+    @VersionedResource
+    public ResponseEntity<?> getChanges(@RequestParam(required = false) String since,
+                                        @RequestParam(defaultValue = "500") int limit,
+                                        @RequestAttribute("userEmail") String email) {
+        try {
+            int clamped = Math.max(1, Math.min(limit, ExpenseSyncService.MAX_LIMIT));
+            return ResponseEntity.ok(expenseSyncService.getChangesSince(email, since, clamped));
+        } catch (IllegalArgumentException e) {
+            return ResponseEntity.badRequest().body(e.getMessage());
         }
     }
 
+    @GetMapping("/tags")
+    @OwnerRouted
+    @VersionedResource
+    public ResponseEntity<?> getTags(@RequestAttribute("userEmail") String email) {
+        return ResponseEntity.ok(tagIndexService.getTagCounts(email));
+    }
+
+    @GetMapping("/suggest")
+    @OwnerRouted
+    @VersionedResource
+    public ResponseEntity<?> suggestDescriptions(
+            @RequestParam(defaultValue = "") String prefix,
+            @RequestParam(defaultValue = "8") int limit,
+            @RequestAttribute("userEmail") String email) {
+        return ResponseEntity.ok(descriptionSuggestService.suggest(email, prefix, Math.max(1, Math.min(limit, 20))));
+    }
+
     @GetMapping("/{id}")
     public ResponseEntity<Expense> getExpenseById(@PathVariable Long id) {
         Optional<Expense> expense = expenseService.getExpenseById(id);
@@ -70,17 +225,30 @@ public class ExpenseController {
     }
 
     @DeleteMapping("/{id}")
-    public ResponseEntity<Void> deleteExpense(@PathVariable Long id) {
-        expenseService.deleteExpense(id);
-        return ResponseEntity.noContent().build();
+    @OwnerRouted
+    public ResponseEntity<?> deleteExpense(@PathVariable Long id,
+                                           @RequestParam(required = false) Long version,
+                                           @RequestAttribute("userEmail") String email) {
+        try {
+            if (expenseService.deleteExpense(id, email, version)) {
+                return ResponseEntity.noContent().build();
+            }
+        } catch (UserMovingException e) {
+            return moving(e);
+        }
+        return writeRejected(id, email);
     }
 
     @GetMapping("/summary")
+    @OwnerRouted
+    @VersionedResource
     public ResponseEntity<?> getSummary(@RequestAttribute("userEmail") String email) {
         return ResponseEntity.ok(expenseService.getSummaryForUser(email));
     }
 
     @GetMapping("/monthly-details")
+    @OwnerRouted
+    @VersionedResource
     public ResponseEntity<?> getMonthlyExpensesDetail(
             @RequestParam(defaultValue = "0") int year,
             @RequestParam(defaultValue = "0") int month,
@@ -99,6 +267,8 @@ public class ExpenseController {
     }
 
     @GetMapping("/yearly-details")
+    @OwnerRouted
+    @VersionedResource
     public ResponseEntity<?> getYearlyExpensesDetail(
             @RequestParam(defaultValue = "0") int year,
             @RequestAttribute("userEmail") String email) {
@@ -114,6 +284,8 @@ public class ExpenseController {
     }
 
     @GetMapping("/daily-details")
+    @OwnerRouted
+    @VersionedResource
     public ResponseEntity<?> getDailyExpensesDetail(
             @RequestParam(required = false) String date,
             @RequestAttribute("userEmail") String email) {
@@ -129,14 +301,143 @@ public class ExpenseController {
     }
 
     @GetMapping("/custom-range-details")
+    @OwnerRouted
+    @VersionedResource
     public ResponseEntity<?> getCustomRangeExpensesDetail(
             @RequestParam String startDate,
             @RequestParam String endDate,
+            @RequestParam(required = false) java.util.List<String> tags,
+            @RequestParam(required = false) java.util.List<String> anyTags,
+            @RequestParam(required = false) java.util.List<String> excludeTags,
+            @RequestParam(defaultValue = "auto") String resolution,
+            @RequestParam(defaultValue = "" + ExpenseService.DEFAULT_SERIES_POINTS) int points,
             @RequestAttribute("userEmail") String email) {
         try {
-            return ResponseEntity.ok(expenseService.getCustomRangeExpensesDetail(email, startDate, endDate));
+            return ResponseEntity.ok(expenseService.getCustomRangeExpensesDetail(email, startDate, endDate, tags, anyTags, excludeTags,
+                    resolution, points));
+        } catch (IllegalArgumentException e) {
+            return ResponseEntity.badRequest().body(e.getMessage());
         } catch (Exception e) {
             return ResponseEntity.status(500).body("Error fetching custom range expenses detail: " + e.getMessage());
         }
     }
+
+    /**
+     * Totals per month or year for the last {@code periods} periods up to endDate (default today),
+     * with year-over-year changes and a rolling average over {@code window} periods.
+     */
+    @GetMapping("/trends")
+    @OwnerRouted
+    @VersionedResource
+    public ResponseEntity<?> getTrends(
+            @RequestParam(defaultValue = "month") String granularity,
+            @RequestParam(defaultValue = "12") int periods,
+            @RequestParam(defaultValue = "3") int window,
+            @RequestParam(required = false) String endDate,
+            @RequestAttribute("userEmail") String email) {
+        try {
+            java.time.LocalDate end = endDate == null || endDate.isEmpty() ? java.time.LocalDate.now() : java.time.LocalDate.parse(endDate);
+            return ResponseEntity.ok(trendService.getTrends(email, granularity, periods, window, end));
+        } catch (java.time.format.DateTimeParseException e) {
+            return ResponseEntity.badRequest().body("Dates must be given as yyyy-MM-dd");
+        } catch (IllegalArgumentException e) {
+            return ResponseEntity.badRequest().body(e.getMessage());
+        } catch (Exception e) {
+            return ResponseEntity.status(500).body("Error fetching trends: " + e.getMessage());
+        }
+    }
+
+    @GetMapping("/distribution")
+    @OwnerRouted
+    @VersionedResource
+    public ResponseEntity<?> getDistribution(
+            @RequestParam String startDate,
+            @RequestParam String endDate,
+            @RequestAttribute("userEmail") String email) {
+        try {
+            return ResponseEntity.ok(expenseSketchService.getDistribution(email,
+                    java.time.LocalDate.parse(startDate), java.time.LocalDate.parse(endDate)));
+        } catch (java.time.format.DateTimeParseException e) {
+            return ResponseEntity.badRequest().body("Dates must be given as yyyy-MM-dd");
+        } catch (IllegalArgumentException e) {
+            return ResponseEntity.badRequest().body(e.getMessage());
+        } catch (Exception e) {
+            return ResponseEntity.status(500).body("Error fetching distribution: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Expenses flagged as unusual for their category or day of week, latest first. Detection runs
+     * shortly after each write, so a just-created expense may not be listed yet.
+     */
+    @GetMapping("/anomalies")
+    @VersionedResource
+    public ResponseEntity<?> getAnomalies(
+            @RequestParam(required = false) String startDate,
+            @RequestParam(required = false) String endDate,
+            @RequestParam(defaultValue = "50") int limit,
+            @RequestAttribute("userEmail") String email) {
+        try {
+            // Defaults to the last 90 days
+            java.time.LocalDate to = endDate == null || endDate.isEmpty() ? java.time.LocalDate.now() : java.time.LocalDate.parse(endDate);
+            java.time.LocalDate from = startDate == null || startDate.isEmpty() ? to.minusDays(90) : java.time.LocalDate.parse(startDate);
+            if (from.isAfter(to)) {
+                return ResponseEntity.badRequest().body("Start date cannot be after end date");
+            }
+            if (limit < 1 || limit > 500) {
+                return ResponseEntity.badRequest().body("limit must be between 1 and 500");
+            }
+            return ResponseEntity.ok(anomalyDetectionService.findAnomalies(email, from, to, limit));
+        } catch (java.time.format.DateTimeParseException e) {
+            return ResponseEntity.badRequest().body("Dates must be given as yyyy-MM-dd");
+        } catch (Exception e) {
+            return ResponseEntity.status(500).body("Error fetching anomalies: " + e.getMessage());
+        }
+    }
+
+    @GetMapping("/dashboard")
+    @OwnerRouted
+    @VersionedResource
+    public ResponseEntity<?> getDashboard(
+            @RequestParam(defaultValue = "summary,daily,monthly,yearly") java.util.Set<String> widgets,
+            @RequestParam(required = false) String date,
+            @RequestParam(defaultValue = "0") int year,
+            @RequestParam(defaultValue = "0") int month,
+            @RequestAttribute("userEmail") String email) {
+        try {
+            // Same defaults as the individual detail endpoints
+            java.time.LocalDate now = java.time.LocalDate.now();
+            java.time.LocalDate targetDate = date == null || date.isEmpty() ? now : java.time.LocalDate.parse(date);
+            year = year == 0 ? now.getYear() : year;
+            month = month == 0 ? now.getMonthValue() : month;
+            return ResponseEntity.ok(expenseService.getDashboard(email, widgets, targetDate, year, month));
+        } catch (IllegalArgumentException e) {
+            return ResponseEntity.badRequest().body(e.getMessage());
+        } catch (Exception e) {
+            return ResponseEntity.status(500).body("Error fetching dashboard: " + e.getMessage());
+        }
+    }
+
+    @GetMapping("/forecast")
+    @OwnerRouted
+    @VersionedResource
+    public ResponseEntity<?> getForecast(
+            @RequestParam(defaultValue = "14") int days,
+            @RequestAttribute("userEmail") String email) {
+        try {
+            return ResponseEntity.ok(forecastService.getForecast(email, days));
+        } catch (IllegalArgumentException e) {
+            return ResponseEntity.badRequest().body(e.getMessage());
+        } catch (Exception e) {
+            return ResponseEntity.status(500).body("Error fetching forecast: " + e.getMessage());
+        }
+    }
+
+    @GetMapping(value = "/stream", produces = MediaType.TEXT_EVENT_STREAM_VALUE)
+    public void streamExpenseChanges(@RequestAttribute("userEmail") String email,
+                                     HttpServletRequest request, HttpServletResponse response) throws IOException {
+        if (!expenseStreamHub.subscribe(email, request, response)) {
+            response.setStatus(503); // Connection limit reached; EventSource will retry
+        }
+    }
 }
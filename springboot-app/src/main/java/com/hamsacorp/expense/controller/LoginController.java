@@ -1,5 +1,6 @@
 package com.hamsacorp.expense.controller;
 
+import com.hamsacorp.expense.model.User;
 import com.hamsacorp.expense.service.AuthService;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.http.ResponseEntity;
@@ -26,12 +27,13 @@ public class LoginController {
             return ResponseEntity.badRequest().body(response);
         }
         // Check if user exists
-        if (authService.findByEmail(email) == null) {
+        User user = authService.findByEmail(email);
+        if (user == null) {
             response.put("success", false);
             response.put("message", "User not found");
             return ResponseEntity.status(404).body(response);
         }
-        boolean authenticated = authService.authenticate(email, password);
+        boolean authenticated = authService.authenticate(user, password);
         response.put("success", authenticated);
         if (authenticated) {
             // Generate JWT token
@@ -52,7 +54,7 @@ public class LoginController {
 
     @GetMapping("/exists")
     public ResponseEntity<?> checkUserExists(@RequestParam String email) {
-        boolean exists = authService.findByEmail(email) != null;
+        boolean exists = authService.exists(email);
         Map<String, Object> response = new HashMap<>();
         response.put("exists", exists);
         return ResponseEntity.ok(response);
@@ -1,5 +1,6 @@
 package com.hamsacorp.expense.controller;
 
+import com.hamsacorp.expense.config.VersionedResource;
 import com.hamsacorp.expense.model.UserSettings;
 import com.hamsacorp.expense.service.UserSettingsService;
 import org.springframework.beans.factory.annotation.Autowired;
@@ -15,6 +16,7 @@ public class UserSettingsController {
     private UserSettingsService userSettingsService;
 
     @GetMapping
+    @VersionedResource
     public ResponseEntity<UserSettings> getUserSettings(@RequestAttribute("userEmail") String email) {
         try {
             UserSettings settings = userSettingsService.getUserSettings(email);
@@ -0,0 +1,78 @@
+package com.hamsacorp.expense.event;
+
+import com.hamsacorp.expense.model.Expense;
+
+/**
+ * Published by ExpenseService after an expense is created, updated or deleted.
+ * {@code before} and {@code after} are detached copies, so listeners may keep or read them freely;
+ * {@code before} is null for creates and {@code after} is null for deletes; {@code version} is the
+ * owner's data version produced by this write. {@code changeSeq} is the owner's last change sequence
+ * value (see the V8 migration) when the write's transaction committed: a snapshot whose counter is
+ * at or past it already contains the write.
+ */
+public class ExpenseChangedEvent {
+    public enum Operation {
+        CREATED, UPDATED, DELETED
+    }
+
+    private final String userEmail;
+    private final Expense before;
+    private final Expense after;
+    private final long version;
+    private final long changeSeq;
+
+    public ExpenseChangedEvent(String userEmail, Expense before, Expense after, long version, long changeSeq) {
+        this.userEmail = userEmail;
+        this.before = before;
+        this.after = after;
+        this.version = version;
+        this.changeSeq = changeSeq;
+    }
+
+    public String getUserEmail() {
+        return userEmail;
+    }
+
+    public Expense getBefore() {
+        return before;
+    }
+
+    public Expense getAfter() {
+        return after;
+    }
+
+    public long getVersion() {
+        return version;
+    }
+
+    public long getChangeSeq() {
+        return changeSeq;
+    }
+
+    public Operation getOperation() {
+        if (before == null) {
+            return Operation.CREATED;
+        }
+        return after == null ? Operation.DELETED : Operation.UPDATED;
+    }
+
+    public Long getExpenseId() {
+        return after != null ? after.getId() : before.getId();
+    }
+
+    public static Expense snapshot(Expense expense) {
+        Expense copy = new Expense();
+        copy.setId(expense.getId());
+        copy.setType(expense.getType());
+        copy.setDescription(expense.getDescription());
+        copy.setAmount(expense.getAmount());
+        copy.setDate(expense.getDate());
+        copy.setCreatedAt(expense.getCreatedAt());
+        copy.setCategory(expense.getCategory());
+        copy.setPaymentMethod(expense.getPaymentMethod());
+        copy.setCreatedBy(expense.getCreatedBy());
+        copy.setVersion(expense.getVersion());
+        copy.setTags(expense.getTags() == null ? null : new java.util.HashSet<>(expense.getTags()));
+        return copy;
+    }
+}
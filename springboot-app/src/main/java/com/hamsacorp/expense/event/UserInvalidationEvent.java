@@ -0,0 +1,25 @@
+package com.hamsacorp.expense.event;
+
+/**
+ * Published by InvalidationBus when another instance changed a user's data: anything this
+ * instance keeps in memory for the user is out of date and should be dropped. Unlike
+ * {@link ExpenseChangedEvent} there is no detail of what changed; {@code version} is the user's
+ * data version after the change.
+ */
+public class UserInvalidationEvent {
+    private final String userEmail;
+    private final long version;
+
+    public UserInvalidationEvent(String userEmail, long version) {
+        this.userEmail = userEmail;
+        this.version = version;
+    }
+
+    public String getUserEmail() {
+        return userEmail;
+    }
+
+    public long getVersion() {
+        return version;
+    }
+}
@@ -3,9 +3,14 @@ package com.hamsacorp.expense.model;
 import jakarta.persistence.*;
 import lombok.AllArgsConstructor;
 import lombok.Data;
+import lombok.EqualsAndHashCode;
 import lombok.NoArgsConstructor;
+import lombok.ToString;
+import org.hibernate.annotations.BatchSize;
+
 import java.time.LocalDate;
 import java.time.LocalDateTime;
+import java.util.Set;
 
 @Entity
 @Table(name = "expenses")
@@ -13,8 +18,10 @@ import java.time.LocalDateTime;
 @NoArgsConstructor
 @AllArgsConstructor
 public class Expense {
+    // Sequence rather than identity so inserts can be JDBC-batched; ids are handed out 50 at a time
     @Id
-    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    @GeneratedValue(strategy = GenerationType.SEQUENCE, generator = "expenses_seq")
+    @SequenceGenerator(name = "expenses_seq", sequenceName = "expenses_seq", allocationSize = 50)
     private Long id;
 
 
@@ -46,6 +53,27 @@ public class Expense {
 
     @Column(nullable = false)
     private String createdBy;
+
+    // Set by database triggers on every insert/update (see V8 migration); the delta sync cursor
+    @Column(name = "updated_at", insertable = false, updatable = false)
+    private LocalDateTime updatedAt;
+
+    @Column(name = "change_seq", insertable = false, updatable = false)
+    private Long changeSeq;
+
+    // Optimistic lock; clients echo it back on update/delete and get 409 if someone wrote in between
+    @Version
+    @Column(nullable = false, columnDefinition = "bigint default 0")
+    private Long version;
+
+    // Free-form labels ("business", "trip-2026") across categories; null in a request means "unchanged"
+    @ElementCollection(fetch = FetchType.LAZY)
+    @CollectionTable(name = "expense_tags", joinColumns = @JoinColumn(name = "expense_id"))
+    @Column(name = "tag", nullable = false, length = 50)
+    @BatchSize(size = 100)
+    @EqualsAndHashCode.Exclude
+    @ToString.Exclude
+    private Set<String> tags;
     
     @PrePersist
     protected void onCreate() {
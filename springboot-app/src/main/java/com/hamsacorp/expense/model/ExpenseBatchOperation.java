@@ -0,0 +1,21 @@
+package com.hamsacorp.expense.model;
+
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+/**
+ * One entry of a POST /api/expenses/batch request.
+ * {@code op} is "create" (uses {@code expense}), "update" (uses {@code id} and {@code expense}) or
+ * "delete" (uses {@code id}); {@code version} is checked as on the single-expense endpoints.
+ * An operation whose {@code idempotencyKey} was already applied is not applied again; its original
+ * result is returned instead.
+ */
+@Data
+@NoArgsConstructor
+public class ExpenseBatchOperation {
+    private String op;
+    private String idempotencyKey;
+    private Long id;
+    private Long version;
+    private Expense expense;
+}
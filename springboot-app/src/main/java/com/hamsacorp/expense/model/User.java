@@ -7,9 +7,20 @@ import jakarta.validation.constraints.Size;
 import lombok.AllArgsConstructor;
 import lombok.Data;
 import lombok.NoArgsConstructor;
+import org.hibernate.annotations.Cache;
+import org.hibernate.annotations.CacheConcurrencyStrategy;
+import org.hibernate.annotations.NaturalId;
+import org.hibernate.annotations.NaturalIdCache;
 
+// Read on every login and profile request but almost never written: kept in the second-level cache,
+// addressable by email through the natural-id cache. READ_WRITE so Hibernate writes invalidate it.
+// Regions are named explicitly: the default natural-id region name ("...User##NaturalId") isn't a
+// valid Caffeine config path.
 @Entity
 @Table(name = "users")
+@Cacheable
+@Cache(usage = CacheConcurrencyStrategy.READ_WRITE, region = "users")
+@NaturalIdCache(region = "users-by-email")
 @Data
 @NoArgsConstructor
 @AllArgsConstructor
@@ -20,6 +31,7 @@ public class User {
 
     @NotBlank(message = "Email is required")
     @Email(message = "Invalid email format")
+    @NaturalId
     @Column(nullable = false, unique = true)
     private String email;
 
@@ -0,0 +1,48 @@
+package com.hamsacorp.expense.repository;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Repository;
+
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Results of already-applied batch operations by client idempotency key (table
+ * expense_batch_idempotency). Written in the batch's own transaction, so a rolled-back batch
+ * leaves no keys behind and can simply be retried.
+ */
+@Repository
+public class BatchIdempotencyRepository {
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    /** Stored result JSON by key, for those of {@code keys} the user has already used. */
+    public Map<String, String> findResults(String createdBy, Collection<String> keys) {
+        Map<String, String> results = new HashMap<>();
+        if (keys.isEmpty()) {
+            return results;
+        }
+        jdbcTemplate.query("SELECT idempotency_key, result FROM expense_batch_idempotency WHERE created_by = ? AND idempotency_key = ANY (?)",
+                rs -> {
+                    results.put(rs.getString(1), rs.getString(2));
+                }, createdBy, keys.toArray(new String[0]));
+        return results;
+    }
+
+    /**
+     * Fails with a duplicate key error if a concurrent batch committed one of the keys first, which
+     * rolls this batch back rather than applying an operation twice.
+     */
+    public void insert(String createdBy, Map<String, String> results) {
+        jdbcTemplate.batchUpdate("INSERT INTO expense_batch_idempotency (created_by, idempotency_key, result, created_at) VALUES (?, ?, ?, now())",
+                results.entrySet().stream().map(e -> new Object[] {createdBy, e.getKey(), e.getValue()}).toList());
+    }
+
+    public int deleteOlderThanDays(String createdBy, int days) {
+        return jdbcTemplate.update("DELETE FROM expense_batch_idempotency WHERE created_by = ? AND created_at < now() - make_interval(days => ?)",
+                createdBy, days);
+    }
+}
@@ -0,0 +1,39 @@
+package com.hamsacorp.expense.repository;
+
+import com.hamsacorp.expense.sharding.GlobalData;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Repository;
+
+import java.util.List;
+
+/**
+ * API instances and their last heartbeat (table cluster_nodes), keyed by the URL peers reach
+ * them at.
+ */
+@Repository
+@GlobalData
+public class ClusterNodeRepository {
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    public void heartbeat(String url) {
+        jdbcTemplate.update("INSERT INTO cluster_nodes (url, heartbeat_at) VALUES (?, now()) "
+                + "ON CONFLICT (url) DO UPDATE SET heartbeat_at = now()", url);
+    }
+
+    public List<String> findAlive(int timeoutSeconds) {
+        return jdbcTemplate.queryForList("SELECT url FROM cluster_nodes WHERE heartbeat_at > now() - make_interval(secs => ?)",
+                String.class, timeoutSeconds);
+    }
+
+    public int delete(String url) {
+        return jdbcTemplate.update("DELETE FROM cluster_nodes WHERE url = ?", url);
+    }
+
+    /** Rows of nodes gone for good (crashed without deregistering, or replaced). */
+    public int deleteOlderThanHours(int hours) {
+        return jdbcTemplate.update("DELETE FROM cluster_nodes WHERE heartbeat_at < now() - make_interval(hours => ?)", hours);
+    }
+}
@@ -0,0 +1,45 @@
+package com.hamsacorp.expense.repository;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Repository;
+
+import java.sql.Date;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.util.List;
+
+/** Expenses flagged by the anomaly detector (table expense_anomalies), newest expense date first. */
+@Repository
+public class ExpenseAnomalyRepository {
+
+    public record Anomaly(long expenseId, String kind, String subject, LocalDate date, double amount, double mean,
+                          double stddev, double zScore, LocalDateTime detectedAt) {
+    }
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    /** Skipped if the expense has been deleted meanwhile, which would fail the foreign key. */
+    public void save(String createdBy, Anomaly anomaly) {
+        jdbcTemplate.update("INSERT INTO expense_anomalies (created_by, expense_id, kind, subject, expense_date, amount, mean, stddev, z_score)"
+                        + " SELECT ?, ?, ?, ?, ?, ?, ?, ?, ? WHERE EXISTS (SELECT 1 FROM expenses WHERE id = ?) ON CONFLICT (created_by, expense_id, kind) DO UPDATE SET"
+                        + " subject = EXCLUDED.subject, expense_date = EXCLUDED.expense_date, amount = EXCLUDED.amount, mean = EXCLUDED.mean,"
+                        + " stddev = EXCLUDED.stddev, z_score = EXCLUDED.z_score, detected_at = now()",
+                createdBy, anomaly.expenseId(), anomaly.kind(), anomaly.subject(), Date.valueOf(anomaly.date()), anomaly.amount(),
+                anomaly.mean(), anomaly.stddev(), anomaly.zScore(), anomaly.expenseId());
+    }
+
+    public void deleteByExpenseId(String createdBy, long expenseId) {
+        jdbcTemplate.update("DELETE FROM expense_anomalies WHERE created_by = ? AND expense_id = ?", createdBy, expenseId);
+    }
+
+    public List<Anomaly> findByDateRange(String createdBy, LocalDate from, LocalDate to, int limit) {
+        return jdbcTemplate.query("SELECT expense_id, kind, subject, expense_date, amount, mean, stddev, z_score, detected_at"
+                        + " FROM expense_anomalies WHERE created_by = ? AND expense_date BETWEEN ? AND ?"
+                        + " ORDER BY expense_date DESC, expense_id DESC LIMIT ?",
+                (rs, rowNum) -> new Anomaly(rs.getLong(1), rs.getString(2), rs.getString(3), rs.getDate(4).toLocalDate(),
+                        rs.getDouble(5), rs.getDouble(6), rs.getDouble(7), rs.getDouble(8), rs.getTimestamp(9).toLocalDateTime()),
+                createdBy, Date.valueOf(from), Date.valueOf(to), limit);
+    }
+}
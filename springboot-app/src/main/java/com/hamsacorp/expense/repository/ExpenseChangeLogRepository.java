@@ -0,0 +1,62 @@
+package com.hamsacorp.expense.repository;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Repository;
+
+import java.util.List;
+
+/**
+ * The per-user change sequence behind delta sync: live expenses carry the sequence value of their
+ * last insert/update (expenses.change_seq), deleted ones a tombstone (expense_tombstones). Both are
+ * maintained by triggers, see the V8 migration.
+ */
+@Repository
+public class ExpenseChangeLogRepository {
+
+    public record Change(long changeSeq, long expenseId, boolean deleted) {
+    }
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    /**
+     * The user's next {@code limit} changes after {@code changeSeq}, oldest first. One statement so
+     * updates and deletes come from the same snapshot; each side is a range scan on its
+     * (created_by, change_seq) index.
+     */
+    public List<Change> findAfter(String createdBy, long changeSeq, boolean includeDeleted, int limit) {
+        return jdbcTemplate.query("SELECT change_seq, id, false FROM expenses WHERE created_by = ? AND change_seq > ?"
+                        + " UNION ALL"
+                        + " SELECT change_seq, expense_id, true FROM expense_tombstones WHERE created_by = ? AND change_seq > ? AND ?"
+                        + " ORDER BY 1 LIMIT ?",
+                (rs, rowNum) -> new Change(rs.getLong(1), rs.getLong(2), rs.getBoolean(3)),
+                createdBy, changeSeq, createdBy, changeSeq, includeDeleted, limit);
+    }
+
+    /** [last sequence value handed out, highest pruned tombstone sequence]; zeros for a user who never wrote. */
+    public long[] findCounters(String createdBy) {
+        List<long[]> counters = jdbcTemplate.query("SELECT last_seq, pruned_seq FROM expense_change_counters WHERE created_by = ?",
+                (rs, rowNum) -> new long[] {rs.getLong(1), rs.getLong(2)}, createdBy);
+        return counters.isEmpty() ? new long[] {0, 0} : counters.get(0);
+    }
+
+    /** Users on the current shard with tombstones older than {@code days}. */
+    public List<String> findUsersWithTombstonesOlderThanDays(int days) {
+        return jdbcTemplate.queryForList("SELECT DISTINCT created_by FROM expense_tombstones"
+                + " WHERE deleted_at < now() - make_interval(days => ?)", String.class, days);
+    }
+
+    /**
+     * Drops the user's tombstones older than {@code days} and advances their pruned sequence past them,
+     * in one statement.
+     */
+    public void pruneOlderThanDays(String createdBy, int days) {
+        jdbcTemplate.update("WITH pruned AS ("
+                        + " DELETE FROM expense_tombstones WHERE created_by = ? AND deleted_at < now() - make_interval(days => ?)"
+                        + " RETURNING change_seq"
+                        + ") UPDATE expense_change_counters SET pruned_seq = GREATEST(pruned_seq, (SELECT max(change_seq) FROM pruned))"
+                        + " WHERE created_by = ? AND EXISTS (SELECT 1 FROM pruned)",
+                createdBy, days, createdBy);
+    }
+}
@@ -0,0 +1,25 @@
+package com.hamsacorp.expense.repository;
+
+import com.hamsacorp.expense.model.Expense;
+
+import java.util.Optional;
+
+/**
+ * Single-statement writes guarded by owner and version, mixed into {@link ExpenseRepository}.
+ * Both return the row as it was before the write (tags included) so change listeners still get a
+ * "before" snapshot, or empty when no row matched: missing, owned by someone else, or a stale version.
+ */
+public interface ExpenseConditionalWrites {
+
+    /**
+     * Overwrites the expense {@code updated.getId()} owned by {@code updated.getCreatedBy()} if its version
+     * still equals {@code updated.getVersion()} (any version when null) and increments the version.
+     * Tags are replaced unless {@code updated.getTags()} is null; a null createdAt keeps the stored one.
+     * On success {@code updated} is completed to the row as written: tags, createdAt, version, updatedAt
+     * and changeSeq.
+     */
+    Optional<Expense> updateIfCurrent(Expense updated);
+
+    /** Deletes the expense and its tags under the same guard as {@link #updateIfCurrent}. */
+    Optional<Expense> deleteIfCurrent(Long id, String createdBy, Long version);
+}
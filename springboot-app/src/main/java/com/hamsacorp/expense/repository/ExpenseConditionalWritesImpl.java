@@ -0,0 +1,102 @@
+package com.hamsacorp.expense.repository;
+
+import com.hamsacorp.expense.model.Expense;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.RowMapper;
+
+import java.sql.Array;
+import java.sql.Timestamp;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Optional;
+import java.util.Set;
+
+/**
+ * Plain JDBC because JPA can't express either write in one round trip: the update joins the row to
+ * itself to return its previous values, and the tag collection is rewritten by data-modifying CTEs in
+ * the same statement. The expense is never loaded into the persistence context, so nothing is merged.
+ */
+public class ExpenseConditionalWritesImpl implements ExpenseConditionalWrites {
+
+    private static final String UPDATE_SQL = "WITH updated AS ("
+            + " UPDATE expenses e SET type = ?, description = ?, amount = ?, date = ?,"
+            + " created_at = COALESCE(?, prev.created_at), category = ?, payment_method = ?, version = e.version + 1"
+            + " FROM expenses prev"
+            + " WHERE e.id = ? AND e.created_by = ? AND e.version = COALESCE(?, e.version) AND prev.id = e.id"
+            + " RETURNING prev.*, (SELECT array_agg(t.tag) FROM expense_tags t WHERE t.expense_id = e.id) AS prev_tags,"
+            + " e.created_at AS written_created_at, e.version AS written_version, e.updated_at AS written_updated_at,"
+            + " e.change_seq AS written_change_seq"
+            + "), removed_tags AS ("
+            + " DELETE FROM expense_tags t USING updated u"
+            + " WHERE ? AND t.expense_id = u.id AND t.tag <> ALL (?::varchar[])"
+            + "), added_tags AS ("
+            + " INSERT INTO expense_tags (expense_id, tag) SELECT u.id, tag FROM updated u, unnest(?::varchar[]) AS tag"
+            + " ON CONFLICT DO NOTHING"
+            + ") SELECT * FROM updated";
+
+    private static final String DELETE_SQL = "WITH removed AS ("
+            + " DELETE FROM expenses e WHERE e.id = ? AND e.created_by = ? AND e.version = COALESCE(?, e.version)"
+            + " RETURNING e.*, (SELECT array_agg(t.tag) FROM expense_tags t WHERE t.expense_id = e.id) AS prev_tags"
+            + "), removed_tags AS ("
+            + " DELETE FROM expense_tags t USING removed r WHERE t.expense_id = r.id"
+            + ") SELECT * FROM removed";
+
+    private static final RowMapper<Expense> PREVIOUS_ROW = (rs, rowNum) -> {
+        Expense expense = new Expense();
+        expense.setId(rs.getLong("id"));
+        expense.setType(Expense.ExpenseType.valueOf(rs.getString("type")));
+        expense.setDescription(rs.getString("description"));
+        expense.setAmount(rs.getDouble("amount"));
+        expense.setDate(rs.getDate("date").toLocalDate());
+        Timestamp createdAt = rs.getTimestamp("created_at");
+        expense.setCreatedAt(createdAt == null ? null : createdAt.toLocalDateTime());
+        expense.setCategory(rs.getString("category"));
+        expense.setPaymentMethod(rs.getString("payment_method"));
+        expense.setCreatedBy(rs.getString("created_by"));
+        expense.setVersion(rs.getLong("version"));
+        Timestamp updatedAt = rs.getTimestamp("updated_at");
+        expense.setUpdatedAt(updatedAt == null ? null : updatedAt.toLocalDateTime());
+        long changeSeq = rs.getLong("change_seq");
+        expense.setChangeSeq(rs.wasNull() ? null : changeSeq);
+        Set<String> tags = new HashSet<>();
+        Array tagArray = rs.getArray("prev_tags");
+        if (tagArray != null) {
+            tags.addAll(List.of((String[]) tagArray.getArray()));
+        }
+        expense.setTags(tags);
+        return expense;
+    };
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    @Override
+    public Optional<Expense> updateIfCurrent(Expense updated) {
+        boolean replaceTags = updated.getTags() != null;
+        String[] tags = replaceTags ? updated.getTags().toArray(new String[0]) : new String[0];
+        List<Expense> previous = jdbcTemplate.query(UPDATE_SQL, (rs, rowNum) -> {
+                    Expense before = PREVIOUS_ROW.mapRow(rs, rowNum);
+                    // What the statement and the stamping trigger stored
+                    updated.setCreatedAt(rs.getTimestamp("written_created_at") == null ? null
+                            : rs.getTimestamp("written_created_at").toLocalDateTime());
+                    updated.setVersion(rs.getLong("written_version"));
+                    updated.setUpdatedAt(rs.getTimestamp("written_updated_at").toLocalDateTime());
+                    updated.setChangeSeq(rs.getLong("written_change_seq"));
+                    if (!replaceTags) {
+                        updated.setTags(before.getTags());
+                    }
+                    return before;
+                },
+                updated.getType().name(), updated.getDescription(), updated.getAmount(), updated.getDate(),
+                updated.getCreatedAt(), updated.getCategory(), updated.getPaymentMethod(),
+                updated.getId(), updated.getCreatedBy(), updated.getVersion(),
+                replaceTags, tags, tags);
+        return previous.stream().findFirst();
+    }
+
+    @Override
+    public Optional<Expense> deleteIfCurrent(Long id, String createdBy, Long version) {
+        return jdbcTemplate.query(DELETE_SQL, PREVIOUS_ROW, id, createdBy, version).stream().findFirst();
+    }
+}
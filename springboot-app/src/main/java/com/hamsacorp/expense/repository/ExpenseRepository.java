@@ -4,6 +4,7 @@ import com.hamsacorp.expense.model.Expense;
 import org.springframework.data.domain.Page;
 import org.springframework.data.domain.Pageable;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.JpaSpecificationExecutor;
 import org.springframework.data.jpa.repository.Query;
 import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
@@ -13,7 +14,7 @@ import java.time.LocalDateTime;
 import java.util.List;
 
 @Repository
-public interface ExpenseRepository extends JpaRepository<Expense, Long> {
+public interface ExpenseRepository extends JpaRepository<Expense, Long>, JpaSpecificationExecutor<Expense>, ExpenseConditionalWrites {
     List<Expense> findAllByOrderByDateDesc();
     List<Expense> findAllByDateBetweenOrderByDateDesc(LocalDate from, LocalDate to);
     Page<Expense> findAllByOrderByDateDesc(Pageable pageable);
@@ -27,4 +28,37 @@ public interface ExpenseRepository extends JpaRepository<Expense, Long> {
     
     @Query("SELECT e FROM Expense e WHERE e.createdBy = :createdBy AND e.date = :date ORDER BY e.id DESC")
     List<Expense> findDailyExpensesByCreatedByAndDate(@Param("createdBy") String createdBy, @Param("date") LocalDate date);
+
+    /**
+     * Case-insensitive substring search on description and category, served by the trigram indexes.
+     * Ranked exact match, then prefix, then word prefix, then any substring; newest first within a rank.
+     * Patterns must already have LIKE wildcards escaped.
+     */
+    @Query(value = "SELECT e.* FROM expenses e WHERE e.created_by = :createdBy"
+            + " AND (e.description ILIKE :contains OR e.category ILIKE :contains)"
+            + " ORDER BY CASE"
+            + "   WHEN lower(e.description) = :term OR lower(e.category) = :term THEN 0"
+            + "   WHEN e.description ILIKE :prefix OR e.category ILIKE :prefix THEN 1"
+            + "   WHEN e.description ILIKE :wordPrefix THEN 2"
+            + "   ELSE 3 END, e.date DESC, e.id DESC",
+            countQuery = "SELECT count(*) FROM expenses e WHERE e.created_by = :createdBy"
+            + " AND (e.description ILIKE :contains OR e.category ILIKE :contains)",
+            nativeQuery = true)
+    Page<Expense> searchByCreatedBy(@Param("createdBy") String createdBy, @Param("term") String term,
+                                    @Param("contains") String contains, @Param("prefix") String prefix,
+                                    @Param("wordPrefix") String wordPrefix, Pageable pageable);
+
+    List<Expense> findAllByCreatedBy(String createdBy);
+
+    /**
+     * Rows of (epoch day, type, summed amount) for each day and type the user has expenses on. Each
+     * amount is rounded to a multiple of 1/scale before summing, so the sums are exact longs; as
+     * numeric, since round() on double precision rounds halves to even.
+     */
+    @Query(value = "SELECT e.date - DATE '1970-01-01', e.type, sum(round(e.amount::numeric * :scale))::bigint FROM expenses e"
+            + " WHERE e.created_by = :createdBy AND e.date IS NOT NULL AND e.amount IS NOT NULL GROUP BY e.date, e.type",
+            nativeQuery = true)
+    List<Object[]> sumFixedPointAmountsByDayAndType(@Param("createdBy") String createdBy, @Param("scale") long scale);
+
+    long countByCreatedBy(String createdBy);
 }
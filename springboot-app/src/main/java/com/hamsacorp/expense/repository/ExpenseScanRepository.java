@@ -0,0 +1,80 @@
+package com.hamsacorp.expense.repository;
+
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.RowCallbackHandler;
+import org.springframework.stereotype.Repository;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import javax.sql.DataSource;
+import java.sql.Array;
+import java.sql.Date;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Full scans of expenses across users, for platform-wide analytics. Rows are streamed through a
+ * server-side cursor (fetch size rows at a time, inside a read-only transaction) rather than loaded
+ * into a list, and come grouped by user so callers only hold one user's state at a time.
+ */
+@Repository
+public class ExpenseScanRepository {
+    private static final int FETCH_SIZE = 5000;
+
+    private final JdbcTemplate jdbcTemplate;
+    private final TransactionTemplate readOnlyTransaction;
+
+    public ExpenseScanRepository(DataSource dataSource, PlatformTransactionManager transactionManager) {
+        this.jdbcTemplate = new JdbcTemplate(dataSource);
+        this.jdbcTemplate.setFetchSize(FETCH_SIZE);
+        this.readOnlyTransaction = new TransactionTemplate(transactionManager);
+        this.readOnlyTransaction.setReadOnly(true);
+    }
+
+    /**
+     * Emails splitting users into about {@code partitions} equal ranges: range i is
+     * [boundary i-1, boundary i), with open ends before the first and after the last.
+     */
+    public List<String> findUserBoundaries(int partitions) {
+        List<String> boundaries = new ArrayList<>();
+        if (partitions < 2) {
+            return boundaries;
+        }
+        StringBuilder fractions = new StringBuilder();
+        for (int i = 1; i < partitions; i++) {
+            fractions.append(i > 1 ? "," : "").append((double) i / partitions);
+        }
+        jdbcTemplate.query("SELECT percentile_disc(ARRAY[" + fractions + "]::float8[]) WITHIN GROUP (ORDER BY email) FROM users", rs -> {
+            Array array = rs.getArray(1);
+            if (array != null) {
+                for (Object email : (Object[]) array.getArray()) {
+                    if (email != null && (boundaries.isEmpty() || !boundaries.get(boundaries.size() - 1).equals(email))) {
+                        boundaries.add((String) email);
+                    }
+                }
+            }
+        });
+        return boundaries;
+    }
+
+    /**
+     * Streams (created_by, date, type, category, amount) of the expenses dated in [from, to) whose
+     * owner is in [fromUser, toUser) (null for an open end), ordered by owner.
+     */
+    public void scan(LocalDate from, LocalDate to, String fromUser, String toUser, RowCallbackHandler handler) {
+        StringBuilder sql = new StringBuilder("SELECT created_by, date, type, category, amount FROM expenses WHERE date >= ? AND date < ?");
+        List<Object> args = new ArrayList<>(List.of(Date.valueOf(from), Date.valueOf(to)));
+        if (fromUser != null) {
+            sql.append(" AND created_by >= ?");
+            args.add(fromUser);
+        }
+        if (toUser != null) {
+            sql.append(" AND created_by < ?");
+            args.add(toUser);
+        }
+        sql.append(" ORDER BY created_by");
+        // The Postgres driver only uses a cursor outside autocommit
+        readOnlyTransaction.executeWithoutResult(status -> jdbcTemplate.query(sql.toString(), handler, args.toArray()));
+    }
+}
@@ -0,0 +1,63 @@
+package com.hamsacorp.expense.repository;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.RowCallbackHandler;
+import org.springframework.stereotype.Repository;
+
+import java.sql.Date;
+import java.time.LocalDate;
+import java.util.List;
+
+/**
+ * Per-month distribution sketches (table expense_sketches) and the months marked for a rebuild by
+ * the expenses triggers (expense_sketch_dirty). Sketches are opaque blobs; months are identified
+ * by their first day.
+ */
+@Repository
+public class ExpenseSketchRepository {
+
+    public record Sketch(LocalDate month, String category, long count, double total, byte[] amounts, byte[] merchants) {
+    }
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    public List<LocalDate> findDirtyMonths(String createdBy, LocalDate fromMonth, LocalDate toMonth) {
+        return jdbcTemplate.query("SELECT month FROM expense_sketch_dirty WHERE created_by = ? AND month BETWEEN ? AND ? ORDER BY month",
+                (rs, rowNum) -> rs.getDate(1).toLocalDate(), createdBy, Date.valueOf(fromMonth), Date.valueOf(toMonth));
+    }
+
+    /**
+     * Removes the month's dirty mark, false if another reader got there first. Call inside the
+     * transaction that rebuilds the month, before reading its rows: a failed rebuild leaves it
+     * marked. A write that marked the month first holds the mark's row lock, so the DELETE waits for
+     * it to commit and the rebuild then reads it; a write that comes after the DELETE waits for the
+     * rebuild to commit and marks the month again.
+     */
+    public boolean claimDirtyMonth(String createdBy, LocalDate month) {
+        return jdbcTemplate.update("DELETE FROM expense_sketch_dirty WHERE created_by = ? AND month = ?", createdBy, Date.valueOf(month)) > 0;
+    }
+
+    public List<Sketch> findByMonths(String createdBy, LocalDate fromMonth, LocalDate toMonth) {
+        return jdbcTemplate.query("SELECT month, category, transaction_count, total, amounts, merchants FROM expense_sketches"
+                        + " WHERE created_by = ? AND month BETWEEN ? AND ?",
+                (rs, rowNum) -> new Sketch(rs.getDate(1).toLocalDate(), rs.getString(2), rs.getLong(3), rs.getDouble(4),
+                        rs.getBytes(5), rs.getBytes(6)),
+                createdBy, Date.valueOf(fromMonth), Date.valueOf(toMonth));
+    }
+
+    public void replaceMonth(String createdBy, LocalDate month, List<Sketch> sketches) {
+        jdbcTemplate.update("DELETE FROM expense_sketches WHERE created_by = ? AND month = ?", createdBy, Date.valueOf(month));
+        jdbcTemplate.batchUpdate("INSERT INTO expense_sketches (created_by, month, category, transaction_count, total, amounts, merchants)"
+                        + " VALUES (?, ?, ?, ?, ?, ?, ?)",
+                sketches.stream().map(s -> new Object[] {createdBy, Date.valueOf(month), s.category(), s.count(), s.total(),
+                        s.amounts(), s.merchants()}).toList());
+    }
+
+    /** Streams (category, amount, description) of the user's EXPENSE transactions dated in [from, to]. */
+    public void forEachExpense(String createdBy, LocalDate from, LocalDate to, RowCallbackHandler handler) {
+        jdbcTemplate.query("SELECT category, amount, description FROM expenses WHERE created_by = ? AND type = 'EXPENSE'"
+                + " AND date BETWEEN ? AND ?", handler, createdBy, Date.valueOf(from), Date.valueOf(to));
+    }
+}
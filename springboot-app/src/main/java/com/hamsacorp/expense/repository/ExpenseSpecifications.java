@@ -0,0 +1,82 @@
+package com.hamsacorp.expense.repository;
+
+import com.hamsacorp.expense.model.Expense;
+import org.springframework.data.jpa.domain.Specification;
+
+import java.time.LocalDate;
+import java.util.Collection;
+
+/**
+ * Composable filters for {@link ExpenseRepository#findAll(Specification)}. Each factory returns null
+ * when its argument is absent, which {@link Specification#and} treats as "no restriction", so callers
+ * can chain every optional filter unconditionally.
+ */
+public final class ExpenseSpecifications {
+
+    private ExpenseSpecifications() {
+    }
+
+    public static Specification<Expense> ownedBy(String email) {
+        return (root, query, cb) -> cb.equal(root.get("createdBy"), email);
+    }
+
+    /**
+     * Inlined as a literal rather than bound: there are only three types, and the planner can only
+     * match the type-partial indexes against a constant.
+     */
+    public static Specification<Expense> hasType(Expense.ExpenseType type) {
+        return type == null ? null : (root, query, cb) -> cb.equal(root.get("type"), cb.literal(type));
+    }
+
+    public static Specification<Expense> inCategories(Collection<String> categories) {
+        return categories == null || categories.isEmpty() ? null
+                : (root, query, cb) -> root.get("category").in(categories);
+    }
+
+    public static Specification<Expense> inPaymentMethods(Collection<String> paymentMethods) {
+        return paymentMethods == null || paymentMethods.isEmpty() ? null
+                : (root, query, cb) -> root.get("paymentMethod").in(paymentMethods);
+    }
+
+    public static Specification<Expense> amountAtLeast(Double min) {
+        return min == null ? null : (root, query, cb) -> cb.greaterThanOrEqualTo(root.get("amount"), min);
+    }
+
+    public static Specification<Expense> amountAtMost(Double max) {
+        return max == null ? null : (root, query, cb) -> cb.lessThanOrEqualTo(root.get("amount"), max);
+    }
+
+    public static Specification<Expense> onOrAfter(LocalDate from) {
+        return from == null ? null : (root, query, cb) -> cb.greaterThanOrEqualTo(root.get("date"), from);
+    }
+
+    public static Specification<Expense> onOrBefore(LocalDate to) {
+        return to == null ? null : (root, query, cb) -> cb.lessThanOrEqualTo(root.get("date"), to);
+    }
+
+    public static Specification<Expense> idIn(Collection<Long> ids) {
+        return (root, query, cb) -> ids.isEmpty() ? cb.disjunction() : root.get("id").in(ids);
+    }
+
+    public static Specification<Expense> idNotIn(Collection<Long> ids) {
+        return ids.isEmpty() ? null : (root, query, cb) -> cb.not(root.get("id").in(ids));
+    }
+
+    public static Specification<Expense> taggedWithAll(Collection<String> tags) {
+        return tags == null || tags.isEmpty() ? null : (root, query, cb) -> cb.and(tags.stream()
+                .map(tag -> cb.isMember(tag, root.<Collection<String>>get("tags")))
+                .toArray(jakarta.persistence.criteria.Predicate[]::new));
+    }
+
+    public static Specification<Expense> taggedWithAny(Collection<String> tags) {
+        return tags == null || tags.isEmpty() ? null : (root, query, cb) -> cb.or(tags.stream()
+                .map(tag -> cb.isMember(tag, root.<Collection<String>>get("tags")))
+                .toArray(jakarta.persistence.criteria.Predicate[]::new));
+    }
+
+    public static Specification<Expense> taggedWithNone(Collection<String> tags) {
+        return tags == null || tags.isEmpty() ? null : (root, query, cb) -> cb.and(tags.stream()
+                .map(tag -> cb.isNotMember(tag, root.<Collection<String>>get("tags")))
+                .toArray(jakarta.persistence.criteria.Predicate[]::new));
+    }
+}
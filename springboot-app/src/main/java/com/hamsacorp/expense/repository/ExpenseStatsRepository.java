@@ -0,0 +1,51 @@
+package com.hamsacorp.expense.repository;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.RowCallbackHandler;
+import org.springframework.stereotype.Repository;
+
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Running per-user statistics for anomaly detection (table expense_stats): Welford count, mean and
+ * m2 under keys such as 'category:Food' or 'weekday:3'. A user has a few dozen rows at most, so
+ * they are read and written as a whole under a per-user lock.
+ */
+@Repository
+public class ExpenseStatsRepository {
+
+    public record Stat(long n, double mean, double m2) {
+    }
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    /** Serializes updates of the user's statistics across instances until the transaction ends. */
+    public void lockUser(String createdBy) {
+        jdbcTemplate.query("SELECT pg_advisory_xact_lock(hashtext('expense_stats:' || ?))", (RowCallbackHandler) rs -> {
+        }, createdBy);
+    }
+
+    public Map<String, Stat> findByCreatedBy(String createdBy) {
+        Map<String, Stat> stats = new HashMap<>();
+        jdbcTemplate.query("SELECT stat_key, n, mean, m2 FROM expense_stats WHERE created_by = ?",
+                (RowCallbackHandler) rs -> stats.put(rs.getString(1), new Stat(rs.getLong(2), rs.getDouble(3), rs.getDouble(4))),
+                createdBy);
+        return stats;
+    }
+
+    public void save(String createdBy, Map<String, Stat> stats) {
+        jdbcTemplate.batchUpdate("INSERT INTO expense_stats (created_by, stat_key, n, mean, m2) VALUES (?, ?, ?, ?, ?)"
+                        + " ON CONFLICT (created_by, stat_key) DO UPDATE SET n = EXCLUDED.n, mean = EXCLUDED.mean, m2 = EXCLUDED.m2",
+                stats.entrySet().stream().map(e -> new Object[] {createdBy, e.getKey(), e.getValue().n(), e.getValue().mean(),
+                        e.getValue().m2()}).toList());
+    }
+
+    public void delete(String createdBy, Collection<String> keys) {
+        jdbcTemplate.batchUpdate("DELETE FROM expense_stats WHERE created_by = ? AND stat_key = ?",
+                keys.stream().map(key -> new Object[] {createdBy, key}).toList());
+    }
+}
@@ -0,0 +1,85 @@
+package com.hamsacorp.expense.repository;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Repository;
+
+import java.sql.Date;
+import java.time.LocalDate;
+import java.util.List;
+
+/**
+ * Per-period totals for trend charts, from one grouped query: expenses are summed per period, type
+ * and category once, and window functions over the period series add the same period a year
+ * earlier and a rolling average, so the cost doesn't grow with the number of periods requested.
+ */
+@Repository
+public class ExpenseTrendRepository {
+
+    /**
+     * One row per period and spending category (category and categoryAmount null for periods
+     * without spending); the period fields repeat across a period's rows. Previous-year values are
+     * null when the series doesn't reach back that far.
+     */
+    public record TrendRow(LocalDate period, double expenses, double income, double savings,
+                           Double previousYearExpenses, Double previousYearIncome, Double previousYearSavings,
+                           double rollingExpenses, double rollingIncome, double rollingSavings,
+                           String category, Double categoryAmount) {
+    }
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    /**
+     * Periods of {@code unit} ('month' or 'year') starting at firstPeriod..lastPeriod, computed over a
+     * series reaching back to historyStart so the earliest ones have their lag and rolling window
+     * filled. {@code yearLag} is the number of periods in a year, {@code rollingPeriods} the width
+     * of the rolling average.
+     */
+    public List<TrendRow> findTrends(String createdBy, String unit, LocalDate historyStart, LocalDate firstPeriod,
+                                     LocalDate lastPeriod, LocalDate lastDay, int yearLag, int rollingPeriods) {
+        if (!unit.equals("month") && !unit.equals("year")) {
+            throw new IllegalArgumentException("Unsupported trend unit: " + unit);
+        }
+        // Units, lag and frame width are validated integers and keywords; frame offsets can't be bound
+        String sql = String.format("""
+                WITH periods AS (
+                    SELECT generate_series(?::date, ?::date, interval '1 %1$s')::date AS period
+                ), agg AS (
+                    SELECT date_trunc('%1$s', date)::date AS period, type, COALESCE(category, 'Uncategorized') AS category,
+                           sum(amount) AS amount
+                    FROM expenses WHERE created_by = ? AND date BETWEEN ? AND ?
+                    GROUP BY 1, 2, 3
+                ), totals AS (
+                    SELECT p.period,
+                           COALESCE(sum(a.amount) FILTER (WHERE a.type = 'EXPENSE'), 0) AS expenses,
+                           COALESCE(sum(a.amount) FILTER (WHERE a.type = 'INCOME'), 0) AS income,
+                           COALESCE(sum(a.amount) FILTER (WHERE a.type = 'SAVINGS'), 0) AS savings
+                    FROM periods p LEFT JOIN agg a ON a.period = p.period
+                    GROUP BY p.period
+                ), series AS (
+                    SELECT period, expenses, income, savings,
+                           LAG(expenses, %2$d) OVER byPeriod AS previous_expenses,
+                           LAG(income, %2$d) OVER byPeriod AS previous_income,
+                           LAG(savings, %2$d) OVER byPeriod AS previous_savings,
+                           AVG(expenses) OVER rolling AS rolling_expenses,
+                           AVG(income) OVER rolling AS rolling_income,
+                           AVG(savings) OVER rolling AS rolling_savings
+                    FROM totals
+                    WINDOW byPeriod AS (ORDER BY period), rolling AS (ORDER BY period ROWS BETWEEN %3$d PRECEDING AND CURRENT ROW)
+                )
+                SELECT s.period, s.expenses, s.income, s.savings, s.previous_expenses, s.previous_income, s.previous_savings,
+                       s.rolling_expenses, s.rolling_income, s.rolling_savings, a.category, a.amount
+                FROM series s LEFT JOIN agg a ON a.period = s.period AND a.type = 'EXPENSE'
+                WHERE s.period >= ?
+                ORDER BY s.period, a.amount DESC, a.category
+                """, unit, yearLag, rollingPeriods - 1);
+        return jdbcTemplate.query(sql, (rs, rowNum) -> new TrendRow(
+                        rs.getDate(1).toLocalDate(), rs.getDouble(2), rs.getDouble(3), rs.getDouble(4),
+                        rs.getObject(5, Double.class), rs.getObject(6, Double.class), rs.getObject(7, Double.class),
+                        rs.getDouble(8), rs.getDouble(9), rs.getDouble(10),
+                        rs.getString(11), rs.getObject(12, Double.class)),
+                Date.valueOf(historyStart), Date.valueOf(lastPeriod), createdBy, Date.valueOf(historyStart), Date.valueOf(lastDay),
+                Date.valueOf(firstPeriod));
+    }
+}
@@ -0,0 +1,60 @@
+package com.hamsacorp.expense.repository;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.RowCallbackHandler;
+import org.springframework.stereotype.Repository;
+
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Persisted per-user tag bitmaps (table expense_tag_bitmaps) plus the raw queries needed to rebuild
+ * and sanity-check them. Plain JDBC: the rows are opaque blobs keyed by (created_by, tag) and are
+ * written with an upsert.
+ */
+@Repository
+public class TagBitmapRepository {
+
+    /** changeSeq is the change sequence value the snapshot covers, recorded on the '*' row. */
+    public record Snapshot(String tag, byte[] bitmap, Long changeSeq) {
+    }
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    public List<Snapshot> findByCreatedBy(String createdBy) {
+        return jdbcTemplate.query("SELECT tag, bitmap, change_seq FROM expense_tag_bitmaps WHERE created_by = ?",
+                (rs, rowNum) -> new Snapshot(rs.getString("tag"), rs.getBytes("bitmap"), rs.getObject("change_seq", Long.class)), createdBy);
+    }
+
+    public void upsert(String createdBy, Map<String, byte[]> bitmaps, long changeSeq) {
+        jdbcTemplate.batchUpdate("INSERT INTO expense_tag_bitmaps (created_by, tag, bitmap, change_seq, updated_at) VALUES (?, ?, ?, ?, now())"
+                        + " ON CONFLICT (created_by, tag) DO UPDATE SET bitmap = EXCLUDED.bitmap, change_seq = EXCLUDED.change_seq,"
+                        + " updated_at = EXCLUDED.updated_at",
+                bitmaps.entrySet().stream().map(e -> new Object[] {createdBy, e.getKey(), e.getValue(), changeSeq}).toList());
+    }
+
+    public void delete(String createdBy, List<String> tags) {
+        jdbcTemplate.batchUpdate("DELETE FROM expense_tag_bitmaps WHERE created_by = ? AND tag = ?",
+                tags.stream().map(tag -> new Object[] {createdBy, tag}).toList());
+    }
+
+    public void deleteByCreatedBy(String createdBy) {
+        jdbcTemplate.update("DELETE FROM expense_tag_bitmaps WHERE created_by = ?", createdBy);
+    }
+
+    /** [expense count, max expense id, tag assignment count] for the user, to validate a persisted index. */
+    public long[] countExpensesAndTags(String createdBy) {
+        return jdbcTemplate.queryForObject("SELECT (SELECT count(*) FROM expenses WHERE created_by = ?),"
+                        + " (SELECT coalesce(max(id), 0) FROM expenses WHERE created_by = ?),"
+                        + " (SELECT count(*) FROM expense_tags t JOIN expenses e ON e.id = t.expense_id WHERE e.created_by = ?)",
+                (rs, rowNum) -> new long[] {rs.getLong(1), rs.getLong(2), rs.getLong(3)}, createdBy, createdBy, createdBy);
+    }
+
+    /** Streams (expense id, tag) for all of the user's expenses; tag is null for untagged expenses. */
+    public void forEachExpenseTag(String createdBy, RowCallbackHandler handler) {
+        jdbcTemplate.query("SELECT e.id, t.tag FROM expenses e LEFT JOIN expense_tags t ON t.expense_id = e.id WHERE e.created_by = ?",
+                handler, createdBy);
+    }
+}
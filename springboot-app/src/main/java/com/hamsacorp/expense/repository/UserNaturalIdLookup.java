@@ -0,0 +1,14 @@
+package com.hamsacorp.expense.repository;
+
+import com.hamsacorp.expense.model.User;
+
+import java.util.Optional;
+
+/**
+ * Lookup of a user by their natural id (email), mixed into {@link UserRepository}. Unlike
+ * {@link UserRepository#findByEmail} it is answered from the natural-id and entity caches once the
+ * user has been loaded, without a query.
+ */
+public interface UserNaturalIdLookup {
+    Optional<User> loadByEmail(String email);
+}
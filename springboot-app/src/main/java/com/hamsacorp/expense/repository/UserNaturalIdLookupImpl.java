@@ -0,0 +1,22 @@
+package com.hamsacorp.expense.repository;
+
+import com.hamsacorp.expense.model.User;
+import jakarta.persistence.EntityManager;
+import jakarta.persistence.PersistenceContext;
+import org.hibernate.Session;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.util.Optional;
+
+public class UserNaturalIdLookupImpl implements UserNaturalIdLookup {
+
+    @PersistenceContext
+    private EntityManager entityManager;
+
+    // Outside a transaction (or web request) the shared EntityManager would unwrap an already closed session
+    @Override
+    @Transactional(readOnly = true)
+    public Optional<User> loadByEmail(String email) {
+        return entityManager.unwrap(Session.class).bySimpleNaturalId(User.class).loadOptional(email);
+    }
+}
@@ -1,12 +1,18 @@
 package com.hamsacorp.expense.repository;
 
 import com.hamsacorp.expense.model.User;
+import jakarta.persistence.QueryHint;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.QueryHints;
 import org.springframework.stereotype.Repository;
 
 import java.util.Optional;
 
 @Repository
-public interface UserRepository extends JpaRepository<User, Long> {
+public interface UserRepository extends JpaRepository<User, Long>, UserNaturalIdLookup {
     Optional<User> findByEmail(String email);
+
+    // Query cache: unlike the natural-id cache it also remembers "no such user", until users is next written
+    @QueryHints(@QueryHint(name = "org.hibernate.cacheable", value = "true"))
+    boolean existsByEmail(String email);
 }
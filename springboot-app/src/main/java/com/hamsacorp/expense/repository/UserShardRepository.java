@@ -0,0 +1,41 @@
+package com.hamsacorp.expense.repository;
+
+import com.hamsacorp.expense.sharding.GlobalData;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Repository;
+
+import java.util.List;
+
+/**
+ * Shard directory (table user_shards in the primary database): which shard holds each user's
+ * expenses, and whether they are being moved. Users without a row are on the primary.
+ */
+@Repository
+@GlobalData
+public class UserShardRepository {
+
+    public record Assignment(String shard, boolean moving) {
+    }
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    public Assignment find(String userEmail) {
+        List<Assignment> assignments = jdbcTemplate.query("SELECT shard, moving FROM user_shards WHERE user_email = ?",
+                (rs, rowNum) -> new Assignment(rs.getString(1), rs.getBoolean(2)), userEmail);
+        return assignments.isEmpty() ? null : assignments.get(0);
+    }
+
+    /** Only for users without a row yet, i.e. at registration. */
+    public void insertIfAbsent(String userEmail, String shard) {
+        jdbcTemplate.update("INSERT INTO user_shards (user_email, shard, moving, updated_at) VALUES (?, ?, false, now()) "
+                + "ON CONFLICT (user_email) DO NOTHING", userEmail, shard);
+    }
+
+    public void save(String userEmail, String shard, boolean moving) {
+        jdbcTemplate.update("INSERT INTO user_shards (user_email, shard, moving, updated_at) VALUES (?, ?, ?, now()) "
+                + "ON CONFLICT (user_email) DO UPDATE SET shard = EXCLUDED.shard, moving = EXCLUDED.moving, updated_at = now()",
+                userEmail, shard, moving);
+    }
+}
@@ -0,0 +1,280 @@
+package com.hamsacorp.expense.service;
+
+import com.hamsacorp.expense.event.ExpenseChangedEvent;
+import com.hamsacorp.expense.model.Expense;
+import com.hamsacorp.expense.repository.ExpenseAnomalyRepository;
+import com.hamsacorp.expense.repository.ExpenseStatsRepository;
+import com.hamsacorp.expense.repository.ExpenseStatsRepository.Stat;
+import com.hamsacorp.expense.sharding.ShardContext;
+import com.hamsacorp.expense.sharding.ShardDirectory;
+import com.hamsacorp.expense.sharding.ShardWriteGuard;
+import com.hamsacorp.expense.sharding.UserMovingException;
+import jakarta.annotation.PreDestroy;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Flags unusual spending as expenses are written. Every write updates the user's running statistics
+ * (Welford's count, mean and m2, see expense_stats) of transaction amounts per category and of daily
+ * totals per day of week, and an expense is flagged when it lies more than {@code z-threshold}
+ * standard deviations above the mean of what came before it. Each check costs one read and one
+ * write of a few dozen stat rows, whatever the user's history.
+ *
+ * Events are handled off the request thread on a few single-threaded lanes picked by user, so a
+ * user's writes are applied in order and the write path only pays for an enqueue. A full lane drops
+ * the event: the statistics then miss one expense, which a running mean barely notices. While the
+ * user is being moved between shards the lane waits and retries, since the move copies the stats.
+ */
+@Service
+public class AnomalyDetectionService {
+    public static final String CATEGORY = "CATEGORY";
+    public static final String WEEKDAY = "WEEKDAY";
+
+    private static final String OPEN_DAY = "open-day";
+    private static final long MOVE_RETRY_MILLIS = 1000;
+
+    @Autowired
+    private ExpenseStatsRepository statsRepository;
+
+    @Autowired
+    private ExpenseAnomalyRepository anomalyRepository;
+
+    @Autowired
+    private DataVersionService dataVersionService;
+
+    @Autowired
+    private ShardWriteGuard shardWriteGuard;
+
+    @Autowired
+    private ShardDirectory shardDirectory;
+
+    @Value("${expense.anomalies.z-threshold:3.0}")
+    private double zThreshold;
+
+    @Value("${expense.anomalies.min-samples:10}")
+    private long minSamples;
+
+    // How long a lane keeps retrying an event of a user who is being moved between shards
+    @Value("${expense.anomalies.move-wait-seconds:600}")
+    private long moveWaitSeconds;
+
+    private final TransactionTemplate transactionTemplate;
+    private final List<ExecutorService> lanes = new ArrayList<>();
+
+    public AnomalyDetectionService(PlatformTransactionManager transactionManager,
+                                   @Value("${expense.anomalies.threads:2}") int threads,
+                                   @Value("${expense.anomalies.queue-size:10000}") int queueSize) {
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
+        for (int i = 0; i < threads; i++) {
+            String name = "anomaly-detection-" + i;
+            lanes.add(new ThreadPoolExecutor(1, 1, 0, TimeUnit.MILLISECONDS, new LinkedBlockingQueue<>(queueSize), runnable -> {
+                Thread thread = new Thread(runnable, name);
+                thread.setDaemon(true);
+                return thread;
+            }));
+        }
+    }
+
+    /** The user's flagged expenses dated within [from, to], latest first. */
+    public List<ExpenseAnomalyRepository.Anomaly> findAnomalies(String email, LocalDate from, LocalDate to, int limit) {
+        return anomalyRepository.findByDateRange(email, from, to, limit);
+    }
+
+    @EventListener
+    public void onExpenseChanged(ExpenseChangedEvent event) {
+        if (!isSpending(event.getBefore()) && !isSpending(event.getAfter())) {
+            return;
+        }
+        String email = event.getUserEmail();
+        try {
+            lanes.get(Math.floorMod(email.hashCode(), lanes.size())).execute(() -> process(event));
+        } catch (RejectedExecutionException e) {
+            System.err.println("Anomaly detection queue full, skipping expense " + event.getExpenseId() + " of user " + email);
+        }
+    }
+
+    private void process(ExpenseChangedEvent event) {
+        String email = event.getUserEmail();
+        try {
+            Boolean flagged = null;
+            for (int attempt = 1; flagged == null; attempt++) {
+                try {
+                    flagged = ShardContext.call(shardDirectory.shardOf(email),
+                            () -> transactionTemplate.execute(status -> apply(email, event.getBefore(), event.getAfter())));
+                } catch (UserMovingException e) {
+                    // The stats move with the user's other rows; apply the change wherever they end up
+                    if (attempt * MOVE_RETRY_MILLIS >= moveWaitSeconds * 1000L) {
+                        throw e;
+                    }
+                    Thread.sleep(MOVE_RETRY_MILLIS);
+                }
+            }
+            if (flagged) {
+                dataVersionService.bump(email); // Cached detail responses now miss the anomaly
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (RuntimeException e) {
+            System.err.println("Error checking expense " + event.getExpenseId() + " of user " + email + " for anomalies: " + e.getMessage());
+        }
+    }
+
+    private boolean apply(String email, Expense before, Expense after) {
+        shardWriteGuard.lockForWrite(email);
+        statsRepository.lockUser(email);
+        Map<String, Stat> stats = statsRepository.findByCreatedBy(email);
+        Set<String> changed = new HashSet<>();
+        if (isSpending(before)) {
+            unrecord(stats, changed, before);
+            anomalyRepository.deleteByExpenseId(email, before.getId());
+        }
+        boolean flagged = false;
+        if (isSpending(after)) {
+            flagged = record(email, stats, changed, after);
+        }
+
+        Map<String, Stat> updated = new HashMap<>();
+        List<String> removed = new ArrayList<>();
+        for (String key : changed) {
+            if (stats.get(key) != null) {
+                updated.put(key, stats.get(key));
+            } else {
+                removed.add(key);
+            }
+        }
+        statsRepository.save(email, updated);
+        statsRepository.delete(email, removed);
+        return flagged;
+    }
+
+    // Checks the expense against the statistics without it, then adds it to them
+    private boolean record(String email, Map<String, Stat> stats, Set<String> changed, Expense expense) {
+        double amount = expense.getAmount();
+        String category = categoryOf(expense);
+        String categoryKey = "category:" + category;
+        boolean flagged = check(email, expense, CATEGORY, category, amount, stats.get(categoryKey));
+        stats.put(categoryKey, add(stats.get(categoryKey), amount));
+        changed.add(categoryKey);
+
+        LocalDate date = expense.getDate();
+        if (date == null) {
+            return flagged;
+        }
+        long day = date.toEpochDay();
+        Stat open = stats.get(OPEN_DAY);
+        String weekdayKey = weekdayKey(date);
+        if (open == null || day > open.n()) {
+            if (open != null) {
+                String closedKey = weekdayKey(LocalDate.ofEpochDay(open.n()));
+                stats.put(closedKey, add(stats.get(closedKey), open.mean()));
+                changed.add(closedKey);
+            }
+            flagged |= check(email, expense, WEEKDAY, date.getDayOfWeek().name(), amount, stats.get(weekdayKey));
+            stats.put(OPEN_DAY, new Stat(day, amount, 0));
+            changed.add(OPEN_DAY);
+        } else if (day == open.n()) {
+            // Flagged once, on the expense that takes the day's total over the threshold
+            Stat weekday = stats.get(weekdayKey);
+            double total = open.mean() + amount;
+            if (!exceeds(weekday, open.mean())) {
+                flagged |= check(email, expense, WEEKDAY, date.getDayOfWeek().name(), total, weekday);
+            }
+            stats.put(OPEN_DAY, new Stat(day, total, 0));
+            changed.add(OPEN_DAY);
+        }
+        // Backdated expenses only count towards their category: the closed day's total isn't kept
+        return flagged;
+    }
+
+    private void unrecord(Map<String, Stat> stats, Set<String> changed, Expense expense) {
+        double amount = expense.getAmount();
+        String categoryKey = "category:" + categoryOf(expense);
+        stats.put(categoryKey, remove(stats.get(categoryKey), amount));
+        changed.add(categoryKey);
+
+        Stat open = stats.get(OPEN_DAY);
+        if (open != null && expense.getDate() != null && expense.getDate().toEpochDay() == open.n()) {
+            stats.put(OPEN_DAY, new Stat(open.n(), Math.max(0, open.mean() - amount), 0));
+            changed.add(OPEN_DAY);
+        }
+    }
+
+    private boolean check(String email, Expense expense, String kind, String subject, double value, Stat stat) {
+        if (!exceeds(stat, value)) {
+            return false;
+        }
+        double stddev = stddev(stat);
+        anomalyRepository.save(email, new ExpenseAnomalyRepository.Anomaly(expense.getId(), kind, subject, expense.getDate(),
+                value, stat.mean(), stddev, (value - stat.mean()) / stddev, null));
+        return true;
+    }
+
+    private boolean exceeds(Stat stat, double value) {
+        return stat != null && stat.n() >= minSamples && (value - stat.mean()) / stddev(stat) > zThreshold;
+    }
+
+    // Sample standard deviation, floored so a history of identical amounts doesn't flag every change
+    private static double stddev(Stat stat) {
+        double variance = stat.n() > 1 ? stat.m2() / (stat.n() - 1) : 0;
+        return Math.max(Math.sqrt(variance), Math.max(Math.abs(stat.mean()) * 0.01, 0.01));
+    }
+
+    private static Stat add(Stat stat, double x) {
+        if (stat == null) {
+            return new Stat(1, x, 0);
+        }
+        long n = stat.n() + 1;
+        double delta = x - stat.mean();
+        double mean = stat.mean() + delta / n;
+        return new Stat(n, mean, stat.m2() + delta * (x - mean));
+    }
+
+    // Welford's update run backwards; null once nothing is left
+    private static Stat remove(Stat stat, double x) {
+        if (stat == null || stat.n() <= 1) {
+            return null;
+        }
+        long n = stat.n() - 1;
+        double mean = (stat.mean() * stat.n() - x) / n;
+        return new Stat(n, mean, Math.max(0, stat.m2() - (x - mean) * (x - stat.mean())));
+    }
+
+    private static boolean isSpending(Expense expense) {
+        return expense != null && expense.getType() == Expense.ExpenseType.EXPENSE && expense.getAmount() != null;
+    }
+
+    private static String categoryOf(Expense expense) {
+        return expense.getCategory() == null ? "Uncategorized" : expense.getCategory();
+    }
+
+    private static String weekdayKey(LocalDate date) {
+        return "weekday:" + date.getDayOfWeek().getValue();
+    }
+
+    @PreDestroy
+    public void shutdown() throws InterruptedException {
+        for (ExecutorService lane : lanes) {
+            lane.shutdown();
+        }
+        for (ExecutorService lane : lanes) {
+            lane.awaitTermination(10, TimeUnit.SECONDS);
+        }
+    }
+}
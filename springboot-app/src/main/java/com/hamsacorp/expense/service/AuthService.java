@@ -2,6 +2,7 @@ package com.hamsacorp.expense.service;
 
 import com.hamsacorp.expense.model.User;
 import com.hamsacorp.expense.repository.UserRepository;
+import com.hamsacorp.expense.sharding.ShardDirectory;
 import io.jsonwebtoken.Claims;
 import io.jsonwebtoken.JwtException;
 import io.jsonwebtoken.Jwts;
@@ -17,6 +18,9 @@ public class AuthService {
     @Autowired
     private UserRepository userRepository;
 
+    @Autowired
+    private ShardDirectory shardDirectory;
+
     private static final SecretKey JWT_SECRET = Keys.hmacShaKeyFor("my-super-secret-key-which-should-be-long-enough-2025".getBytes());
     private static final long JWT_EXPIRATION_MS = 24 * 60 * 60 * 1000; // 24 hours
 
@@ -24,7 +28,7 @@ public class AuthService {
         if (email == null || password == null) {
             return "Email and password are required";
         }
-        if (userRepository.findByEmail(email).isPresent()) {
+        if (userRepository.existsByEmail(email)) {
             return "Email already registered";
         }
         User user = new User();
@@ -35,17 +39,26 @@ public class AuthService {
         user.setCountryCode(countryCode);
         user.setMobile(mobile);
         userRepository.save(user);
+        shardDirectory.assignNewUser(email);
         return null; // null means success
     }
 
     public boolean authenticate(String email, String password) {
-        return userRepository.findByEmail(email)
-                .map(user -> user.getPassword().equals(password))
-                .orElse(false);
+        return authenticate(findByEmail(email), password);
+    }
+
+    /** For callers that already looked the user up. */
+    public boolean authenticate(User user, String password) {
+        return user != null && user.getPassword().equals(password);
     }
 
+    // Natural-id lookup: served from the second-level cache after the first load
     public User findByEmail(String email) {
-        return userRepository.findByEmail(email).orElse(null);
+        return userRepository.loadByEmail(email).orElse(null);
+    }
+
+    public boolean exists(String email) {
+        return userRepository.existsByEmail(email);
     }
 
     public String generateJwtToken(String email) {
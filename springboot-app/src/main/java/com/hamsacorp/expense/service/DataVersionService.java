@@ -0,0 +1,114 @@
+package com.hamsacorp.expense.service;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.hamsacorp.expense.sharding.GlobalData;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Service;
+
+import java.time.Duration;
+import java.time.LocalDate;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Per-user, monotonically increasing version of everything a user's GET endpoints depend on.
+ * Bumped on every expense write and settings change; used to derive strong ETags and to tell
+ * in-memory caches whether they are current.
+ *
+ * Versions are kept in user_data_versions so every instance hands out the same sequence. Each
+ * instance holds the versions of the users it has seen; its own bumps are queued for
+ * {@link InvalidationBus} to announce, and versions announced by other instances are applied
+ * through {@link #advance(String, long)}. Users idle for {@code version-idle-minutes}, or the least
+ * recently used beyond {@code max-cached-versions}, are dropped and read back on their next request.
+ */
+@Service
+@GlobalData
+public class DataVersionService {
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    private final Cache<String, AtomicLong> versions;
+    // Bumped but not yet announced, coalesced to the latest version per user
+    private final Map<String, Long> unannounced = new ConcurrentHashMap<>();
+
+    public DataVersionService(@Value("${expense.invalidation.max-cached-versions:100000}") long maxCachedVersions,
+                              @Value("${expense.invalidation.version-idle-minutes:60}") long idleMinutes) {
+        this.versions = Caffeine.newBuilder()
+                .maximumSize(maxCachedVersions)
+                .expireAfterAccess(Duration.ofMinutes(idleMinutes))
+                .build();
+    }
+
+    public long getVersion(String userEmail) {
+        if (userEmail == null) {
+            return 0;
+        }
+        AtomicLong version = versions.getIfPresent(userEmail);
+        if (version == null) {
+            List<Long> stored = jdbcTemplate.queryForList("SELECT version FROM user_data_versions WHERE user_email = ?", Long.class, userEmail);
+            version = versions.get(userEmail, k -> new AtomicLong());
+            version.accumulateAndGet(stored.isEmpty() ? 0 : stored.get(0), Math::max);
+        }
+        return version.get();
+    }
+
+    public long bump(String userEmail) {
+        return bump(userEmail, 1);
+    }
+
+    /** Reserves {@code count} consecutive versions and returns the last of them. */
+    public long bump(String userEmail, int count) {
+        if (userEmail == null) {
+            return 0;
+        }
+        long bumped = jdbcTemplate.queryForObject(
+                "INSERT INTO user_data_versions (user_email, version, updated_at) VALUES (?, ?, now()) "
+                        + "ON CONFLICT (user_email) DO UPDATE SET version = user_data_versions.version + EXCLUDED.version, updated_at = now() "
+                        + "RETURNING version",
+                Long.class, userEmail, count);
+        versions.get(userEmail, k -> new AtomicLong()).accumulateAndGet(bumped, Math::max);
+        unannounced.merge(userEmail, bumped, Math::max);
+        return bumped;
+    }
+
+    /**
+     * Moves a user this instance has seen forward to a version written elsewhere. Returns true if
+     * that made the local version newer, i.e. whatever was cached for the user is out of date. Also
+     * true for a user whose version isn't held: it may have been dropped while other caches still
+     * hold data built at it, and the stored version is read on next use anyway.
+     */
+    public boolean advance(String userEmail, long version) {
+        AtomicLong current = versions.getIfPresent(userEmail);
+        if (current == null) {
+            return true;
+        }
+        return current.getAndAccumulate(version, Math::max) < version;
+    }
+
+    /** Takes the bumps made on this instance since the last call, latest version per user. */
+    public Map<String, Long> drainUnannounced() {
+        Map<String, Long> drained = new HashMap<>();
+        for (String userEmail : unannounced.keySet()) {
+            Long version = unannounced.remove(userEmail);
+            if (version != null) {
+                drained.put(userEmail, version);
+            }
+        }
+        return drained;
+    }
+
+    /**
+     * Opaque ETag value for the user's current data. The current date is included because
+     * several endpoints default to "today" / "this month" and change at midnight without any write.
+     */
+    public String getETag(String userEmail) {
+        return getVersion(userEmail) + "-" + LocalDate.now().toEpochDay();
+    }
+}
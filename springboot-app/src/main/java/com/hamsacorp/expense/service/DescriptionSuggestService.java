@@ -0,0 +1,271 @@
+package com.hamsacorp.expense.service;
+
+import com.hamsacorp.expense.event.ExpenseChangedEvent;
+import com.hamsacorp.expense.event.UserInvalidationEvent;
+import com.hamsacorp.expense.model.Expense;
+import com.hamsacorp.expense.repository.ExpenseChangeLogRepository;
+import com.hamsacorp.expense.repository.ExpenseRepository;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionDefinition;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.TreeMap;
+
+/**
+ * Description autocomplete for the add-expense form.
+ *
+ * Each user gets a sorted map of normalised descriptions (same normalisation as recurring-expense
+ * detection), so a prefix lookup is a sub-map range scan. Entries carry an exponentially decayed use
+ * count, which ranks frequent and recent descriptions first, plus what's needed to pre-fill the form.
+ * Users are loaded on their first lookup, patched from {@link ExpenseChangedEvent} and evicted least
+ * recently used once the estimated footprint of all loaded users passes the memory cap. A load reads
+ * the user's change counter in the same snapshot as the history, and events it already covers are
+ * skipped: adding an expense twice would count it twice.
+ */
+@Service
+public class DescriptionSuggestService {
+    private static final double HALF_LIFE_DAYS = 60.0;
+    // Rough per-entry overhead of the map node, stats object and category map
+    private static final long ENTRY_OVERHEAD_BYTES = 240;
+
+    private static final class Suggestion {
+        String description;
+        Expense.ExpenseType type;
+        double lastAmount;
+        long lastDay;
+        int count;
+        // Decayed count as of lastDay
+        double weight;
+        final Map<String, Integer> categories = new HashMap<>(4);
+
+        double weightOn(long day) {
+            return weight * Math.pow(0.5, (day - lastDay) / HALF_LIFE_DAYS);
+        }
+
+        String usualCategory() {
+            String usual = null;
+            int best = 0;
+            for (Map.Entry<String, Integer> entry : categories.entrySet()) {
+                if (entry.getValue() > best) {
+                    usual = entry.getKey();
+                    best = entry.getValue();
+                }
+            }
+            return usual;
+        }
+    }
+
+    private static final class UserSuggestions {
+        final long builtAtSeq;
+        final TreeMap<String, Suggestion> byDescription = new TreeMap<>();
+        long estimatedBytes;
+
+        UserSuggestions(long builtAtSeq) {
+            this.builtAtSeq = builtAtSeq;
+        }
+
+        void add(Expense expense) {
+            String key = ExpenseService.normalizeDescription(expense.getDescription());
+            if (key.isEmpty()) {
+                return;
+            }
+            Suggestion suggestion = byDescription.get(key);
+            if (suggestion == null) {
+                suggestion = new Suggestion();
+                byDescription.put(key, suggestion);
+                estimatedBytes += ENTRY_OVERHEAD_BYTES + 4L * key.length();
+            }
+            long day = expense.getDate().toEpochDay();
+            if (suggestion.count == 0 || day >= suggestion.lastDay) {
+                suggestion.weight = suggestion.weightOn(day) + 1;
+                suggestion.lastDay = day;
+                suggestion.description = expense.getDescription().trim().replaceAll("\\s+", " ");
+                suggestion.type = expense.getType();
+                suggestion.lastAmount = expense.getAmount();
+            } else {
+                // Back-dated: counts for less, doesn't change what gets pre-filled
+                suggestion.weight += Math.pow(0.5, (suggestion.lastDay - day) / HALF_LIFE_DAYS);
+            }
+            suggestion.count++;
+            suggestion.categories.merge(expense.getCategory(), 1, Integer::sum);
+        }
+
+        void remove(Expense expense) {
+            String key = ExpenseService.normalizeDescription(expense.getDescription());
+            Suggestion suggestion = byDescription.get(key);
+            if (suggestion == null) {
+                return;
+            }
+            if (--suggestion.count <= 0) {
+                byDescription.remove(key);
+                estimatedBytes -= ENTRY_OVERHEAD_BYTES + 4L * key.length();
+                return;
+            }
+            long day = expense.getDate().toEpochDay();
+            suggestion.weight = Math.max(0, suggestion.weight - Math.pow(0.5, Math.max(0, suggestion.lastDay - day) / HALF_LIFE_DAYS));
+            suggestion.categories.computeIfPresent(expense.getCategory(), (k, n) -> n > 1 ? n - 1 : null);
+        }
+    }
+
+    @Autowired
+    private ExpenseRepository expenseRepository;
+
+    @Autowired
+    private ExpenseChangeLogRepository changeLogRepository;
+
+    @Autowired
+    private DataVersionService dataVersionService;
+
+    @Value("${expense.suggest.history-days:730}")
+    private int historyDays;
+
+    @Value("${expense.suggest.max-memory-mb:32}")
+    private long maxMemoryMb;
+
+    // Access-ordered so iteration starts at the least recently used user
+    private final LinkedHashMap<String, UserSuggestions> users = new LinkedHashMap<>(16, 0.75f, true);
+    private long totalBytes;
+    private final TransactionTemplate snapshot;
+
+    public DescriptionSuggestService(PlatformTransactionManager transactionManager) {
+        this.snapshot = new TransactionTemplate(transactionManager);
+        this.snapshot.setIsolationLevel(TransactionDefinition.ISOLATION_REPEATABLE_READ);
+        this.snapshot.setReadOnly(true);
+    }
+
+    public List<Map<String, Object>> suggest(String email, String prefix, int limit) {
+        String key = ExpenseService.normalizeDescription(prefix);
+        UserSuggestions userSuggestions = getOrLoad(email);
+        long today = LocalDate.now().toEpochDay();
+
+        // Min-heap of the best `limit` matches so far
+        PriorityQueue<Map.Entry<Suggestion, Double>> best = new PriorityQueue<>(Map.Entry.comparingByValue());
+        synchronized (userSuggestions) {
+            Map<String, Suggestion> matches = key.isEmpty() ? userSuggestions.byDescription
+                    : userSuggestions.byDescription.subMap(key, true, key + Character.MAX_VALUE, false);
+            for (Suggestion suggestion : matches.values()) {
+                double weight = suggestion.weightOn(today);
+                if (best.size() < limit) {
+                    best.add(Map.entry(suggestion, weight));
+                } else if (weight > best.peek().getValue()) {
+                    best.poll();
+                    best.add(Map.entry(suggestion, weight));
+                }
+            }
+
+            List<Map<String, Object>> result = new ArrayList<>(best.size());
+            while (!best.isEmpty()) {
+                Suggestion suggestion = best.poll().getKey();
+                Map<String, Object> item = new LinkedHashMap<>();
+                item.put("description", suggestion.description);
+                item.put("category", suggestion.usualCategory());
+                item.put("amount", suggestion.lastAmount);
+                item.put("type", suggestion.type);
+                item.put("count", suggestion.count);
+                item.put("lastUsed", LocalDate.ofEpochDay(suggestion.lastDay).toString());
+                result.add(0, item);
+            }
+            return result;
+        }
+    }
+
+    private UserSuggestions getOrLoad(String email) {
+        synchronized (users) {
+            UserSuggestions loaded = users.get(email);
+            if (loaded != null) {
+                return loaded;
+            }
+        }
+        long version = dataVersionService.getVersion(email);
+        UserSuggestions built = snapshot.execute(status -> build(email));
+        synchronized (users) {
+            UserSuggestions raced = users.get(email);
+            if (raced != null) {
+                return raced;
+            }
+            if (dataVersionService.getVersion(email) != version) {
+                return built; // A write raced the load; answer from it but don't keep it
+            }
+            users.put(email, built);
+            totalBytes += built.estimatedBytes;
+            evictOverCap();
+        }
+        return built;
+    }
+
+    // In one snapshot, so the counter covers exactly the writes the history includes
+    private UserSuggestions build(String email) {
+        long changeSeq = changeLogRepository.findCounters(email)[0];
+        LocalDate today = LocalDate.now();
+        List<Expense> history = expenseRepository.findAllByCreatedByAndDateBetweenOrderByDateDesc(
+                email, today.minusDays(historyDays), today.plusDays(historyDays));
+        UserSuggestions built = new UserSuggestions(changeSeq);
+        for (int i = history.size() - 1; i >= 0; i--) {
+            built.add(history.get(i));
+        }
+        return built;
+    }
+
+    private void evictOverCap() {
+        long maxBytes = maxMemoryMb * 1024 * 1024;
+        var eldest = users.entrySet().iterator();
+        // Never evict the user just added (the most recent entry)
+        while (totalBytes > maxBytes && users.size() > 1 && eldest.hasNext()) {
+            UserSuggestions evicted = eldest.next().getValue();
+            eldest.remove();
+            totalBytes -= evicted.estimatedBytes;
+        }
+    }
+
+    @EventListener
+    public void onExpenseChanged(ExpenseChangedEvent event) {
+        UserSuggestions userSuggestions;
+        synchronized (users) {
+            userSuggestions = users.get(event.getUserEmail());
+        }
+        if (userSuggestions == null) {
+            return;
+        }
+        long delta;
+        synchronized (userSuggestions) {
+            if (event.getChangeSeq() <= userSuggestions.builtAtSeq) {
+                return; // Already in the history the suggestions were built from
+            }
+            long before = userSuggestions.estimatedBytes;
+            if (event.getBefore() != null) {
+                userSuggestions.remove(event.getBefore());
+            }
+            if (event.getAfter() != null) {
+                userSuggestions.add(event.getAfter());
+            }
+            delta = userSuggestions.estimatedBytes - before;
+        }
+        synchronized (users) {
+            if (users.get(event.getUserEmail()) == userSuggestions) {
+                totalBytes += delta;
+                evictOverCap();
+            }
+        }
+    }
+
+    @EventListener
+    public void onUserInvalidated(UserInvalidationEvent event) {
+        synchronized (users) {
+            UserSuggestions removed = users.remove(event.getUserEmail());
+            if (removed != null) {
+                totalBytes -= removed.estimatedBytes;
+            }
+        }
+    }
+}
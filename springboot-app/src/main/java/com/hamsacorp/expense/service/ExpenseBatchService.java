@@ -0,0 +1,297 @@
+package com.hamsacorp.expense.service;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.hamsacorp.expense.event.ExpenseChangedEvent;
+import com.hamsacorp.expense.model.Expense;
+import com.hamsacorp.expense.model.ExpenseBatchOperation;
+import com.hamsacorp.expense.repository.BatchIdempotencyRepository;
+import com.hamsacorp.expense.repository.ExpenseChangeLogRepository;
+import com.hamsacorp.expense.repository.ExpenseRepository;
+import com.hamsacorp.expense.sharding.ShardWriteGuard;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+
+/**
+ * Applies a list of create/update/delete operations in one transaction, all or nothing.
+ *
+ * Creates are inserted together at the end so Hibernate can send them as JDBC batches; updates and
+ * deletes are the same single conditional statements as the per-expense endpoints. If any operation
+ * fails the transaction is rolled back and the failure is reported at its index, with every other
+ * operation marked 424 (not applied). Change events are only published once the transaction has
+ * committed, so listeners never see writes that were rolled back.
+ */
+@Service
+public class ExpenseBatchService {
+    public static final int FAILED_DEPENDENCY = 424;
+
+    /** Outcome of a batch: the HTTP status for the whole request plus one result per operation. */
+    public record BatchResult(int status, List<Map<String, Object>> results) {
+    }
+
+    private record Change(Expense before, Expense after) {
+    }
+
+    @Autowired
+    private ExpenseRepository expenseRepository;
+
+    @Autowired
+    private BatchIdempotencyRepository batchIdempotencyRepository;
+
+    @Autowired
+    private ExpenseChangeLogRepository changeLogRepository;
+
+    @Autowired
+    private DataVersionService dataVersionService;
+
+    @Autowired
+    private ApplicationEventPublisher eventPublisher;
+
+    @Autowired
+    private ObjectMapper objectMapper;
+
+    @Autowired
+    private ShardWriteGuard shardWriteGuard;
+
+    @Value("${expense.batch.max-operations:500}")
+    private int maxOperations;
+
+    @Value("${expense.batch.idempotency-days:7}")
+    private int idempotencyDays;
+
+    private final TransactionTemplate transactionTemplate;
+
+    public ExpenseBatchService(PlatformTransactionManager transactionManager) {
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
+    }
+
+    public BatchResult apply(String email, List<ExpenseBatchOperation> operations) {
+        if (operations == null || operations.isEmpty()) {
+            throw new IllegalArgumentException("No operations");
+        }
+        if (operations.size() > maxOperations) {
+            throw new IllegalArgumentException("At most " + maxOperations + " operations per batch");
+        }
+        Set<String> keys = new HashSet<>();
+        for (ExpenseBatchOperation operation : operations) {
+            String key = operation.getIdempotencyKey();
+            if (key != null && (key.isEmpty() || key.length() > 100 || !keys.add(key))) {
+                throw new IllegalArgumentException("Idempotency keys must be unique within a batch and 1-100 characters: " + key);
+            }
+        }
+
+        List<Change> changes = new ArrayList<>();
+        long[] changeSeq = new long[1];
+        BatchResult result = transactionTemplate.execute(status -> {
+            BatchResult applied = applyInTransaction(email, operations, keys, changes);
+            if (applied.status() != 200) {
+                status.setRollbackOnly();
+            } else {
+                // Every change commits together, so they all carry the transaction's last sequence value
+                changeSeq[0] = changeLogRepository.findCounters(email)[0];
+            }
+            return applied;
+        });
+        if (result.status() == 200 && !changes.isEmpty()) {
+            // One version per change, reserved in a single round trip
+            long version = dataVersionService.bump(email, changes.size()) - changes.size();
+            for (Change change : changes) {
+                eventPublisher.publishEvent(new ExpenseChangedEvent(email, change.before(), change.after(), ++version, changeSeq[0]));
+            }
+        }
+        return result;
+    }
+
+    private BatchResult applyInTransaction(String email, List<ExpenseBatchOperation> operations, Set<String> keys, List<Change> changes) {
+        shardWriteGuard.lockForWrite(email);
+        batchIdempotencyRepository.deleteOlderThanDays(email, idempotencyDays);
+        Map<String, String> applied = batchIdempotencyRepository.findResults(email, keys);
+
+        List<Map<String, Object>> results = new ArrayList<>(operations.size());
+        Map<Integer, Expense> creates = new LinkedHashMap<>();
+        for (int i = 0; i < operations.size(); i++) {
+            ExpenseBatchOperation operation = operations.get(i);
+            String key = operation.getIdempotencyKey();
+            if (key != null && applied.containsKey(key)) {
+                Map<String, Object> replayed = readResult(applied.get(key));
+                replayed.put("index", i);
+                replayed.put("replayed", true);
+                results.add(replayed);
+                continue;
+            }
+
+            Map<String, Object> result;
+            try {
+                result = switch (operation.getOp() == null ? "" : operation.getOp()) {
+                    case "create" -> prepareCreate(email, operation, i, creates);
+                    case "update" -> update(email, operation, changes);
+                    case "delete" -> delete(email, operation, changes);
+                    default -> failure(400, "Unknown op: " + operation.getOp());
+                };
+            } catch (IllegalArgumentException e) {
+                result = failure(400, e.getMessage());
+            }
+            result.put("index", i);
+            result.put("op", operation.getOp());
+            if (key != null) {
+                result.put("idempotencyKey", key);
+            }
+            results.add(result);
+            if (result.containsKey("error")) {
+                return rejected(results, operations.size(), i);
+            }
+        }
+
+        // All creates in one flush: ids come from the sequence, so the INSERTs are batched
+        if (!creates.isEmpty()) {
+            expenseRepository.saveAll(creates.values());
+            expenseRepository.flush();
+            for (Map.Entry<Integer, Expense> create : creates.entrySet()) {
+                Expense saved = create.getValue();
+                Map<String, Object> result = results.get(create.getKey());
+                result.put("id", saved.getId());
+                result.put("version", saved.getVersion());
+                changes.add(new Change(null, ExpenseChangedEvent.snapshot(saved)));
+            }
+        }
+
+        Map<String, String> newlyApplied = new LinkedHashMap<>();
+        for (Map<String, Object> result : results) {
+            if (result.containsKey("idempotencyKey") && !result.containsKey("replayed")) {
+                newlyApplied.put((String) result.get("idempotencyKey"), writeResult(result));
+            }
+        }
+        if (!newlyApplied.isEmpty()) {
+            batchIdempotencyRepository.insert(email, newlyApplied);
+        }
+        return new BatchResult(200, results);
+    }
+
+    private Map<String, Object> prepareCreate(String email, ExpenseBatchOperation operation, int index, Map<Integer, Expense> creates) {
+        Expense expense = requireComplete(operation.getExpense());
+        expense.setId(null);
+        expense.setVersion(null);
+        expense.setCreatedBy(email);
+        expense.setTags(ExpenseService.normalizeTags(expense.getTags()));
+        creates.put(index, expense);
+        Map<String, Object> result = new LinkedHashMap<>();
+        result.put("status", 201);
+        return result;
+    }
+
+    private Map<String, Object> update(String email, ExpenseBatchOperation operation, List<Change> changes) {
+        if (operation.getId() == null) {
+            throw new IllegalArgumentException("update needs id");
+        }
+        Expense updated = requireComplete(operation.getExpense());
+        updated.setId(operation.getId());
+        updated.setCreatedBy(email);
+        if (operation.getVersion() != null) {
+            updated.setVersion(operation.getVersion());
+        }
+        updated.setTags(ExpenseService.normalizeTags(updated.getTags()));
+        Optional<Expense> previous = expenseRepository.updateIfCurrent(updated);
+        if (previous.isEmpty()) {
+            return rejectedWrite(operation.getId(), email);
+        }
+        changes.add(new Change(previous.get(), ExpenseChangedEvent.snapshot(updated)));
+
+        Map<String, Object> result = new LinkedHashMap<>();
+        result.put("status", 200);
+        result.put("id", updated.getId());
+        result.put("version", updated.getVersion());
+        return result;
+    }
+
+    private Map<String, Object> delete(String email, ExpenseBatchOperation operation, List<Change> changes) {
+        if (operation.getId() == null) {
+            throw new IllegalArgumentException("delete needs id");
+        }
+        Optional<Expense> previous = expenseRepository.deleteIfCurrent(operation.getId(), email, operation.getVersion());
+        if (previous.isEmpty()) {
+            return rejectedWrite(operation.getId(), email);
+        }
+        changes.add(new Change(previous.get(), null));
+
+        Map<String, Object> result = new LinkedHashMap<>();
+        result.put("status", 204);
+        result.put("id", operation.getId());
+        return result;
+    }
+
+    // Checked up front so a bad entry fails at its own index instead of as a constraint violation at flush
+    private static Expense requireComplete(Expense expense) {
+        if (expense == null || expense.getType() == null || expense.getDescription() == null || expense.getAmount() == null
+                || expense.getDate() == null || expense.getCategory() == null || expense.getPaymentMethod() == null) {
+            throw new IllegalArgumentException("expense needs type, description, amount, date, category and paymentMethod");
+        }
+        ExpenseService.checkDate(expense.getDate());
+        return expense;
+    }
+
+    // Same classification as the single-expense endpoints: 404, 403 or 409 with the current version
+    private Map<String, Object> rejectedWrite(Long id, String email) {
+        Optional<Expense> current = expenseRepository.findById(id);
+        if (current.isEmpty()) {
+            return failure(404, "Expense not found");
+        }
+        if (!email.equals(current.get().getCreatedBy())) {
+            return failure(403, "Forbidden");
+        }
+        Map<String, Object> conflict = failure(409, "Expense was modified by another request");
+        conflict.put("currentVersion", current.get().getVersion());
+        return conflict;
+    }
+
+    private static Map<String, Object> failure(int status, String error) {
+        Map<String, Object> result = new LinkedHashMap<>();
+        result.put("status", status);
+        result.put("error", error);
+        return result;
+    }
+
+    private static BatchResult rejected(List<Map<String, Object>> processed, int operationCount, int failedIndex) {
+        List<Map<String, Object>> results = new ArrayList<>(operationCount);
+        for (int i = 0; i < operationCount; i++) {
+            if (i == failedIndex) {
+                results.add(processed.get(i));
+                continue;
+            }
+            Map<String, Object> notApplied = new LinkedHashMap<>();
+            notApplied.put("index", i);
+            notApplied.put("status", FAILED_DEPENDENCY);
+            results.add(notApplied);
+        }
+        return new BatchResult((Integer) processed.get(failedIndex).get("status"), results);
+    }
+
+    private String writeResult(Map<String, Object> result) {
+        try {
+            return objectMapper.writeValueAsString(result);
+        } catch (JsonProcessingException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private Map<String, Object> readResult(String json) {
+        try {
+            return objectMapper.readValue(json, new TypeReference<LinkedHashMap<String, Object>>() {
+            });
+        } catch (JsonProcessingException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
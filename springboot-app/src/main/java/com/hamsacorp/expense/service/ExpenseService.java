@@ -1,10 +1,23 @@
 package com.hamsacorp.expense.service;
 
+import com.hamsacorp.expense.analytics.Lttb;
+import com.hamsacorp.expense.event.ExpenseChangedEvent;
 import com.hamsacorp.expense.model.Expense;
+import com.hamsacorp.expense.model.UserSettings;
+import com.hamsacorp.expense.repository.ExpenseAnomalyRepository;
+import com.hamsacorp.expense.repository.ExpenseChangeLogRepository;
 import com.hamsacorp.expense.repository.ExpenseRepository;
+import com.hamsacorp.expense.repository.ExpenseSpecifications;
+import com.hamsacorp.expense.sharding.ShardScatterGather;
+import com.hamsacorp.expense.sharding.ShardWriteGuard;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.context.ApplicationEventPublisher;
 import org.springframework.data.domain.Page;
+import org.springframework.data.domain.PageImpl;
+import org.springframework.data.domain.PageRequest;
 import org.springframework.data.domain.Pageable;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.jpa.domain.Specification;
 import org.springframework.stereotype.Service;
 
 import java.time.LocalDate;
@@ -19,36 +32,180 @@ public class ExpenseService {
     @Autowired
     private UserSettingsService userSettingsService;
 
+    @Autowired
+    private DataVersionService dataVersionService;
+
+    @Autowired
+    private ApplicationEventPublisher eventPublisher;
+
+    @Autowired
+    private HotUserSearchIndex hotUserSearchIndex;
+
+    @Autowired
+    private TagIndexService tagIndexService;
+
+    @Autowired
+    private ShardScatterGather shardScatterGather;
+
+    @Autowired
+    private AnomalyDetectionService anomalyDetectionService;
+
+    @Autowired
+    private RangeTotalsService rangeTotalsService;
+
+    @Autowired
+    private ShardWriteGuard shardWriteGuard;
+
+    @Autowired
+    private ExpenseChangeLogRepository changeLogRepository;
+
+    public static final int MAX_TAGS_PER_EXPENSE = 20;
+    public static final int MAX_TAG_LENGTH = 50;
+    // Dates a write may carry; per-day indexes are sized by the span a user's dates cover
+    public static final LocalDate MIN_DATE = LocalDate.of(1900, 1, 1);
+    public static final LocalDate MAX_DATE = LocalDate.of(2199, 12, 31);
+    // Above this many matching ids, tag filters are pushed into SQL instead of an id IN list
+    private static final int MAX_TAG_FILTER_IDS = 5000;
+    // Points in a custom-range series unless the request asks for another count
+    public static final int DEFAULT_SERIES_POINTS = 400;
+    public static final int MAX_SERIES_POINTS = 5000;
+    public static final java.util.Set<String> SERIES_RESOLUTIONS = java.util.Set.of("auto", "day", "week", "month");
+    // Flagged expenses listed with a detail response, latest first
+    private static final int DETAIL_ANOMALY_LIMIT = 50;
+    // Flagged expenses fetched at once for all dashboard widgets before they are split per widget
+    private static final int DASHBOARD_ANOMALY_LIMIT = 1000;
+
     public Expense saveExpense(Expense expense) {
-        return expenseRepository.save(expense);
+        checkDate(expense.getDate());
+        expense.setTags(normalizeTags(expense.getTags()));
+        Written<Expense> saved = write(expense.getCreatedBy(), () -> expenseRepository.saveAndFlush(expense));
+        long version = dataVersionService.bump(expense.getCreatedBy());
+        eventPublisher.publishEvent(new ExpenseChangedEvent(expense.getCreatedBy(), null, ExpenseChangedEvent.snapshot(saved.result()),
+                version, saved.changeSeq()));
+        return saved.result();
+    }
+
+    /**
+     * Overwrites the caller's expense {@code updated.getId()} in one conditional statement (see
+     * {@link ExpenseRepository#updateIfCurrent}) and returns the row as written. Empty when nothing
+     * matched; the caller works out why.
+     */
+    public Optional<Expense> updateExpense(Expense updated) {
+        checkDate(updated.getDate());
+        // Clients that don't know about tags send none; the statement then leaves the existing ones
+        updated.setTags(normalizeTags(updated.getTags()));
+        Written<Optional<Expense>> written = write(updated.getCreatedBy(), () -> expenseRepository.updateIfCurrent(updated));
+        Optional<Expense> previous = written.result();
+        previous.ifPresent(before -> {
+            long version = dataVersionService.bump(updated.getCreatedBy());
+            eventPublisher.publishEvent(new ExpenseChangedEvent(updated.getCreatedBy(), before, ExpenseChangedEvent.snapshot(updated),
+                    version, written.changeSeq()));
+        });
+        return previous.map(before -> updated);
     }
 
+    /** Rejects dates outside MIN_DATE..MAX_DATE; a missing date is left to the NOT NULL constraint. */
+    public static void checkDate(LocalDate date) {
+        if (date != null && (date.isBefore(MIN_DATE) || date.isAfter(MAX_DATE))) {
+            throw new IllegalArgumentException("Expense dates must be between " + MIN_DATE + " and " + MAX_DATE);
+        }
+    }
+
+    /**
+     * Lower-cases and trims tags, dropping blanks and duplicates.
+     */
+    public static java.util.Set<String> normalizeTags(java.util.Collection<String> tags) {
+        if (tags == null) {
+            return null;
+        }
+        java.util.Set<String> normalized = new java.util.TreeSet<>();
+        for (String tag : tags) {
+            String value = tag == null ? "" : tag.trim().toLowerCase(java.util.Locale.ROOT).replaceAll("\\s+", "-");
+            if (value.isEmpty()) {
+                continue;
+            }
+            if (value.length() > MAX_TAG_LENGTH || value.equals("*")) {
+                throw new IllegalArgumentException("Invalid tag: " + tag);
+            }
+            normalized.add(value);
+        }
+        if (normalized.size() > MAX_TAGS_PER_EXPENSE) {
+            throw new IllegalArgumentException("An expense can have at most " + MAX_TAGS_PER_EXPENSE + " tags");
+        }
+        return normalized;
+    }
+
+    // The listings below span all users, so with sharding they are gathered from every shard
+
     public List<Expense> getAllExpenses() {
-        return expenseRepository.findAllByOrderByDateDesc();
+        return mergeByDateDesc(shardScatterGather.onEachShard(expenseRepository::findAllByOrderByDateDesc));
     }
 
     public Page<Expense> getAllExpenses(Pageable pageable) {
-        return expenseRepository.findAllByOrderByDateDesc(pageable);
+        if (shardScatterGather.getShardCount() == 1) {
+            return expenseRepository.findAllByOrderByDateDesc(pageable);
+        }
+        Pageable top = PageRequest.of(0, (int) pageable.getOffset() + pageable.getPageSize());
+        return mergePage(shardScatterGather.onEachShard(() -> expenseRepository.findAllByOrderByDateDesc(top)), pageable);
     }
 
     public Optional<Expense> getExpenseById(Long id) {
         return expenseRepository.findById(id);
     }
 
-    public void deleteExpense(Long id) {
-        expenseRepository.deleteById(id);
+    /**
+     * Deletes the caller's expense if {@code version} is current (any version when null).
+     * Returns false when nothing matched.
+     */
+    public boolean deleteExpense(Long id, String email, Long version) {
+        Written<Optional<Expense>> written = write(email, () -> expenseRepository.deleteIfCurrent(id, email, version));
+        written.result().ifPresent(before -> {
+            long dataVersion = dataVersionService.bump(email);
+            eventPublisher.publishEvent(new ExpenseChangedEvent(email, before, null, dataVersion, written.changeSeq()));
+        });
+        return written.result().isPresent();
+    }
+
+    private record Written<T>(T result, long changeSeq) {
+    }
+
+    // The counter row stays locked by the write until commit, so this reads the write's own sequence value
+    private <T> Written<T> write(String email, java.util.function.Supplier<T> write) {
+        return shardWriteGuard.write(email, () -> new Written<>(write.get(), changeLogRepository.findCounters(email)[0]));
     }
 
     public List<Expense> getExpensesByDateRange(String from, String to) {
         LocalDate fromDate = LocalDate.parse(from);
         LocalDate toDate = LocalDate.parse(to);
-        return expenseRepository.findAllByDateBetweenOrderByDateDesc(fromDate, toDate);
+        return mergeByDateDesc(shardScatterGather.onEachShard(
+                () -> expenseRepository.findAllByDateBetweenOrderByDateDesc(fromDate, toDate)));
     }
 
     public Page<Expense> getExpensesByDateRange(String from, String to, Pageable pageable) {
         LocalDate fromDate = LocalDate.parse(from);
         LocalDate toDate = LocalDate.parse(to);
-        return expenseRepository.findAllByDateBetweenOrderByDateDesc(fromDate, toDate, pageable);
+        if (shardScatterGather.getShardCount() == 1) {
+            return expenseRepository.findAllByDateBetweenOrderByDateDesc(fromDate, toDate, pageable);
+        }
+        Pageable top = PageRequest.of(0, (int) pageable.getOffset() + pageable.getPageSize());
+        return mergePage(shardScatterGather.onEachShard(
+                () -> expenseRepository.findAllByDateBetweenOrderByDateDesc(fromDate, toDate, top)), pageable);
+    }
+
+    private static List<Expense> mergeByDateDesc(List<List<Expense>> perShard) {
+        List<Expense> merged = new java.util.ArrayList<>();
+        perShard.forEach(merged::addAll);
+        merged.sort(java.util.Comparator.comparing(Expense::getDate).reversed());
+        return merged;
+    }
+
+    /** Each shard returned its first offset + size rows, so the requested page is among them. */
+    private static Page<Expense> mergePage(List<Page<Expense>> perShard, Pageable pageable) {
+        List<Expense> merged = mergeByDateDesc(perShard.stream().map(Page::getContent).toList());
+        long total = perShard.stream().mapToLong(Page::getTotalElements).sum();
+        int from = (int) Math.min(pageable.getOffset(), merged.size());
+        int to = Math.min(from + pageable.getPageSize(), merged.size());
+        return new PageImpl<>(merged.subList(from, to), pageable, total);
     }
 
     public Page<Expense> getAllExpensesByCreatedBy(String createdBy, Pageable pageable) {
@@ -61,43 +218,162 @@ public class ExpenseService {
         return expenseRepository.findAllByDateBetweenAndCreatedByOrderByDateDesc(fromDate, toDate, createdBy);
     }
 
+    public static final java.util.Set<String> EXPENSE_SORT_FIELDS = java.util.Set.of("date", "amount", "category", "paymentMethod", "type", "createdAt");
+
+    /**
+     * Builds the owner-scoped filter for the expense listing; every argument except the email is optional.
+     */
+    public Specification<Expense> buildExpenseFilter(String email, String type, java.util.Collection<String> categories,
+                                                     java.util.Collection<String> paymentMethods, Double minAmount,
+                                                     Double maxAmount, String from, String to) {
+        Expense.ExpenseType expenseType = null;
+        if (type != null && !type.isEmpty()) {
+            try {
+                expenseType = Expense.ExpenseType.valueOf(type.toUpperCase());
+            } catch (IllegalArgumentException e) {
+                throw new IllegalArgumentException("Invalid type: " + type);
+            }
+        }
+        if (minAmount != null && maxAmount != null && minAmount > maxAmount) {
+            throw new IllegalArgumentException("minAmount cannot be greater than maxAmount");
+        }
+        LocalDate fromDate;
+        LocalDate toDate;
+        try {
+            fromDate = from == null || from.isEmpty() ? null : LocalDate.parse(from);
+            toDate = to == null || to.isEmpty() ? null : LocalDate.parse(to);
+        } catch (java.time.format.DateTimeParseException e) {
+            throw new IllegalArgumentException("Invalid date format. Use YYYY-MM-DD");
+        }
+        if (fromDate != null && toDate != null && fromDate.isAfter(toDate)) {
+            throw new IllegalArgumentException("Start date cannot be after end date");
+        }
+        return ExpenseSpecifications.ownedBy(email)
+            .and(ExpenseSpecifications.hasType(expenseType))
+            .and(ExpenseSpecifications.inCategories(categories))
+            .and(ExpenseSpecifications.inPaymentMethods(paymentMethods))
+            .and(ExpenseSpecifications.amountAtLeast(minAmount))
+            .and(ExpenseSpecifications.amountAtMost(maxAmount))
+            .and(ExpenseSpecifications.onOrAfter(fromDate))
+            .and(ExpenseSpecifications.onOrBefore(toDate));
+    }
+
+    /**
+     * Tag filter for the listing, resolved against the user's tag bitmaps first: a small result becomes a
+     * primary key IN list, a result missing only a few of the user's expenses (typical for a lone
+     * none-of filter) a NOT IN list, and anything else the equivalent membership predicates.
+     * Null when no tags were given.
+     */
+    public Specification<Expense> buildTagFilter(String email, java.util.Collection<String> allOf,
+                                                 java.util.Collection<String> anyOf, java.util.Collection<String> noneOf) {
+        allOf = normalizeTags(allOf);
+        anyOf = normalizeTags(anyOf);
+        noneOf = normalizeTags(noneOf);
+        var ids = tagIndexService.match(email, allOf, anyOf, noneOf);
+        if (ids == null) {
+            return null;
+        }
+        if (ids.getLongCardinality() <= MAX_TAG_FILTER_IDS) {
+            return ExpenseSpecifications.idIn(toIdList(ids));
+        }
+        var excluded = tagIndexService.complement(email, ids);
+        if (excluded.getLongCardinality() <= MAX_TAG_FILTER_IDS) {
+            return ExpenseSpecifications.idNotIn(toIdList(excluded));
+        }
+        return Specification.allOf(ExpenseSpecifications.taggedWithAll(allOf),
+            ExpenseSpecifications.taggedWithAny(anyOf),
+            ExpenseSpecifications.taggedWithNone(noneOf));
+    }
+
+    private static java.util.List<Long> toIdList(org.roaringbitmap.longlong.Roaring64NavigableMap ids) {
+        java.util.List<Long> idList = new java.util.ArrayList<>((int) ids.getLongCardinality());
+        for (long id : ids.toArray()) {
+            idList.add(id);
+        }
+        return idList;
+    }
+
+    /**
+     * Parses "field" or "field,asc|desc" into a Sort with id as the final tiebreaker, so pages are stable.
+     */
+    public static Sort parseExpenseSort(String sort) {
+        if (sort == null || sort.isEmpty()) {
+            return Sort.by(Sort.Order.desc("date"), Sort.Order.desc("id"));
+        }
+        String[] parts = sort.split(",");
+        String field = parts[0].trim();
+        if (!EXPENSE_SORT_FIELDS.contains(field)) {
+            throw new IllegalArgumentException("Cannot sort by " + field + "; use one of " + EXPENSE_SORT_FIELDS);
+        }
+        boolean ascending = parts.length > 1 && "asc".equalsIgnoreCase(parts[1].trim());
+        Sort.Order order = ascending ? Sort.Order.asc(field) : Sort.Order.desc(field);
+        return Sort.by(order, Sort.Order.desc("id"));
+    }
+
+    public List<Expense> findExpenses(Specification<Expense> filter, Sort sort) {
+        return expenseRepository.findAll(filter, sort);
+    }
+
+    public Page<Expense> findExpenses(Specification<Expense> filter, Pageable pageable) {
+        return expenseRepository.findAll(filter, pageable);
+    }
+
+    /**
+     * Case-insensitive substring search over the user's descriptions and categories, ranked exact,
+     * prefix, word prefix, then any match. Hot users are served from memory, everyone else by the
+     * trigram indexes.
+     */
+    public Page<Expense> searchExpenses(String email, String query, Pageable pageable) {
+        String term = query == null ? "" : query.trim().toLowerCase(java.util.Locale.ROOT);
+        if (term.isEmpty()) {
+            throw new IllegalArgumentException("Search query cannot be empty");
+        }
+        Page<Expense> indexed = hotUserSearchIndex.search(email, term, pageable);
+        if (indexed != null) {
+            return indexed;
+        }
+        String escaped = term.replace("\\", "\\\\").replace("%", "\\%").replace("_", "\\_");
+        return expenseRepository.searchByCreatedBy(email, term, "%" + escaped + "%", escaped + "%", "% " + escaped + "%", pageable);
+    }
+
     public java.util.Map<String, Object> getSummaryForUser(String email) {
-        java.time.LocalDate now = java.time.LocalDate.now();
+        return buildSummary(email, java.time.LocalDate.now());
+    }
+
+    // Two range lookups in the prefix-sum index; no expense rows are read
+    private java.util.Map<String, Object> buildSummary(String email, java.time.LocalDate now) {
         java.time.YearMonth currentMonth = java.time.YearMonth.from(now);
         java.time.Year currentYear = java.time.Year.from(now);
-        // Fetch all expenses for this user
-        var allExpenses = expenseRepository.findAllByCreatedByOrderByDateDesc(email, org.springframework.data.domain.Pageable.unpaged()).getContent();
-        double monthlyExpenses = allExpenses.stream()
-            .filter(e -> e.getType() == Expense.ExpenseType.EXPENSE &&
-                         java.time.YearMonth.from(e.getDate()).equals(currentMonth))
-            .mapToDouble(Expense::getAmount).sum();
-        double yearlyExpenses = allExpenses.stream()
-            .filter(e -> e.getType() == Expense.ExpenseType.EXPENSE &&
-                         java.time.Year.from(e.getDate()).equals(currentYear))
-            .mapToDouble(Expense::getAmount).sum();
-        double monthlyIncome = allExpenses.stream()
-            .filter(e -> e.getType() == Expense.ExpenseType.INCOME &&
-                         java.time.YearMonth.from(e.getDate()).equals(currentMonth))
-            .mapToDouble(Expense::getAmount).sum();
-        double monthlySavings = allExpenses.stream()
-            .filter(e -> e.getType() == Expense.ExpenseType.SAVINGS &&
-                         java.time.YearMonth.from(e.getDate()).equals(currentMonth))
-            .mapToDouble(Expense::getAmount).sum();
+        RangeTotalsService.Totals month = rangeTotalsService.getTotals(email, currentMonth.atDay(1), currentMonth.atEndOfMonth());
+        RangeTotalsService.Totals year = rangeTotalsService.getTotals(email, currentYear.atDay(1), currentYear.atDay(currentYear.length()));
         java.util.Map<String, Object> summary = new java.util.HashMap<>();
-        summary.put("monthlyExpenses", monthlyExpenses);
-        summary.put("yearlyExpenses", yearlyExpenses);
-        summary.put("monthlyIncome", monthlyIncome);
-        summary.put("monthlySavings", monthlySavings);
+        summary.put("monthlyExpenses", month.expenses());
+        summary.put("yearlyExpenses", year.expenses());
+        summary.put("monthlyIncome", month.income());
+        summary.put("monthlySavings", month.savings());
         return summary;
     }
 
     public java.util.Map<String, Object> getMonthlyExpensesDetail(String email, int year, int month) {
         java.time.YearMonth targetMonth = java.time.YearMonth.of(year, month);
-        java.time.LocalDate startOfMonth = targetMonth.atDay(1);
-        java.time.LocalDate endOfMonth = targetMonth.atEndOfMonth();
+        java.time.YearMonth previousMonth = targetMonth.minusMonths(1);
         
-        // Fetch all transactions for the specified month
-        var monthlyTransactions = expenseRepository.findAllByCreatedByAndDateBetweenOrderByDateDesc(email, startOfMonth, endOfMonth);
+        // Fetch all transactions for the specified month; totals of both months come from the index
+        var monthlyTransactions = expenseRepository.findAllByCreatedByAndDateBetweenOrderByDateDesc(email, targetMonth.atDay(1), targetMonth.atEndOfMonth());
+        
+        var result = buildMonthlyExpensesDetail(year, month, monthlyTransactions,
+            rangeTotalsService.getTotals(email, targetMonth.atDay(1), targetMonth.atEndOfMonth()),
+            rangeTotalsService.getTotals(email, previousMonth.atDay(1), previousMonth.atEndOfMonth()),
+            userSettingsService.getUserSettings(email), getRecurringExpensesForUser(email));
+        result.put("anomalies", findAnomalies(email, targetMonth.atDay(1), targetMonth.atEndOfMonth()));
+        return result;
+    }
+
+    private java.util.Map<String, Object> buildMonthlyExpensesDetail(int year, int month, java.util.List<Expense> monthlyTransactions,
+            RangeTotalsService.Totals monthTotals, RangeTotalsService.Totals previousMonthTotals, UserSettings userSettings,
+            java.util.List<java.util.Map<String, Object>> recurringExpenses) {
+        java.time.YearMonth targetMonth = java.time.YearMonth.of(year, month);
+        java.time.LocalDate endOfMonth = targetMonth.atEndOfMonth();
         
         // Filter transactions by type
         var expenseTransactions = monthlyTransactions.stream()
@@ -112,11 +388,11 @@ public class ExpenseService {
             .filter(e -> e.getType() == Expense.ExpenseType.SAVINGS)
             .collect(java.util.stream.Collectors.toList());
         
-        // Calculate totals for each type
-        double totalExpenses = expenseTransactions.stream().mapToDouble(Expense::getAmount).sum();
-        double totalIncome = incomeTransactions.stream().mapToDouble(Expense::getAmount).sum();
-        double totalSavings = savingsTransactions.stream().mapToDouble(Expense::getAmount).sum();
-        double netIncome = totalIncome - totalExpenses - totalSavings;
+        // Totals for each type, from the prefix-sum index
+        double totalExpenses = monthTotals.expenses();
+        double totalIncome = monthTotals.income();
+        double totalSavings = monthTotals.savings();
+        double netIncome = monthTotals.netIncome();
         
         // Calculate total amount (expenses only for backward compatibility)
         double totalAmount = totalExpenses;
@@ -141,21 +417,10 @@ public class ExpenseService {
         java.util.OptionalDouble maxDailyOpt = dailyExpenses.values().stream().mapToDouble(Double::doubleValue).max();
         java.util.OptionalDouble minDailyOpt = dailyExpenses.values().stream().mapToDouble(Double::doubleValue).min();
         
-        // Get previous month data for comparison
-        java.time.YearMonth previousMonth = targetMonth.minusMonths(1);
-        java.time.LocalDate prevStartOfMonth = previousMonth.atDay(1);
-        java.time.LocalDate prevEndOfMonth = previousMonth.atEndOfMonth();
-        
-        var previousMonthTransactions = expenseRepository.findAllByCreatedByAndDateBetweenOrderByDateDesc(email, prevStartOfMonth, prevEndOfMonth);
-        double previousMonthExpenses = previousMonthTransactions.stream()
-            .filter(e -> e.getType() == Expense.ExpenseType.EXPENSE)
-            .mapToDouble(Expense::getAmount).sum();
-        double previousMonthIncome = previousMonthTransactions.stream()
-            .filter(e -> e.getType() == Expense.ExpenseType.INCOME)
-            .mapToDouble(Expense::getAmount).sum();
-        double previousMonthSavings = previousMonthTransactions.stream()
-            .filter(e -> e.getType() == Expense.ExpenseType.SAVINGS)
-            .mapToDouble(Expense::getAmount).sum();
+        // Previous month totals for comparison
+        double previousMonthExpenses = previousMonthTotals.expenses();
+        double previousMonthIncome = previousMonthTotals.income();
+        double previousMonthSavings = previousMonthTotals.savings();
         
         // Calculate percentage changes
         double expensePercentChange = previousMonthExpenses > 0 ? ((totalExpenses - previousMonthExpenses) / previousMonthExpenses) * 100 : 0;
@@ -188,14 +453,10 @@ public class ExpenseService {
         }
         
         // Get user's monthly budget from settings
-        var userSettings = userSettingsService.getUserSettings(email);
         double monthlyBudget = userSettings.getMonthlyBudget();
         double budgetUsed = (monthlyBudget > 0) ? (totalAmount / monthlyBudget) * 100 : 0;
         double budgetRemaining = Math.max(0, monthlyBudget - totalAmount);
         
-        // Get recurring expenses for this user
-        var recurringExpenses = getRecurringExpensesForUser(email);
-        
         // Build response
         java.util.Map<String, Object> result = new java.util.HashMap<>();
         result.put("totalAmount", totalAmount);
@@ -231,12 +492,22 @@ public class ExpenseService {
 
     public java.util.Map<String, Object> getYearlyExpensesDetail(String email, int year) {
         java.time.Year targetYear = java.time.Year.of(year);
-        java.time.LocalDate startOfYear = targetYear.atDay(1);
-        java.time.LocalDate endOfYear = targetYear.atDay(targetYear.length());
+        java.time.Year previousYear = targetYear.minusYears(1);
         
-        // Fetch all transactions for the specified year
-        var yearlyTransactions = expenseRepository.findAllByCreatedByAndDateBetweenOrderByDateDesc(email, startOfYear, endOfYear);
+        // Fetch all transactions for the specified year; totals of both years come from the index
+        var yearlyTransactions = expenseRepository.findAllByCreatedByAndDateBetweenOrderByDateDesc(email, targetYear.atDay(1), targetYear.atDay(targetYear.length()));
         
+        var result = buildYearlyExpensesDetail(year, yearlyTransactions,
+            rangeTotalsService.getTotals(email, targetYear.atDay(1), targetYear.atDay(targetYear.length())),
+            rangeTotalsService.getTotals(email, previousYear.atDay(1), previousYear.atDay(previousYear.length())),
+            userSettingsService.getUserSettings(email), getRecurringExpensesForUser(email));
+        result.put("anomalies", findAnomalies(email, targetYear.atDay(1), targetYear.atDay(targetYear.length())));
+        return result;
+    }
+
+    private java.util.Map<String, Object> buildYearlyExpensesDetail(int year, java.util.List<Expense> yearlyTransactions,
+            RangeTotalsService.Totals yearTotals, RangeTotalsService.Totals previousYearTotals, UserSettings userSettings,
+            java.util.List<java.util.Map<String, Object>> recurringExpenses) {
         // Filter transactions by type
         var expenseTransactions = yearlyTransactions.stream()
             .filter(e -> e.getType() == Expense.ExpenseType.EXPENSE)
@@ -250,11 +521,11 @@ public class ExpenseService {
             .filter(e -> e.getType() == Expense.ExpenseType.SAVINGS)
             .collect(java.util.stream.Collectors.toList());
         
-        // Calculate totals for each type
-        double totalExpenses = expenseTransactions.stream().mapToDouble(Expense::getAmount).sum();
-        double totalIncome = incomeTransactions.stream().mapToDouble(Expense::getAmount).sum();
-        double totalSavings = savingsTransactions.stream().mapToDouble(Expense::getAmount).sum();
-        double netIncome = totalIncome - totalExpenses - totalSavings;
+        // Totals for each type, from the prefix-sum index
+        double totalExpenses = yearTotals.expenses();
+        double totalIncome = yearTotals.income();
+        double totalSavings = yearTotals.savings();
+        double netIncome = yearTotals.netIncome();
         
         // Calculate total amount (expenses only for backward compatibility)
         double totalAmount = totalExpenses;
@@ -279,21 +550,10 @@ public class ExpenseService {
         java.util.OptionalDouble maxMonthlyOpt = monthlyExpenses.values().stream().mapToDouble(Double::doubleValue).max();
         java.util.OptionalDouble minMonthlyOpt = monthlyExpenses.values().stream().mapToDouble(Double::doubleValue).min();
         
-        // Get previous year data for comparison
-        java.time.Year previousYear = targetYear.minusYears(1);
-        java.time.LocalDate prevStartOfYear = previousYear.atDay(1);
-        java.time.LocalDate prevEndOfYear = previousYear.atDay(previousYear.length());
-        
-        var previousYearTransactions = expenseRepository.findAllByCreatedByAndDateBetweenOrderByDateDesc(email, prevStartOfYear, prevEndOfYear);
-        double previousYearExpenses = previousYearTransactions.stream()
-            .filter(e -> e.getType() == Expense.ExpenseType.EXPENSE)
-            .mapToDouble(Expense::getAmount).sum();
-        double previousYearIncome = previousYearTransactions.stream()
-            .filter(e -> e.getType() == Expense.ExpenseType.INCOME)
-            .mapToDouble(Expense::getAmount).sum();
-        double previousYearSavings = previousYearTransactions.stream()
-            .filter(e -> e.getType() == Expense.ExpenseType.SAVINGS)
-            .mapToDouble(Expense::getAmount).sum();
+        // Previous year totals for comparison
+        double previousYearExpenses = previousYearTotals.expenses();
+        double previousYearIncome = previousYearTotals.income();
+        double previousYearSavings = previousYearTotals.savings();
         
         // Calculate percentage changes
         double expensePercentChange = previousYearExpenses > 0 ? ((totalExpenses - previousYearExpenses) / previousYearExpenses) * 100 : 0;
@@ -339,15 +599,11 @@ public class ExpenseService {
             .orElse(null);
         
         // Get user's yearly budget from settings (monthly budget * 12)
-        var userSettings = userSettingsService.getUserSettings(email);
         double monthlyBudget = userSettings.getMonthlyBudget();
         double yearlyBudget = monthlyBudget * 12;
         double budgetUsed = (yearlyBudget > 0) ? (totalAmount / yearlyBudget) * 100 : 0;
         double budgetRemaining = Math.max(0, yearlyBudget - totalAmount);
         
-        // Get recurring expenses for this user
-        var recurringExpenses = getRecurringExpensesForUser(email);
-        
         // Build response
         java.util.Map<String, Object> result = new java.util.HashMap<>();
         result.put("totalAmount", totalAmount);
@@ -387,27 +643,7 @@ public class ExpenseService {
             java.time.LocalDate endDate = java.time.LocalDate.now();
             java.time.LocalDate startDate = endDate.minusMonths(6);
             
-            // Fetch and filter expense transactions
-            List<Expense> expenseTransactions = expenseRepository
-                .findAllByCreatedByAndDateBetweenOrderByDateDesc(email, startDate, endDate)
-                .stream()
-                .filter(e -> e.getType() == Expense.ExpenseType.EXPENSE)
-                .collect(java.util.stream.Collectors.toList());
-            
-            if (expenseTransactions.isEmpty()) {
-                return new java.util.ArrayList<>();
-            }
-            
-            // Group by normalized description and category to find recurring patterns
-            java.util.Map<String, java.util.List<Expense>> groupedExpenses = expenseTransactions.stream()
-                .collect(java.util.stream.Collectors.groupingBy(this::createExpenseKey));
-            
-            return groupedExpenses.entrySet().stream()
-                .filter(entry -> isRecurringPattern(entry.getValue()))
-                .map(entry -> createRecurringExpenseResponse(entry))
-                .sorted((a, b) -> Double.compare((Double) b.get("amount"), (Double) a.get("amount")))
-                .collect(java.util.stream.Collectors.toList());
-                
+            return findRecurringExpenses(expenseRepository.findAllByCreatedByAndDateBetweenOrderByDateDesc(email, startDate, endDate));
         } catch (Exception e) {
             // Log error and return empty list instead of throwing
             System.err.println("Error analyzing recurring expenses for user " + email + ": " + e.getMessage());
@@ -415,11 +651,35 @@ public class ExpenseService {
         }
     }
     
+    /**
+     * Detects recurring expenses in the given transactions, which must be ordered by date descending
+     */
+    private java.util.List<java.util.Map<String, Object>> findRecurringExpenses(java.util.List<Expense> transactions) {
+        // Filter expense transactions
+        List<Expense> expenseTransactions = transactions.stream()
+            .filter(e -> e.getType() == Expense.ExpenseType.EXPENSE)
+            .collect(java.util.stream.Collectors.toList());
+        
+        if (expenseTransactions.isEmpty()) {
+            return new java.util.ArrayList<>();
+        }
+        
+        // Group by normalized description and category to find recurring patterns
+        java.util.Map<String, java.util.List<Expense>> groupedExpenses = expenseTransactions.stream()
+            .collect(java.util.stream.Collectors.groupingBy(this::createExpenseKey));
+        
+        return groupedExpenses.entrySet().stream()
+            .filter(entry -> isRecurringPattern(entry.getValue()))
+            .map(entry -> createRecurringExpenseResponse(entry))
+            .sorted((a, b) -> Double.compare((Double) b.get("amount"), (Double) a.get("amount")))
+            .collect(java.util.stream.Collectors.toList());
+    }
+    
     private String createExpenseKey(Expense expense) {
         return normalizeDescription(expense.getDescription()) + "|" + expense.getCategory();
     }
     
-    private String normalizeDescription(String description) {
+    static String normalizeDescription(String description) {
         if (description == null) return "";
         return description.toLowerCase().trim().replaceAll("\\s+", " ");
     }
@@ -511,8 +771,18 @@ public class ExpenseService {
     public java.util.Map<String, Object> getDailyExpensesDetail(String email, String dateStr) {
         java.time.LocalDate targetDate = java.time.LocalDate.parse(dateStr);
         
-        // Fetch all expenses for the specified date
+        // Fetch all expenses for the specified date; the previous day's total comes from the index
         var dailyExpenses = expenseRepository.findAllByCreatedByAndDateOrderByIdDesc(email, targetDate);
+        var previousDayTotals = rangeTotalsService.getTotals(email, targetDate.minusDays(1), targetDate.minusDays(1));
+        
+        var result = buildDailyExpensesDetail(dateStr, dailyExpenses, previousDayTotals, userSettingsService.getUserSettings(email));
+        result.put("anomalies", findAnomalies(email, targetDate, targetDate));
+        return result;
+    }
+
+    private java.util.Map<String, Object> buildDailyExpensesDetail(String dateStr, java.util.List<Expense> dailyExpenses,
+            RangeTotalsService.Totals previousDayTotals, UserSettings userSettings) {
+        java.time.LocalDate targetDate = java.time.LocalDate.parse(dateStr);
         
         // Filter only expense type transactions
         var expenseTransactions = dailyExpenses.stream()
@@ -555,11 +825,7 @@ public class ExpenseService {
         java.util.OptionalDouble minHourlyOpt = hourlyExpenses.values().stream().mapToDouble(Double::doubleValue).min();
         
         // Previous day comparison
-        java.time.LocalDate previousDay = targetDate.minusDays(1);
-        var previousDayExpenses = expenseRepository.findAllByCreatedByAndDateOrderByIdDesc(email, previousDay);
-        double previousDayTotal = previousDayExpenses.stream()
-            .filter(e -> e.getType() == Expense.ExpenseType.EXPENSE)
-            .mapToDouble(Expense::getAmount).sum();
+        double previousDayTotal = previousDayTotals.expenses();
         
         // Calculate percentage change
         double percentChange = previousDayTotal > 0 ? ((totalAmount - previousDayTotal) / previousDayTotal) * 100 : 0;
@@ -604,7 +870,6 @@ public class ExpenseService {
             .mapToDouble(java.util.Map.Entry::getValue).sum());
         
         // Get user's daily budget from settings (monthly budget / 30)
-        var userSettings = userSettingsService.getUserSettings(email);
         double monthlyBudget = userSettings.getMonthlyBudget();
         double dailyBudget = monthlyBudget / 30.0;
         double budgetUsed = (dailyBudget > 0) ? (totalAmount / dailyBudget) * 100 : 0;
@@ -668,6 +933,18 @@ public class ExpenseService {
     }
 
     public java.util.Map<String, Object> getCustomRangeExpensesDetail(String email, String startDateStr, String endDateStr) {
+        return getCustomRangeExpensesDetail(email, startDateStr, endDateStr, null, null, null, "auto", DEFAULT_SERIES_POINTS);
+    }
+
+    /**
+     * Custom range analytics over only the expenses matching the tag filter (see {@link #buildTagFilter}).
+     * The dailyExpenses series has at most {@code points} entries: see {@link #buildSeries}.
+     */
+    public java.util.Map<String, Object> getCustomRangeExpensesDetail(String email, String startDateStr, String endDateStr,
+                                                                     java.util.Collection<String> allTags,
+                                                                     java.util.Collection<String> anyTags,
+                                                                     java.util.Collection<String> excludeTags,
+                                                                     String resolution, int points) {
         java.time.LocalDate startDate = java.time.LocalDate.parse(startDateStr);
         java.time.LocalDate endDate = java.time.LocalDate.parse(endDateStr);
         
@@ -675,9 +952,23 @@ public class ExpenseService {
         if (startDate.isAfter(endDate)) {
             throw new IllegalArgumentException("Start date cannot be after end date");
         }
+        if (!SERIES_RESOLUTIONS.contains(resolution)) {
+            throw new IllegalArgumentException("resolution must be one of auto, day, week or month");
+        }
+        if (points < 3 || points > MAX_SERIES_POINTS) {
+            throw new IllegalArgumentException("points must be between 3 and " + MAX_SERIES_POINTS);
+        }
         
         // Fetch all transactions for the specified date range
         var rangeTransactions = expenseRepository.findAllByCreatedByAndDateBetweenOrderByDateDesc(email, startDate, endDate);
+
+        // Narrow to the tagged subset by bitmap membership
+        var taggedIds = tagIndexService.match(email, normalizeTags(allTags), normalizeTags(anyTags), normalizeTags(excludeTags));
+        if (taggedIds != null) {
+            rangeTransactions = rangeTransactions.stream()
+                .filter(e -> taggedIds.contains(e.getId()))
+                .collect(java.util.stream.Collectors.toList());
+        }
         
         // Filter transactions by type
         var expenseTransactions = rangeTransactions.stream()
@@ -692,11 +983,17 @@ public class ExpenseService {
             .filter(e -> e.getType() == Expense.ExpenseType.SAVINGS)
             .collect(java.util.stream.Collectors.toList());
         
-        // Calculate totals for each type
-        double totalExpenses = expenseTransactions.stream().mapToDouble(Expense::getAmount).sum();
-        double totalIncome = incomeTransactions.stream().mapToDouble(Expense::getAmount).sum();
-        double totalSavings = savingsTransactions.stream().mapToDouble(Expense::getAmount).sum();
-        double netIncome = totalIncome - totalExpenses - totalSavings;
+        // Totals for each type: from the prefix-sum index, unless a tag filter narrowed the rows
+        RangeTotalsService.Totals rangeTotals = taggedIds == null
+            ? rangeTotalsService.getTotals(email, startDate, endDate)
+            : new RangeTotalsService.Totals(
+                expenseTransactions.stream().mapToDouble(Expense::getAmount).sum(),
+                incomeTransactions.stream().mapToDouble(Expense::getAmount).sum(),
+                savingsTransactions.stream().mapToDouble(Expense::getAmount).sum());
+        double totalExpenses = rangeTotals.expenses();
+        double totalIncome = rangeTotals.income();
+        double totalSavings = rangeTotals.savings();
+        double netIncome = rangeTotals.netIncome();
         
         // Calculate total amount (expenses only for backward compatibility)
         double totalAmount = totalExpenses;
@@ -774,18 +1071,10 @@ public class ExpenseService {
             })
             .collect(java.util.stream.Collectors.toList());
         
-        // Convert daily expenses to list format for charts
-        java.util.List<java.util.Map<String, Object>> dailyData = new java.util.ArrayList<>();
-        java.time.LocalDate currentDate = startDate;
-        
-        while (!currentDate.isAfter(endDate)) {
-            java.util.Map<String, Object> dayData = new java.util.HashMap<>();
-            dayData.put("date", currentDate.toString());
-            dayData.put("amount", dailyExpensesMap.getOrDefault(currentDate, 0.0));
-            dayData.put("dayName", currentDate.getDayOfWeek().toString());
-            dailyData.add(dayData);
-            currentDate = currentDate.plusDays(1);
-        }
+        // Bucket the daily totals into a series of bounded length for charts
+        String seriesResolution = resolveSeriesResolution(resolution, startDate, endDate, points);
+        java.util.List<java.util.Map<String, Object>> dailyData = buildSeries(dailyExpensesMap, startDate, endDate, seriesResolution, points);
+        boolean downsampled = dailyData.size() < countBuckets(seriesResolution, startDate, endDate);
         
         // Calculate average per category
         java.util.List<java.util.Map<String, Object>> averagePerCategory = categoryBreakdown.entrySet().stream()
@@ -823,6 +1112,8 @@ public class ExpenseService {
         result.put("savingsTransactionCount", savingsTransactions.size());
         result.put("categoryBreakdown", topCategories);
         result.put("dailyExpenses", dailyData);
+        result.put("resolution", seriesResolution);
+        result.put("downsampled", downsampled);
         result.put("startDate", startDateStr);
         result.put("endDate", endDateStr);
         result.put("dayCount", dayCount);
@@ -830,7 +1121,211 @@ public class ExpenseService {
         result.put("lowestExpenseDay", lowestExpenseDay);
         result.put("mostActiveCategory", mostActiveCategory);
         result.put("averagePerCategory", averagePerCategory);
+        result.put("anomalies", findAnomalies(email, startDate, endDate).stream()
+            .filter(a -> taggedIds == null || taggedIds.contains(a.expenseId()))
+            .collect(java.util.stream.Collectors.toList()));
         
         return result;
     }
+
+    // "auto" picks the finest of day, week and month that fits in the point budget
+    private String resolveSeriesResolution(String resolution, java.time.LocalDate startDate, java.time.LocalDate endDate, int points) {
+        if (!"auto".equals(resolution)) {
+            return resolution;
+        }
+        for (String candidate : java.util.List.of("day", "week")) {
+            if (countBuckets(candidate, startDate, endDate) <= points) {
+                return candidate;
+            }
+        }
+        return "month";
+    }
+
+    private long countBuckets(String resolution, java.time.LocalDate startDate, java.time.LocalDate endDate) {
+        switch (resolution) {
+            case "week":
+                return java.time.temporal.ChronoUnit.WEEKS.between(bucketStart("week", startDate), bucketStart("week", endDate)) + 1;
+            case "month":
+                return java.time.temporal.ChronoUnit.MONTHS.between(bucketStart("month", startDate), bucketStart("month", endDate)) + 1;
+            default:
+                return java.time.temporal.ChronoUnit.DAYS.between(startDate, endDate) + 1;
+        }
+    }
+
+    // Weeks start on Monday, like the ISO weeks the rest of the API reports
+    private java.time.LocalDate bucketStart(String resolution, java.time.LocalDate date) {
+        switch (resolution) {
+            case "week":
+                return date.with(java.time.temporal.TemporalAdjusters.previousOrSame(java.time.DayOfWeek.MONDAY));
+            case "month":
+                return date.withDayOfMonth(1);
+            default:
+                return date;
+        }
+    }
+
+    /**
+     * Daily totals summed into day, week or month buckets clipped to the range. Day buckets keep the
+     * original shape (date, amount, dayName); wider ones carry their first and last date instead of
+     * the day name. If more than {@code points} buckets remain, LTTB (see {@link Lttb}) picks which
+     * to keep, so the series stays bounded without flattening its peaks.
+     */
+    private java.util.List<java.util.Map<String, Object>> buildSeries(java.util.Map<java.time.LocalDate, Double> dailyTotals,
+            java.time.LocalDate startDate, java.time.LocalDate endDate, String resolution, int points) {
+        int buckets = (int) countBuckets(resolution, startDate, endDate);
+        double[] x = new double[buckets];
+        double[] y = new double[buckets];
+        java.time.LocalDate[] from = new java.time.LocalDate[buckets];
+        java.time.LocalDate first = bucketStart(resolution, startDate);
+        for (int i = 0; i < buckets; i++) {
+            java.time.LocalDate bucket = "week".equals(resolution) ? first.plusWeeks(i)
+                : "month".equals(resolution) ? first.plusMonths(i) : first.plusDays(i);
+            from[i] = bucket.isBefore(startDate) ? startDate : bucket;
+            x[i] = from[i].toEpochDay();
+        }
+        for (java.util.Map.Entry<java.time.LocalDate, Double> entry : dailyTotals.entrySet()) {
+            int i = (int) countBuckets(resolution, startDate, entry.getKey()) - 1;
+            y[i] += entry.getValue();
+        }
+
+        java.util.List<java.util.Map<String, Object>> series = new java.util.ArrayList<>();
+        for (int i : Lttb.select(x, y, points)) {
+            java.util.Map<String, Object> point = new java.util.HashMap<>();
+            point.put("date", from[i].toString());
+            point.put("amount", y[i]);
+            if ("day".equals(resolution)) {
+                point.put("dayName", from[i].getDayOfWeek().toString());
+            } else {
+                java.time.LocalDate to = i + 1 < buckets ? from[i + 1].minusDays(1) : endDate;
+                point.put("endDate", to.toString());
+            }
+            series.add(point);
+        }
+        return series;
+    }
+
+    public static final java.util.Set<String> DASHBOARD_WIDGETS = java.util.Set.of("summary", "daily", "monthly", "yearly");
+
+    /**
+     * Computes several dashboard widgets from a single fetch covering the widest date range any of
+     * them needs, instead of each widget querying expenses and settings separately. Summary figures and
+     * previous-period totals come from the prefix-sum index, so they add nothing to that range. Flagged
+     * expenses are likewise read once over the widgets' own ranges and split per widget.
+     */
+    public java.util.Map<String, Object> getDashboard(String email, java.util.Set<String> widgets, java.time.LocalDate date, int year, int month) {
+        for (String widget : widgets) {
+            if (!DASHBOARD_WIDGETS.contains(widget)) {
+                throw new IllegalArgumentException("Unknown dashboard widget: " + widget);
+            }
+        }
+        java.time.LocalDate today = java.time.LocalDate.now();
+        java.time.YearMonth targetMonth = java.time.YearMonth.of(year, month);
+        java.time.Year targetYear = java.time.Year.of(year);
+        boolean needsRecurring = widgets.contains("monthly") || widgets.contains("yearly");
+
+        // Work out the union of the ranges whose rows the widgets read
+        java.util.List<java.time.LocalDate[]> ranges = new java.util.ArrayList<>();
+        if (widgets.contains("daily")) {
+            ranges.add(new java.time.LocalDate[] { date, date });
+        }
+        if (widgets.contains("monthly")) {
+            ranges.add(new java.time.LocalDate[] { targetMonth.atDay(1), targetMonth.atEndOfMonth() });
+        }
+        if (widgets.contains("yearly")) {
+            ranges.add(new java.time.LocalDate[] { targetYear.atDay(1), targetYear.atDay(targetYear.length()) });
+        }
+        // Anomalies are listed for the widgets' periods only, not for the recurring look-back
+        java.time.LocalDate anomalyFrom = null;
+        java.time.LocalDate anomalyTo = null;
+        for (java.time.LocalDate[] range : ranges) {
+            anomalyFrom = anomalyFrom == null || range[0].isBefore(anomalyFrom) ? range[0] : anomalyFrom;
+            anomalyTo = anomalyTo == null || range[1].isAfter(anomalyTo) ? range[1] : anomalyTo;
+        }
+        if (needsRecurring) {
+            ranges.add(new java.time.LocalDate[] { today.minusMonths(6), today });
+        }
+        java.time.LocalDate from = null;
+        java.time.LocalDate to = null;
+        for (java.time.LocalDate[] range : ranges) {
+            from = from == null || range[0].isBefore(from) ? range[0] : from;
+            to = to == null || range[1].isAfter(to) ? range[1] : to;
+        }
+
+        java.util.Map<String, Object> result = new java.util.HashMap<>();
+        if (widgets.contains("summary")) {
+            result.put("summary", buildSummary(email, today));
+        }
+        if (from == null) {
+            return result;
+        }
+
+        // One query for all widgets; ordered by date desc, which the recurring detection relies on
+        java.util.List<Expense> transactions = expenseRepository.findAllByCreatedByAndDateBetweenOrderByDateDesc(email, from, to);
+        UserSettings userSettings = userSettingsService.getUserSettings(email);
+        java.util.List<java.util.Map<String, Object>> recurringExpenses = needsRecurring
+            ? findRecurringExpenses(between(transactions, today.minusMonths(6), today))
+            : null;
+        java.util.List<ExpenseAnomalyRepository.Anomaly> anomalies =
+            anomalyDetectionService.findAnomalies(email, anomalyFrom, anomalyTo, DASHBOARD_ANOMALY_LIMIT);
+        boolean anomaliesTruncated = anomalies.size() >= DASHBOARD_ANOMALY_LIMIT;
+
+        if (widgets.contains("daily")) {
+            // The daily view expects its rows newest-first, like findAllByCreatedByAndDateOrderByIdDesc
+            java.util.Comparator<Expense> byIdDesc = java.util.Comparator.comparing(Expense::getId, java.util.Comparator.nullsLast(java.util.Comparator.reverseOrder()));
+            java.util.List<Expense> day = between(transactions, date, date);
+            day.sort(byIdDesc);
+            java.util.Map<String, Object> daily = buildDailyExpensesDetail(date.toString(), day,
+                rangeTotalsService.getTotals(email, date.minusDays(1), date.minusDays(1)), userSettings);
+            daily.put("anomalies", anomaliesBetween(email, anomalies, anomaliesTruncated, date, date));
+            result.put("daily", daily);
+        }
+        if (widgets.contains("monthly")) {
+            java.time.YearMonth previousMonth = targetMonth.minusMonths(1);
+            java.util.Map<String, Object> monthly = buildMonthlyExpensesDetail(year, month,
+                between(transactions, targetMonth.atDay(1), targetMonth.atEndOfMonth()),
+                rangeTotalsService.getTotals(email, targetMonth.atDay(1), targetMonth.atEndOfMonth()),
+                rangeTotalsService.getTotals(email, previousMonth.atDay(1), previousMonth.atEndOfMonth()),
+                userSettings, recurringExpenses);
+            monthly.put("anomalies", anomaliesBetween(email, anomalies, anomaliesTruncated, targetMonth.atDay(1), targetMonth.atEndOfMonth()));
+            result.put("monthly", monthly);
+        }
+        if (widgets.contains("yearly")) {
+            java.time.Year previousYear = targetYear.minusYears(1);
+            java.util.Map<String, Object> yearly = buildYearlyExpensesDetail(year,
+                between(transactions, targetYear.atDay(1), targetYear.atDay(targetYear.length())),
+                rangeTotalsService.getTotals(email, targetYear.atDay(1), targetYear.atDay(targetYear.length())),
+                rangeTotalsService.getTotals(email, previousYear.atDay(1), previousYear.atDay(previousYear.length())),
+                userSettings, recurringExpenses);
+            yearly.put("anomalies", anomaliesBetween(email, anomalies, anomaliesTruncated, targetYear.atDay(1), targetYear.atDay(targetYear.length())));
+            result.put("yearly", yearly);
+        }
+        return result;
+    }
+
+    private java.util.List<ExpenseAnomalyRepository.Anomaly> findAnomalies(String email, java.time.LocalDate from, java.time.LocalDate to) {
+        return anomalyDetectionService.findAnomalies(email, from, to, DETAIL_ANOMALY_LIMIT);
+    }
+
+    /**
+     * A widget's share of the dashboard's anomalies, in the same latest-first order and limit as a
+     * detail response. Only when the shared fetch hit its cap and left this widget short is the range
+     * read again, since its older entries may lie past the cut.
+     */
+    private java.util.List<ExpenseAnomalyRepository.Anomaly> anomaliesBetween(String email, java.util.List<ExpenseAnomalyRepository.Anomaly> anomalies,
+                                                                       boolean truncated, java.time.LocalDate from, java.time.LocalDate to) {
+        java.util.List<ExpenseAnomalyRepository.Anomaly> inRange = anomalies.stream()
+            .filter(a -> !a.date().isBefore(from) && !a.date().isAfter(to))
+            .limit(DETAIL_ANOMALY_LIMIT)
+            .collect(java.util.stream.Collectors.toList());
+        if (truncated && inRange.size() < DETAIL_ANOMALY_LIMIT) {
+            return findAnomalies(email, from, to);
+        }
+        return inRange;
+    }
+
+    private java.util.List<Expense> between(java.util.List<Expense> transactions, java.time.LocalDate from, java.time.LocalDate to) {
+        return transactions.stream()
+            .filter(e -> !e.getDate().isBefore(from) && !e.getDate().isAfter(to))
+            .collect(java.util.stream.Collectors.toList());
+    }
 }
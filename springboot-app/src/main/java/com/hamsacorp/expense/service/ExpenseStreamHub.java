@@ -0,0 +1,385 @@
+package com.hamsacorp.expense.service;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.hamsacorp.expense.event.ExpenseChangedEvent;
+import com.hamsacorp.expense.event.UserInvalidationEvent;
+import com.hamsacorp.expense.model.Expense;
+import jakarta.annotation.PreDestroy;
+import jakarta.servlet.AsyncContext;
+import jakarta.servlet.AsyncEvent;
+import jakarta.servlet.AsyncListener;
+import jakarta.servlet.ServletOutputStream;
+import jakarta.servlet.WriteListener;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.event.ContextClosedEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.http.MediaType;
+import org.springframework.stereotype.Service;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.time.YearMonth;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Fan-out hub for the live dashboard stream (Server-Sent Events).
+ *
+ * Connections are servlet async requests written with non-blocking IO, so a subscriber costs a
+ * socket and a small queue, never a thread, however slowly it reads. Publishing only enqueues the
+ * encoded event; a small dispatcher pool writes as much as each socket accepts and leaves the rest
+ * to the container's {@link WriteListener} callback. A subscriber whose queue fills up, or whose
+ * socket has accepted nothing for {@code send-timeout-ms}, is evicted and its request completed.
+ * A periodic heartbeat both keeps proxies from closing idle connections and flushes out dead ones.
+ */
+@Service
+public class ExpenseStreamHub {
+    private static final byte[] HEARTBEAT = ":heartbeat\n\n".getBytes(StandardCharsets.UTF_8);
+
+    // Guarded by itself: writes come from the dispatcher and from container callbacks
+    private final class Subscriber implements WriteListener, AsyncListener {
+        final String userEmail;
+        final Queue<byte[]> pending;
+        final AtomicBoolean scheduled = new AtomicBoolean();
+        AsyncContext asyncContext;
+        ServletOutputStream out;
+        volatile boolean closed;
+        boolean unflushed;
+        // System.nanoTime() since when the socket has not been ready for more, 0 while it is
+        volatile long stalledSince;
+
+        Subscriber(String userEmail, int queueCapacity) {
+            this.userEmail = userEmail;
+            this.pending = new ArrayBlockingQueue<>(queueCapacity);
+        }
+
+        @Override
+        public void onWritePossible() {
+            drain(this);
+        }
+
+        @Override
+        public void onError(Throwable t) {
+            close(this);
+        }
+
+        @Override
+        public void onComplete(AsyncEvent event) {
+            remove(this);
+        }
+
+        @Override
+        public void onTimeout(AsyncEvent event) {
+            close(this);
+        }
+
+        @Override
+        public void onError(AsyncEvent event) {
+            close(this);
+        }
+
+        @Override
+        public void onStartAsync(AsyncEvent event) {
+        }
+    }
+
+    @Autowired
+    private DataVersionService dataVersionService;
+
+    @Autowired
+    private ObjectMapper objectMapper;
+
+    @Value("${expense.stream.max-connections-per-user:5}")
+    private int maxConnectionsPerUser;
+
+    @Value("${expense.stream.queue-capacity:64}")
+    private int queueCapacity;
+
+    @Value("${expense.stream.timeout-ms:1800000}")
+    private long timeoutMillis;
+
+    private final Map<String, Set<Subscriber>> subscribers = new ConcurrentHashMap<>();
+    private final AtomicInteger connectionCount = new AtomicInteger();
+    private final int maxConnections;
+    private final ThreadPoolExecutor dispatcher;
+    private final ScheduledExecutorService heartbeat = Executors.newSingleThreadScheduledExecutor(daemonThreads("sse-heartbeat"));
+    private final long sendTimeoutNanos;
+
+    public ExpenseStreamHub(@Value("${expense.stream.max-connections:10000}") int maxConnections,
+                            @Value("${expense.stream.heartbeat-seconds:15}") long heartbeatSeconds,
+                            @Value("${expense.stream.dispatch-threads:2}") int dispatchThreads,
+                            @Value("${expense.stream.send-timeout-ms:10000}") long sendTimeoutMillis) {
+        this.maxConnections = maxConnections;
+        // A subscriber is queued at most once at a time, so the queue never holds more than the connections
+        this.dispatcher = new ThreadPoolExecutor(dispatchThreads, dispatchThreads, 60, TimeUnit.SECONDS,
+                new ArrayBlockingQueue<>(maxConnections), daemonThreads("sse-dispatch"));
+        this.dispatcher.allowCoreThreadTimeOut(true);
+        this.sendTimeoutNanos = TimeUnit.MILLISECONDS.toNanos(sendTimeoutMillis);
+        heartbeat.scheduleAtFixedRate(this::sendHeartbeats, heartbeatSeconds, heartbeatSeconds, TimeUnit.SECONDS);
+        heartbeat.scheduleWithFixedDelay(this::evictStalled, 1, 1, TimeUnit.SECONDS);
+    }
+
+    /**
+     * Starts the event stream on the request for the user, or returns false without touching it when
+     * the node or user connection limit is reached.
+     */
+    public boolean subscribe(String userEmail, HttpServletRequest request, HttpServletResponse response) throws IOException {
+        if (connectionCount.get() >= maxConnections) {
+            return false;
+        }
+        Subscriber subscriber = new Subscriber(userEmail, queueCapacity);
+        AtomicBoolean added = new AtomicBoolean();
+        subscribers.compute(userEmail, (k, userSubscribers) -> {
+            Set<Subscriber> set = userSubscribers != null ? userSubscribers : ConcurrentHashMap.newKeySet();
+            if (set.size() < maxConnectionsPerUser) {
+                set.add(subscriber);
+                added.set(true);
+            }
+            return set.isEmpty() ? null : set;
+        });
+        if (!added.get()) {
+            return false;
+        }
+        connectionCount.incrementAndGet();
+
+        Map<String, Object> hello = new HashMap<>();
+        hello.put("version", dataVersionService.getVersion(userEmail));
+        subscriber.pending.offer(encode("connected", hello));
+
+        response.setContentType(MediaType.TEXT_EVENT_STREAM_VALUE);
+        response.setCharacterEncoding(StandardCharsets.UTF_8.name());
+        response.setHeader("Cache-Control", "no-cache");
+        // The unwrapped request and response: filters' wrappers would buffer or block
+        AsyncContext asyncContext = request.startAsync();
+        asyncContext.setTimeout(timeoutMillis);
+        synchronized (subscriber) {
+            subscriber.asyncContext = asyncContext;
+            asyncContext.addListener(subscriber);
+            subscriber.out = asyncContext.getResponse().getOutputStream();
+            // The container calls onWritePossible once it is set, which sends the hello
+            subscriber.out.setWriteListener(subscriber);
+            if (subscriber.closed) {
+                close(subscriber); // Evicted before the request was started
+            }
+        }
+        return true;
+    }
+
+    public int getConnectionCount() {
+        return connectionCount.get();
+    }
+
+    @EventListener
+    public void onExpenseChanged(ExpenseChangedEvent event) {
+        Set<Subscriber> userSubscribers = subscribers.get(event.getUserEmail());
+        if (userSubscribers == null || userSubscribers.isEmpty()) {
+            return;
+        }
+        byte[] delta = encode("expense-delta", buildDelta(event));
+        for (Subscriber subscriber : userSubscribers) {
+            enqueue(subscriber, delta);
+        }
+    }
+
+    /**
+     * Written on another instance, so there is no delta to send: clients refetch what they show.
+     */
+    @EventListener
+    public void onUserInvalidated(UserInvalidationEvent event) {
+        Set<Subscriber> userSubscribers = subscribers.get(event.getUserEmail());
+        if (userSubscribers == null || userSubscribers.isEmpty()) {
+            return;
+        }
+        Map<String, Object> resync = new HashMap<>();
+        resync.put("version", event.getVersion());
+        byte[] encoded = encode("resync", resync);
+        for (Subscriber subscriber : userSubscribers) {
+            enqueue(subscriber, encoded);
+        }
+    }
+
+    /**
+     * Signed per-bucket changes: a create adds the new amount, a delete subtracts the old one and an
+     * update does both, so clients can patch their totals, day/month buckets and category sums in place.
+     */
+    private Map<String, Object> buildDelta(ExpenseChangedEvent event) {
+        List<Map<String, Object>> changes = new ArrayList<>();
+        if (event.getBefore() != null) {
+            changes.add(bucketChange(event.getBefore(), -event.getBefore().getAmount()));
+        }
+        if (event.getAfter() != null) {
+            changes.add(bucketChange(event.getAfter(), event.getAfter().getAmount()));
+        }
+        Map<String, Object> delta = new LinkedHashMap<>();
+        delta.put("op", event.getOperation().name());
+        delta.put("expenseId", event.getExpenseId());
+        delta.put("version", event.getVersion());
+        delta.put("changes", changes);
+        return delta;
+    }
+
+    private Map<String, Object> bucketChange(Expense expense, double amount) {
+        Map<String, Object> change = new LinkedHashMap<>();
+        change.put("type", expense.getType());
+        change.put("category", expense.getCategory());
+        change.put("date", expense.getDate().toString());
+        change.put("month", YearMonth.from(expense.getDate()).toString());
+        change.put("amount", amount);
+        return change;
+    }
+
+    // Once per event, shared by all of the user's subscribers
+    private byte[] encode(String name, Object data) {
+        try {
+            return ("event:" + name + "\ndata:" + objectMapper.writeValueAsString(data) + "\n\n").getBytes(StandardCharsets.UTF_8);
+        } catch (JsonProcessingException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private void sendHeartbeats() {
+        for (Set<Subscriber> userSubscribers : subscribers.values()) {
+            for (Subscriber subscriber : userSubscribers) {
+                enqueue(subscriber, HEARTBEAT);
+            }
+        }
+    }
+
+    private void enqueue(Subscriber subscriber, byte[] event) {
+        if (subscriber.closed) {
+            return;
+        }
+        if (!subscriber.pending.offer(event)) {
+            // Slow consumer: it has fallen a full queue behind, drop it and let the client reconnect
+            close(subscriber);
+            return;
+        }
+        if (subscriber.scheduled.compareAndSet(false, true)) {
+            try {
+                dispatcher.execute(() -> {
+                    subscriber.scheduled.set(false);
+                    drain(subscriber);
+                });
+            } catch (RejectedExecutionException e) {
+                // Shutting down
+                close(subscriber);
+            }
+        }
+    }
+
+    private void evictStalled() {
+        long now = System.nanoTime();
+        for (Set<Subscriber> userSubscribers : subscribers.values()) {
+            for (Subscriber subscriber : userSubscribers) {
+                long since = subscriber.stalledSince;
+                if (since != 0 && now - since > sendTimeoutNanos) {
+                    close(subscriber);
+                }
+            }
+        }
+    }
+
+    /**
+     * Writes queued events while the socket takes them without blocking. When it stops, the container
+     * calls onWritePossible once it drains, which picks up where this left off.
+     */
+    private void drain(Subscriber subscriber) {
+        synchronized (subscriber) {
+            if (subscriber.closed || subscriber.out == null) {
+                return; // Not started yet: setWriteListener triggers the first drain
+            }
+            try {
+                while (subscriber.out.isReady()) {
+                    byte[] event = subscriber.pending.poll();
+                    if (event != null) {
+                        subscriber.out.write(event);
+                        subscriber.unflushed = true;
+                    } else if (subscriber.unflushed) {
+                        subscriber.out.flush();
+                        subscriber.unflushed = false;
+                    } else {
+                        subscriber.stalledSince = 0;
+                        return;
+                    }
+                }
+                if (subscriber.stalledSince == 0) {
+                    subscriber.stalledSince = System.nanoTime();
+                }
+            } catch (IOException | IllegalStateException e) {
+                close(subscriber);
+            }
+        }
+    }
+
+    /** Stops taking events and completes the request; the container closes the connection. */
+    private void close(Subscriber subscriber) {
+        remove(subscriber);
+        synchronized (subscriber) {
+            if (subscriber.asyncContext != null) {
+                try {
+                    subscriber.asyncContext.complete();
+                } catch (IllegalStateException e) {
+                    // Already completed or timed out
+                }
+                subscriber.asyncContext = null;
+            }
+        }
+    }
+
+    private void remove(Subscriber subscriber) {
+        if (subscriber.closed) {
+            return;
+        }
+        subscriber.closed = true;
+        subscriber.pending.clear();
+        AtomicBoolean removed = new AtomicBoolean();
+        subscribers.computeIfPresent(subscriber.userEmail, (k, userSubscribers) -> {
+            removed.set(userSubscribers.remove(subscriber));
+            return userSubscribers.isEmpty() ? null : userSubscribers;
+        });
+        if (removed.get()) {
+            connectionCount.decrementAndGet();
+        }
+    }
+
+    // Before the web server's graceful shutdown, which would otherwise wait for every open stream
+    @EventListener(ContextClosedEvent.class)
+    @PreDestroy
+    public void shutdown() {
+        heartbeat.shutdownNow();
+        dispatcher.shutdownNow();
+        for (Set<Subscriber> userSubscribers : subscribers.values()) {
+            for (Subscriber subscriber : userSubscribers) {
+                close(subscriber);
+            }
+        }
+    }
+
+    private static ThreadFactory daemonThreads(String name) {
+        return runnable -> {
+            Thread thread = new Thread(runnable, name);
+            thread.setDaemon(true);
+            return thread;
+        };
+    }
+}
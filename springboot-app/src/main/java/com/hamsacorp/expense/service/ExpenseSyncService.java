@@ -0,0 +1,143 @@
+package com.hamsacorp.expense.service;
+
+import com.hamsacorp.expense.model.Expense;
+import com.hamsacorp.expense.repository.ExpenseChangeLogRepository;
+import com.hamsacorp.expense.repository.ExpenseRepository;
+import com.hamsacorp.expense.sharding.ShardContext;
+import com.hamsacorp.expense.sharding.ShardDirectory;
+import com.hamsacorp.expense.sharding.ShardWriteGuard;
+import com.hamsacorp.expense.sharding.UserMovingException;
+import jakarta.annotation.PreDestroy;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Service;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Delta sync for clients that keep a local copy of the user's expenses.
+ *
+ * The sync token is the last per-user change sequence value the client has applied. A request
+ * returns the changes after it, oldest first and at most {@code limit} of them, plus the token to
+ * send next time; {@code hasMore} means the client should ask again straight away. Tombstones are
+ * pruned after a retention period, and a client whose token is older than that gets
+ * {@code reset: true} with a full listing from the start.
+ *
+ * Pruning is a background job on every shard, so a sync request only reads. Each user is pruned in
+ * a ShardWriteGuard write, which skips users being moved.
+ */
+@Service
+public class ExpenseSyncService {
+    public static final int MAX_LIMIT = 1000;
+
+    @Autowired
+    private ExpenseRepository expenseRepository;
+
+    @Autowired
+    private ExpenseChangeLogRepository changeLogRepository;
+
+    @Autowired
+    private ShardDirectory shardDirectory;
+
+    @Autowired
+    private ShardWriteGuard shardWriteGuard;
+
+    @Value("${expense.sync.tombstone-retention-days:90}")
+    private int tombstoneRetentionDays;
+
+    @Value("${expense.sync.prune-interval-minutes:60}")
+    private long pruneIntervalMinutes;
+
+    private final ScheduledExecutorService pruner = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "tombstone-prune");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void start() {
+        pruner.scheduleWithFixedDelay(this::pruneTombstones, pruneIntervalMinutes, pruneIntervalMinutes, TimeUnit.MINUTES);
+    }
+
+    @PreDestroy
+    public void stop() {
+        pruner.shutdownNow();
+    }
+
+    void pruneTombstones() {
+        for (String shard : shardDirectory.getShardNames()) {
+            try {
+                ShardContext.run(shard, () -> {
+                    for (String email : changeLogRepository.findUsersWithTombstonesOlderThanDays(tombstoneRetentionDays)) {
+                        try {
+                            shardWriteGuard.write(email, () -> changeLogRepository.pruneOlderThanDays(email, tombstoneRetentionDays));
+                        } catch (UserMovingException e) {
+                            // Pruned on the next run, on whichever shard the user ends up
+                        }
+                    }
+                });
+            } catch (RuntimeException e) {
+                System.err.println("Error pruning tombstones on shard " + shard + ": " + e.getMessage());
+            }
+        }
+    }
+
+    public Map<String, Object> getChangesSince(String email, String token, int limit) {
+        long since = parseToken(token);
+        long[] counters = changeLogRepository.findCounters(email);
+        // Behind the pruned tombstones, or a token this server never handed out: start over
+        boolean reset = since > 0 && (since < counters[1] || since > counters[0]);
+        if (reset) {
+            since = 0;
+        }
+
+        // One extra to know whether there is more; a client starting from scratch has nothing to delete
+        List<ExpenseChangeLogRepository.Change> changes = changeLogRepository.findAfter(email, since, since > 0, limit + 1);
+        boolean hasMore = changes.size() > limit;
+        if (hasMore) {
+            changes = changes.subList(0, limit);
+        }
+
+        List<Long> upsertedIds = new ArrayList<>();
+        List<Long> deleted = new ArrayList<>();
+        for (ExpenseChangeLogRepository.Change change : changes) {
+            (change.deleted() ? deleted : upsertedIds).add(change.expenseId());
+        }
+        // Rows changed again since the log was read come back with their newer values; a later sync
+        // returns them once more, which clients apply idempotently
+        List<Expense> upserted = new ArrayList<>(expenseRepository.findAllById(upsertedIds));
+        upserted.sort(Comparator.comparing(Expense::getChangeSeq));
+
+        Map<String, Object> result = new LinkedHashMap<>();
+        result.put("token", Long.toString(changes.isEmpty() ? since : changes.get(changes.size() - 1).changeSeq()));
+        result.put("hasMore", hasMore);
+        result.put("reset", reset);
+        result.put("upserted", upserted);
+        result.put("deleted", deleted);
+        return result;
+    }
+
+    private static long parseToken(String token) {
+        if (token == null || token.isEmpty()) {
+            return 0;
+        }
+        try {
+            long since = Long.parseLong(token);
+            if (since < 0) {
+                throw new IllegalArgumentException("Invalid sync token: " + token);
+            }
+            return since;
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Invalid sync token: " + token);
+        }
+    }
+}
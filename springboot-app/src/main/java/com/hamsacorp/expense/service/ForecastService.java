@@ -0,0 +1,324 @@
+package com.hamsacorp.expense.service;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.hamsacorp.expense.event.ExpenseChangedEvent;
+import com.hamsacorp.expense.event.UserInvalidationEvent;
+import com.hamsacorp.expense.model.Expense;
+import com.hamsacorp.expense.repository.ExpenseChangeLogRepository;
+import com.hamsacorp.expense.repository.ExpenseRepository;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionDefinition;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+
+/**
+ * Daily spending forecasts from per-user, per-category Holt-Winters models (additive level, trend and
+ * weekly seasonality).
+ *
+ * A user's models are fitted once from history on first use and then kept in memory. Each model has
+ * absorbed every day up to {@code fittedThrough}; writes for later days (normally today) accumulate in
+ * an open-day buffer that is folded in as days close, so the forecast request itself only projects the
+ * current state forward. Writes that land on an already-fitted day can't be undone incrementally and
+ * mark the user's state for a lazy refit. The history is read in a repeatable-read snapshot together
+ * with the user's change counter, and writes the counter already covered are not applied again. Fitting is linear in the history's days and a forecast in
+ * its horizon. Users are evicted least recently used once the cached states hold
+ * {@code max-cached-models} models in total.
+ */
+@Service
+public class ForecastService {
+    public static final Set<Integer> FORECAST_DAYS = Set.of(7, 14, 30, 90);
+
+    private static final String TOTAL = "__total__";
+    private static final double ALPHA = 0.2;     // level
+    private static final double BETA = 0.02;     // trend
+    private static final double GAMMA = 0.1;     // weekly season
+    private static final double ERROR_DECAY = 0.05;
+    private static final double Z_95 = 1.96;
+    private static final int SEASON = 7;
+    // Forecast error variance per unit of one-step error variance, by steps ahead; the same for every model
+    private static final double[] VARIANCE_FACTORS = varianceFactors(FORECAST_DAYS.stream().max(Integer::compare).orElseThrow());
+
+    /** One Holt-Winters model for a single daily series. */
+    private static final class Model {
+        double level;
+        double trend;
+        final double[] season = new double[SEASON];
+        double errorVariance;
+        int observations;
+
+        void observe(long epochDay, double y) {
+            int slot = Math.floorMod(epochDay, SEASON);
+            if (observations < SEASON) {
+                // Warm-up week: the mean is the level, deviations from it the seasonal offsets
+                season[slot] = y;
+                level = (level * observations + y) / (observations + 1);
+                if (++observations == SEASON) {
+                    for (int i = 0; i < SEASON; i++) {
+                        season[i] -= level;
+                    }
+                }
+                return;
+            }
+            double error = y - (level + trend + season[slot]);
+            double previousLevel = level;
+            level = ALPHA * (y - season[slot]) + (1 - ALPHA) * (level + trend);
+            trend = BETA * (level - previousLevel) + (1 - BETA) * trend;
+            season[slot] = GAMMA * (y - level) + (1 - GAMMA) * season[slot];
+            errorVariance = observations == SEASON ? error * error
+                    : (1 - ERROR_DECAY) * errorVariance + ERROR_DECAY * error * error;
+            observations++;
+        }
+
+        double predict(long fromEpochDay, int stepsAhead) {
+            if (observations < SEASON) {
+                return level;
+            }
+            return level + stepsAhead * trend + season[Math.floorMod(fromEpochDay + stepsAhead, SEASON)];
+        }
+
+        /** Forecast error variance h steps ahead for the additive model. */
+        double variance(int stepsAhead) {
+            return errorVariance * VARIANCE_FACTORS[stepsAhead];
+        }
+    }
+
+    // factors[h] = 1 + sum of c_j^2 for j < h, accumulated once instead of per step and model
+    private static double[] varianceFactors(int maxSteps) {
+        double[] factors = new double[maxSteps + 1];
+        factors[1] = 1;
+        for (int h = 2; h <= maxSteps; h++) {
+            int j = h - 1;
+            double c = ALPHA * (1 + j * BETA) + (j % SEASON == 0 ? GAMMA * (1 - ALPHA) : 0);
+            factors[h] = factors[h - 1] + c * c;
+        }
+        return factors;
+    }
+
+    private static final class UserForecast {
+        final long windowStart;
+        final long builtAtSeq;
+        long fittedThrough;
+        final Map<String, Model> models = new HashMap<>();
+        // epochDay -> category -> amount, for days not yet folded into the models
+        final TreeMap<Long, Map<String, Double>> openDays = new TreeMap<>();
+        boolean stale;
+
+        UserForecast(long windowStart, long builtAtSeq) {
+            this.windowStart = windowStart;
+            this.builtAtSeq = builtAtSeq;
+            this.fittedThrough = windowStart - 1;
+        }
+
+        void add(long epochDay, String category, double amount) {
+            Map<String, Double> day = openDays.computeIfAbsent(epochDay, k -> new HashMap<>());
+            day.merge(category, amount, Double::sum);
+            day.merge(TOTAL, amount, Double::sum);
+        }
+
+        void advance(long throughEpochDay) {
+            for (long day = fittedThrough + 1; day <= throughEpochDay; day++) {
+                Map<String, Double> amounts = openDays.remove(day);
+                if (amounts != null) {
+                    for (String category : amounts.keySet()) {
+                        models.computeIfAbsent(category, k -> new Model());
+                    }
+                }
+                for (Map.Entry<String, Model> entry : models.entrySet()) {
+                    double amount = amounts == null ? 0 : amounts.getOrDefault(entry.getKey(), 0.0);
+                    entry.getValue().observe(day, amount);
+                }
+            }
+            fittedThrough = Math.max(fittedThrough, throughEpochDay);
+        }
+    }
+
+    @Autowired
+    private ExpenseRepository expenseRepository;
+
+    @Autowired
+    private ExpenseChangeLogRepository changeLogRepository;
+
+    @Autowired
+    private DataVersionService dataVersionService;
+
+    @Value("${expense.forecast.history-days:365}")
+    private int historyDays;
+
+    private final Cache<String, UserForecast> forecasts;
+    private final TransactionTemplate snapshot;
+
+    public ForecastService(PlatformTransactionManager transactionManager,
+                           @Value("${expense.forecast.max-cached-models:200000}") long maxCachedModels) {
+        this.snapshot = new TransactionTemplate(transactionManager);
+        this.snapshot.setIsolationLevel(TransactionDefinition.ISOLATION_REPEATABLE_READ);
+        this.snapshot.setReadOnly(true);
+        this.forecasts = Caffeine.newBuilder()
+                .maximumWeight(maxCachedModels)
+                .weigher((String email, UserForecast state) -> Math.max(1, state.models.size()))
+                .build();
+    }
+
+    public Map<String, Object> getForecast(String email, int days) {
+        if (!FORECAST_DAYS.contains(days)) {
+            throw new IllegalArgumentException("days must be one of 7, 14, 30 or 90");
+        }
+        LocalDate today = LocalDate.now();
+        UserForecast state = getState(email, today);
+
+        Map<String, Object> result = new HashMap<>();
+        synchronized (state) {
+            state.advance(today.toEpochDay() - 1);
+            Model total = state.models.get(TOTAL);
+            List<Map<String, Object>> daily = new ArrayList<>();
+            List<Map<String, Object>> categories = new ArrayList<>();
+            if (total != null) {
+                for (int h = 1; h <= days; h++) {
+                    daily.add(forecastPoint(today.minusDays(1).plusDays(h).toString(), total, state.fittedThrough, h, h));
+                }
+                for (Map.Entry<String, Model> entry : state.models.entrySet()) {
+                    if (entry.getKey().equals(TOTAL)) {
+                        continue;
+                    }
+                    Map<String, Object> category = forecastPoint(null, entry.getValue(), state.fittedThrough, 1, days);
+                    category.put("category", entry.getKey());
+                    categories.add(category);
+                }
+                categories.sort((a, b) -> Double.compare((Double) b.get("predicted"), (Double) a.get("predicted")));
+                Map<String, Object> totals = forecastPoint(null, total, state.fittedThrough, 1, days);
+                result.put("totalPredicted", totals.get("predicted"));
+                result.put("totalLower", totals.get("lower"));
+                result.put("totalUpper", totals.get("upper"));
+                result.put("trend", totals.get("trend"));
+            }
+            result.put("days", days);
+            result.put("confidenceLevel", 0.95);
+            result.put("fittedThrough", LocalDate.ofEpochDay(state.fittedThrough).toString());
+            result.put("historyDays", state.fittedThrough - state.windowStart + 1);
+            result.put("dailyForecast", daily);
+            result.put("categoryForecast", categories);
+        }
+        return result;
+    }
+
+    /**
+     * Point forecast and 95% band summed over steps {@code fromStep..toStep}. Summing per-step variances
+     * ignores the correlation between steps, so multi-day bands are on the narrow side.
+     */
+    private Map<String, Object> forecastPoint(String date, Model model, long origin, int fromStep, int toStep) {
+        double predicted = 0;
+        double variance = 0;
+        for (int h = fromStep; h <= toStep; h++) {
+            predicted += Math.max(0, model.predict(origin, h));
+            variance += model.variance(h);
+        }
+        double margin = Z_95 * Math.sqrt(variance);
+        double weeklyTrend = model.trend * SEASON;
+
+        Map<String, Object> point = new LinkedHashMap<>();
+        if (date != null) {
+            point.put("date", date);
+        }
+        point.put("predicted", round(predicted));
+        point.put("lower", round(Math.max(0, predicted - margin)));
+        point.put("upper", round(predicted + margin));
+        point.put("trend", Math.abs(weeklyTrend) < 0.05 * Math.max(model.level, 1) ? "stable"
+                : weeklyTrend > 0 ? "increasing" : "decreasing");
+        return point;
+    }
+
+    private UserForecast getState(String email, LocalDate today) {
+        UserForecast state = forecasts.getIfPresent(email);
+        if (state != null) {
+            synchronized (state) {
+                if (!state.stale) {
+                    return state;
+                }
+            }
+        }
+        long version = dataVersionService.getVersion(email);
+        UserForecast built = snapshot.execute(status -> build(email, today));
+        forecasts.put(email, built);
+        // Checked after publishing: a write whose event came before the put is caught here, later ones apply themselves
+        if (dataVersionService.getVersion(email) != version) {
+            synchronized (built) {
+                built.stale = true; // Serve this fit but refit next time
+            }
+        }
+        return built;
+    }
+
+    // In one snapshot, so the counter covers exactly the writes the history includes
+    private UserForecast build(String email, LocalDate today) {
+        long changeSeq = changeLogRepository.findCounters(email)[0];
+        LocalDate from = today.minusDays(historyDays);
+        List<Expense> history = expenseRepository.findAllByCreatedByAndDateBetweenOrderByDateDesc(email, from, today.plusDays(historyDays));
+
+        // Start at the first day with spending so new users aren't fitted on a year of leading zeros
+        long firstDay = today.toEpochDay();
+        for (Expense expense : history) {
+            if (expense.getType() == Expense.ExpenseType.EXPENSE) {
+                firstDay = Math.min(firstDay, expense.getDate().toEpochDay());
+            }
+        }
+        UserForecast state = new UserForecast(firstDay, changeSeq);
+        for (Expense expense : history) {
+            if (expense.getType() == Expense.ExpenseType.EXPENSE) {
+                state.add(expense.getDate().toEpochDay(), expense.getCategory(), expense.getAmount());
+            }
+        }
+        state.advance(today.toEpochDay() - 1);
+        return state;
+    }
+
+    @EventListener
+    public void onExpenseChanged(ExpenseChangedEvent event) {
+        UserForecast state = forecasts.getIfPresent(event.getUserEmail());
+        if (state == null) {
+            return;
+        }
+        synchronized (state) {
+            if (event.getChangeSeq() <= state.builtAtSeq) {
+                return; // Already in the history the state was built from
+            }
+            apply(state, event.getBefore(), -1);
+            apply(state, event.getAfter(), 1);
+        }
+    }
+
+    @EventListener
+    public void onUserInvalidated(UserInvalidationEvent event) {
+        forecasts.invalidate(event.getUserEmail());
+    }
+
+    private void apply(UserForecast state, Expense expense, int sign) {
+        if (expense == null || expense.getType() != Expense.ExpenseType.EXPENSE) {
+            return;
+        }
+        long day = expense.getDate().toEpochDay();
+        if (day > state.fittedThrough) {
+            state.add(day, expense.getCategory(), sign * expense.getAmount());
+        } else if (day >= state.windowStart) {
+            state.stale = true;
+        } else if (sign > 0) {
+            // Moves the first spending day earlier
+            state.stale = true;
+        }
+    }
+
+    private static double round(double value) {
+        return Math.round(value * 100.0) / 100.0;
+    }
+}
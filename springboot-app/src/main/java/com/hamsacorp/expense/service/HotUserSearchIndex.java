@@ -0,0 +1,244 @@
+package com.hamsacorp.expense.service;
+
+import com.hamsacorp.expense.event.ExpenseChangedEvent;
+import com.hamsacorp.expense.event.UserInvalidationEvent;
+import com.hamsacorp.expense.model.Expense;
+import com.hamsacorp.expense.repository.ExpenseRepository;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.event.EventListener;
+import org.springframework.data.domain.Page;
+import org.springframework.data.domain.PageImpl;
+import org.springframework.data.domain.Pageable;
+import org.springframework.stereotype.Service;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * In-process trigram index over the expenses of users who search a lot, so their searches skip the
+ * database. A user is indexed once they make {@code hot-threshold} searches within a minute (and have
+ * at most {@code max-rows} expenses); the least recently searched index is dropped beyond
+ * {@code max-users}. Indexes are kept current from {@link ExpenseChangedEvent}.
+ *
+ * Ranking matches {@link ExpenseRepository#searchByCreatedBy}, so results don't change when a user
+ * becomes hot.
+ */
+@Service
+public class HotUserSearchIndex {
+
+    private static final class Entry {
+        final Expense expense;
+        final String description;
+        final String category;
+
+        Entry(Expense expense) {
+            this.expense = expense;
+            this.description = expense.getDescription().toLowerCase(Locale.ROOT);
+            this.category = expense.getCategory().toLowerCase(Locale.ROOT);
+        }
+    }
+
+    private static final class UserIndex {
+        final long builtAtVersion;
+        final List<Entry> entries = new ArrayList<>();
+        final Map<Long, Integer> slotById = new HashMap<>();
+        final Map<String, BitSet> postings = new HashMap<>();
+        final BitSet live = new BitSet();
+
+        UserIndex(long builtAtVersion) {
+            this.builtAtVersion = builtAtVersion;
+        }
+
+        void add(Expense expense) {
+            remove(expense.getId());
+            Entry entry = new Entry(expense);
+            int slot = entries.size();
+            entries.add(entry);
+            slotById.put(expense.getId(), slot);
+            live.set(slot);
+            for (String text : new String[] {entry.description, entry.category}) {
+                for (int i = 0; i + 3 <= text.length(); i++) {
+                    postings.computeIfAbsent(text.substring(i, i + 3), k -> new BitSet()).set(slot);
+                }
+            }
+        }
+
+        void remove(Long id) {
+            Integer slot = slotById.remove(id);
+            if (slot != null) {
+                live.clear(slot);
+                entries.set(slot, null);
+            }
+        }
+
+        List<Entry> search(String term) {
+            BitSet candidates = (BitSet) live.clone();
+            for (int i = 0; i + 3 <= term.length() && !candidates.isEmpty(); i++) {
+                BitSet posting = postings.get(term.substring(i, i + 3));
+                if (posting == null) {
+                    return List.of();
+                }
+                candidates.and(posting);
+            }
+            // Trigrams only narrow the set; short terms and trigram false positives need the real check
+            List<Entry> matches = new ArrayList<>();
+            for (int slot = candidates.nextSetBit(0); slot >= 0; slot = candidates.nextSetBit(slot + 1)) {
+                Entry entry = entries.get(slot);
+                if (entry.description.contains(term) || entry.category.contains(term)) {
+                    matches.add(entry);
+                }
+            }
+            return matches;
+        }
+    }
+
+    @Autowired
+    private ExpenseRepository expenseRepository;
+
+    @Autowired
+    private DataVersionService dataVersionService;
+
+    @Value("${expense.search.hot-threshold:10}")
+    private int hotThreshold;
+
+    @Value("${expense.search.max-rows:200000}")
+    private long maxRows;
+
+    @Value("${expense.search.max-users:50}")
+    private int maxUsers;
+
+    // Access-ordered, so the eldest entry is the least recently searched user
+    private final Map<String, UserIndex> indexes = new LinkedHashMap<>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, UserIndex> eldest) {
+            return size() > maxUsers;
+        }
+    };
+    private final Map<String, long[]> searchRates = new ConcurrentHashMap<>();
+
+    /**
+     * Searches the user's in-memory index, or returns null if the user isn't (yet) indexed and the
+     * caller should go to the database. Counts the search towards making the user hot.
+     */
+    public Page<Expense> search(String email, String term, Pageable pageable) {
+        UserIndex index;
+        synchronized (indexes) {
+            index = indexes.get(email);
+        }
+        if (index == null) {
+            if (isHot(email)) {
+                index = build(email);
+            }
+            if (index == null) {
+                return null;
+            }
+        }
+        List<Entry> matches;
+        synchronized (index) {
+            matches = index.search(term);
+        }
+        matches.sort(Comparator.<Entry>comparingInt(e -> rank(e, term))
+                .thenComparing(e -> e.expense.getDate(), Comparator.reverseOrder())
+                .thenComparing(e -> e.expense.getId(), Comparator.reverseOrder()));
+        int from = (int) Math.min(pageable.getOffset(), matches.size());
+        int to = Math.min(from + pageable.getPageSize(), matches.size());
+        List<Expense> page = new ArrayList<>(to - from);
+        for (Entry entry : matches.subList(from, to)) {
+            page.add(ExpenseChangedEvent.snapshot(entry.expense));
+        }
+        return new PageImpl<>(page, pageable, matches.size());
+    }
+
+    public boolean isIndexed(String email) {
+        synchronized (indexes) {
+            return indexes.containsKey(email);
+        }
+    }
+
+    private static int rank(Entry entry, String term) {
+        if (entry.description.equals(term) || entry.category.equals(term)) {
+            return 0;
+        }
+        if (entry.description.startsWith(term) || entry.category.startsWith(term)) {
+            return 1;
+        }
+        return entry.description.contains(" " + term) ? 2 : 3;
+    }
+
+    /** Fixed one-minute window: [windowStartMillis, count]. */
+    private boolean isHot(String email) {
+        long now = System.currentTimeMillis();
+        long[] rate = searchRates.compute(email, (k, r) -> {
+            if (r == null || now - r[0] > 60_000) {
+                return new long[] {now, 1};
+            }
+            r[1]++;
+            return r;
+        });
+        return rate[1] >= hotThreshold;
+    }
+
+    private UserIndex build(String email) {
+        if (expenseRepository.countByCreatedBy(email) > maxRows) {
+            searchRates.remove(email); // Too big to hold; re-check only after another burst
+            return null;
+        }
+        long versionBefore = dataVersionService.getVersion(email);
+        List<Expense> expenses = expenseRepository.findAllByCreatedBy(email);
+        if (dataVersionService.getVersion(email) != versionBefore) {
+            return null; // A write raced the load; try again on a later search
+        }
+        UserIndex index = new UserIndex(versionBefore);
+        for (Expense expense : expenses) {
+            index.add(ExpenseChangedEvent.snapshot(expense));
+        }
+        synchronized (indexes) {
+            indexes.put(email, index);
+        }
+        if (dataVersionService.getVersion(email) != versionBefore) {
+            // A write landed before the index was visible to the event listener
+            synchronized (indexes) {
+                indexes.remove(email);
+            }
+            return null;
+        }
+        searchRates.remove(email);
+        return index;
+    }
+
+    @EventListener
+    public void onExpenseChanged(ExpenseChangedEvent event) {
+        UserIndex index;
+        synchronized (indexes) {
+            index = indexes.get(event.getUserEmail());
+        }
+        if (index == null) {
+            return;
+        }
+        synchronized (index) {
+            if (event.getVersion() <= index.builtAtVersion) {
+                return;
+            }
+            if (event.getAfter() != null) {
+                index.add(event.getAfter());
+            } else {
+                index.remove(event.getBefore().getId());
+            }
+        }
+    }
+
+    @EventListener
+    public void onUserInvalidated(UserInvalidationEvent event) {
+        synchronized (indexes) {
+            indexes.remove(event.getUserEmail());
+        }
+    }
+}
@@ -0,0 +1,211 @@
+package com.hamsacorp.expense.service;
+
+import com.hamsacorp.expense.event.UserInvalidationEvent;
+import com.hamsacorp.expense.sharding.GlobalData;
+import jakarta.annotation.PreDestroy;
+import org.postgresql.PGConnection;
+import org.postgresql.PGNotification;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.jdbc.DataSourceProperties;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.context.event.EventListener;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Service;
+
+import java.nio.charset.StandardCharsets;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Keeps per-user in-memory state consistent across instances with Postgres LISTEN/NOTIFY.
+ *
+ * Every few milliseconds the versions bumped on this instance are sent as one notification per
+ * batch of users (one line "version email" per user), so a burst of writes costs a single NOTIFY.
+ * Each instance listens on a dedicated connection and, for users whose version moved past what it
+ * has seen, publishes a {@link UserInvalidationEvent} for its caches to evict.
+ *
+ * Notifications are fire-and-forget: anything sent while an instance's listener was disconnected is
+ * lost. To recover, user_data_versions is re-read for recently changed rows after every (re)connect
+ * and every expense.invalidation.check-seconds, which catches any version an instance missed.
+ */
+@Service
+@GlobalData
+public class InvalidationBus {
+    public static final String CHANNEL = "expense_invalidation";
+    // Postgres rejects payloads of 8000 bytes or more
+    private static final int MAX_PAYLOAD_BYTES = 7900;
+
+    @Autowired
+    private DataVersionService dataVersionService;
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    @Autowired
+    private DataSourceProperties dataSourceProperties;
+
+    @Autowired
+    private ApplicationEventPublisher eventPublisher;
+
+    @Value("${expense.invalidation.flush-ms:20}")
+    private long flushMillis;
+
+    @Value("${expense.invalidation.check-seconds:30}")
+    private long checkSeconds;
+
+    private final ScheduledExecutorService scheduler = Executors.newScheduledThreadPool(2, runnable -> {
+        Thread thread = new Thread(runnable, "invalidation-bus");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private volatile boolean running = true;
+    private volatile Connection listenConnection;
+    // Database time of the last version check; rows changed since then are checked next
+    private Timestamp checkedUpTo;
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void start() {
+        // Nothing is cached before the first request, so older changes don't matter
+        checkedUpTo = jdbcTemplate.queryForObject("SELECT now()", Timestamp.class);
+        scheduler.scheduleWithFixedDelay(this::announce, flushMillis, flushMillis, TimeUnit.MILLISECONDS);
+        scheduler.scheduleWithFixedDelay(this::checkVersions, checkSeconds, checkSeconds, TimeUnit.SECONDS);
+        Thread listener = new Thread(this::listen, "invalidation-listener");
+        listener.setDaemon(true);
+        listener.start();
+    }
+
+    @PreDestroy
+    public void stop() {
+        running = false;
+        announce();
+        scheduler.shutdownNow();
+        closeQuietly(listenConnection);
+    }
+
+    private void announce() {
+        Map<String, Long> bumped = dataVersionService.drainUnannounced();
+        if (bumped.isEmpty()) {
+            return;
+        }
+        List<String> payloads = new ArrayList<>();
+        StringBuilder payload = new StringBuilder();
+        int payloadBytes = 0;
+        for (Map.Entry<String, Long> entry : bumped.entrySet()) {
+            String line = entry.getValue() + " " + entry.getKey() + "\n";
+            int lineBytes = line.getBytes(StandardCharsets.UTF_8).length;
+            if (payloadBytes + lineBytes > MAX_PAYLOAD_BYTES && payloadBytes > 0) {
+                payloads.add(payload.toString());
+                payload.setLength(0);
+                payloadBytes = 0;
+            }
+            payload.append(line);
+            payloadBytes += lineBytes;
+        }
+        payloads.add(payload.toString());
+        try {
+            for (String notification : payloads) {
+                jdbcTemplate.queryForList("SELECT pg_notify(?, ?)", CHANNEL, notification);
+            }
+        } catch (RuntimeException e) {
+            // Other instances pick the versions up on their next version check
+            System.err.println("Error sending cache invalidations: " + e.getMessage());
+        }
+    }
+
+    private void listen() {
+        long backoffMillis = 1000;
+        while (running) {
+            try (Connection connection = openListenConnection()) {
+                listenConnection = connection;
+                try (Statement statement = connection.createStatement()) {
+                    statement.execute("LISTEN " + CHANNEL);
+                }
+                backoffMillis = 1000;
+                // Listening from here on; anything written while disconnected is only in the table
+                checkVersions();
+                PGConnection pgConnection = connection.unwrap(PGConnection.class);
+                while (running) {
+                    PGNotification[] notifications = pgConnection.getNotifications(1000);
+                    if (notifications == null) {
+                        continue;
+                    }
+                    for (PGNotification notification : notifications) {
+                        receive(notification.getParameter());
+                    }
+                }
+            } catch (SQLException | RuntimeException e) {
+                if (!running) {
+                    return;
+                }
+                System.err.println("Invalidation listener disconnected, retrying in " + backoffMillis + " ms: " + e.getMessage());
+                try {
+                    Thread.sleep(backoffMillis);
+                } catch (InterruptedException interrupted) {
+                    return;
+                }
+                backoffMillis = Math.min(backoffMillis * 2, 30_000);
+            }
+        }
+    }
+
+    // Outside the pool: a LISTEN connection is held for the life of the instance
+    private Connection openListenConnection() throws SQLException {
+        Properties properties = new Properties();
+        properties.setProperty("user", dataSourceProperties.determineUsername());
+        properties.setProperty("password", dataSourceProperties.determinePassword());
+        properties.setProperty("ApplicationName", "expense-invalidation-listener");
+        properties.setProperty("tcpKeepAlive", "true");
+        return DriverManager.getConnection(dataSourceProperties.determineUrl(), properties);
+    }
+
+    private void receive(String payload) {
+        for (String line : payload.split("\n")) {
+            int space = line.indexOf(' ');
+            if (space > 0) {
+                apply(line.substring(space + 1), Long.parseLong(line.substring(0, space)));
+            }
+        }
+    }
+
+    private void apply(String userEmail, long version) {
+        if (dataVersionService.advance(userEmail, version)) {
+            eventPublisher.publishEvent(new UserInvalidationEvent(userEmail, version));
+        }
+    }
+
+    private synchronized void checkVersions() {
+        try {
+            Timestamp now = jdbcTemplate.queryForObject("SELECT now()", Timestamp.class);
+            // A minute of overlap covers bumps whose transaction committed after the last check ran
+            jdbcTemplate.query("SELECT user_email, version FROM user_data_versions WHERE updated_at > ?::timestamp - interval '1 minute'",
+                    rs -> {
+                        apply(rs.getString(1), rs.getLong(2));
+                    }, checkedUpTo);
+            checkedUpTo = now;
+        } catch (RuntimeException e) {
+            System.err.println("Error checking data versions: " + e.getMessage());
+        }
+    }
+
+    private static void closeQuietly(Connection connection) {
+        if (connection != null) {
+            try {
+                connection.close();
+            } catch (SQLException ignored) {
+                // Shutting down anyway
+            }
+        }
+    }
+}
@@ -0,0 +1,260 @@
+package com.hamsacorp.expense.service;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.hamsacorp.expense.event.ExpenseChangedEvent;
+import com.hamsacorp.expense.event.UserInvalidationEvent;
+import com.hamsacorp.expense.model.Expense;
+import com.hamsacorp.expense.repository.ExpenseChangeLogRepository;
+import com.hamsacorp.expense.repository.ExpenseRepository;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionDefinition;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.math.BigDecimal;
+import java.math.MathContext;
+import java.math.RoundingMode;
+import java.time.LocalDate;
+import java.util.List;
+import java.util.TreeMap;
+
+/**
+ * Expense, income and savings totals of any date range in O(log n), from per-user Fenwick trees
+ * (binary indexed trees) over daily totals, one per type, indexed by epoch day.
+ *
+ * A user's trees are built from one grouped query on first use and then updated in place by every
+ * write. The query runs in a repeatable-read snapshot together with the user's change counter, and
+ * writes whose change sequence value the counter already covered are not applied a second time.
+ * Amounts are kept as fixed-point longs so removing an amount restores the total exactly, and a
+ * deleted month compares as 0 rather than as rounding residue. The trees cover the user's dated
+ * span plus a year of headroom either side, within the dates writes accept (see
+ * {@link ExpenseService#MIN_DATE}); a write outside it regrows them. Older rows dated outside those
+ * bounds are kept per day in a sorted map beside the trees instead of stretching them. Users are
+ * evicted least recently used once the cached trees span {@code cache-days} days in total.
+ */
+@Service
+public class RangeTotalsService {
+    private static final long SCALE = 10_000;
+    private static final int HEADROOM_DAYS = 366;
+    private static final MathContext FLOAT8_DIGITS = new MathContext(15, RoundingMode.HALF_EVEN);
+    private static final int TYPES = Expense.ExpenseType.values().length;
+    private static final long MIN_DAY = ExpenseService.MIN_DATE.toEpochDay();
+    private static final long MAX_DAY = ExpenseService.MAX_DATE.toEpochDay();
+
+    public record Totals(double expenses, double income, double savings) {
+        public double netIncome() {
+            return income - expenses - savings;
+        }
+    }
+
+    private static final class UserTotals {
+        final long builtAtSeq;
+        long firstDay;
+        // tree[type][i] for 1-based Fenwick index i; day d lives at index d - firstDay + 1
+        long[][] tree;
+        // Days outside MIN_DAY..MAX_DAY: day -> total per type
+        final TreeMap<Long, long[]> outliers = new TreeMap<>();
+
+        UserTotals(long builtAtSeq, long firstDay, int days) {
+            this.builtAtSeq = builtAtSeq;
+            this.firstDay = firstDay;
+            this.tree = new long[TYPES][days + 1];
+        }
+
+        int days() {
+            return tree[0].length - 1;
+        }
+
+        void add(int type, long day, long amount) {
+            if (day < MIN_DAY || day > MAX_DAY) {
+                outliers.computeIfAbsent(day, d -> new long[TYPES])[type] += amount;
+                return;
+            }
+            if (day < firstDay || day >= firstDay + days()) {
+                regrow(Math.min(day, firstDay), Math.max(day, firstDay + days() - 1));
+            }
+            long[] t = tree[type];
+            for (int i = (int) (day - firstDay + 1); i < t.length; i += i & -i) {
+                t[i] += amount;
+            }
+        }
+
+        // Total of all days up to and including day
+        long prefix(int type, long day) {
+            long sum = 0;
+            if (!outliers.isEmpty()) {
+                for (long[] amounts : outliers.headMap(day, true).values()) {
+                    sum += amounts[type];
+                }
+            }
+            return sum + treePrefix(type, day);
+        }
+
+        // Total of the tree's days firstDay..day
+        long treePrefix(int type, long day) {
+            if (day < firstDay) {
+                return 0;
+            }
+            long[] t = tree[type];
+            long sum = 0;
+            for (int i = (int) Math.min(day - firstDay + 1, days()); i > 0; i -= i & -i) {
+                sum += t[i];
+            }
+            return sum;
+        }
+
+        private void regrow(long fromDay, long toDay) {
+            long newFirstDay = fromDay < firstDay ? Math.max(fromDay - HEADROOM_DAYS, MIN_DAY) : firstDay;
+            long newLastDay = toDay > firstDay + days() - 1 ? Math.min(toDay + HEADROOM_DAYS, MAX_DAY) : firstDay + days() - 1;
+            long[][] grown = new long[TYPES][(int) (newLastDay - newFirstDay + 2)];
+            for (int type = 0; type < TYPES; type++) {
+                for (long day = firstDay; day < firstDay + days(); day++) {
+                    grown[type][(int) (day - newFirstDay + 1)] = treePrefix(type, day) - treePrefix(type, day - 1);
+                }
+                build(grown[type]);
+            }
+            firstDay = newFirstDay;
+            tree = grown;
+        }
+
+        // Turns daily values into a Fenwick tree in place, in linear time
+        static void build(long[] t) {
+            for (int i = 1; i < t.length; i++) {
+                int parent = i + (i & -i);
+                if (parent < t.length) {
+                    t[parent] += t[i];
+                }
+            }
+        }
+    }
+
+    @Autowired
+    private ExpenseRepository expenseRepository;
+
+    @Autowired
+    private ExpenseChangeLogRepository changeLogRepository;
+
+    @Autowired
+    private DataVersionService dataVersionService;
+
+    private final Cache<String, UserTotals> users;
+    private final TransactionTemplate snapshot;
+
+    public RangeTotalsService(PlatformTransactionManager transactionManager,
+                              @Value("${expense.range-totals.cache-days:1000000}") long cacheDays) {
+        this.snapshot = new TransactionTemplate(transactionManager);
+        this.snapshot.setIsolationLevel(TransactionDefinition.ISOLATION_REPEATABLE_READ);
+        this.snapshot.setReadOnly(true);
+        this.users = Caffeine.newBuilder()
+                .maximumWeight(cacheDays)
+                .weigher((String email, UserTotals totals) -> totals.days())
+                .build();
+    }
+
+    /** The user's totals per type over the days from..to, both inclusive. */
+    public Totals getTotals(String email, LocalDate from, LocalDate to) {
+        UserTotals userTotals = getOrLoad(email);
+        long fromDay = from.toEpochDay();
+        long toDay = to.toEpochDay();
+        long[] sums = new long[TYPES];
+        synchronized (userTotals) {
+            for (int type = 0; type < TYPES; type++) {
+                sums[type] = fromDay > toDay ? 0 : userTotals.prefix(type, toDay) - userTotals.prefix(type, fromDay - 1);
+            }
+        }
+        return new Totals(toAmount(sums[Expense.ExpenseType.EXPENSE.ordinal()]),
+                toAmount(sums[Expense.ExpenseType.INCOME.ordinal()]), toAmount(sums[Expense.ExpenseType.SAVINGS.ordinal()]));
+    }
+
+    private UserTotals getOrLoad(String email) {
+        UserTotals loaded = users.getIfPresent(email);
+        if (loaded != null) {
+            return loaded;
+        }
+        long version = dataVersionService.getVersion(email);
+        UserTotals userTotals = snapshot.execute(status -> build(email));
+        UserTotals raced = users.asMap().putIfAbsent(email, userTotals);
+        if (raced != null) {
+            return raced;
+        }
+        // Checked after publishing: a write whose event came before the put is caught here, later ones apply themselves
+        if (dataVersionService.getVersion(email) != version) {
+            users.asMap().remove(email, userTotals);
+        }
+        return userTotals;
+    }
+
+    // In one snapshot, so the counter covers exactly the writes the totals include
+    private UserTotals build(String email) {
+        long changeSeq = changeLogRepository.findCounters(email)[0];
+        List<Object[]> rows = expenseRepository.sumFixedPointAmountsByDayAndType(email, SCALE);
+        long firstDay = LocalDate.now().toEpochDay();
+        long lastDay = firstDay;
+        for (Object[] row : rows) {
+            long day = ((Number) row[0]).longValue();
+            if (day >= MIN_DAY && day <= MAX_DAY) {
+                firstDay = Math.min(firstDay, day);
+                lastDay = Math.max(lastDay, day);
+            }
+        }
+        firstDay = Math.max(firstDay - HEADROOM_DAYS, MIN_DAY);
+        lastDay = Math.min(lastDay + HEADROOM_DAYS, MAX_DAY);
+        UserTotals userTotals = new UserTotals(changeSeq, firstDay, (int) (lastDay - firstDay + 1));
+        for (Object[] row : rows) {
+            int type = Expense.ExpenseType.valueOf((String) row[1]).ordinal();
+            long day = ((Number) row[0]).longValue();
+            long amount = ((Number) row[2]).longValue();
+            if (day >= MIN_DAY && day <= MAX_DAY) {
+                userTotals.tree[type][(int) (day - firstDay + 1)] += amount;
+            } else {
+                userTotals.outliers.computeIfAbsent(day, d -> new long[TYPES])[type] += amount;
+            }
+        }
+        for (long[] t : userTotals.tree) {
+            UserTotals.build(t);
+        }
+        return userTotals;
+    }
+
+    @EventListener
+    public void onExpenseChanged(ExpenseChangedEvent event) {
+        UserTotals userTotals = users.getIfPresent(event.getUserEmail());
+        if (userTotals == null) {
+            return;
+        }
+        synchronized (userTotals) {
+            if (event.getChangeSeq() <= userTotals.builtAtSeq) {
+                return; // Already in the totals the trees were built from
+            }
+            apply(userTotals, event.getBefore(), -1);
+            apply(userTotals, event.getAfter(), 1);
+        }
+    }
+
+    private static void apply(UserTotals userTotals, Expense expense, int sign) {
+        if (expense != null && expense.getDate() != null && expense.getAmount() != null && expense.getType() != null) {
+            userTotals.add(expense.getType().ordinal(), expense.getDate().toEpochDay(), sign * toFixed(expense.getAmount()));
+        }
+    }
+
+    /** Another instance wrote the user's expenses; rebuilt on next use. */
+    @EventListener
+    public void onUserInvalidated(UserInvalidationEvent event) {
+        users.invalidate(event.getUserEmail());
+    }
+
+    // Same rounding as the build query: the double is cast to numeric as Postgres does (15 significant
+    // digits), then rounded half away from zero
+    private static long toFixed(double amount) {
+        return new BigDecimal(amount).round(FLOAT8_DIGITS).multiply(BigDecimal.valueOf(SCALE))
+                .setScale(0, RoundingMode.HALF_UP).longValueExact();
+    }
+
+    private static double toAmount(long fixed) {
+        return (double) fixed / SCALE;
+    }
+}
@@ -0,0 +1,401 @@
+package com.hamsacorp.expense.service;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.RemovalCause;
+import com.hamsacorp.expense.event.ExpenseChangedEvent;
+import com.hamsacorp.expense.event.UserInvalidationEvent;
+import com.hamsacorp.expense.model.Expense;
+import com.hamsacorp.expense.repository.ExpenseChangeLogRepository;
+import com.hamsacorp.expense.repository.TagBitmapRepository;
+import com.hamsacorp.expense.sharding.ShardContext;
+import com.hamsacorp.expense.sharding.ShardDirectory;
+import com.hamsacorp.expense.sharding.ShardWriteGuard;
+import jakarta.annotation.PreDestroy;
+import org.roaringbitmap.longlong.Roaring64NavigableMap;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionDefinition;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Per-user Roaring bitmaps from tag to expense id, so tag filters (all-of / any-of / none-of) are
+ * answered by bitmap algebra before the database is queried. A reserved entry holds all of the
+ * user's expense ids, which none-of filters subtract from.
+ *
+ * Bitmaps are persisted to expense_tag_bitmaps write-behind (dirty tags are flushed every few
+ * seconds, on eviction and on shutdown) and loaded per user on first use, together with the change
+ * sequence value they cover. A snapshot that doesn't cover the user's change counter, or doesn't
+ * match cheap counts from the expense tables, is rebuilt from them, e.g. after a crash lost the last
+ * flush. Writes are only applied to users already in memory, so a write never loads a user; one
+ * for a user who isn't makes the persisted snapshot lag the counter instead. Users are evicted
+ * least recently used once the cached bitmaps hold {@code max-cached-ids} ids in total.
+ */
+@Service
+public class TagIndexService {
+    private static final String ALL_EXPENSES = "*";
+
+    private static final class UserTags {
+        // Writes up to this change sequence value are in the bitmaps
+        final long builtAtSeq;
+        long changeSeq;
+        final Roaring64NavigableMap all = new Roaring64NavigableMap();
+        final Map<String, Roaring64NavigableMap> byTag = new HashMap<>();
+        final Set<String> dirty = new HashSet<>();
+
+        UserTags(long builtAtSeq) {
+            this.builtAtSeq = builtAtSeq;
+            this.changeSeq = builtAtSeq;
+        }
+
+        void add(long id, Collection<String> tags) {
+            all.addLong(id);
+            dirty.add(ALL_EXPENSES);
+            if (tags != null) {
+                for (String tag : tags) {
+                    byTag.computeIfAbsent(tag, k -> new Roaring64NavigableMap()).addLong(id);
+                    dirty.add(tag);
+                }
+            }
+        }
+
+        void remove(long id, Collection<String> tags) {
+            all.removeLong(id);
+            dirty.add(ALL_EXPENSES);
+            if (tags != null) {
+                for (String tag : tags) {
+                    Roaring64NavigableMap bitmap = byTag.get(tag);
+                    if (bitmap != null) {
+                        bitmap.removeLong(id);
+                        dirty.add(tag);
+                    }
+                }
+            }
+        }
+
+        long tagAssignments() {
+            long count = 0;
+            for (Roaring64NavigableMap bitmap : byTag.values()) {
+                count += bitmap.getLongCardinality();
+            }
+            return count;
+        }
+    }
+
+    @Autowired
+    private TagBitmapRepository tagBitmapRepository;
+
+    @Autowired
+    private ExpenseChangeLogRepository changeLogRepository;
+
+    @Autowired
+    private DataVersionService dataVersionService;
+
+    @Autowired
+    private ShardDirectory shardDirectory;
+
+    @Autowired
+    private ShardWriteGuard shardWriteGuard;
+
+    private final Cache<String, UserTags> users;
+    private final TransactionTemplate snapshot;
+    private final ScheduledExecutorService flusher = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "tag-bitmap-flush");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    public TagIndexService(PlatformTransactionManager transactionManager,
+                           @Value("${expense.tags.flush-seconds:5}") long flushSeconds,
+                           @Value("${expense.tags.max-cached-ids:20000000}") long maxCachedIds) {
+        this.snapshot = new TransactionTemplate(transactionManager);
+        this.snapshot.setIsolationLevel(TransactionDefinition.ISOLATION_REPEATABLE_READ);
+        this.snapshot.setReadOnly(true);
+        this.users = Caffeine.newBuilder()
+                .maximumWeight(maxCachedIds)
+                .weigher((String email, UserTags userTags) -> (int) Math.min(Integer.MAX_VALUE,
+                        1 + userTags.all.getLongCardinality() + userTags.tagAssignments()))
+                .executor(flusher)
+                .removalListener((String email, UserTags userTags, RemovalCause cause) -> {
+                    if (cause.wasEvicted()) {
+                        flush(email, userTags); // Spares the next load a rebuild
+                    }
+                })
+                .build();
+        flusher.scheduleWithFixedDelay(this::flushAll, flushSeconds, flushSeconds, TimeUnit.SECONDS);
+    }
+
+    /**
+     * Ids of the user's expenses carrying all of {@code allOf}, at least one of {@code anyOf} and none
+     * of {@code noneOf}, or null when no tag filter was given.
+     */
+    public Roaring64NavigableMap match(String email, Collection<String> allOf, Collection<String> anyOf, Collection<String> noneOf) {
+        if (isEmpty(allOf) && isEmpty(anyOf) && isEmpty(noneOf)) {
+            return null;
+        }
+        UserTags userTags = getOrLoad(email);
+        synchronized (userTags) {
+            Roaring64NavigableMap result = new Roaring64NavigableMap();
+            result.or(userTags.all);
+            if (!isEmpty(allOf)) {
+                for (String tag : allOf) {
+                    result.and(userTags.byTag.getOrDefault(tag, new Roaring64NavigableMap()));
+                }
+            }
+            if (!isEmpty(anyOf)) {
+                result.and(union(userTags, anyOf));
+            }
+            if (!isEmpty(noneOf)) {
+                result.andNot(union(userTags, noneOf));
+            }
+            return result;
+        }
+    }
+
+    /** The user's expense ids that are not in {@code ids}. */
+    public Roaring64NavigableMap complement(String email, Roaring64NavigableMap ids) {
+        UserTags userTags = getOrLoad(email);
+        synchronized (userTags) {
+            Roaring64NavigableMap result = new Roaring64NavigableMap();
+            result.or(userTags.all);
+            result.andNot(ids);
+            return result;
+        }
+    }
+
+    /** The user's tags with the number of expenses carrying each, most used first. */
+    public List<Map<String, Object>> getTagCounts(String email) {
+        UserTags userTags = getOrLoad(email);
+        List<Map<String, Object>> result = new ArrayList<>();
+        synchronized (userTags) {
+            for (Map.Entry<String, Roaring64NavigableMap> entry : userTags.byTag.entrySet()) {
+                long count = entry.getValue().getLongCardinality();
+                if (count > 0) {
+                    Map<String, Object> item = new LinkedHashMap<>();
+                    item.put("tag", entry.getKey());
+                    item.put("count", count);
+                    result.add(item);
+                }
+            }
+        }
+        result.sort((a, b) -> Long.compare((Long) b.get("count"), (Long) a.get("count")));
+        return result;
+    }
+
+    private Roaring64NavigableMap union(UserTags userTags, Collection<String> tags) {
+        Roaring64NavigableMap union = new Roaring64NavigableMap();
+        for (String tag : tags) {
+            Roaring64NavigableMap bitmap = userTags.byTag.get(tag);
+            if (bitmap != null) {
+                union.or(bitmap);
+            }
+        }
+        return union;
+    }
+
+    private static boolean isEmpty(Collection<String> tags) {
+        return tags == null || tags.isEmpty();
+    }
+
+    private UserTags getOrLoad(String email) {
+        UserTags loaded = users.getIfPresent(email);
+        if (loaded != null) {
+            return loaded;
+        }
+        long version = dataVersionService.getVersion(email);
+        UserTags userTags = snapshot.execute(status -> loadPersisted(email));
+        if (userTags == null) {
+            userTags = rebuild(email);
+        }
+        if (dataVersionService.getVersion(email) != version) {
+            return userTags; // A write raced the load; answer from it but don't keep it
+        }
+        UserTags raced = users.asMap().putIfAbsent(email, userTags);
+        return raced != null ? raced : userTags;
+    }
+
+    // In one snapshot with the change counter
+    private UserTags loadPersisted(String email) {
+        List<TagBitmapRepository.Snapshot> snapshots = tagBitmapRepository.findByCreatedBy(email);
+        if (snapshots.isEmpty()) {
+            return null;
+        }
+        long changeSeq = changeLogRepository.findCounters(email)[0];
+        UserTags userTags = new UserTags(changeSeq);
+        Long coveredSeq = null;
+        for (TagBitmapRepository.Snapshot snapshot : snapshots) {
+            Roaring64NavigableMap bitmap = deserialize(snapshot.bitmap());
+            if (ALL_EXPENSES.equals(snapshot.tag())) {
+                userTags.all.or(bitmap);
+                coveredSeq = snapshot.changeSeq();
+            } else {
+                userTags.byTag.put(snapshot.tag(), bitmap);
+            }
+        }
+        if (coveredSeq == null || coveredSeq != changeSeq) {
+            return null; // Missed writes, e.g. ones made while the user wasn't loaded
+        }
+        long[] counts = tagBitmapRepository.countExpensesAndTags(email);
+        long maxId = userTags.all.isEmpty() ? 0 : userTags.all.last();
+        if (userTags.all.getLongCardinality() != counts[0] || maxId != counts[1] || userTags.tagAssignments() != counts[2]) {
+            System.err.println("Stale tag bitmaps for user " + email + ", rebuilding");
+            return null;
+        }
+        return userTags;
+    }
+
+    private UserTags rebuild(String email) {
+        UserTags userTags = snapshot.execute(status -> {
+            UserTags built = new UserTags(changeLogRepository.findCounters(email)[0]);
+            tagBitmapRepository.forEachExpenseTag(email, rs -> {
+                long id = rs.getLong(1);
+                String tag = rs.getString(2);
+                built.add(id, tag == null ? null : List.of(tag));
+            });
+            return built;
+        });
+        synchronized (userTags) {
+            userTags.dirty.addAll(userTags.byTag.keySet());
+            userTags.dirty.add(ALL_EXPENSES);
+            shardWriteGuard.write(email, () -> {
+                tagBitmapRepository.deleteByCreatedBy(email);
+                writeDirty(email, userTags);
+            });
+        }
+        return userTags;
+    }
+
+    /**
+     * Applied only to a user in memory. For anyone else the write is left to the next load, which
+     * finds the persisted snapshot behind the change counter and rebuilds it; loading here would put
+     * a rebuild on the write path, and on every node that takes a write rather than just the owner.
+     */
+    @EventListener
+    public void onExpenseChanged(ExpenseChangedEvent event) {
+        UserTags userTags = users.getIfPresent(event.getUserEmail());
+        if (userTags == null) {
+            return;
+        }
+        synchronized (userTags) {
+            if (event.getChangeSeq() <= userTags.builtAtSeq) {
+                return; // Already in the rows the bitmaps were built from
+            }
+            userTags.changeSeq = Math.max(userTags.changeSeq, event.getChangeSeq());
+            Expense before = event.getBefore();
+            Expense after = event.getAfter();
+            if (before != null) {
+                userTags.remove(before.getId(), before.getTags());
+            }
+            if (after != null) {
+                userTags.add(after.getId(), after.getTags());
+            }
+        }
+    }
+
+    /**
+     * Another instance wrote the user's expenses and flushes its own bitmaps. Ours are dropped
+     * without flushing, since writing them now could overwrite newer ones; the next load checks
+     * whatever is persisted against the change counter as usual.
+     */
+    @EventListener
+    public void onUserInvalidated(UserInvalidationEvent event) {
+        UserTags userTags = users.asMap().remove(event.getUserEmail());
+        if (userTags != null) {
+            synchronized (userTags) {
+                userTags.dirty.clear();
+            }
+        }
+    }
+
+    private void flushAll() {
+        users.asMap().forEach(this::flush);
+    }
+
+    private void flush(String email, UserTags userTags) {
+        synchronized (userTags) {
+            if (userTags.dirty.isEmpty()) {
+                return;
+            }
+            try {
+                // Runs off the request thread, so route to the user's shard explicitly
+                ShardContext.run(shardDirectory.shardOf(email), () -> shardWriteGuard.write(email, () -> writeDirty(email, userTags)));
+            } catch (RuntimeException e) {
+                // Kept dirty; retried on the next run (on the new shard if the user was moved), and a stale snapshot is caught on load anyway
+                System.err.println("Error flushing tag bitmaps for user " + email + ": " + e.getMessage());
+            }
+        }
+    }
+
+    // Caller holds the UserTags lock, in a ShardWriteGuard write
+    private void writeDirty(String email, UserTags userTags) {
+        if (userTags.dirty.isEmpty()) {
+            return;
+        }
+        Map<String, byte[]> changed = new HashMap<>();
+        List<String> emptied = new ArrayList<>();
+        for (String tag : userTags.dirty) {
+            Roaring64NavigableMap bitmap = ALL_EXPENSES.equals(tag) ? userTags.all : userTags.byTag.get(tag);
+            if (bitmap == null || (bitmap.isEmpty() && !ALL_EXPENSES.equals(tag))) {
+                userTags.byTag.remove(tag);
+                emptied.add(tag);
+            } else {
+                changed.put(tag, serialize(bitmap));
+            }
+        }
+        if (!changed.isEmpty()) {
+            tagBitmapRepository.upsert(email, changed, userTags.changeSeq);
+        }
+        if (!emptied.isEmpty()) {
+            tagBitmapRepository.delete(email, emptied);
+        }
+        userTags.dirty.clear();
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        flusher.shutdown();
+        flushAll();
+    }
+
+    private static byte[] serialize(Roaring64NavigableMap bitmap) {
+        bitmap.runOptimize();
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream((int) Math.min(bitmap.serializedSizeInBytes(), Integer.MAX_VALUE));
+        try (DataOutputStream out = new DataOutputStream(bytes)) {
+            bitmap.serialize(out);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return bytes.toByteArray();
+    }
+
+    private static Roaring64NavigableMap deserialize(byte[] data) {
+        Roaring64NavigableMap bitmap = new Roaring64NavigableMap();
+        try (DataInputStream in = new DataInputStream(new ByteArrayInputStream(data))) {
+            bitmap.deserialize(in);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return bitmap;
+    }
+}
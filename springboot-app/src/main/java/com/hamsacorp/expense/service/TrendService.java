@@ -0,0 +1,113 @@
+package com.hamsacorp.expense.service;
+
+import com.hamsacorp.expense.repository.ExpenseTrendRepository;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Service;
+
+import java.time.LocalDate;
+import java.time.YearMonth;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Multi-period spending trends: totals by type and category for each of the last N months or years,
+ * with the change against the same period a year earlier and a rolling average, all from one query
+ * (see {@link ExpenseTrendRepository}).
+ */
+@Service
+public class TrendService {
+    public static final int MAX_PERIODS = 120;
+    public static final int MAX_ROLLING_PERIODS = 24;
+
+    @Autowired
+    private ExpenseTrendRepository trendRepository;
+
+    public Map<String, Object> getTrends(String email, String granularity, int periods, int rollingPeriods, LocalDate endDate) {
+        if (!granularity.equals("month") && !granularity.equals("year")) {
+            throw new IllegalArgumentException("granularity must be month or year");
+        }
+        if (periods < 1 || periods > MAX_PERIODS) {
+            throw new IllegalArgumentException("periods must be between 1 and " + MAX_PERIODS);
+        }
+        if (rollingPeriods < 1 || rollingPeriods > MAX_ROLLING_PERIODS) {
+            throw new IllegalArgumentException("window must be between 1 and " + MAX_ROLLING_PERIODS);
+        }
+        boolean monthly = granularity.equals("month");
+        int yearLag = monthly ? 12 : 1;
+        LocalDate lastPeriod = monthly ? endDate.withDayOfMonth(1) : endDate.withDayOfYear(1);
+        LocalDate firstPeriod = step(lastPeriod, monthly, -(periods - 1));
+        // Enough earlier periods for the first one's previous year and rolling window
+        LocalDate historyStart = step(firstPeriod, monthly, -Math.max(yearLag, rollingPeriods - 1));
+        LocalDate lastDay = step(lastPeriod, monthly, 1).minusDays(1);
+
+        List<Map<String, Object>> series = new ArrayList<>();
+        Map<String, Object> current = null;
+        LocalDate currentPeriod = null;
+        for (ExpenseTrendRepository.TrendRow row : trendRepository.findTrends(email, granularity, historyStart, firstPeriod,
+                lastPeriod, lastDay, yearLag, rollingPeriods)) {
+            if (!row.period().equals(currentPeriod)) {
+                currentPeriod = row.period();
+                current = period(row, monthly);
+                series.add(current);
+            }
+            if (row.category() != null) {
+                @SuppressWarnings("unchecked")
+                List<Map<String, Object>> categories = (List<Map<String, Object>>) current.get("categories");
+                Map<String, Object> category = new LinkedHashMap<>();
+                category.put("category", row.category());
+                category.put("amount", round(row.categoryAmount()));
+                category.put("percentage", row.expenses() > 0 ? Math.round(row.categoryAmount() / row.expenses() * 100) : 0);
+                categories.add(category);
+            }
+        }
+
+        Map<String, Object> result = new LinkedHashMap<>();
+        result.put("granularity", granularity);
+        result.put("periods", periods);
+        result.put("rollingWindow", rollingPeriods);
+        result.put("startDate", firstPeriod.toString());
+        result.put("endDate", lastDay.toString());
+        result.put("series", series);
+        return result;
+    }
+
+    private Map<String, Object> period(ExpenseTrendRepository.TrendRow row, boolean monthly) {
+        Map<String, Object> period = new LinkedHashMap<>();
+        period.put("period", monthly ? YearMonth.from(row.period()).toString() : String.valueOf(row.period().getYear()));
+        period.put("startDate", row.period().toString());
+        period.put("endDate", step(row.period(), monthly, 1).minusDays(1).toString());
+        period.put("expenses", round(row.expenses()));
+        period.put("income", round(row.income()));
+        period.put("savings", round(row.savings()));
+        period.put("netIncome", round(row.income() - row.expenses() - row.savings()));
+        period.put("previousYearExpenses", round(row.previousYearExpenses()));
+        period.put("previousYearIncome", round(row.previousYearIncome()));
+        period.put("previousYearSavings", round(row.previousYearSavings()));
+        period.put("expenseYoYChange", percentChange(row.expenses(), row.previousYearExpenses()));
+        period.put("incomeYoYChange", percentChange(row.income(), row.previousYearIncome()));
+        period.put("savingsYoYChange", percentChange(row.savings(), row.previousYearSavings()));
+        period.put("rollingAvgExpenses", round(row.rollingExpenses()));
+        period.put("rollingAvgIncome", round(row.rollingIncome()));
+        period.put("rollingAvgSavings", round(row.rollingSavings()));
+        period.put("categories", new ArrayList<Map<String, Object>>());
+        return period;
+    }
+
+    private static LocalDate step(LocalDate period, boolean monthly, int count) {
+        return monthly ? period.plusMonths(count) : period.plusYears(count);
+    }
+
+    // Null when there is nothing to compare with, like the detail endpoints' 0 but distinguishable
+    private static Double percentChange(double value, Double previous) {
+        if (previous == null || previous <= 0) {
+            return null;
+        }
+        return round((value - previous) / previous * 100);
+    }
+
+    private static Double round(Double value) {
+        return value == null ? null : Math.round(value * 100.0) / 100.0;
+    }
+}
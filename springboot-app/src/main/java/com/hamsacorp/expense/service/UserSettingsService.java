@@ -1,19 +1,41 @@
 package com.hamsacorp.expense.service;
 
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.hamsacorp.expense.event.UserInvalidationEvent;
 import com.hamsacorp.expense.model.UserSettings;
 import com.hamsacorp.expense.repository.UserSettingsRepository;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.event.EventListener;
 import org.springframework.stereotype.Service;
 
 import java.util.Optional;
 
+/**
+ * Settings are read on every settings GET and rarely written, so they are cached per user. Writes
+ * evict locally and, through the data version bump, on the other instances as well.
+ */
 @Service
 public class UserSettingsService {
 
     @Autowired
     private UserSettingsRepository userSettingsRepository;
 
+    @Autowired
+    private DataVersionService dataVersionService;
+
+    private final Cache<String, UserSettings> cache;
+
+    public UserSettingsService(@Value("${expense.settings.cache-size:10000}") long cacheSize) {
+        this.cache = Caffeine.newBuilder().maximumSize(cacheSize).build();
+    }
+
     public UserSettings getUserSettings(String userEmail) {
+        return cache.get(userEmail, this::loadUserSettings);
+    }
+
+    private UserSettings loadUserSettings(String userEmail) {
         Optional<UserSettings> settings = userSettingsRepository.findByUserEmail(userEmail);
         if (settings.isPresent()) {
             return settings.get();
@@ -25,7 +47,8 @@ public class UserSettingsService {
     }
 
     public UserSettings updateUserSettings(String userEmail, UserSettings settingsUpdate) {
-        UserSettings existingSettings = getUserSettings(userEmail);
+        // Modified outside the cache, so a failed save leaves the cached copy intact
+        UserSettings existingSettings = loadUserSettings(userEmail);
         
         if (settingsUpdate.getCurrency() != null) {
             existingSettings.setCurrency(settingsUpdate.getCurrency());
@@ -38,11 +61,23 @@ public class UserSettingsService {
         }
         
         existingSettings.setUpdatedAt(java.time.LocalDateTime.now());
-        return userSettingsRepository.save(existingSettings);
+        UserSettings saved = userSettingsRepository.save(existingSettings);
+        cache.invalidate(userEmail);
+        dataVersionService.bump(userEmail);
+        return saved;
     }
 
     public void deleteUserSettings(String userEmail) {
         Optional<UserSettings> settings = userSettingsRepository.findByUserEmail(userEmail);
-        settings.ifPresent(userSettingsRepository::delete);
+        settings.ifPresent(existing -> {
+            userSettingsRepository.delete(existing);
+            cache.invalidate(userEmail);
+            dataVersionService.bump(userEmail);
+        });
+    }
+
+    @EventListener
+    public void onUserInvalidated(UserInvalidationEvent event) {
+        cache.invalidate(event.getUserEmail());
     }
 }
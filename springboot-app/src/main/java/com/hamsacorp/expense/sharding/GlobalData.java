@@ -0,0 +1,16 @@
+package com.hamsacorp.expense.sharding;
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * Marks a bean whose tables exist only in the primary database (users, data versions, cluster and
+ * shard bookkeeping). With sharding enabled its methods always run against the primary, whatever
+ * shard the current request is routed to.
+ */
+@Target(ElementType.TYPE)
+@Retention(RetentionPolicy.RUNTIME)
+public @interface GlobalData {
+}
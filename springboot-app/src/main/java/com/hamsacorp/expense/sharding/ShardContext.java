@@ -0,0 +1,55 @@
+package com.hamsacorp.expense.sharding;
+
+import java.util.function.Supplier;
+
+/**
+ * The shard the current thread's database work goes to, read by {@link ShardRoutingDataSource}
+ * each time a connection is taken. Unset means the primary database, which also holds everything
+ * that isn't per-user expense data.
+ */
+public final class ShardContext {
+    public static final String PRIMARY = "primary";
+
+    private static final ThreadLocal<String> CURRENT = new ThreadLocal<>();
+
+    private ShardContext() {
+    }
+
+    public static String current() {
+        String shard = CURRENT.get();
+        return shard != null ? shard : PRIMARY;
+    }
+
+    /** Sets the shard and returns the previous value, for {@link #restore(String)} in a finally block. */
+    public static String set(String shard) {
+        String previous = CURRENT.get();
+        CURRENT.set(shard);
+        return previous;
+    }
+
+    public static void restore(String previous) {
+        if (previous == null) {
+            CURRENT.remove();
+        } else {
+            CURRENT.set(previous);
+        }
+    }
+
+    public static <T> T call(String shard, Supplier<T> action) {
+        String previous = set(shard);
+        try {
+            return action.get();
+        } finally {
+            restore(previous);
+        }
+    }
+
+    public static void run(String shard, Runnable action) {
+        String previous = set(shard);
+        try {
+            action.run();
+        } finally {
+            restore(previous);
+        }
+    }
+}
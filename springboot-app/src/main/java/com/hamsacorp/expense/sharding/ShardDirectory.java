@@ -0,0 +1,114 @@
+package com.hamsacorp.expense.sharding;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.hamsacorp.expense.event.UserInvalidationEvent;
+import com.hamsacorp.expense.repository.UserShardRepository;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Service;
+
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.CRC32;
+
+/**
+ * Which shard holds a user's expense data. Lookups are cached for
+ * expense.sharding.directory-cache-seconds, and dropped early when a user's data version moves on
+ * another instance (which a shard move does). With sharding disabled every user is on the primary
+ * and nothing is looked up.
+ */
+@Service
+public class ShardDirectory {
+
+    @Autowired
+    private UserShardRepository userShardRepository;
+
+    private final ShardingProperties properties;
+    private final Cache<String, UserShardRepository.Assignment> assignments;
+
+    public ShardDirectory(ShardingProperties properties) {
+        this.properties = properties;
+        this.assignments = Caffeine.newBuilder()
+                .maximumSize(100_000)
+                .expireAfterWrite(Duration.ofSeconds(properties.getDirectoryCacheSeconds()))
+                .build();
+    }
+
+    public boolean isEnabled() {
+        return properties.isEnabled();
+    }
+
+    /** The primary followed by the configured shards. */
+    public List<String> getShardNames() {
+        List<String> names = new ArrayList<>();
+        names.add(ShardContext.PRIMARY);
+        if (properties.isEnabled()) {
+            names.addAll(properties.getShards().keySet());
+        }
+        return names;
+    }
+
+    public String shardOf(String userEmail) {
+        return lookup(userEmail).shard();
+    }
+
+    /** True while the user's data is being copied to another shard; requests should retry shortly. */
+    public boolean isMoving(String userEmail) {
+        return lookup(userEmail).moving();
+    }
+
+    /** Places a newly registered user on one of expense.sharding.new-user-shards. */
+    public void assignNewUser(String userEmail) {
+        List<String> candidates = properties.getNewUserShards();
+        if (!properties.isEnabled() || candidates.isEmpty()) {
+            return;
+        }
+        CRC32 crc = new CRC32();
+        crc.update(userEmail.getBytes(StandardCharsets.UTF_8));
+        userShardRepository.insertIfAbsent(userEmail, candidates.get((int) (crc.getValue() % candidates.size())));
+        assignments.invalidate(userEmail);
+    }
+
+    void beginMove(String userEmail, String source) {
+        userShardRepository.save(userEmail, source, true);
+        assignments.invalidate(userEmail);
+    }
+
+    void finishMove(String userEmail, String target) {
+        userShardRepository.save(userEmail, target, false);
+        assignments.invalidate(userEmail);
+    }
+
+    void abortMove(String userEmail, String source) {
+        userShardRepository.save(userEmail, source, false);
+        assignments.invalidate(userEmail);
+    }
+
+    void forget(String userEmail) {
+        assignments.invalidate(userEmail);
+    }
+
+    @EventListener
+    public void onUserInvalidated(UserInvalidationEvent event) {
+        assignments.invalidate(event.getUserEmail());
+    }
+
+    private UserShardRepository.Assignment lookup(String userEmail) {
+        if (!properties.isEnabled() || userEmail == null) {
+            return new UserShardRepository.Assignment(ShardContext.PRIMARY, false);
+        }
+        return assignments.get(userEmail, email -> {
+            UserShardRepository.Assignment assignment = userShardRepository.find(email);
+            if (assignment == null) {
+                return new UserShardRepository.Assignment(ShardContext.PRIMARY, false);
+            }
+            if (!getShardNames().contains(assignment.shard())) {
+                throw new IllegalStateException("User " + email + " is on shard " + assignment.shard() + ", which isn't configured");
+            }
+            return assignment;
+        });
+    }
+}
@@ -0,0 +1,57 @@
+package com.hamsacorp.expense.sharding;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.ApplicationArguments;
+import org.springframework.boot.ApplicationRunner;
+import org.springframework.boot.SpringApplication;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.stereotype.Component;
+
+/**
+ * Command-line entry point for {@link ShardMover}: with the instances' sharding configuration,
+ *
+ *   java -jar expense.jar --spring.main.web-application-type=none \
+ *       --expense.sharding.move-user=someone@example.com --expense.sharding.move-to=shard1
+ *
+ * moves the user and exits (status 1 if the move failed). Running instances pick up the new
+ * directory entry within expense.sharding.directory-cache-seconds. Without move-user it does nothing;
+ * it is checked here rather than by a bean condition, which an AOT build would fix at build time.
+ * Run it from the prod image without -Dspring.aot.enabled=true: the AOT context was built for the
+ * web application and doesn't accept web-application-type=none.
+ */
+@Component
+public class ShardMoveRunner implements ApplicationRunner {
+    private static final Logger LOG = LoggerFactory.getLogger(ShardMoveRunner.class);
+
+    @Autowired
+    private ShardMover shardMover;
+
+    @Autowired
+    private ConfigurableApplicationContext context;
+
+    @Value("${expense.sharding.move-user:}")
+    private String userEmail;
+
+    @Value("${expense.sharding.move-to:}")
+    private String target;
+
+    @Override
+    public void run(ApplicationArguments args) {
+        if (userEmail.isBlank()) {
+            return;
+        }
+        int status = 0;
+        try {
+            long moved = shardMover.move(userEmail, target);
+            LOG.info("Moved {} to shard {} ({} expenses)", userEmail, target, moved);
+        } catch (Exception e) {
+            LOG.error("Moving {} to shard {} failed", userEmail, target, e);
+            status = 1;
+        }
+        int exitCode = status;
+        System.exit(SpringApplication.exit(context, () -> exitCode));
+    }
+}
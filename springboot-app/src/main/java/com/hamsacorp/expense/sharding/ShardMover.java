@@ -0,0 +1,259 @@
+package com.hamsacorp.expense.sharding;
+
+import com.hamsacorp.expense.service.DataVersionService;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Service;
+
+import javax.sql.DataSource;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Moves one user's expense data to another shard while the rest of the system keeps running.
+ *
+ * The user is marked as moving in the directory, and requests for them get 503 until the move is
+ * done. After waiting out the directory cache the mover takes the user's {@link ShardWriteGuard}
+ * lock exclusively on the source, which waits for writes already in progress there (including
+ * background ones) and keeps new ones out until the source rows are gone. The rows are copied in
+ * one target transaction from a repeatable-read snapshot of the source, counts are compared, and
+ * the source's change counter and expense count are read again to make sure nothing was written
+ * behind the snapshot; then the directory is pointed at the target, and only then are the source
+ * rows deleted. A failure before the switch rolls back the copy and leaves the user where they were.
+ *
+ * Expense ids are kept, so shards must draw ids from disjoint expenses_seq ranges. The target's
+ * triggers stamp copied expenses with new change_seq values above the copied counter, so sync
+ * clients fetch the user's rows once more rather than missing any. Distribution sketches aren't
+ * copied: the same triggers mark the user's months dirty on the target, which rebuilds them.
+ */
+@Service
+public class ShardMover {
+    private static final Logger LOG = LoggerFactory.getLogger(ShardMover.class);
+    private static final int FETCH_SIZE = 1000;
+
+    @Autowired
+    private ShardDirectory shardDirectory;
+
+    @Autowired
+    private ShardRoutingDataSource routingDataSource;
+
+    @Autowired
+    private ShardingProperties properties;
+
+    @Autowired
+    private DataVersionService dataVersionService;
+
+    /** Returns the number of expenses moved. */
+    public long move(String userEmail, String target) throws InterruptedException {
+        if (!properties.isEnabled()) {
+            throw new IllegalStateException("Sharding is disabled (expense.sharding.enabled)");
+        }
+        if (!shardDirectory.getShardNames().contains(target)) {
+            throw new IllegalArgumentException("Unknown shard: " + target);
+        }
+        shardDirectory.forget(userEmail);
+        if (shardDirectory.isMoving(userEmail)) {
+            throw new IllegalStateException(userEmail + " is already being moved");
+        }
+        String source = shardDirectory.shardOf(userEmail);
+        if (source.equals(target)) {
+            return 0;
+        }
+
+        DataSource sourceShard = routingDataSource.getShard(source);
+        Connection lock = connect(sourceShard);
+        try {
+            shardDirectory.beginMove(userEmail, source);
+            long moved;
+            try {
+                // Instances route by cached directory entries for up to this long; most requests get 503 by then
+                Thread.sleep((properties.getDirectoryCacheSeconds() + 1) * 1000L);
+                advisoryLock(lock, "pg_advisory_lock", userEmail);
+                moved = copy(userEmail, sourceShard, routingDataSource.getShard(target));
+            } catch (InterruptedException | RuntimeException e) {
+                shardDirectory.abortMove(userEmail, source);
+                throw e;
+            }
+            shardDirectory.finishMove(userEmail, target);
+            dataVersionService.bump(userEmail);
+
+            try {
+                deleteUser(sourceShard, userEmail);
+            } catch (RuntimeException e) {
+                // Nothing routes there any more; the leftovers are cleared if the user ever moves back
+                LOG.warn("Moved {} but couldn't delete their rows from shard {}: {}", userEmail, source, e.getMessage());
+            }
+            return moved;
+        } finally {
+            release(lock, userEmail);
+        }
+    }
+
+    private static Connection connect(DataSource dataSource) {
+        try {
+            return dataSource.getConnection();
+        } catch (SQLException e) {
+            throw new IllegalStateException(e.getMessage(), e);
+        }
+    }
+
+    // The session lock outlives transactions, so it is held from before the snapshot until the source rows are gone
+    private static void advisoryLock(Connection connection, String function, String userEmail) {
+        try (PreparedStatement statement = connection.prepareStatement("SELECT " + function + "(" + ShardWriteGuard.LOCK_KEY + ")")) {
+            statement.setString(1, userEmail);
+            statement.execute();
+        } catch (SQLException e) {
+            throw new IllegalStateException(function + " for " + userEmail + " failed: " + e.getMessage(), e);
+        }
+    }
+
+    // Pooled connections keep session locks, so unlock explicitly (a no-op if it was never taken)
+    private static void release(Connection connection, String userEmail) {
+        try (connection) {
+            advisoryLock(connection, "pg_advisory_unlock", userEmail);
+        } catch (SQLException | RuntimeException e) {
+            LOG.error("Releasing the move lock of {} failed", userEmail, e);
+        }
+    }
+
+    private long copy(String userEmail, DataSource source, DataSource target) {
+        try (Connection from = source.getConnection(); Connection to = target.getConnection()) {
+            from.setTransactionIsolation(Connection.TRANSACTION_REPEATABLE_READ);
+            from.setAutoCommit(false);
+            from.setReadOnly(true);
+            to.setAutoCommit(false);
+            try {
+                deleteUser(to, userEmail);
+                long[] snapshot = writeState(from, userEmail);
+                String byUser = " WHERE created_by = ?";
+                String byExpense = " WHERE expense_id IN (SELECT id FROM expenses WHERE created_by = ?)";
+                // Counters first: the expense insert trigger then continues the user's sequence past them
+                copyRows(from, to, "expense_change_counters", byUser, userEmail);
+                copyRows(from, to, "expense_tombstones", byUser, userEmail);
+                long expenses = copyRows(from, to, "expenses", byUser, userEmail);
+                long tags = copyRows(from, to, "expense_tags", byExpense, userEmail);
+                copyRows(from, to, "expense_tag_bitmaps", byUser, userEmail);
+                copyRows(from, to, "expense_batch_idempotency", byUser, userEmail);
+                copyRows(from, to, "expense_stats", byUser, userEmail);
+                copyRows(from, to, "expense_anomalies", byUser, userEmail);
+
+                if (count(to, "expenses", byUser, userEmail) != expenses || count(to, "expense_tags", byExpense, userEmail) != tags) {
+                    throw new IllegalStateException("Row counts on the target don't match the source");
+                }
+                // Outside the snapshot: any write that got past the lock shows up as a moved counter
+                try (Connection current = source.getConnection()) {
+                    if (!Arrays.equals(writeState(current, userEmail), snapshot)) {
+                        throw new IllegalStateException("The source changed while it was being copied");
+                    }
+                }
+                to.commit();
+                from.commit();
+                return expenses;
+            } catch (SQLException | RuntimeException e) {
+                to.rollback();
+                from.rollback();
+                throw e;
+            }
+        } catch (SQLException e) {
+            throw new IllegalStateException("Copying " + userEmail + " failed: " + e.getMessage(), e);
+        }
+    }
+
+    /** The user's last change_seq and expense count. */
+    private static long[] writeState(Connection connection, String userEmail) throws SQLException {
+        try (PreparedStatement statement = connection.prepareStatement(
+                "SELECT coalesce((SELECT last_seq FROM expense_change_counters WHERE created_by = ?), 0), "
+                        + "(SELECT count(*) FROM expenses WHERE created_by = ?)")) {
+            statement.setString(1, userEmail);
+            statement.setString(2, userEmail);
+            try (ResultSet rs = statement.executeQuery()) {
+                rs.next();
+                return new long[]{rs.getLong(1), rs.getLong(2)};
+            }
+        }
+    }
+
+    private static long copyRows(Connection from, Connection to, String table, String where, String userEmail) throws SQLException {
+        long rows = 0;
+        try (PreparedStatement select = from.prepareStatement("SELECT * FROM " + table + where)) {
+            select.setFetchSize(FETCH_SIZE);
+            select.setString(1, userEmail);
+            try (ResultSet rs = select.executeQuery()) {
+                ResultSetMetaData meta = rs.getMetaData();
+                List<String> columns = new ArrayList<>();
+                for (int i = 1; i <= meta.getColumnCount(); i++) {
+                    columns.add(meta.getColumnName(i));
+                }
+                String insert = "INSERT INTO " + table + " (" + String.join(", ", columns) + ") VALUES ("
+                        + String.join(", ", Collections.nCopies(columns.size(), "?")) + ")";
+                try (PreparedStatement batch = to.prepareStatement(insert)) {
+                    while (rs.next()) {
+                        for (int i = 1; i <= columns.size(); i++) {
+                            batch.setObject(i, rs.getObject(i));
+                        }
+                        batch.addBatch();
+                        if (++rows % FETCH_SIZE == 0) {
+                            batch.executeBatch();
+                        }
+                    }
+                    batch.executeBatch();
+                }
+            }
+        }
+        return rows;
+    }
+
+    private static long count(Connection connection, String table, String where, String userEmail) throws SQLException {
+        try (PreparedStatement statement = connection.prepareStatement("SELECT count(*) FROM " + table + where)) {
+            statement.setString(1, userEmail);
+            try (ResultSet rs = statement.executeQuery()) {
+                rs.next();
+                return rs.getLong(1);
+            }
+        }
+    }
+
+    private static void deleteUser(DataSource dataSource, String userEmail) {
+        try (Connection connection = dataSource.getConnection()) {
+            connection.setAutoCommit(false);
+            try {
+                deleteUser(connection, userEmail);
+                connection.commit();
+            } catch (SQLException e) {
+                connection.rollback();
+                throw e;
+            }
+        } catch (SQLException e) {
+            throw new IllegalStateException(e.getMessage(), e);
+        }
+    }
+
+    // Tags before their expenses (a schema created by ddl-auto has no ON DELETE CASCADE), and the
+    // tombstones the expense deletes leave behind go with the rest of the user's bookkeeping
+    private static void deleteUser(Connection connection, String userEmail) throws SQLException {
+        for (String statement : List.of(
+                "DELETE FROM expense_tags WHERE expense_id IN (SELECT id FROM expenses WHERE created_by = ?)",
+                "DELETE FROM expense_anomalies WHERE created_by = ?",
+                "DELETE FROM expenses WHERE created_by = ?",
+                "DELETE FROM expense_tombstones WHERE created_by = ?",
+                "DELETE FROM expense_change_counters WHERE created_by = ?",
+                "DELETE FROM expense_tag_bitmaps WHERE created_by = ?",
+                "DELETE FROM expense_batch_idempotency WHERE created_by = ?",
+                "DELETE FROM expense_sketches WHERE created_by = ?",
+                "DELETE FROM expense_sketch_dirty WHERE created_by = ?",
+                "DELETE FROM expense_stats WHERE created_by = ?")) {
+            try (PreparedStatement delete = connection.prepareStatement(statement)) {
+                delete.setString(1, userEmail);
+                delete.executeUpdate();
+            }
+        }
+    }
+}
@@ -0,0 +1,36 @@
+package com.hamsacorp.expense.sharding;
+
+import org.aspectj.lang.ProceedingJoinPoint;
+import org.aspectj.lang.annotation.Around;
+import org.aspectj.lang.annotation.Aspect;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+/**
+ * Sends {@link GlobalData} beans and the user and settings repositories to the primary database.
+ * Connections are taken per repository call or transaction, so this switches cleanly in the
+ * middle of a request that is otherwise routed to the user's shard. Without sharding everything is
+ * on the primary already, so it doesn't switch.
+ */
+@Aspect
+@Component
+public class ShardRoutingAspect {
+
+    @Autowired
+    private ShardingProperties properties;
+
+    @Around("@within(com.hamsacorp.expense.sharding.GlobalData)"
+            + " || target(com.hamsacorp.expense.repository.UserRepository)"
+            + " || target(com.hamsacorp.expense.repository.UserSettingsRepository)")
+    public Object onPrimary(ProceedingJoinPoint joinPoint) throws Throwable {
+        if (!properties.isEnabled()) {
+            return joinPoint.proceed();
+        }
+        String previous = ShardContext.set(ShardContext.PRIMARY);
+        try {
+            return joinPoint.proceed();
+        } finally {
+            ShardContext.restore(previous);
+        }
+    }
+}
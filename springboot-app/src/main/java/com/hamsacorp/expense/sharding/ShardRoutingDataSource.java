@@ -0,0 +1,39 @@
+package com.hamsacorp.expense.sharding;
+
+import org.springframework.jdbc.datasource.lookup.AbstractRoutingDataSource;
+
+import javax.sql.DataSource;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * The application's DataSource when sharding is enabled: hands out connections of the shard in
+ * {@link ShardContext}, so repositories and JdbcTemplate code run unchanged against whichever
+ * database holds the current user. A shard name that isn't configured fails rather than quietly
+ * using the primary.
+ */
+public class ShardRoutingDataSource extends AbstractRoutingDataSource {
+
+    public ShardRoutingDataSource(DataSource primary, Map<String, DataSource> shards) {
+        Map<Object, Object> targets = new LinkedHashMap<>();
+        targets.put(ShardContext.PRIMARY, primary);
+        targets.putAll(shards);
+        setTargetDataSources(targets);
+        setDefaultTargetDataSource(primary);
+        setLenientFallback(false);
+    }
+
+    @Override
+    protected Object determineCurrentLookupKey() {
+        return ShardContext.current();
+    }
+
+    /** The shard's own DataSource, bypassing routing (for copying between shards). */
+    public DataSource getShard(String name) {
+        DataSource shard = getResolvedDataSources().get(name);
+        if (shard == null) {
+            throw new IllegalArgumentException("Unknown shard: " + name);
+        }
+        return shard;
+    }
+}
@@ -0,0 +1,46 @@
+package com.hamsacorp.expense.sharding;
+
+import jakarta.servlet.Filter;
+import jakarta.servlet.FilterChain;
+import jakarta.servlet.ServletException;
+import jakarta.servlet.ServletRequest;
+import jakarta.servlet.ServletResponse;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+
+import java.io.IOException;
+
+/**
+ * Routes the rest of the request to the authenticated user's shard (runs after JwtAuthFilter,
+ * which sets the userEmail attribute). While the user is being moved between shards requests get
+ * 503 with Retry-After, so nothing is written to a shard that is being copied from.
+ */
+public class ShardRoutingFilter implements Filter {
+    private final ShardDirectory shardDirectory;
+
+    public ShardRoutingFilter(ShardDirectory shardDirectory) {
+        this.shardDirectory = shardDirectory;
+    }
+
+    @Override
+    public void doFilter(ServletRequest request, ServletResponse response, FilterChain chain) throws IOException, ServletException {
+        String userEmail = (String) request.getAttribute("userEmail");
+        if (userEmail == null || !shardDirectory.isEnabled()) {
+            chain.doFilter(request, response);
+            return;
+        }
+        if (shardDirectory.isMoving(userEmail)) {
+            HttpServletResponse httpResponse = (HttpServletResponse) response;
+            httpResponse.setStatus(HttpServletResponse.SC_SERVICE_UNAVAILABLE);
+            httpResponse.setHeader("Retry-After", "5");
+            httpResponse.getWriter().write("Your data is being moved, please retry shortly");
+            return;
+        }
+        String previous = ShardContext.set(shardDirectory.shardOf(userEmail));
+        try {
+            chain.doFilter(request, response);
+        } finally {
+            ShardContext.restore(previous);
+        }
+    }
+}
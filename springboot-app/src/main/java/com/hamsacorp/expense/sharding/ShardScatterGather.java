@@ -0,0 +1,64 @@
+package com.hamsacorp.expense.sharding;
+
+import jakarta.annotation.PreDestroy;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Service;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.function.Supplier;
+
+/**
+ * Runs a query on every shard in parallel, for the few queries that span users. Each call runs on
+ * a worker thread routed to its shard; the caller merges the per-shard results. With a single
+ * database the query just runs on the calling thread.
+ */
+@Service
+public class ShardScatterGather {
+
+    @Autowired
+    private ShardDirectory shardDirectory;
+
+    private final ExecutorService workers = Executors.newCachedThreadPool(runnable -> {
+        Thread thread = new Thread(runnable, "shard-scatter");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    public int getShardCount() {
+        return shardDirectory.getShardNames().size();
+    }
+
+    /** One result per shard, in {@link ShardDirectory#getShardNames()} order. */
+    public <T> List<T> onEachShard(Supplier<T> query) {
+        List<String> shards = shardDirectory.getShardNames();
+        if (shards.size() == 1) {
+            return List.of(query.get());
+        }
+        List<CompletableFuture<T>> futures = new ArrayList<>();
+        for (String shard : shards) {
+            futures.add(CompletableFuture.supplyAsync(() -> ShardContext.call(shard, query), workers));
+        }
+        List<T> results = new ArrayList<>();
+        try {
+            for (CompletableFuture<T> future : futures) {
+                results.add(future.join());
+            }
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof RuntimeException cause) {
+                throw cause;
+            }
+            throw e;
+        }
+        return results;
+    }
+
+    @PreDestroy
+    public void stop() {
+        workers.shutdownNow();
+    }
+}
@@ -0,0 +1,87 @@
+package com.hamsacorp.expense.sharding;
+
+import com.hamsacorp.expense.repository.UserShardRepository;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionDefinition;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.util.function.Supplier;
+
+/**
+ * Keeps writes to a user's expense data and a {@link ShardMover} move of that user apart.
+ *
+ * Every write takes a shared per-user advisory lock on the shard it writes to, in its own
+ * transaction, and then checks the directory uncached: if the user is moving, or is no longer on
+ * that shard, it fails with {@link UserMovingException} instead of writing. The mover holds the
+ * same lock exclusively on the source shard from before it snapshots the user's rows until they
+ * are deleted there, so it waits for writes already in progress and none can start meanwhile,
+ * whether they come from a request that resolved the shard before the move began or from a
+ * background writer. With sharding disabled no lock is taken.
+ */
+@Service
+public class ShardWriteGuard {
+    // Shared by writers and ShardMover; the key is per user and per database
+    static final String LOCK_KEY = "hashtext('user-move:' || ?)";
+
+    @Autowired
+    private ShardingProperties properties;
+
+    @Autowired
+    private ShardDirectory shardDirectory;
+
+    @Autowired
+    private UserShardRepository userShardRepository;
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    private final TransactionTemplate transactionTemplate;
+    private final TransactionTemplate outsideTransaction;
+
+    public ShardWriteGuard(PlatformTransactionManager transactionManager) {
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
+        this.outsideTransaction = new TransactionTemplate(transactionManager);
+        this.outsideTransaction.setPropagationBehavior(TransactionDefinition.PROPAGATION_NOT_SUPPORTED);
+    }
+
+    /** Runs {@code write} in a transaction on the current shard, after {@link #lockForWrite}. */
+    public <T> T write(String userEmail, Supplier<T> write) {
+        return transactionTemplate.execute(status -> {
+            lockForWrite(userEmail);
+            return write.get();
+        });
+    }
+
+    public void write(String userEmail, Runnable write) {
+        write(userEmail, () -> {
+            write.run();
+            return null;
+        });
+    }
+
+    /**
+     * For writers with a transaction of their own: call it in that transaction, on the user's shard,
+     * before writing. The lock is released when the transaction ends.
+     */
+    public void lockForWrite(String userEmail) {
+        if (!properties.isEnabled()) {
+            return;
+        }
+        if (!TransactionSynchronizationManager.isActualTransactionActive()) {
+            throw new IllegalStateException("Writes for " + userEmail + " need a transaction to hold the move lock");
+        }
+        jdbcTemplate.query("SELECT pg_advisory_xact_lock_shared(" + LOCK_KEY + ")", rs -> {
+        }, userEmail);
+        // On a connection of its own: inside the transaction the primary would be read through the shard's
+        UserShardRepository.Assignment assignment = outsideTransaction.execute(status -> userShardRepository.find(userEmail));
+        String shard = assignment == null ? ShardContext.PRIMARY : assignment.shard();
+        if ((assignment != null && assignment.moving()) || !shard.equals(ShardContext.current())) {
+            shardDirectory.forget(userEmail); // So a retry is routed by the current entry
+            throw new UserMovingException(userEmail);
+        }
+    }
+}
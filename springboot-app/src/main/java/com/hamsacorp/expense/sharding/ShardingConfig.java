@@ -0,0 +1,81 @@
+package com.hamsacorp.expense.sharding;
+
+import com.hamsacorp.expense.tracing.QueryCountingListener;
+import com.zaxxer.hikari.HikariDataSource;
+import net.ttddyy.dsproxy.support.ProxyDataSourceBuilder;
+import org.springframework.boot.autoconfigure.jdbc.DataSourceProperties;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.boot.web.servlet.FilterRegistrationBean;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.context.annotation.Primary;
+
+import javax.sql.DataSource;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * The application DataSource is a {@link ShardRoutingDataSource} over the primary (spring.datasource,
+ * including its spring.datasource.hikari settings) and, with expense.sharding.enabled, one pool per
+ * configured shard, which inherits the primary's pool and driver settings. Without sharding it only
+ * routes to the primary. It is wrapped in a proxy that counts statements for the request trace.
+ *
+ * Nothing here is conditional on expense.sharding.enabled: the prod build fixes the bean definitions
+ * at build time (Spring AOT), so sharding is switched on and off by these beans at runtime instead.
+ *
+ * Schema management (ddl-auto) only sees the primary; each shard needs the same schema and an
+ * id range of its own for expenses_seq, see sharding-test.sh.
+ */
+@Configuration
+public class ShardingConfig {
+
+    @Bean
+    @ConfigurationProperties("spring.datasource.hikari")
+    public HikariDataSource primaryDataSource(DataSourceProperties dataSourceProperties) {
+        return dataSourceProperties.initializeDataSourceBuilder().type(HikariDataSource.class).build();
+    }
+
+    @Bean
+    @Primary
+    public DataSource dataSource(ShardRoutingDataSource shardRoutingDataSource) {
+        return ProxyDataSourceBuilder.create(shardRoutingDataSource)
+                .name("expense")
+                .listener(new QueryCountingListener())
+                .build();
+    }
+
+    @Bean
+    public ShardRoutingDataSource shardRoutingDataSource(HikariDataSource primaryDataSource, ShardingProperties properties) {
+        Map<String, DataSource> shards = new LinkedHashMap<>();
+        if (!properties.isEnabled()) {
+            return new ShardRoutingDataSource(primaryDataSource, shards);
+        }
+        properties.getShards().forEach((name, shard) -> {
+            if (ShardContext.PRIMARY.equals(name)) {
+                throw new IllegalArgumentException("Shard name '" + name + "' is reserved for spring.datasource");
+            }
+            HikariDataSource dataSource = new HikariDataSource();
+            primaryDataSource.copyStateTo(dataSource);
+            dataSource.setPoolName("shard-" + name);
+            dataSource.setJdbcUrl(shard.getUrl());
+            dataSource.setUsername(shard.getUsername() != null ? shard.getUsername() : primaryDataSource.getUsername());
+            dataSource.setPassword(shard.getPassword() != null ? shard.getPassword() : primaryDataSource.getPassword());
+            shards.put(name, dataSource);
+        });
+        for (String name : properties.getNewUserShards()) {
+            if (!ShardContext.PRIMARY.equals(name) && !shards.containsKey(name)) {
+                throw new IllegalArgumentException("expense.sharding.new-user-shards names unknown shard " + name);
+            }
+        }
+        return new ShardRoutingDataSource(primaryDataSource, shards);
+    }
+
+    @Bean
+    public FilterRegistrationBean<ShardRoutingFilter> shardRoutingFilter(ShardDirectory shardDirectory) {
+        FilterRegistrationBean<ShardRoutingFilter> registrationBean = new FilterRegistrationBean<>();
+        registrationBean.setFilter(new ShardRoutingFilter(shardDirectory));
+        registrationBean.addUrlPatterns("/api/*");
+        registrationBean.setOrder(2); // After JwtAuthFilter, which identifies the user
+        return registrationBean;
+    }
+}
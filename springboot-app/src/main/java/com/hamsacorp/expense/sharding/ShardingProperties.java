@@ -0,0 +1,35 @@
+package com.hamsacorp.expense.sharding;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * expense.sharding.*: the shard databases besides the primary (spring.datasource), e.g.
+ * expense.sharding.shards.shard1.url=jdbc:postgresql://db2:5432/expensetrackerdb, and which of
+ * them new users are spread over.
+ */
+@Data
+@Component
+@ConfigurationProperties(prefix = "expense.sharding")
+public class ShardingProperties {
+
+    @Data
+    public static class Shard {
+        private String url;
+        private String username;
+        private String password;
+    }
+
+    private boolean enabled;
+    private Map<String, Shard> shards = new LinkedHashMap<>();
+    // Empty: new users stay on the primary
+    private List<String> newUserShards = new ArrayList<>();
+    // How long an instance may keep routing a user by a cached directory entry
+    private int directoryCacheSeconds = 5;
+}
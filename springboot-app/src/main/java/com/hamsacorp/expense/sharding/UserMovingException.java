@@ -0,0 +1,12 @@
+package com.hamsacorp.expense.sharding;
+
+/**
+ * A write for a user who is being moved, or was moved away from the shard the write was routed to.
+ * Nothing was written; the request should be retried shortly (503 with Retry-After).
+ */
+public class UserMovingException extends RuntimeException {
+
+    public UserMovingException(String userEmail) {
+        super("The data of " + userEmail + " is being moved, please retry shortly");
+    }
+}
@@ -0,0 +1,30 @@
+package com.hamsacorp.expense.tracing;
+
+import net.ttddyy.dsproxy.ExecutionInfo;
+import net.ttddyy.dsproxy.QueryInfo;
+import net.ttddyy.dsproxy.listener.QueryExecutionListener;
+
+import java.util.List;
+
+/**
+ * Counts every SQL statement executed through the application DataSource against the active request
+ * trace, whether it comes from Hibernate or from a JdbcTemplate repository. A batched prepared
+ * statement counts once, as it is one round trip. Installed by ShardingConfig.
+ */
+public class QueryCountingListener implements QueryExecutionListener {
+
+    @Override
+    public void beforeQuery(ExecutionInfo execInfo, List<QueryInfo> queryInfoList) {
+    }
+
+    @Override
+    public void afterQuery(ExecutionInfo execInfo, List<QueryInfo> queryInfoList) {
+        QueryTrace trace = QueryTraceContext.current();
+        if (trace == null) {
+            return;
+        }
+        for (QueryInfo queryInfo : queryInfoList) {
+            trace.recordStatement(queryInfo.getQuery());
+        }
+    }
+}
@@ -0,0 +1,144 @@
+package com.hamsacorp.expense.tracing;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Statement, row and span bookkeeping for a single API request.
+ * Instances are confined to the request thread through {@link QueryTraceContext}.
+ */
+public class QueryTrace {
+
+    public static class Span {
+        private final String layer;
+        private final String name;
+        private final int depth;
+        private final long startNanos;
+        private long durationNanos;
+        private int statements;
+        private long rows;
+
+        Span(String layer, String name, int depth) {
+            this.layer = layer;
+            this.name = name;
+            this.depth = depth;
+            this.startNanos = System.nanoTime();
+        }
+
+        public String getLayer() {
+            return layer;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public int getDepth() {
+            return depth;
+        }
+
+        public long getDurationMillis() {
+            return durationNanos / 1_000_000;
+        }
+
+        public int getStatements() {
+            return statements;
+        }
+
+        public long getRows() {
+            return rows;
+        }
+    }
+
+    private final String name;
+    private final long startNanos = System.nanoTime();
+    private final List<Span> spans = new ArrayList<>();
+    private final Deque<Span> openSpans = new ArrayDeque<>();
+    private final Map<String, Integer> statementsBySql = new LinkedHashMap<>();
+    private final List<Span> slowQueries = new ArrayList<>();
+    private int statementCount;
+    private long rowCount;
+    private long durationNanos;
+
+    public QueryTrace(String name) {
+        this.name = name;
+    }
+
+    public Span openSpan(String layer, String spanName) {
+        Span span = new Span(layer, spanName, openSpans.size());
+        spans.add(span);
+        openSpans.push(span);
+        return span;
+    }
+
+    public void closeSpan(Span span, long rows, long slowQueryMillis) {
+        span.durationNanos = System.nanoTime() - span.startNanos;
+        span.rows = rows;
+        rowCount += rows;
+        if ("repository".equals(span.layer) && slowQueryMillis > 0 && span.getDurationMillis() >= slowQueryMillis) {
+            slowQueries.add(span);
+        }
+        openSpans.remove(span);
+    }
+
+    void recordStatement(String sql) {
+        statementCount++;
+        statementsBySql.merge(sql, 1, Integer::sum);
+        // Attribute the statement to every open span so parents include their children
+        for (Span span : openSpans) {
+            span.statements++;
+        }
+    }
+
+    void finish() {
+        durationNanos = System.nanoTime() - startNanos;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public int getStatementCount() {
+        return statementCount;
+    }
+
+    public long getRowCount() {
+        return rowCount;
+    }
+
+    public long getDurationMillis() {
+        return durationNanos / 1_000_000;
+    }
+
+    public List<Span> getSpans() {
+        return spans;
+    }
+
+    public List<Span> getSlowQueries() {
+        return slowQueries;
+    }
+
+    /** Distinct SQL issued within this trace, in first-seen order. */
+    public Set<String> getStatements() {
+        return statementsBySql.keySet();
+    }
+
+    /**
+     * Statements issued at least {@code threshold} times within this request,
+     * which is the usual signature of an N+1 access pattern.
+     */
+    public Map<String, Integer> getRepeatedStatements(int threshold) {
+        Map<String, Integer> repeated = new LinkedHashMap<>();
+        statementsBySql.forEach((sql, count) -> {
+            if (count >= threshold) {
+                repeated.put(sql, count);
+            }
+        });
+        return repeated;
+    }
+}
@@ -0,0 +1,36 @@
+package com.hamsacorp.expense.tracing;
+
+/**
+ * Thread-bound holder for the {@link QueryTrace} of the request being served.
+ */
+public final class QueryTraceContext {
+
+    private static final ThreadLocal<QueryTrace> CURRENT = new ThreadLocal<>();
+
+    private QueryTraceContext() {
+    }
+
+    public static QueryTrace current() {
+        return CURRENT.get();
+    }
+
+    /**
+     * Starts a trace for the current thread, or returns null if one is already active
+     * (e.g. a test capture wrapping a MockMvc request).
+     */
+    static QueryTrace begin(String name) {
+        if (CURRENT.get() != null) {
+            return null;
+        }
+        QueryTrace trace = new QueryTrace(name);
+        CURRENT.set(trace);
+        return trace;
+    }
+
+    static void end(QueryTrace trace) {
+        trace.finish();
+        if (CURRENT.get() == trace) {
+            CURRENT.remove();
+        }
+    }
+}
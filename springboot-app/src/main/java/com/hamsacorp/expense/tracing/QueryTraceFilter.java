@@ -0,0 +1,92 @@
+package com.hamsacorp.expense.tracing;
+
+import jakarta.servlet.FilterChain;
+import jakarta.servlet.ServletException;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import org.springframework.web.filter.OncePerRequestFilter;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Outermost API filter: binds a {@link QueryTrace} to the request, then exports its spans to the
+ * {@code expense.trace} logger and flags requests that blow the statement/row budget, repeat the
+ * same statement (N+1) or contain slow repository calls.
+ */
+@Component
+public class QueryTraceFilter extends OncePerRequestFilter {
+    private static final Logger TRACE_LOG = LoggerFactory.getLogger("expense.trace");
+
+    @Value("${expense.tracing.enabled:true}")
+    private boolean enabled;
+
+    @Value("${expense.tracing.statement-budget:15}")
+    private int statementBudget;
+
+    @Value("${expense.tracing.row-budget:5000}")
+    private long rowBudget;
+
+    @Value("${expense.tracing.n-plus-one-threshold:5}")
+    private int repeatedStatementThreshold;
+
+    @Override
+    protected void doFilterInternal(HttpServletRequest request, HttpServletResponse response, FilterChain filterChain)
+            throws ServletException, IOException {
+        if (!enabled) {
+            filterChain.doFilter(request, response);
+            return;
+        }
+        QueryTrace trace = QueryTraceContext.begin(request.getMethod() + " " + request.getRequestURI());
+        if (trace == null) {
+            // Already inside a trace (test capture), let the outer owner report it
+            filterChain.doFilter(request, response);
+            return;
+        }
+        QueryTrace.Span root = trace.openSpan("filter", "QueryTraceFilter");
+        try {
+            filterChain.doFilter(request, response);
+        } finally {
+            trace.closeSpan(root, 0, 0);
+            QueryTraceContext.end(trace);
+            export(trace, response.getStatus());
+        }
+    }
+
+    private void export(QueryTrace trace, int status) {
+        boolean overStatements = trace.getStatementCount() > statementBudget;
+        boolean overRows = trace.getRowCount() > rowBudget;
+        Map<String, Integer> repeated = trace.getRepeatedStatements(repeatedStatementThreshold);
+
+        if (overStatements || overRows || !repeated.isEmpty() || !trace.getSlowQueries().isEmpty()) {
+            TRACE_LOG.warn("Query budget exceeded: {} status={} statements={}/{} rows={}/{} durationMs={} repeated={} slow={}",
+                    trace.getName(), status, trace.getStatementCount(), statementBudget, trace.getRowCount(), rowBudget,
+                    trace.getDurationMillis(), repeated, describe(trace.getSlowQueries()));
+        } else {
+            TRACE_LOG.debug("{} status={} statements={} rows={} durationMs={}",
+                    trace.getName(), status, trace.getStatementCount(), trace.getRowCount(), trace.getDurationMillis());
+        }
+        if (TRACE_LOG.isDebugEnabled()) {
+            for (QueryTrace.Span span : trace.getSpans()) {
+                TRACE_LOG.debug("{}{} [{}] durationMs={} statements={} rows={}", "  ".repeat(span.getDepth()),
+                        span.getName(), span.getLayer(), span.getDurationMillis(), span.getStatements(), span.getRows());
+            }
+        }
+    }
+
+    private String describe(List<QueryTrace.Span> spans) {
+        StringBuilder sb = new StringBuilder("[");
+        for (QueryTrace.Span span : spans) {
+            if (sb.length() > 1) {
+                sb.append(", ");
+            }
+            sb.append(span.getName()).append('=').append(span.getDurationMillis()).append("ms");
+        }
+        return sb.append(']').toString();
+    }
+}
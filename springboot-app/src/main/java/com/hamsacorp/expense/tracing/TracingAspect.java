@@ -0,0 +1,92 @@
+package com.hamsacorp.expense.tracing;
+
+import org.aspectj.lang.ProceedingJoinPoint;
+import org.aspectj.lang.annotation.Around;
+import org.aspectj.lang.annotation.Aspect;
+import org.springframework.aop.framework.AopProxyUtils;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.domain.Slice;
+import org.springframework.stereotype.Component;
+
+import java.util.Collection;
+import java.util.Map;
+import java.util.Optional;
+
+/**
+ * Opens a span around controller, service and repository calls while a request trace is active.
+ * Repository spans also record how many rows the call returned or affected.
+ */
+@Aspect
+@Component
+public class TracingAspect {
+
+    @Value("${expense.tracing.slow-query-ms:250}")
+    private long slowQueryMillis;
+
+    @Around("within(com.hamsacorp.expense.controller..*)")
+    public Object traceController(ProceedingJoinPoint joinPoint) throws Throwable {
+        return trace(joinPoint, "controller", false);
+    }
+
+    @Around("within(com.hamsacorp.expense.service..*)")
+    public Object traceService(ProceedingJoinPoint joinPoint) throws Throwable {
+        return trace(joinPoint, "service", false);
+    }
+
+    @Around("target(org.springframework.data.repository.Repository)")
+    public Object traceRepository(ProceedingJoinPoint joinPoint) throws Throwable {
+        return trace(joinPoint, "repository", true);
+    }
+
+    private Object trace(ProceedingJoinPoint joinPoint, String layer, boolean countRows) throws Throwable {
+        QueryTrace trace = QueryTraceContext.current();
+        if (trace == null) {
+            return joinPoint.proceed();
+        }
+        QueryTrace.Span span = trace.openSpan(layer, spanName(joinPoint, layer));
+        Object result = null;
+        try {
+            result = joinPoint.proceed();
+            return result;
+        } finally {
+            trace.closeSpan(span, countRows ? rowsOf(result) : 0, slowQueryMillis);
+        }
+    }
+
+    private String spanName(ProceedingJoinPoint joinPoint, String layer) {
+        String type = joinPoint.getSignature().getDeclaringType().getSimpleName();
+        if ("repository".equals(layer)) {
+            // Inherited methods like save/findById are declared on Spring Data interfaces, so name them after ours
+            for (Class<?> candidate : AopProxyUtils.proxiedUserInterfaces(joinPoint.getTarget())) {
+                if (candidate.getName().startsWith("com.hamsacorp.")) {
+                    type = candidate.getSimpleName();
+                    break;
+                }
+            }
+        }
+        return type + "." + joinPoint.getSignature().getName();
+    }
+
+    private long rowsOf(Object result) {
+        if (result == null) {
+            return 0;
+        }
+        if (result instanceof Slice<?> slice) {
+            return slice.getNumberOfElements();
+        }
+        if (result instanceof Collection<?> collection) {
+            return collection.size();
+        }
+        if (result instanceof Map<?, ?> map) {
+            return map.size();
+        }
+        if (result instanceof Optional<?> optional) {
+            return optional.isPresent() ? 1 : 0;
+        }
+        if (result instanceof Number number) {
+            // Modifying queries report affected rows; count/exists style results are a single row
+            return result instanceof Integer ? number.longValue() : 1;
+        }
+        return 1;
+    }
+}
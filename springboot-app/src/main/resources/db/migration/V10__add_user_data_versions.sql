@@ -0,0 +1,16 @@
+-- Migration script for cross-instance cache invalidation
+-- Per-user data versions used to live in each instance's memory. They are now shared, so that all
+-- instances agree on ETags, and instances that missed an invalidation notification can tell which
+-- users changed by comparing against this table
+
+CREATE TABLE IF NOT EXISTS user_data_versions (
+    user_email VARCHAR(255) PRIMARY KEY,
+    version BIGINT NOT NULL,
+    updated_at TIMESTAMP NOT NULL DEFAULT now()
+);
+
+-- Periodic check for recently changed users
+CREATE INDEX IF NOT EXISTS idx_user_data_versions_updated_at ON user_data_versions(updated_at);
+
+-- Comment for documentation
+COMMENT ON TABLE user_data_versions IS 'Per-user data version, bumped on every expense or settings write; changes are announced on the expense_invalidation channel';
@@ -0,0 +1,12 @@
+-- Migration script for expense.cluster.enabled=true
+-- Live API instances, so that each can route per-user analytics requests to the user's owner node
+
+-- One row per instance under the URL its peers reach it at, refreshed every
+-- expense.cluster.heartbeat-seconds; rows without a recent heartbeat are treated as gone
+CREATE TABLE IF NOT EXISTS cluster_nodes (
+    url VARCHAR(255) PRIMARY KEY,
+    heartbeat_at TIMESTAMP NOT NULL DEFAULT now()
+);
+
+-- Comment for documentation
+COMMENT ON TABLE cluster_nodes IS 'API instance heartbeats; members of the consistent-hash ring that assigns users to owner nodes';
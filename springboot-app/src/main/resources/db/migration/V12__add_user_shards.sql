@@ -0,0 +1,21 @@
+-- Migration script for expense.sharding.enabled=true, run against the primary database
+-- Each user's expense data (expenses, expense_tags, expense_tombstones, expense_change_counters,
+-- expense_tag_bitmaps, expense_batch_idempotency) lives in one shard database; users, settings,
+-- data versions and cluster bookkeeping stay in the primary.
+--
+-- Provisioning a shard: create the database, run the application's schema (ddl-auto) and
+-- migrations V2 onwards against it, then give its expenses_seq an id range of its own, since
+-- expenses keep their ids when moved between shards, e.g. for the Nth shard:
+--   SELECT setval('expenses_seq', N * 1000000000000000, false);
+
+-- Users without a row are on the primary. moving is set while ShardMover copies the user's data,
+-- and requests for them are refused with 503 until it is done
+CREATE TABLE IF NOT EXISTS user_shards (
+    user_email VARCHAR(255) PRIMARY KEY,
+    shard VARCHAR(64) NOT NULL,
+    moving BOOLEAN NOT NULL DEFAULT false,
+    updated_at TIMESTAMP NOT NULL DEFAULT now()
+);
+
+-- Comment for documentation
+COMMENT ON TABLE user_shards IS 'Shard directory: the database holding each user''s expense data, see expense.sharding.shards';
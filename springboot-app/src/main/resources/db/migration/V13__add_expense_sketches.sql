@@ -0,0 +1,71 @@
+-- Migration script for GET /api/expenses/distribution (run on the primary and every shard)
+-- Quantiles and distinct counts over a user's expenses come from per-month sketches: a KLL
+-- quantile sketch of transaction amounts and a HyperLogLog sketch of merchants (normalized
+-- descriptions), per category and for all categories together. Both merge, so a range costs one
+-- row per month and category however many transactions it covers.
+--
+-- Sketches can't have values removed, so a month is rebuilt from its rows instead of updated: the
+-- triggers below mark every month a write touches as dirty, and the next read of a dirty month
+-- rebuilds it
+
+-- Serialized KllDoublesSketch (amounts) and HllSketch (merchants); category '*' covers all
+CREATE TABLE IF NOT EXISTS expense_sketches (
+    created_by VARCHAR(255) NOT NULL,
+    month DATE NOT NULL,
+    category VARCHAR(255) NOT NULL,
+    transaction_count BIGINT NOT NULL,
+    total DOUBLE PRECISION NOT NULL,
+    amounts BYTEA NOT NULL,
+    merchants BYTEA NOT NULL,
+    PRIMARY KEY (created_by, month, category)
+);
+
+-- Months whose sketches are missing or out of date (month is the first day)
+CREATE TABLE IF NOT EXISTS expense_sketch_dirty (
+    created_by VARCHAR(255) NOT NULL,
+    month DATE NOT NULL,
+    PRIMARY KEY (created_by, month)
+);
+
+-- Transition tables, so a batched insert marks each month once rather than once per row
+CREATE OR REPLACE FUNCTION mark_expense_sketches_dirty() RETURNS TRIGGER AS $$
+BEGIN
+    IF TG_OP IN ('INSERT', 'UPDATE') THEN
+        INSERT INTO expense_sketch_dirty (created_by, month)
+        SELECT DISTINCT created_by, date_trunc('month', date)::date FROM new_rows
+        WHERE created_by IS NOT NULL AND date IS NOT NULL ORDER BY 1, 2
+        ON CONFLICT DO NOTHING;
+    END IF;
+    IF TG_OP IN ('UPDATE', 'DELETE') THEN
+        INSERT INTO expense_sketch_dirty (created_by, month)
+        SELECT DISTINCT created_by, date_trunc('month', date)::date FROM old_rows
+        WHERE created_by IS NOT NULL AND date IS NOT NULL ORDER BY 1, 2
+        ON CONFLICT DO NOTHING;
+    END IF;
+    RETURN NULL;
+END;
+$$ LANGUAGE plpgsql;
+
+DROP TRIGGER IF EXISTS trg_expenses_sketch_dirty_insert ON expenses;
+CREATE TRIGGER trg_expenses_sketch_dirty_insert
+    AFTER INSERT ON expenses REFERENCING NEW TABLE AS new_rows
+    FOR EACH STATEMENT EXECUTE FUNCTION mark_expense_sketches_dirty();
+
+DROP TRIGGER IF EXISTS trg_expenses_sketch_dirty_update ON expenses;
+CREATE TRIGGER trg_expenses_sketch_dirty_update
+    AFTER UPDATE ON expenses REFERENCING OLD TABLE AS old_rows NEW TABLE AS new_rows
+    FOR EACH STATEMENT EXECUTE FUNCTION mark_expense_sketches_dirty();
+
+DROP TRIGGER IF EXISTS trg_expenses_sketch_dirty_delete ON expenses;
+CREATE TRIGGER trg_expenses_sketch_dirty_delete
+    AFTER DELETE ON expenses REFERENCING OLD TABLE AS old_rows
+    FOR EACH STATEMENT EXECUTE FUNCTION mark_expense_sketches_dirty();
+
+-- Existing data: every month is built on first read
+INSERT INTO expense_sketch_dirty (created_by, month)
+SELECT DISTINCT created_by, date_trunc('month', date)::date FROM expenses
+WHERE created_by IS NOT NULL AND date IS NOT NULL
+ON CONFLICT DO NOTHING;
+
+-- Comment for documentation
+COMMENT ON TABLE expense_sketches IS 'Per user, month and category KLL amount and HLL merchant sketches; rebuilt from expenses when marked in expense_sketch_dirty';
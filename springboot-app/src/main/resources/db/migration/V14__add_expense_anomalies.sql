@@ -0,0 +1,66 @@
+-- Migration script for spending anomaly detection (GET /api/expenses/anomalies), run on the
+-- primary and every shard
+-- Each expense write updates running statistics off the request thread and is compared with them,
+-- so detection never re-reads history
+
+-- Welford running statistics per user: count, mean and sum of squared deviations (m2) of
+-- transaction amounts per category ('category:<name>') and of daily totals per day of week
+-- ('weekday:<1-7>', Monday = 1). The 'open-day' row holds the latest day still accumulating: n is
+-- its epoch day and mean its running total; it is folded into its weekday once a later day starts
+CREATE TABLE IF NOT EXISTS expense_stats (
+    created_by VARCHAR(255) NOT NULL,
+    stat_key VARCHAR(300) NOT NULL,
+    n BIGINT NOT NULL,
+    mean DOUBLE PRECISION NOT NULL,
+    m2 DOUBLE PRECISION NOT NULL,
+    PRIMARY KEY (created_by, stat_key)
+);
+
+-- Flagged expenses: kind CATEGORY compares the amount with the category's transactions, WEEKDAY the
+-- day's total with that day of week's totals (flagged on the expense that pushed it over)
+CREATE TABLE IF NOT EXISTS expense_anomalies (
+    created_by VARCHAR(255) NOT NULL,
+    expense_id BIGINT NOT NULL REFERENCES expenses(id) ON DELETE CASCADE,
+    kind VARCHAR(20) NOT NULL,
+    subject VARCHAR(255) NOT NULL,
+    expense_date DATE NOT NULL,
+    amount DOUBLE PRECISION NOT NULL,
+    mean DOUBLE PRECISION NOT NULL,
+    stddev DOUBLE PRECISION NOT NULL,
+    z_score DOUBLE PRECISION NOT NULL,
+    detected_at TIMESTAMP NOT NULL DEFAULT now(),
+    PRIMARY KEY (created_by, expense_id, kind)
+);
+
+-- Anomalies of a date range, for the endpoint and the detail responses
+CREATE INDEX IF NOT EXISTS idx_expense_anomalies_created_by_expense_date
+    ON expense_anomalies(created_by, expense_date);
+
+-- Cascading deletes from expenses
+CREATE INDEX IF NOT EXISTS idx_expense_anomalies_expense_id ON expense_anomalies(expense_id);
+
+-- Statistics of existing expenses, so users with history are checked from their next write
+INSERT INTO expense_stats (created_by, stat_key, n, mean, m2)
+SELECT created_by, 'category:' || COALESCE(category, 'Uncategorized'), count(*), avg(amount),
+       COALESCE(var_samp(amount) * (count(*) - 1), 0)
+FROM expenses WHERE type = 'EXPENSE' AND created_by IS NOT NULL
+GROUP BY created_by, COALESCE(category, 'Uncategorized')
+ON CONFLICT DO NOTHING;
+
+WITH days AS (
+    SELECT created_by, date, sum(amount) AS total,
+           row_number() OVER (PARTITION BY created_by ORDER BY date DESC) AS recency
+    FROM expenses WHERE type = 'EXPENSE' AND created_by IS NOT NULL AND date IS NOT NULL
+    GROUP BY created_by, date
+)
+INSERT INTO expense_stats (created_by, stat_key, n, mean, m2)
+SELECT created_by, 'weekday:' || extract(isodow FROM date)::int, count(*), avg(total),
+       COALESCE(var_samp(total) * (count(*) - 1), 0)
+FROM days WHERE recency > 1
+GROUP BY created_by, extract(isodow FROM date)
+UNION ALL
+SELECT created_by, 'open-day', date - DATE '1970-01-01', total, 0 FROM days WHERE recency = 1
+ON CONFLICT DO NOTHING;
+
+-- Comment for documentation
+COMMENT ON TABLE expense_stats IS 'Running per-user category and weekday statistics for anomaly detection; updated asynchronously on every expense write';
@@ -0,0 +1,8 @@
+-- Migration script for the tag bitmap index (run on the primary and every shard)
+-- The change sequence value (expense_change_counters.last_seq) a persisted snapshot covers, kept on
+-- the '*' row. A snapshot whose value differs from the user's counter missed a write and is rebuilt;
+-- rows from before this column have none and are rebuilt on first load
+ALTER TABLE expense_tag_bitmaps ADD COLUMN IF NOT EXISTS change_seq BIGINT;
+
+-- Comment for documentation
+COMMENT ON COLUMN expense_tag_bitmaps.change_seq IS 'expense_change_counters.last_seq the snapshot covers (on the ''*'' row)';
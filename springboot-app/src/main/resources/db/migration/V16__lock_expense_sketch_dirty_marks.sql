@@ -0,0 +1,24 @@
+-- Migration script for GET /api/expenses/distribution (run on the primary and every shard)
+-- A write to a month that was already marked dirty skipped the mark with ON CONFLICT DO NOTHING,
+-- which takes no lock on the existing row. A rebuild could then claim the mark and read the month
+-- before that write committed, leaving the month unmarked with the write missing from its sketch.
+-- Updating the existing row instead locks it until the write commits, so the rebuild's DELETE waits
+-- for the write and its read of the month then sees it
+
+CREATE OR REPLACE FUNCTION mark_expense_sketches_dirty() RETURNS TRIGGER AS $$
+BEGIN
+    IF TG_OP IN ('INSERT', 'UPDATE') THEN
+        INSERT INTO expense_sketch_dirty (created_by, month)
+        SELECT DISTINCT created_by, date_trunc('month', date)::date FROM new_rows
+        WHERE created_by IS NOT NULL AND date IS NOT NULL ORDER BY 1, 2
+        ON CONFLICT (created_by, month) DO UPDATE SET month = EXCLUDED.month;
+    END IF;
+    IF TG_OP IN ('UPDATE', 'DELETE') THEN
+        INSERT INTO expense_sketch_dirty (created_by, month)
+        SELECT DISTINCT created_by, date_trunc('month', date)::date FROM old_rows
+        WHERE created_by IS NOT NULL AND date IS NOT NULL ORDER BY 1, 2
+        ON CONFLICT (created_by, month) DO UPDATE SET month = EXCLUDED.month;
+    END IF;
+    RETURN NULL;
+END;
+$$ LANGUAGE plpgsql;
@@ -0,0 +1,22 @@
+-- Migration script to back expense search with trigram indexes
+-- /api/expenses/search does case-insensitive substring and prefix matching (ILIKE '%term%')
+-- on description and category, which a btree index can't serve
+
+-- Trigram operator classes for ILIKE, plus btree operator classes for GIN so the
+-- owner filter can live in the same index as the text
+CREATE EXTENSION IF NOT EXISTS pg_trgm;
+CREATE EXTENSION IF NOT EXISTS btree_gin;
+
+-- Per-user trigram indexes: the planner ANDs the created_by entry with the term's trigrams
+-- and ORs the two columns with a BitmapOr
+CREATE INDEX IF NOT EXISTS idx_expenses_created_by_description_trgm
+    ON expenses USING gin (created_by, description gin_trgm_ops);
+
+CREATE INDEX IF NOT EXISTS idx_expenses_created_by_category_trgm
+    ON expenses USING gin (created_by, category gin_trgm_ops);
+
+ANALYZE expenses;
+
+-- Comment for documentation
+COMMENT ON INDEX idx_expenses_created_by_description_trgm IS 'Trigram index for ILIKE search on expense descriptions, scoped by owner';
+COMMENT ON INDEX idx_expenses_created_by_category_trgm IS 'Trigram index for ILIKE search on expense categories, scoped by owner';
@@ -0,0 +1,30 @@
+-- Migration script to support the filtered expense listing
+-- GET /api/expenses can filter by type, category set, payment method set, amount range and
+-- date range, always scoped to the owner and ordered by date (then id) unless another sort is given
+
+-- Default listing and date-range filter: owner, then the listing order, so a page is a bounded index scan
+CREATE INDEX IF NOT EXISTS idx_expenses_created_by_date_id
+    ON expenses(created_by, date DESC, id DESC);
+
+-- Type filter, split by selectivity: most rows are EXPENSE, so those get a lean partial index in
+-- listing order, and the rarer INCOME/SAVINGS rows get their own small one
+CREATE INDEX IF NOT EXISTS idx_expenses_created_by_date_id_expense
+    ON expenses(created_by, date DESC, id DESC)
+    WHERE type = 'EXPENSE';
+
+CREATE INDEX IF NOT EXISTS idx_expenses_created_by_type_date_id_other
+    ON expenses(created_by, type, date DESC, id DESC)
+    WHERE type <> 'EXPENSE';
+
+-- Category and payment method sets: equality/IN on the second column, date range on the third
+CREATE INDEX IF NOT EXISTS idx_expenses_created_by_category_date
+    ON expenses(created_by, category, date);
+
+CREATE INDEX IF NOT EXISTS idx_expenses_created_by_payment_method_date
+    ON expenses(created_by, payment_method, date);
+
+-- Amount range filter and amount sort
+CREATE INDEX IF NOT EXISTS idx_expenses_created_by_amount
+    ON expenses(created_by, amount);
+
+ANALYZE expenses;
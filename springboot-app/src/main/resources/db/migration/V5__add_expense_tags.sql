@@ -0,0 +1,26 @@
+-- Migration script to add tags to expenses
+-- Tags are free-form labels ("business", "trip-2026") that cut across categories; an expense
+-- can carry several. Tag filters are answered from per-user Roaring bitmaps, which are persisted
+-- in expense_tag_bitmaps so they don't have to be rebuilt from expense_tags after a restart
+
+-- Tag assignments (Expense.tags element collection)
+CREATE TABLE IF NOT EXISTS expense_tags (
+    expense_id BIGINT NOT NULL REFERENCES expenses(id) ON DELETE CASCADE,
+    tag VARCHAR(50) NOT NULL,
+    PRIMARY KEY (expense_id, tag)
+);
+
+-- Membership predicates used when a tag filter matches too many expenses for an id list
+CREATE INDEX IF NOT EXISTS idx_expense_tags_tag_expense_id ON expense_tags(tag, expense_id);
+
+-- Serialized Roaring64NavigableMap per (user, tag); tag '*' holds all of the user's expense ids
+CREATE TABLE IF NOT EXISTS expense_tag_bitmaps (
+    created_by VARCHAR(255) NOT NULL,
+    tag VARCHAR(50) NOT NULL,
+    bitmap BYTEA NOT NULL,
+    updated_at TIMESTAMP NOT NULL DEFAULT now(),
+    PRIMARY KEY (created_by, tag)
+);
+
+-- Comment for documentation
+COMMENT ON TABLE expense_tag_bitmaps IS 'Write-behind snapshot of the in-memory tag bitmap index; validated against expense_tags on load and rebuilt if stale';
@@ -0,0 +1,8 @@
+-- Migration script to add optimistic locking to expenses
+-- Updates and deletes are single statements guarded by id, owner and version, and fail (409) when
+-- the version the client last read is no longer current
+
+ALTER TABLE expenses ADD COLUMN IF NOT EXISTS version BIGINT NOT NULL DEFAULT 0;
+
+-- Comment for documentation
+COMMENT ON COLUMN expenses.version IS 'Incremented on every update; clients send it back to detect concurrent edits';
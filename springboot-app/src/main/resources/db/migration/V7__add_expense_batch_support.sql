@@ -0,0 +1,29 @@
+-- Migration script to support POST /api/expenses/batch
+-- Run before deploying: the application now takes expense ids from expenses_seq (50 per round trip,
+-- pooled-lo) instead of the identity column, so that Hibernate can batch inserts
+
+-- Id sequence, starting past the existing ids. The column default uses it too, so rows inserted by
+-- plain SQL draw from the same sequence and can't collide with ids the application has reserved
+CREATE SEQUENCE IF NOT EXISTS expenses_seq INCREMENT BY 50;
+ALTER SEQUENCE expenses_seq INCREMENT BY 50;
+SELECT setval('expenses_seq', (SELECT COALESCE(max(id), 0) + 1 FROM expenses), false);
+ALTER TABLE expenses ALTER COLUMN id DROP IDENTITY IF EXISTS;
+ALTER TABLE expenses ALTER COLUMN id SET DEFAULT nextval('expenses_seq');
+ALTER SEQUENCE expenses_seq OWNED BY expenses.id;
+
+-- Results of applied batch operations by client-supplied idempotency key, so retried batches
+-- (e.g. offline catch-up after a lost response) don't apply an operation twice
+CREATE TABLE IF NOT EXISTS expense_batch_idempotency (
+    created_by VARCHAR(255) NOT NULL,
+    idempotency_key VARCHAR(100) NOT NULL,
+    result TEXT NOT NULL,
+    created_at TIMESTAMP NOT NULL DEFAULT now(),
+    PRIMARY KEY (created_by, idempotency_key)
+);
+
+-- Expiry of old keys
+CREATE INDEX IF NOT EXISTS idx_expense_batch_idempotency_created_by_created_at
+    ON expense_batch_idempotency(created_by, created_at);
+
+-- Comment for documentation
+COMMENT ON TABLE expense_batch_idempotency IS 'Per-operation results of POST /api/expenses/batch, kept for expense.batch.idempotency-days';
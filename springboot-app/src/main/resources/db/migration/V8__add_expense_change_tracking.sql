@@ -0,0 +1,73 @@
+-- Migration script for delta sync (GET /api/expenses/changes?since=<token>)
+-- Every insert and update of an expense stamps it with updated_at and the next value of a per-user
+-- change sequence; every delete leaves a tombstone with its own sequence value. A client that has
+-- synced up to N asks for everything with change_seq > N.
+--
+-- The sequence is a counter row per user, bumped by the triggers. Its row lock is held until the
+-- writing transaction commits, so a user's sequence values become visible in order and a client can
+-- never skip past a change that commits later with a smaller value.
+
+CREATE TABLE IF NOT EXISTS expense_change_counters (
+    created_by VARCHAR(255) PRIMARY KEY,
+    last_seq BIGINT NOT NULL,
+    -- Tombstones up to here have been pruned; clients behind it must resync from scratch
+    pruned_seq BIGINT NOT NULL DEFAULT 0
+);
+
+CREATE TABLE IF NOT EXISTS expense_tombstones (
+    created_by VARCHAR(255) NOT NULL,
+    change_seq BIGINT NOT NULL,
+    expense_id BIGINT NOT NULL,
+    deleted_at TIMESTAMP NOT NULL DEFAULT now(),
+    PRIMARY KEY (created_by, change_seq)
+);
+
+ALTER TABLE expenses ADD COLUMN IF NOT EXISTS updated_at TIMESTAMP;
+ALTER TABLE expenses ADD COLUMN IF NOT EXISTS change_seq BIGINT;
+
+-- Backfill existing rows in id order, then start each user's counter after them
+UPDATE expenses e SET change_seq = numbered.seq, updated_at = COALESCE(e.created_at, now())
+FROM (SELECT id, row_number() OVER (PARTITION BY created_by ORDER BY id) AS seq FROM expenses) numbered
+WHERE e.id = numbered.id AND e.change_seq IS NULL;
+
+INSERT INTO expense_change_counters (created_by, last_seq)
+SELECT created_by, max(change_seq) FROM expenses GROUP BY created_by
+ON CONFLICT (created_by) DO UPDATE SET last_seq = GREATEST(expense_change_counters.last_seq, EXCLUDED.last_seq);
+
+CREATE OR REPLACE FUNCTION next_expense_change_seq(owner VARCHAR) RETURNS BIGINT AS $$
+    INSERT INTO expense_change_counters AS c (created_by, last_seq) VALUES (owner, 1)
+    ON CONFLICT (created_by) DO UPDATE SET last_seq = c.last_seq + 1
+    RETURNING last_seq;
+$$ LANGUAGE sql;
+
+CREATE OR REPLACE FUNCTION stamp_expense_change() RETURNS TRIGGER AS $$
+BEGIN
+    NEW.change_seq := next_expense_change_seq(NEW.created_by);
+    NEW.updated_at := now();
+    RETURN NEW;
+END;
+$$ LANGUAGE plpgsql;
+
+CREATE OR REPLACE FUNCTION record_expense_tombstone() RETURNS TRIGGER AS $$
+BEGIN
+    INSERT INTO expense_tombstones (created_by, change_seq, expense_id)
+    VALUES (OLD.created_by, next_expense_change_seq(OLD.created_by), OLD.id);
+    RETURN OLD;
+END;
+$$ LANGUAGE plpgsql;
+
+DROP TRIGGER IF EXISTS trg_expenses_stamp_change ON expenses;
+CREATE TRIGGER trg_expenses_stamp_change
+    BEFORE INSERT OR UPDATE ON expenses
+    FOR EACH ROW EXECUTE FUNCTION stamp_expense_change();
+
+DROP TRIGGER IF EXISTS trg_expenses_tombstone ON expenses;
+CREATE TRIGGER trg_expenses_tombstone
+    AFTER DELETE ON expenses
+    FOR EACH ROW EXECUTE FUNCTION record_expense_tombstone();
+
+-- Delta reads: a user's rows after a given sequence value, in sequence order
+CREATE INDEX IF NOT EXISTS idx_expenses_created_by_change_seq ON expenses(created_by, change_seq);
+
+-- Comment for documentation
+COMMENT ON TABLE expense_tombstones IS 'Deleted expense ids by per-user change sequence, for delta sync; pruned after expense.sync.tombstone-retention-days';
@@ -0,0 +1,17 @@
+-- Migration script for expense.ratelimit.store=postgres
+-- Token buckets shared by all application instances, so that a client's request quota is enforced
+-- once for the whole deployment instead of once per instance
+
+-- Serialized Bucket4j state by client key (leading 64 bits of a SHA-256 of the token or IP address).
+-- Instances update a row with compare-and-swap on the state and retry when another instance won
+CREATE TABLE IF NOT EXISTS rate_limit_buckets (
+    id BIGINT PRIMARY KEY,
+    state BYTEA NOT NULL,
+    updated_at TIMESTAMP NOT NULL DEFAULT now()
+);
+
+-- Cleanup of clients idle long enough for their bucket to have refilled
+CREATE INDEX IF NOT EXISTS idx_rate_limit_buckets_updated_at ON rate_limit_buckets(updated_at);
+
+-- Comment for documentation
+COMMENT ON TABLE rate_limit_buckets IS 'Bucket4j rate limit state shared across instances; rows idle for 10 minutes are deleted';
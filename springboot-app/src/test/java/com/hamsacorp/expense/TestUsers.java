@@ -0,0 +1,54 @@
+package com.hamsacorp.expense;
+
+import com.hamsacorp.expense.model.Expense;
+import com.hamsacorp.expense.service.AuthService;
+import org.springframework.jdbc.core.JdbcTemplate;
+
+import java.time.LocalDate;
+import java.util.List;
+import java.util.UUID;
+
+/** Throwaway users for tests that go through the API, removed with all their data afterwards. */
+public final class TestUsers {
+
+    // Every table keyed by the user. expenses first: its triggers write tombstones and change counters,
+    // and expense_tags and expense_anomalies go with it
+    private static final List<String> USER_TABLES = List.of(
+            "expenses", "expense_batch_idempotency", "expense_change_counters", "expense_sketch_dirty",
+            "expense_sketches", "expense_stats", "expense_tag_bitmaps", "expense_tombstones");
+    private static final List<String> USER_EMAIL_TABLES = List.of("user_data_versions", "user_settings", "user_shards");
+
+    private TestUsers() {
+    }
+
+    public static String register(AuthService authService, String prefix) {
+        String email = prefix + "-" + UUID.randomUUID() + "@example.com";
+        String error = authService.registerUser(email, "secret1", "Test", "User", null, null);
+        if (error != null) {
+            throw new IllegalStateException(error);
+        }
+        return email;
+    }
+
+    public static Expense expense(String email, LocalDate date, double amount, String category) {
+        Expense expense = new Expense();
+        expense.setType(Expense.ExpenseType.EXPENSE);
+        expense.setDescription(category + " on " + date);
+        expense.setAmount(amount);
+        expense.setDate(date);
+        expense.setCategory(category);
+        expense.setPaymentMethod("Card");
+        expense.setCreatedBy(email);
+        return expense;
+    }
+
+    public static void delete(JdbcTemplate jdbcTemplate, String email) {
+        for (String table : USER_TABLES) {
+            jdbcTemplate.update("DELETE FROM " + table + " WHERE created_by = ?", email);
+        }
+        for (String table : USER_EMAIL_TABLES) {
+            jdbcTemplate.update("DELETE FROM " + table + " WHERE user_email = ?", email);
+        }
+        jdbcTemplate.update("DELETE FROM users WHERE email = ?", email);
+    }
+}
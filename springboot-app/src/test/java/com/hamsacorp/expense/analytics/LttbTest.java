@@ -0,0 +1,72 @@
+package com.hamsacorp.expense.analytics;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Random;
+import java.util.stream.IntStream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class LttbTest {
+
+    @Test
+    void keepsEveryPointUpToTheThreshold() {
+        double[] x = {0, 1, 2, 3};
+        double[] y = {5, 1, 4, 2};
+
+        assertThat(Lttb.select(x, y, 4)).containsExactly(0, 1, 2, 3);
+        assertThat(Lttb.select(x, y, 10)).containsExactly(0, 1, 2, 3);
+        assertThat(Lttb.select(x, y, 2)).containsExactly(0, 1, 2, 3);
+        assertThat(Lttb.select(new double[0], new double[0], 5)).isEmpty();
+    }
+
+    @Test
+    void picksTheLargestTriangleInABucket() {
+        double[] x = {0, 1, 2, 3, 4};
+        double[] y = {0, 1, 5, 1, 0};
+
+        assertThat(Lttb.select(x, y, 3)).containsExactly(0, 2, 4);
+    }
+
+    @Test
+    void keepsOnePointPerBucketInOrder() {
+        int n = 10_000;
+        int threshold = 400;
+        Random random = new Random(7);
+        double[] x = IntStream.range(0, n).asDoubleStream().toArray();
+        double[] y = random.doubles(n, 0, 100).toArray();
+
+        int[] kept = Lttb.select(x, y, threshold);
+
+        assertThat(kept).hasSize(threshold).startsWith(0).endsWith(n - 1);
+        double every = (double) (n - 2) / (threshold - 2);
+        for (int i = 1; i < threshold - 1; i++) {
+            assertThat(kept[i]).isGreaterThan(kept[i - 1])
+                    .isBetween((int) Math.floor((i - 1) * every) + 1, (int) Math.floor(i * every));
+        }
+    }
+
+    @Test
+    void keepsPeaksAndDipsThatAveragingWouldFlatten() {
+        int n = 3650;
+        double[] x = IntStream.range(0, n).asDoubleStream().toArray();
+        double[] y = new double[n];
+        for (int i = 0; i < n; i++) {
+            y[i] = 50 + (i % 7);
+        }
+        y[1234] = 5000;
+        y[2718] = 0;
+
+        int[] kept = Lttb.select(x, y, 100);
+
+        assertThat(kept).contains(1234, 2718);
+    }
+
+    @Test
+    void handlesUnevenlySpacedPoints() {
+        double[] x = {0, 1, 2, 50, 51, 52, 100};
+        double[] y = {0, 0, 0, 9, 0, 0, 0};
+
+        assertThat(Lttb.select(x, y, 4)).containsExactly(0, 2, 3, 6);
+    }
+}
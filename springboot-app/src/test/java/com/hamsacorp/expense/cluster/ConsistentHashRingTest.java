@@ -0,0 +1,95 @@
+package com.hamsacorp.expense.cluster;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class ConsistentHashRingTest {
+
+    private static final int POINTS_PER_NODE = 128; // As in ClusterMembership
+    private static final List<String> NODES = List.of("http://10.0.0.1:3000", "http://10.0.0.2:3000", "http://10.0.0.3:3000");
+
+    @Test
+    void emptyRingHasNoOwner() {
+        assertThat(new ConsistentHashRing(List.of(), POINTS_PER_NODE).ownerOf("a@example.com")).isNull();
+    }
+
+    @Test
+    void singleNodeOwnsEverything() {
+        ConsistentHashRing ring = new ConsistentHashRing(List.of("http://10.0.0.1:3000"), POINTS_PER_NODE);
+
+        for (String key : keys(1000)) {
+            assertThat(ring.ownerOf(key)).isEqualTo("http://10.0.0.1:3000");
+        }
+    }
+
+    @Test
+    void ownersDoNotDependOnTheOrderNodesAreListed() {
+        ConsistentHashRing ring = new ConsistentHashRing(NODES, POINTS_PER_NODE);
+        ConsistentHashRing reversed = new ConsistentHashRing(List.of(NODES.get(2), NODES.get(0), NODES.get(1)), POINTS_PER_NODE);
+
+        assertThat(reversed.getNodes()).isEqualTo(ring.getNodes());
+        for (String key : keys(1000)) {
+            assertThat(reversed.ownerOf(key)).isEqualTo(ring.ownerOf(key));
+        }
+    }
+
+    @Test
+    void spreadsKeysEvenly() {
+        ConsistentHashRing ring = new ConsistentHashRing(NODES, POINTS_PER_NODE);
+        Map<String, Integer> counts = new HashMap<>();
+
+        for (String key : keys(30_000)) {
+            counts.merge(ring.ownerOf(key), 1, Integer::sum);
+        }
+
+        assertThat(counts).containsOnlyKeys(NODES);
+        // Within 20% of an even share
+        assertThat(counts.values()).allSatisfy(count -> assertThat(count).isBetween(8_000, 12_000));
+    }
+
+    @Test
+    void joiningNodeOnlyTakesKeysOver() {
+        ConsistentHashRing before = new ConsistentHashRing(NODES, POINTS_PER_NODE);
+        List<String> grown = new ArrayList<>(NODES);
+        grown.add("http://10.0.0.4:3000");
+        ConsistentHashRing after = new ConsistentHashRing(grown, POINTS_PER_NODE);
+
+        int moved = 0;
+        for (String key : keys(20_000)) {
+            if (!after.ownerOf(key).equals(before.ownerOf(key))) {
+                assertThat(after.ownerOf(key)).isEqualTo("http://10.0.0.4:3000");
+                moved++;
+            }
+        }
+        // About a quarter of the keys
+        assertThat(moved).isBetween(4_000, 6_000);
+    }
+
+    @Test
+    void leavingNodeOnlyGivesUpItsOwnKeys() {
+        ConsistentHashRing before = new ConsistentHashRing(NODES, POINTS_PER_NODE);
+        ConsistentHashRing after = new ConsistentHashRing(NODES.subList(0, 2), POINTS_PER_NODE);
+
+        for (String key : keys(20_000)) {
+            if (!before.ownerOf(key).equals(NODES.get(2))) {
+                assertThat(after.ownerOf(key)).isEqualTo(before.ownerOf(key));
+            } else {
+                assertThat(after.ownerOf(key)).isIn(NODES.subList(0, 2));
+            }
+        }
+    }
+
+    private static List<String> keys(int count) {
+        List<String> keys = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            keys.add("user" + i + "@example.com");
+        }
+        return keys;
+    }
+}
@@ -0,0 +1,123 @@
+package com.hamsacorp.expense.cluster;
+
+import com.sun.net.httpserver.HttpServer;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.web.method.HandlerMethod;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+/** Requests for a user owned by another node, against a stand-in owner on a local port. */
+class OwnerRoutingInterceptorTest {
+
+    private static final String EMAIL = "owner@example.com";
+    private static final String SELF = "http://127.0.0.1:1";
+
+    private final ClusterMembership clusterMembership = mock(ClusterMembership.class);
+    private final OwnerRoutingInterceptor interceptor = new OwnerRoutingInterceptor();
+    private final AtomicReference<String> received = new AtomicReference<>();
+    private HttpServer owner;
+
+    static class Handlers {
+        @OwnerRouted
+        public void routed() {
+        }
+
+        public void local() {
+        }
+    }
+
+    @BeforeEach
+    void setUp() throws IOException {
+        owner = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        owner.createContext("/", exchange -> {
+            byte[] body = exchange.getRequestBody().readAllBytes();
+            received.set(exchange.getRequestMethod() + " " + exchange.getRequestURI() + " "
+                    + exchange.getRequestHeaders().getFirst(OwnerRoutingInterceptor.FORWARDED_HEADER) + " "
+                    + exchange.getRequestHeaders().getFirst("Content-Type") + " " + new String(body, StandardCharsets.UTF_8));
+            byte[] response = "{\"id\":1}".getBytes(StandardCharsets.UTF_8);
+            exchange.getResponseHeaders().set("Content-Type", "application/json");
+            exchange.sendResponseHeaders(200, response.length);
+            exchange.getResponseBody().write(response);
+            exchange.close();
+        });
+        owner.start();
+        when(clusterMembership.isEnabled()).thenReturn(true);
+        when(clusterMembership.getSelf()).thenReturn(SELF);
+        when(clusterMembership.ownerOf(EMAIL)).thenReturn("http://127.0.0.1:" + owner.getAddress().getPort());
+        ReflectionTestUtils.setField(interceptor, "clusterMembership", clusterMembership);
+        ReflectionTestUtils.setField(interceptor, "secret", "cluster-secret");
+        ReflectionTestUtils.setField(interceptor, "forwardTimeoutMillis", 5000L);
+    }
+
+    @AfterEach
+    void tearDown() {
+        owner.stop(0);
+    }
+
+    @Test
+    void writesAreForwardedWithTheirBody() throws Exception {
+        MockHttpServletRequest request = request("PUT", "/api/expenses/1");
+        request.setContentType("application/json");
+        request.setContent("{\"amount\":5}".getBytes(StandardCharsets.UTF_8));
+        MockHttpServletResponse response = new MockHttpServletResponse();
+
+        assertThat(interceptor.preHandle(request, response, handler("routed"))).isFalse();
+
+        assertThat(received.get()).isEqualTo("PUT /api/expenses/1 cluster-secret application/json {\"amount\":5}");
+        assertThat(response.getStatus()).isEqualTo(200);
+        assertThat(response.getContentAsString()).isEqualTo("{\"id\":1}");
+    }
+
+    @Test
+    void readsAreForwardedWithoutABody() throws Exception {
+        MockHttpServletRequest request = request("GET", "/api/expenses/tags");
+        request.setQueryString("limit=5");
+
+        assertThat(interceptor.preHandle(request, new MockHttpServletResponse(), handler("routed"))).isFalse();
+
+        assertThat(received.get()).isEqualTo("GET /api/expenses/tags?limit=5 cluster-secret null ");
+    }
+
+    @Test
+    void forwardedAndUnmarkedRequestsAreServedHere() throws Exception {
+        MockHttpServletRequest forwarded = request("POST", "/api/expenses");
+        forwarded.addHeader(OwnerRoutingInterceptor.FORWARDED_HEADER, "cluster-secret");
+        MockHttpServletResponse response = new MockHttpServletResponse();
+
+        assertThat(interceptor.preHandle(forwarded, response, handler("routed"))).isTrue();
+        assertThat(response.getHeader(OwnerRoutingInterceptor.NODE_HEADER)).isEqualTo(SELF);
+        assertThat(interceptor.preHandle(request("POST", "/api/expenses"), new MockHttpServletResponse(), handler("local"))).isTrue();
+        assertThat(received.get()).isNull();
+    }
+
+    @Test
+    void writesFallBackLocallyOnlyWhenTheOwnerIsUnreachable() throws Exception {
+        owner.stop(0);
+        MockHttpServletResponse response = new MockHttpServletResponse();
+
+        assertThat(interceptor.preHandle(request("DELETE", "/api/expenses/1"), response, handler("routed"))).isTrue();
+        assertThat(response.getHeader(OwnerRoutingInterceptor.NODE_HEADER)).isEqualTo(SELF);
+    }
+
+    private static MockHttpServletRequest request(String method, String uri) {
+        MockHttpServletRequest request = new MockHttpServletRequest(method, uri);
+        request.setAttribute("userEmail", EMAIL);
+        return request;
+    }
+
+    private static HandlerMethod handler(String name) throws NoSuchMethodException {
+        return new HandlerMethod(new Handlers(), Handlers.class.getMethod(name));
+    }
+}
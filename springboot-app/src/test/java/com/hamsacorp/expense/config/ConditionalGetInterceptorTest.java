@@ -0,0 +1,104 @@
+package com.hamsacorp.expense.config;
+
+import com.hamsacorp.expense.TestUsers;
+import com.hamsacorp.expense.service.AuthService;
+import com.hamsacorp.expense.service.ExpenseService;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.web.servlet.AutoConfigureMockMvc;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.mock.web.MockHttpServletResponse;
+import org.springframework.test.web.servlet.MockMvc;
+
+import java.time.LocalDate;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
+
+/** If-None-Match revalidation of a versioned resource: 304 while the user's data is unchanged. */
+@SpringBootTest
+@AutoConfigureMockMvc
+class ConditionalGetInterceptorTest {
+
+    private static final String DETAILS = "/api/expenses/custom-range-details?startDate=2024-01-01&endDate=2024-12-31";
+
+    @Autowired
+    private MockMvc mockMvc;
+
+    @Autowired
+    private AuthService authService;
+
+    @Autowired
+    private ExpenseService expenseService;
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    private String email;
+    private String token;
+
+    @BeforeEach
+    void setUp() {
+        email = TestUsers.register(authService, "etag");
+        token = authService.generateJwtToken(email);
+        expenseService.saveExpense(TestUsers.expense(email, LocalDate.of(2024, 3, 1), 25, "Food"));
+    }
+
+    @AfterEach
+    void tearDown() {
+        TestUsers.delete(jdbcTemplate, email);
+    }
+
+    @Test
+    void currentETagIsAnsweredWithNotModified() throws Exception {
+        String etag = fetch("application/json", null).getHeader("ETag");
+
+        MockHttpServletResponse revalidated = fetch("application/json", etag);
+
+        assertThat(revalidated.getStatus()).isEqualTo(304);
+        assertThat(revalidated.getHeader("ETag")).isEqualTo(etag);
+        assertThat(revalidated.getContentAsByteArray()).isEmpty();
+    }
+
+    @Test
+    void staleETagAfterAWriteGetsTheNewBody() throws Exception {
+        String etag = fetch("application/json", null).getHeader("ETag");
+        expenseService.saveExpense(TestUsers.expense(email, LocalDate.of(2024, 3, 2), 40, "Travel"));
+
+        MockHttpServletResponse response = fetch("application/json", etag);
+
+        assertThat(response.getStatus()).isEqualTo(200);
+        assertThat(response.getHeader("ETag")).isNotEqualTo(etag);
+        assertThat(response.getContentAsString()).contains("Travel");
+    }
+
+    @Test
+    void compressedAndWeakenedFormsOfTheCurrentETagMatch() throws Exception {
+        String etag = fetch("application/json", null).getHeader("ETag");
+        String gzipped = etag.replaceAll("\"$", ResponseCompressionFilter.GZIP_ETAG_SUFFIX + "\"");
+
+        assertThat(fetch("application/json", gzipped).getStatus()).isEqualTo(304);
+        assertThat(fetch("application/json", "W/" + gzipped).getStatus()).isEqualTo(304);
+        assertThat(fetch("application/json", "\"other\", " + etag).getStatus()).isEqualTo(304);
+    }
+
+    @Test
+    void tagOfAnotherEncodingDoesNotMatch() throws Exception {
+        String cbor = fetch("application/cbor", null).getHeader("ETag");
+
+        assertThat(cbor).endsWith("-cbor\"");
+        assertThat(fetch("application/json", cbor).getStatus()).isEqualTo(200);
+        assertThat(fetch("application/cbor", cbor).getStatus()).isEqualTo(304);
+    }
+
+    private MockHttpServletResponse fetch(String accept, String ifNoneMatch) throws Exception {
+        var request = get(DETAILS).header("Authorization", "Bearer " + token).header("Accept", accept);
+        if (ifNoneMatch != null) {
+            request.header("If-None-Match", ifNoneMatch);
+        }
+        return mockMvc.perform(request).andReturn().getResponse();
+    }
+}
@@ -0,0 +1,122 @@
+package com.hamsacorp.expense.config;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.hamsacorp.expense.TestUsers;
+import com.hamsacorp.expense.service.AuthService;
+import com.hamsacorp.expense.service.ExpenseService;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.web.servlet.AutoConfigureMockMvc;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.http.converter.cbor.MappingJackson2CborHttpMessageConverter;
+import org.springframework.http.converter.smile.MappingJackson2SmileHttpMessageConverter;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.mock.web.MockHttpServletResponse;
+import org.springframework.test.web.servlet.MockMvc;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.time.LocalDate;
+import java.util.zip.GZIPInputStream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
+
+/**
+ * The dashboard payloads in CBOR and Smile carry the same data as JSON, and large responses are
+ * gzipped with a representation-specific ETag.
+ */
+@SpringBootTest
+@AutoConfigureMockMvc
+class EncodingNegotiationTest {
+
+    private static final String DETAILS = "/api/expenses/custom-range-details?startDate=2024-01-01&endDate=2024-12-31";
+
+    @Autowired
+    private MockMvc mockMvc;
+
+    @Autowired
+    private AuthService authService;
+
+    @Autowired
+    private ExpenseService expenseService;
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    @Autowired
+    private ObjectMapper jsonMapper;
+
+    @Autowired
+    private MappingJackson2CborHttpMessageConverter cborConverter;
+
+    @Autowired
+    private MappingJackson2SmileHttpMessageConverter smileConverter;
+
+    private String email;
+    private String token;
+
+    @BeforeEach
+    void setUp() {
+        email = TestUsers.register(authService, "encoding");
+        token = authService.generateJwtToken(email);
+        String[] categories = {"Food", "Transport", "Rent", "Fun"};
+        for (int day = 0; day < 120; day++) {
+            LocalDate date = LocalDate.of(2024, 1, 1).plusDays(day * 3L);
+            expenseService.saveExpense(TestUsers.expense(email, date, 10 + day, categories[day % categories.length]));
+        }
+    }
+
+    @AfterEach
+    void tearDown() {
+        TestUsers.delete(jdbcTemplate, email);
+    }
+
+    @Test
+    void binaryEncodingsCarryTheJsonPayload() throws Exception {
+        MockHttpServletResponse json = fetch("application/json", null);
+        MockHttpServletResponse cbor = fetch("application/cbor", null);
+        MockHttpServletResponse smile = fetch("application/x-jackson-smile", null);
+
+        assertThat(cbor.getContentType()).startsWith("application/cbor");
+        assertThat(smile.getContentType()).startsWith("application/x-jackson-smile");
+        JsonNode expected = jsonMapper.readTree(json.getContentAsByteArray());
+        assertThat(cborConverter.getObjectMapper().readTree(cbor.getContentAsByteArray())).isEqualTo(expected);
+        assertThat(smileConverter.getObjectMapper().readTree(smile.getContentAsByteArray())).isEqualTo(expected);
+
+        assertThat(cbor.getContentAsByteArray().length).isLessThan(json.getContentAsByteArray().length);
+        assertThat(smile.getContentAsByteArray().length).isLessThan(json.getContentAsByteArray().length);
+        assertThat(cbor.getHeader("ETag")).isNotEqualTo(json.getHeader("ETag")).isNotEqualTo(smile.getHeader("ETag"));
+        assertThat(json.getHeaders("Vary")).contains("Accept");
+    }
+
+    @Test
+    void largeResponsesAreGzipped() throws Exception {
+        MockHttpServletResponse plain = fetch("application/json", null);
+        MockHttpServletResponse gzipped = fetch("application/json", "gzip");
+
+        assertThat(plain.getContentAsByteArray().length).isGreaterThan(2048);
+        assertThat(gzipped.getHeader("Content-Encoding")).isEqualTo("gzip");
+        assertThat(gzipped.getHeader("ETag")).isEqualTo(plain.getHeader("ETag").replaceAll("\"$", "-gzip\""));
+        assertThat(gunzip(gzipped.getContentAsByteArray())).isEqualTo(plain.getContentAsByteArray());
+    }
+
+    private MockHttpServletResponse fetch(String accept, String acceptEncoding) throws Exception {
+        var request = get(DETAILS).header("Authorization", "Bearer " + token).header("Accept", accept);
+        if (acceptEncoding != null) {
+            request.header("Accept-Encoding", acceptEncoding);
+        }
+        MockHttpServletResponse response = mockMvc.perform(request).andReturn().getResponse();
+        assertThat(response.getStatus()).isEqualTo(200);
+        return response;
+    }
+
+    private static byte[] gunzip(byte[] data) throws IOException {
+        try (GZIPInputStream in = new GZIPInputStream(new ByteArrayInputStream(data))) {
+            return in.readAllBytes();
+        }
+    }
+}
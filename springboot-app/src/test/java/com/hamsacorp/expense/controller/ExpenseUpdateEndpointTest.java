@@ -0,0 +1,100 @@
+package com.hamsacorp.expense.controller;
+
+import com.hamsacorp.expense.TestUsers;
+import com.hamsacorp.expense.model.Expense;
+import com.hamsacorp.expense.service.AuthService;
+import com.hamsacorp.expense.service.ExpenseService;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.web.servlet.AutoConfigureMockMvc;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.http.MediaType;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.ResultActions;
+
+import java.time.LocalDate;
+import java.util.Map;
+import java.util.Set;
+
+import static org.hamcrest.Matchers.containsInAnyOrder;
+import static org.hamcrest.Matchers.notNullValue;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.put;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.jsonPath;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
+
+/** PUT /api/expenses/{id} answers with the row as written, or why nothing was. */
+@SpringBootTest
+@AutoConfigureMockMvc
+class ExpenseUpdateEndpointTest {
+
+    @Autowired
+    private MockMvc mockMvc;
+
+    @Autowired
+    private AuthService authService;
+
+    @Autowired
+    private ExpenseService expenseService;
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    private String email;
+    private Expense saved;
+
+    @BeforeEach
+    void setUp() {
+        email = TestUsers.register(authService, "update");
+        Expense expense = TestUsers.expense(email, LocalDate.of(2024, 6, 1), 42.5, "Food");
+        expense.setTags(Set.of("lunch"));
+        saved = expenseService.saveExpense(expense);
+    }
+
+    @AfterEach
+    void tearDown() {
+        TestUsers.delete(jdbcTemplate, email);
+    }
+
+    @Test
+    void returnsTheWrittenRow() throws Exception {
+        update(email, saved.getId(), 0L)
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.version").value(1))
+                .andExpect(jsonPath("$.amount").value(99.0))
+                .andExpect(jsonPath("$.tags", containsInAnyOrder("lunch")))
+                .andExpect(jsonPath("$.createdAt", notNullValue()))
+                .andExpect(jsonPath("$.updatedAt", notNullValue()));
+        Map<String, Object> stored = jdbcTemplate.queryForMap("SELECT change_seq FROM expenses WHERE id = ?", saved.getId());
+
+        update(email, saved.getId(), 1L)
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.version").value(2))
+                .andExpect(jsonPath("$.changeSeq").value((Long) stored.get("change_seq") + 1));
+    }
+
+    @Test
+    void explainsARejectedWrite() throws Exception {
+        update(email, saved.getId(), 5L)
+                .andExpect(status().isConflict())
+                .andExpect(jsonPath("$.currentVersion").value(0));
+        String other = TestUsers.register(authService, "update-other");
+        try {
+            update(other, saved.getId(), null).andExpect(status().isForbidden());
+        } finally {
+            TestUsers.delete(jdbcTemplate, other);
+        }
+        update(email, -1L, null).andExpect(status().isNotFound());
+    }
+
+    private ResultActions update(String user, Long id, Long version) throws Exception {
+        String body = "{\"type\":\"EXPENSE\",\"description\":\"Train\",\"amount\":99.0,\"date\":\"2024-06-02\","
+                + "\"category\":\"Travel\",\"paymentMethod\":\"Card\"" + (version != null ? ",\"version\":" + version : "") + "}";
+        return mockMvc.perform(put("/api/expenses/" + id)
+                .header("Authorization", "Bearer " + authService.generateJwtToken(user))
+                .contentType(MediaType.APPLICATION_JSON)
+                .content(body));
+    }
+}
@@ -0,0 +1,142 @@
+package com.hamsacorp.expense.repository;
+
+import com.hamsacorp.expense.TestUsers;
+import com.hamsacorp.expense.model.Expense;
+import com.hamsacorp.expense.service.AuthService;
+import com.hamsacorp.expense.service.ExpenseService;
+import com.hamsacorp.expense.tracing.QueryTrace;
+import org.assertj.core.api.InstanceOfAssertFactories;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.jdbc.core.JdbcTemplate;
+
+import java.sql.Timestamp;
+import java.time.LocalDate;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+
+import static com.hamsacorp.expense.tracing.QueryTraces.assertStatementCount;
+import static com.hamsacorp.expense.tracing.QueryTraces.capture;
+import static org.assertj.core.api.Assertions.assertThat;
+
+/** The single-statement update and delete CTEs against the database. */
+@SpringBootTest
+class ExpenseConditionalWritesTest {
+
+    @Autowired
+    private ExpenseRepository expenseRepository;
+
+    @Autowired
+    private ExpenseService expenseService;
+
+    @Autowired
+    private AuthService authService;
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    private String email;
+    private Expense saved;
+
+    @BeforeEach
+    void setUp() {
+        email = TestUsers.register(authService, "writes");
+        Expense expense = TestUsers.expense(email, LocalDate.of(2024, 6, 1), 42.5, "Food");
+        expense.setTags(Set.of("lunch", "work"));
+        saved = expenseService.saveExpense(expense);
+    }
+
+    @AfterEach
+    void tearDown() {
+        TestUsers.delete(jdbcTemplate, email);
+    }
+
+    @Test
+    void updateReturnsThePreviousRowAndCompletesTheWrittenOne() throws Exception {
+        Map<String, Object> stored = storedRow();
+        Expense updated = changed(saved.getVersion());
+        updated.setTags(Set.of("work", "client"));
+
+        QueryTrace trace = capture(() -> assertThat(expenseRepository.updateIfCurrent(updated)).get()
+                .satisfies(before -> {
+                    assertThat(before.getAmount()).isEqualTo(42.5);
+                    assertThat(before.getCategory()).isEqualTo("Food");
+                    assertThat(before.getTags()).containsExactlyInAnyOrder("lunch", "work");
+                    assertThat(before.getVersion()).isZero();
+                    assertThat(before.getChangeSeq()).isEqualTo(stored.get("change_seq"));
+                }));
+
+        assertStatementCount(trace, 1);
+        Map<String, Object> written = storedRow();
+        assertThat(written).containsEntry("amount", 99.0).containsEntry("category", "Travel").containsEntry("version", 1L);
+        assertThat(updated.getVersion()).isEqualTo(1);
+        assertThat(updated.getChangeSeq()).isEqualTo(written.get("change_seq")).isGreaterThan((Long) stored.get("change_seq"));
+        assertThat(updated.getUpdatedAt()).isEqualTo(((Timestamp) written.get("updated_at")).toLocalDateTime());
+        assertThat(updated.getCreatedAt()).isEqualTo(((Timestamp) stored.get("created_at")).toLocalDateTime());
+        assertThat(tags()).containsExactlyInAnyOrder("work", "client");
+    }
+
+    @Test
+    void updateWithoutTagsKeepsThem() {
+        Expense updated = changed(null);
+
+        assertThat(expenseRepository.updateIfCurrent(updated)).isPresent();
+
+        assertThat(updated.getTags()).containsExactlyInAnyOrder("lunch", "work");
+        assertThat(tags()).containsExactlyInAnyOrder("lunch", "work");
+    }
+
+    @Test
+    void updateWithAStaleVersionOrAnotherOwnerWritesNothing() {
+        Map<String, Object> stored = storedRow();
+        Expense stale = changed(saved.getVersion() + 1);
+        Expense foreign = changed(null);
+        foreign.setCreatedBy("someone-else@example.com");
+
+        assertThat(expenseRepository.updateIfCurrent(stale)).isEmpty();
+        assertThat(expenseRepository.updateIfCurrent(foreign)).isEmpty();
+
+        assertThat(storedRow()).isEqualTo(stored);
+        assertThat(tags()).containsExactlyInAnyOrder("lunch", "work");
+    }
+
+    @Test
+    void deleteRemovesTheRowAndItsTagsOnlyWhenCurrent() throws Exception {
+        assertThat(expenseRepository.deleteIfCurrent(saved.getId(), email, saved.getVersion() + 1)).isEmpty();
+        assertThat(expenseRepository.deleteIfCurrent(saved.getId(), "someone-else@example.com", null)).isEmpty();
+        assertThat(expenseRepository.findById(saved.getId())).isPresent();
+
+        QueryTrace trace = capture(() -> {
+            Optional<Expense> removed = expenseRepository.deleteIfCurrent(saved.getId(), email, saved.getVersion());
+            assertThat(removed).get().extracting(Expense::getTags).asInstanceOf(InstanceOfAssertFactories.ITERABLE)
+                    .containsExactlyInAnyOrder("lunch", "work");
+        });
+
+        assertStatementCount(trace, 1);
+        assertThat(expenseRepository.findById(saved.getId())).isEmpty();
+        assertThat(tags()).isEmpty();
+        assertThat(jdbcTemplate.queryForObject("SELECT count(*) FROM expense_tombstones WHERE created_by = ? AND expense_id = ?",
+                Long.class, email, saved.getId())).isEqualTo(1);
+    }
+
+    private Expense changed(Long version) {
+        Expense updated = TestUsers.expense(email, LocalDate.of(2024, 6, 2), 99, "Travel");
+        updated.setId(saved.getId());
+        updated.setVersion(version);
+        return updated;
+    }
+
+    private Map<String, Object> storedRow() {
+        return jdbcTemplate.queryForMap("SELECT amount, category, version, change_seq, updated_at, created_at FROM expenses WHERE id = ?",
+                saved.getId());
+    }
+
+    private List<String> tags() {
+        return jdbcTemplate.queryForList("SELECT tag FROM expense_tags WHERE expense_id = ?", String.class, saved.getId());
+    }
+}
@@ -0,0 +1,86 @@
+package com.hamsacorp.expense.repository;
+
+import com.hamsacorp.expense.model.User;
+import com.hamsacorp.expense.tracing.QueryTrace;
+import jakarta.persistence.EntityManagerFactory;
+import org.hibernate.SessionFactory;
+import org.hibernate.stat.Statistics;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+
+import java.util.UUID;
+
+import static com.hamsacorp.expense.tracing.QueryTraces.assertStatementCount;
+import static com.hamsacorp.expense.tracing.QueryTraces.capture;
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Repeated user lookups are answered from the second-level, natural-id and query caches
+ * (statistics are only collected here, not in the application).
+ */
+@SpringBootTest(properties = {
+        "spring.jpa.properties.hibernate.generate_statistics=true",
+        "logging.level.org.hibernate.engine.internal.StatisticalLoggingSessionEventListener=WARN"
+})
+class UserCacheTest {
+
+    @Autowired
+    private UserRepository userRepository;
+
+    @Autowired
+    private EntityManagerFactory entityManagerFactory;
+
+    private Statistics statistics;
+    private User user;
+
+    @BeforeEach
+    void setUp() {
+        statistics = entityManagerFactory.unwrap(SessionFactory.class).getStatistics();
+        user = userRepository.save(new User(null, "cache-" + UUID.randomUUID() + "@example.com", "secret1", "Cache", "Test", null, null));
+        statistics.clear();
+    }
+
+    @AfterEach
+    void tearDown() {
+        userRepository.delete(user);
+    }
+
+    @Test
+    void repeatedNaturalIdLookupIsServedFromCache() throws Exception {
+        assertThat(userRepository.loadByEmail(user.getEmail())).isPresent();
+
+        QueryTrace trace = capture(() ->
+                assertThat(userRepository.loadByEmail(user.getEmail())).get().extracting(User::getId).isEqualTo(user.getId()));
+
+        assertStatementCount(trace, 0);
+        assertThat(statistics.getNaturalIdCacheHitCount()).isPositive();
+        assertThat(statistics.getSecondLevelCacheHitCount()).isPositive();
+    }
+
+    @Test
+    void repeatedExistsCheckIsServedFromQueryCache() throws Exception {
+        String unknown = "missing-" + UUID.randomUUID() + "@example.com";
+        assertThat(userRepository.existsByEmail(unknown)).isFalse();
+
+        QueryTrace trace = capture(() -> assertThat(userRepository.existsByEmail(unknown)).isFalse());
+
+        assertStatementCount(trace, 0);
+        assertThat(statistics.getQueryCacheHitCount()).isEqualTo(1);
+    }
+
+    @Test
+    void writingAUserInvalidatesTheCachedQuery() {
+        String email = "new-" + UUID.randomUUID() + "@example.com";
+        assertThat(userRepository.existsByEmail(email)).isFalse();
+
+        User created = userRepository.save(new User(null, email, "secret1", "Cache", "Test", null, null));
+        try {
+            assertThat(userRepository.existsByEmail(email)).isTrue();
+        } finally {
+            userRepository.delete(created);
+        }
+    }
+}
@@ -0,0 +1,195 @@
+package com.hamsacorp.expense.service;
+
+import com.hamsacorp.expense.model.Expense;
+import com.hamsacorp.expense.repository.ExpenseAnomalyRepository;
+import com.hamsacorp.expense.repository.ExpenseStatsRepository;
+import com.hamsacorp.expense.repository.ExpenseStatsRepository.Stat;
+import com.hamsacorp.expense.sharding.ShardWriteGuard;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.transaction.PlatformTransactionManager;
+
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.within;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+/**
+ * The running statistics against a brute-force mean and variance over the same expenses, as kept up
+ * to date by creates, updates and deletes (Welford's update and its reverse) and by folding each
+ * day's total into its day of week once a later day is written.
+ */
+class AnomalyDetectionServiceTest {
+
+    private static final String EMAIL = "anomalies@example.com";
+    private static final List<String> CATEGORIES = List.of("Food", "Travel", "Rent");
+
+    private final ExpenseStatsRepository statsRepository = mock(ExpenseStatsRepository.class);
+    private final ExpenseAnomalyRepository anomalyRepository = mock(ExpenseAnomalyRepository.class);
+    private final Random random = new Random(42);
+
+    // What expense_stats holds
+    private final Map<String, Stat> stats = new HashMap<>();
+    // The user's current expenses by id
+    private final Map<Long, Expense> expenses = new LinkedHashMap<>();
+    private AnomalyDetectionService service;
+    private long nextId = 1;
+
+    @BeforeEach
+    @SuppressWarnings("unchecked")
+    void setUp() {
+        service = new AnomalyDetectionService(mock(PlatformTransactionManager.class), 1, 10);
+        ReflectionTestUtils.setField(service, "statsRepository", statsRepository);
+        ReflectionTestUtils.setField(service, "anomalyRepository", anomalyRepository);
+        ReflectionTestUtils.setField(service, "shardWriteGuard", mock(ShardWriteGuard.class));
+        ReflectionTestUtils.setField(service, "zThreshold", 3.0);
+        ReflectionTestUtils.setField(service, "minSamples", 10L);
+        when(statsRepository.findByCreatedBy(EMAIL)).thenAnswer(invocation -> new HashMap<>(stats));
+        doAnswer(invocation -> {
+            stats.putAll(invocation.getArgument(1));
+            return null;
+        }).when(statsRepository).save(eq(EMAIL), any());
+        doAnswer(invocation -> {
+            ((Collection<String>) invocation.getArgument(1)).forEach(stats::remove);
+            return null;
+        }).when(statsRepository).delete(eq(EMAIL), any());
+    }
+
+    @AfterEach
+    void tearDown() throws InterruptedException {
+        service.shutdown();
+    }
+
+    @Test
+    void categoryStatsMatchBruteForce() {
+        for (int i = 0; i < 3000; i++) {
+            int op = expenses.isEmpty() ? 0 : random.nextInt(10);
+            if (op < 6) {
+                apply(null, expense(null, randomCategory(), randomAmount()));
+            } else if (op < 8) {
+                Expense before = randomExpense();
+                apply(before, expense(before.getId(), null, randomCategory(), randomAmount()));
+            } else {
+                apply(randomExpense(), null);
+            }
+        }
+
+        for (String category : CATEGORIES) {
+            assertMatches(stats.get("category:" + category),
+                    expenses.values().stream().filter(e -> e.getCategory().equals(category)).map(Expense::getAmount).toList());
+        }
+    }
+
+    @Test
+    void weekdayStatsMatchBruteForceOverClosedDays() {
+        LocalDate start = LocalDate.of(2024, 1, 1);
+        int days = 120;
+        for (int d = 0; d < days; d++) {
+            LocalDate date = start.plusDays(d);
+            List<Expense> today = new ArrayList<>();
+            for (int i = 1 + random.nextInt(4); i > 0; i--) {
+                Expense created = expense(date, randomCategory(), randomAmount());
+                apply(null, created);
+                today.add(created);
+                if (random.nextInt(4) == 0) {
+                    apply(today.remove(random.nextInt(today.size())), null);
+                }
+            }
+        }
+
+        // Every day but the last has been closed; a day's total is what is left of it
+        Map<Integer, List<Double>> totals = new HashMap<>();
+        for (int d = 0; d < days - 1; d++) {
+            LocalDate date = start.plusDays(d);
+            double total = expenses.values().stream().filter(e -> e.getDate().equals(date)).mapToDouble(Expense::getAmount).sum();
+            totals.computeIfAbsent(date.getDayOfWeek().getValue(), w -> new ArrayList<>()).add(total);
+        }
+        totals.forEach((weekday, values) -> assertMatches(stats.get("weekday:" + weekday), values));
+        LocalDate last = start.plusDays(days - 1);
+        assertThat(stats.get("open-day").n()).isEqualTo(last.toEpochDay());
+        assertThat(stats.get("open-day").mean()).isCloseTo(
+                expenses.values().stream().filter(e -> e.getDate().equals(last)).mapToDouble(Expense::getAmount).sum(), within(1e-6));
+    }
+
+    @Test
+    void dayIsFlaggedOnceOnTheExpenseThatTakesItOverTheThreshold() {
+        LocalDate monday = LocalDate.of(2024, 1, 1);
+        for (int week = 0; week < 12; week++) {
+            apply(null, expense(monday.plusWeeks(week), "Food", 95 + random.nextInt(10)));
+        }
+        LocalDate spike = monday.plusWeeks(12);
+        List<Expense> spikeDay = new ArrayList<>();
+        for (int i = 0; i < 3; i++) {
+            Expense created = expense(spike, "Food", 60);
+            spikeDay.add(created);
+            apply(null, created);
+        }
+
+        ArgumentCaptor<ExpenseAnomalyRepository.Anomaly> saved = ArgumentCaptor.forClass(ExpenseAnomalyRepository.Anomaly.class);
+        verify(anomalyRepository).save(eq(EMAIL), saved.capture());
+        assertThat(saved.getValue().kind()).isEqualTo(AnomalyDetectionService.WEEKDAY);
+        assertThat(saved.getValue().expenseId()).isEqualTo(spikeDay.get(1).getId());
+        assertThat(saved.getValue().amount()).isEqualTo(120);
+    }
+
+    private void apply(Expense before, Expense after) {
+        ReflectionTestUtils.invokeMethod(service, "apply", EMAIL, before, after);
+        if (before != null) {
+            expenses.remove(before.getId());
+        }
+        if (after != null) {
+            expenses.put(after.getId(), after);
+        }
+    }
+
+    private static void assertMatches(Stat stat, List<Double> values) {
+        double mean = values.stream().mapToDouble(Double::doubleValue).average().orElseThrow();
+        double variance = values.stream().mapToDouble(v -> (v - mean) * (v - mean)).sum() / (values.size() - 1);
+        assertThat(stat.n()).isEqualTo(values.size());
+        assertThat(stat.mean()).isCloseTo(mean, within(1e-6));
+        assertThat(stat.m2() / (stat.n() - 1)).isCloseTo(variance, within(1e-6 * Math.max(1, variance)));
+    }
+
+    private Expense randomExpense() {
+        List<Expense> all = new ArrayList<>(expenses.values());
+        return all.get(random.nextInt(all.size()));
+    }
+
+    private String randomCategory() {
+        return CATEGORIES.get(random.nextInt(CATEGORIES.size()));
+    }
+
+    private double randomAmount() {
+        return Math.round(random.nextDouble() * 100_000) / 100.0;
+    }
+
+    private Expense expense(LocalDate date, String category, double amount) {
+        return expense(nextId++, date, category, amount);
+    }
+
+    private static Expense expense(long id, LocalDate date, String category, double amount) {
+        Expense expense = new Expense();
+        expense.setId(id);
+        expense.setType(Expense.ExpenseType.EXPENSE);
+        expense.setDate(date);
+        expense.setCategory(category);
+        expense.setAmount(amount);
+        return expense;
+    }
+}
@@ -0,0 +1,81 @@
+package com.hamsacorp.expense.service;
+
+import com.hamsacorp.expense.event.ExpenseChangedEvent;
+import com.hamsacorp.expense.model.Expense;
+import com.hamsacorp.expense.repository.ExpenseChangeLogRepository;
+import com.hamsacorp.expense.repository.ExpenseRepository;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.transaction.PlatformTransactionManager;
+
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+/** Which writes reach the loaded suggestions, so none is counted twice. */
+class DescriptionSuggestServiceTest {
+
+    private static final String EMAIL = "suggest@example.com";
+
+    private final ExpenseRepository expenseRepository = mock(ExpenseRepository.class);
+    private final ExpenseChangeLogRepository changeLogRepository = mock(ExpenseChangeLogRepository.class);
+    private final DataVersionService dataVersionService = mock(DataVersionService.class);
+    private final List<Expense> history = new ArrayList<>();
+    private final LocalDate today = LocalDate.now();
+    private DescriptionSuggestService service;
+    private long changeSeq;
+
+    @BeforeEach
+    void setUp() {
+        service = new DescriptionSuggestService(mock(PlatformTransactionManager.class));
+        ReflectionTestUtils.setField(service, "expenseRepository", expenseRepository);
+        ReflectionTestUtils.setField(service, "changeLogRepository", changeLogRepository);
+        ReflectionTestUtils.setField(service, "dataVersionService", dataVersionService);
+        ReflectionTestUtils.setField(service, "historyDays", 730);
+        ReflectionTestUtils.setField(service, "maxMemoryMb", 32L);
+        when(expenseRepository.findAllByCreatedByAndDateBetweenOrderByDateDesc(eq(EMAIL), any(), any()))
+                .thenAnswer(invocation -> new ArrayList<>(history));
+        when(changeLogRepository.findCounters(EMAIL)).thenAnswer(invocation -> new long[] {changeSeq, 0});
+    }
+
+    @Test
+    void writesAlreadyInTheHistoryAreNotCountedAgain() {
+        history.add(expense(today.minusDays(1), "Coffee shop", "Food"));
+        // Committed before the history query, its event delivered after it
+        Expense raced = expense(today, "Coffee shop", "Food");
+        history.add(0, raced);
+        changeSeq = 2;
+        assertThat(suggestion("cof").get("count")).isEqualTo(2);
+
+        service.onExpenseChanged(new ExpenseChangedEvent(EMAIL, null, raced, 1, 2));
+        assertThat(suggestion("cof").get("count")).isEqualTo(2);
+
+        service.onExpenseChanged(new ExpenseChangedEvent(EMAIL, null, expense(today, "Coffee shop", "Work"), 2, 3));
+        assertThat(suggestion("cof").get("count")).isEqualTo(3);
+    }
+
+    private Map<String, Object> suggestion(String prefix) {
+        List<Map<String, Object>> suggestions = service.suggest(EMAIL, prefix, 5);
+        assertThat(suggestions).hasSize(1);
+        return suggestions.get(0);
+    }
+
+    private static Expense expense(LocalDate day, String description, String category) {
+        Expense expense = new Expense();
+        expense.setCreatedBy(EMAIL);
+        expense.setType(Expense.ExpenseType.EXPENSE);
+        expense.setDate(day);
+        expense.setDescription(description);
+        expense.setCategory(category);
+        expense.setAmount(4.5);
+        return expense;
+    }
+}
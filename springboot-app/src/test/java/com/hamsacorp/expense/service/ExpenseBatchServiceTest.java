@@ -0,0 +1,128 @@
+package com.hamsacorp.expense.service;
+
+import com.hamsacorp.expense.TestUsers;
+import com.hamsacorp.expense.event.ExpenseChangedEvent;
+import com.hamsacorp.expense.model.Expense;
+import com.hamsacorp.expense.model.ExpenseBatchOperation;
+import com.hamsacorp.expense.repository.ExpenseChangeLogRepository;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.test.context.event.ApplicationEvents;
+import org.springframework.test.context.event.RecordApplicationEvents;
+
+import java.time.LocalDate;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/** All-or-nothing batches and idempotency keys against the database. */
+@SpringBootTest
+@RecordApplicationEvents
+class ExpenseBatchServiceTest {
+
+    @Autowired
+    private ExpenseBatchService expenseBatchService;
+
+    @Autowired
+    private ExpenseService expenseService;
+
+    @Autowired
+    private ExpenseChangeLogRepository changeLogRepository;
+
+    @Autowired
+    private AuthService authService;
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    @Autowired
+    private ApplicationEvents events;
+
+    private String email;
+    private Expense saved;
+
+    @BeforeEach
+    void setUp() {
+        email = TestUsers.register(authService, "batch");
+        saved = expenseService.saveExpense(TestUsers.expense(email, LocalDate.of(2024, 6, 1), 10, "Food"));
+        events.clear();
+    }
+
+    @AfterEach
+    void tearDown() {
+        TestUsers.delete(jdbcTemplate, email);
+    }
+
+    @Test
+    void appliedBatchPublishesItsChangesAfterCommitWithOneChangeSequence() {
+        ExpenseBatchService.BatchResult result = expenseBatchService.apply(email, List.of(
+                create("a", 20), create(null, 30), delete(null, saved.getId())));
+
+        assertThat(result.status()).isEqualTo(200);
+        assertThat(result.results()).extracting(r -> r.get("status")).containsExactly(201, 201, 204);
+        assertThat(amounts()).containsExactly(20.0, 30.0);
+        List<ExpenseChangedEvent> published = events.stream(ExpenseChangedEvent.class).toList();
+        assertThat(published).extracting(ExpenseChangedEvent::getOperation).containsExactlyInAnyOrder(
+                ExpenseChangedEvent.Operation.CREATED, ExpenseChangedEvent.Operation.CREATED, ExpenseChangedEvent.Operation.DELETED);
+        assertThat(published).extracting(ExpenseChangedEvent::getChangeSeq).containsOnly(changeLogRepository.findCounters(email)[0]);
+    }
+
+    @Test
+    void keyedOperationsAreReplayedInsteadOfAppliedAgain() {
+        ExpenseBatchService.BatchResult first = expenseBatchService.apply(email, List.of(create("a", 20)));
+        events.clear();
+
+        ExpenseBatchService.BatchResult retry = expenseBatchService.apply(email, List.of(create("a", 20), create("b", 30)));
+
+        assertThat(retry.status()).isEqualTo(200);
+        assertThat(retry.results().get(0)).containsEntry("replayed", true).containsEntry("status", 201);
+        assertThat(((Number) retry.results().get(0).get("id")).longValue()).isEqualTo(first.results().get(0).get("id"));
+        assertThat(retry.results().get(1)).containsEntry("status", 201).doesNotContainKey("replayed");
+        assertThat(amounts()).containsExactly(10.0, 20.0, 30.0);
+        assertThat(events.stream(ExpenseChangedEvent.class)).hasSize(1);
+    }
+
+    @Test
+    void failedOperationRollsBackTheOthersAndStoresNothing() {
+        ExpenseBatchService.BatchResult result = expenseBatchService.apply(email, List.of(
+                create("a", 20), delete("b", saved.getId()), delete("c", saved.getId() + 1_000_000)));
+
+        assertThat(result.status()).isEqualTo(404);
+        assertThat(result.results()).extracting(r -> r.get("status")).containsExactly(
+                ExpenseBatchService.FAILED_DEPENDENCY, ExpenseBatchService.FAILED_DEPENDENCY, 404);
+        assertThat(result.results().get(2)).containsEntry("index", 2).containsKey("error");
+        assertThat(amounts()).containsExactly(10.0);
+        assertThat(jdbcTemplate.queryForObject("SELECT count(*) FROM expense_batch_idempotency WHERE created_by = ?",
+                Long.class, email)).isZero();
+        assertThat(events.stream(ExpenseChangedEvent.class)).isEmpty();
+
+        // Nothing was recorded under the keys, so a corrected retry applies them
+        ExpenseBatchService.BatchResult retry = expenseBatchService.apply(email, List.of(create("a", 20), delete("b", saved.getId())));
+        assertThat(retry.results()).noneMatch(r -> r.containsKey("replayed"));
+        assertThat(amounts()).containsExactly(20.0);
+    }
+
+    private List<Double> amounts() {
+        return jdbcTemplate.queryForList("SELECT amount FROM expenses WHERE created_by = ? ORDER BY amount", Double.class, email);
+    }
+
+    private ExpenseBatchOperation create(String key, double amount) {
+        ExpenseBatchOperation operation = new ExpenseBatchOperation();
+        operation.setOp("create");
+        operation.setIdempotencyKey(key);
+        operation.setExpense(TestUsers.expense(email, LocalDate.of(2024, 6, 2), amount, "Travel"));
+        return operation;
+    }
+
+    private static ExpenseBatchOperation delete(String key, long id) {
+        ExpenseBatchOperation operation = new ExpenseBatchOperation();
+        operation.setOp("delete");
+        operation.setIdempotencyKey(key);
+        operation.setId(id);
+        return operation;
+    }
+}
@@ -0,0 +1,88 @@
+package com.hamsacorp.expense.service;
+
+import com.hamsacorp.expense.TestUsers;
+import com.hamsacorp.expense.model.Expense;
+import com.hamsacorp.expense.repository.ExpenseAnomalyRepository;
+import com.hamsacorp.expense.tracing.QueryTrace;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.jdbc.core.JdbcTemplate;
+
+import java.time.LocalDate;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import static com.hamsacorp.expense.tracing.QueryTraces.capture;
+import static org.assertj.core.api.Assertions.assertThat;
+
+/** Flagged expenses of several dashboard widgets come from one query, split by each widget's range. */
+@SpringBootTest
+class ExpenseDashboardTest {
+
+    private static final LocalDate DAY = LocalDate.of(2024, 6, 15);
+
+    @Autowired
+    private ExpenseService expenseService;
+
+    @Autowired
+    private ExpenseAnomalyRepository anomalyRepository;
+
+    @Autowired
+    private AuthService authService;
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    private String email;
+    private Expense sameDay;
+    private Expense sameMonth;
+    private Expense sameYear;
+
+    @BeforeEach
+    void setUp() {
+        email = TestUsers.register(authService, "dashboard");
+        sameDay = flagged(DAY);
+        sameMonth = flagged(DAY.withDayOfMonth(2));
+        sameYear = flagged(DAY.withMonth(2));
+        flagged(DAY.minusYears(1));
+    }
+
+    @AfterEach
+    void tearDown() {
+        TestUsers.delete(jdbcTemplate, email);
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    void anomaliesAreReadOnceAndSplitPerWidget() throws Exception {
+        Set<String> widgets = Set.of("daily", "monthly", "yearly");
+        expenseService.getDashboard(email, widgets, DAY, DAY.getYear(), DAY.getMonthValue());
+
+        Map<String, Object>[] dashboard = new Map[1];
+        QueryTrace trace = capture(() -> dashboard[0] = expenseService.getDashboard(email, widgets, DAY, DAY.getYear(), DAY.getMonthValue()));
+
+        assertThat(trace.getStatements()).filteredOn(sql -> sql.contains("expense_anomalies")).hasSize(1);
+        assertThat(ids(dashboard[0], "daily")).containsExactly(sameDay.getId());
+        assertThat(ids(dashboard[0], "monthly")).containsExactly(sameDay.getId(), sameMonth.getId());
+        assertThat(ids(dashboard[0], "yearly")).containsExactly(sameDay.getId(), sameMonth.getId(), sameYear.getId());
+    }
+
+    private Expense flagged(LocalDate date) {
+        Expense expense = expenseService.saveExpense(TestUsers.expense(email, date, 500, "Food"));
+        anomalyRepository.save(email, new ExpenseAnomalyRepository.Anomaly(expense.getId(), "category", "Food", date,
+                500, 20, 5, 96, null));
+        return expense;
+    }
+
+    @SuppressWarnings("unchecked")
+    private static List<Long> ids(Map<String, Object> dashboard, String widget) {
+        Map<String, Object> detail = (Map<String, Object>) dashboard.get(widget);
+        return ((List<ExpenseAnomalyRepository.Anomaly>) detail.get("anomalies")).stream()
+                .map(ExpenseAnomalyRepository.Anomaly::expenseId)
+                .toList();
+    }
+}
@@ -0,0 +1,114 @@
+package com.hamsacorp.expense.service;
+
+import com.hamsacorp.expense.model.Expense;
+import com.hamsacorp.expense.tracing.QueryTrace;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.Arguments;
+import org.junit.jupiter.params.provider.MethodSource;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.data.jpa.domain.Specification;
+import org.springframework.jdbc.core.JdbcTemplate;
+
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.Statement;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.stream.Stream;
+
+import static com.hamsacorp.expense.tracing.QueryTraces.capture;
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Every common filter combination and sort of GET /api/expenses can be answered without a sequential
+ * scan of the expenses table. Statements are explained as forced generic plans (the plan a typical
+ * user's parameters get) with enable_seqscan off, so a Seq Scan only shows up when no index applies,
+ * whatever the amount of data in the database.
+ */
+@SpringBootTest
+class ExpenseFilterPlanTest {
+
+    private static final String EMAIL = "plan-check@example.com";
+    private static final String MONTH_START = LocalDate.now().withDayOfMonth(1).toString();
+    private static final String TODAY = LocalDate.now().toString();
+    private static final List<String> CATEGORIES = List.of("Food", "Transport");
+
+    @FunctionalInterface
+    interface Filter {
+        Specification<Expense> build(ExpenseService expenseService);
+    }
+
+    @Autowired
+    private ExpenseService expenseService;
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    static Stream<Arguments> combinations() {
+        List<Arguments> combinations = new ArrayList<>();
+        for (String sort : new String[] {"date,desc", "amount,desc"}) {
+            combinations.add(Arguments.of("owner", sort, (Filter) s -> s.buildExpenseFilter(EMAIL, null, null, null, null, null, null, null)));
+            combinations.add(Arguments.of("owner+dateRange", sort, (Filter) s -> s.buildExpenseFilter(EMAIL, null, null, null, null, null, MONTH_START, TODAY)));
+            combinations.add(Arguments.of("owner+type=EXPENSE", sort, (Filter) s -> s.buildExpenseFilter(EMAIL, "EXPENSE", null, null, null, null, null, null)));
+            combinations.add(Arguments.of("owner+type=INCOME", sort, (Filter) s -> s.buildExpenseFilter(EMAIL, "INCOME", null, null, null, null, null, null)));
+            combinations.add(Arguments.of("owner+categories", sort, (Filter) s -> s.buildExpenseFilter(EMAIL, null, CATEGORIES, null, null, null, null, null)));
+            combinations.add(Arguments.of("owner+paymentMethods", sort, (Filter) s -> s.buildExpenseFilter(EMAIL, null, null, List.of("Card"), null, null, null, null)));
+            combinations.add(Arguments.of("owner+amountRange", sort, (Filter) s -> s.buildExpenseFilter(EMAIL, null, null, null, 100.0, 500.0, null, null)));
+            combinations.add(Arguments.of("owner+type+categories+dateRange", sort, (Filter) s -> s.buildExpenseFilter(EMAIL, "EXPENSE", CATEGORIES, null, null, null, MONTH_START, TODAY)));
+        }
+        return combinations.stream();
+    }
+
+    @ParameterizedTest(name = "{0} sorted by {1}")
+    @MethodSource("combinations")
+    void usesAnIndex(String name, String sort, Filter filter) throws Exception {
+        PageRequest pageable = PageRequest.of(0, 10, ExpenseService.parseExpenseSort(sort));
+        QueryTrace trace = capture(() -> expenseService.findExpenses(filter.build(expenseService), pageable));
+
+        assertThat(trace.getStatements()).isNotEmpty();
+        for (String sql : trace.getStatements()) {
+            assertThat(explainGeneric(sql)).as("Plan of %s", sql).noneMatch(line -> line.contains("Seq Scan on expenses"));
+        }
+    }
+
+    /**
+     * Prepares the statement server-side and explains it with plan_cache_mode forced to generic, so the
+     * plan doesn't depend on the (null) parameter values passed to EXECUTE.
+     */
+    private List<String> explainGeneric(String sql) {
+        return jdbcTemplate.execute((Connection connection) -> {
+            StringBuilder prepared = new StringBuilder();
+            int parameters = 0;
+            for (char c : sql.toCharArray()) {
+                if (c == '?') {
+                    prepared.append('$').append(++parameters);
+                } else {
+                    prepared.append(c);
+                }
+            }
+            List<String> plan = new ArrayList<>();
+            try (Statement statement = connection.createStatement()) {
+                statement.execute("PREPARE plan_check AS " + prepared);
+                try {
+                    statement.execute("SET plan_cache_mode = force_generic_plan");
+                    statement.execute("SET enable_seqscan = off");
+                    String nulls = String.join(", ", Collections.nCopies(parameters, "NULL"));
+                    try (ResultSet rs = statement.executeQuery("EXPLAIN EXECUTE plan_check" + (parameters > 0 ? "(" + nulls + ")" : ""))) {
+                        while (rs.next()) {
+                            plan.add(rs.getString(1));
+                        }
+                    }
+                } finally {
+                    statement.execute("RESET enable_seqscan");
+                    statement.execute("RESET plan_cache_mode");
+                    statement.execute("DEALLOCATE plan_check");
+                }
+            }
+            return plan;
+        });
+    }
+}
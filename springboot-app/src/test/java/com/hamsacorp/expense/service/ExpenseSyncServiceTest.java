@@ -0,0 +1,75 @@
+package com.hamsacorp.expense.service;
+
+import com.hamsacorp.expense.TestUsers;
+import com.hamsacorp.expense.model.Expense;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.jdbc.core.JdbcTemplate;
+
+import java.time.LocalDate;
+import java.util.List;
+import java.util.Map;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/** Tombstone pruning by the background job rather than by sync requests. */
+@SpringBootTest
+class ExpenseSyncServiceTest {
+
+    @Autowired
+    private ExpenseSyncService expenseSyncService;
+
+    @Autowired
+    private ExpenseService expenseService;
+
+    @Autowired
+    private AuthService authService;
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    private String email;
+    private Expense deleted;
+
+    @BeforeEach
+    void setUp() {
+        email = TestUsers.register(authService, "sync");
+        deleted = expenseService.saveExpense(TestUsers.expense(email, LocalDate.of(2024, 6, 1), 10, "Food"));
+        expenseService.saveExpense(TestUsers.expense(email, LocalDate.of(2024, 6, 2), 20, "Travel"));
+        assertThat(expenseService.deleteExpense(deleted.getId(), email, null)).isTrue();
+        // Past the retention period
+        jdbcTemplate.update("UPDATE expense_tombstones SET deleted_at = now() - interval '100 days' WHERE created_by = ?", email);
+    }
+
+    @AfterEach
+    void tearDown() {
+        TestUsers.delete(jdbcTemplate, email);
+    }
+
+    @Test
+    void syncRequestsLeaveTombstonesInPlace() {
+        Map<String, Object> changes = expenseSyncService.getChangesSince(email, "1", 100);
+
+        assertThat(changes.get("reset")).isEqualTo(false);
+        assertThat(changes.get("deleted")).isEqualTo(List.of(deleted.getId()));
+        assertThat(tombstones()).isEqualTo(1);
+    }
+
+    @Test
+    void prunedTombstonesSendOlderTokensBackToAFullListing() {
+        expenseSyncService.pruneTombstones();
+
+        assertThat(tombstones()).isZero();
+        Map<String, Object> changes = expenseSyncService.getChangesSince(email, "1", 100);
+        assertThat(changes.get("reset")).isEqualTo(true);
+        assertThat(changes.get("deleted")).isEqualTo(List.of());
+        assertThat((List<?>) changes.get("upserted")).hasSize(1);
+    }
+
+    private long tombstones() {
+        return jdbcTemplate.queryForObject("SELECT count(*) FROM expense_tombstones WHERE created_by = ?", Long.class, email);
+    }
+}
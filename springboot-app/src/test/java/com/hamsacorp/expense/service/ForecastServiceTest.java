@@ -0,0 +1,177 @@
+package com.hamsacorp.expense.service;
+
+import com.hamsacorp.expense.event.ExpenseChangedEvent;
+import com.hamsacorp.expense.model.Expense;
+import com.hamsacorp.expense.repository.ExpenseChangeLogRepository;
+import com.hamsacorp.expense.repository.ExpenseRepository;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.transaction.PlatformTransactionManager;
+
+import java.time.DayOfWeek;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.within;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+/** The Holt-Winters forecasts on synthetic histories with a known shape. */
+class ForecastServiceTest {
+
+    private static final String EMAIL = "forecast@example.com";
+
+    private final ExpenseRepository expenseRepository = mock(ExpenseRepository.class);
+    private final ExpenseChangeLogRepository changeLogRepository = mock(ExpenseChangeLogRepository.class);
+    private final DataVersionService dataVersionService = mock(DataVersionService.class);
+    private final List<Expense> history = new ArrayList<>();
+    private long changeSeq;
+    private final LocalDate today = LocalDate.now();
+    private ForecastService service;
+
+    @BeforeEach
+    void setUp() {
+        service = new ForecastService(mock(PlatformTransactionManager.class), 200_000);
+        ReflectionTestUtils.setField(service, "expenseRepository", expenseRepository);
+        ReflectionTestUtils.setField(service, "changeLogRepository", changeLogRepository);
+        ReflectionTestUtils.setField(service, "dataVersionService", dataVersionService);
+        ReflectionTestUtils.setField(service, "historyDays", 365);
+        when(expenseRepository.findAllByCreatedByAndDateBetweenOrderByDateDesc(eq(EMAIL), any(), any()))
+                .thenAnswer(invocation -> new ArrayList<>(history));
+        when(changeLogRepository.findCounters(EMAIL)).thenAnswer(invocation -> new long[] {changeSeq, 0});
+    }
+
+    @Test
+    void learnsAWeeklyPattern() {
+        for (LocalDate day = today.minusDays(280); day.isBefore(today); day = day.plusDays(1)) {
+            spend(day, "Food", 10);
+            if (day.getDayOfWeek() == DayOfWeek.SATURDAY) {
+                spend(day, "Fun", 60);
+            }
+        }
+
+        Map<String, Object> forecast = service.getForecast(EMAIL, 7);
+
+        for (Map<String, Object> point : daily(forecast)) {
+            boolean saturday = LocalDate.parse((String) point.get("date")).getDayOfWeek() == DayOfWeek.SATURDAY;
+            assertThat((Double) point.get("predicted")).isCloseTo(saturday ? 70 : 10, within(3.0));
+        }
+        assertThat((Double) forecast.get("totalPredicted")).isCloseTo(130, within(5.0));
+        assertThat(forecast.get("trend")).isEqualTo("stable");
+        assertThat(categories(forecast)).extracting(category -> category.get("category")).containsExactly("Food", "Fun");
+    }
+
+    @Test
+    void followsATrend() {
+        // Rising by more than 5% a week, what counts as a trend
+        LocalDate start = today.minusDays(60);
+        for (LocalDate day = start; day.isBefore(today); day = day.plusDays(1)) {
+            spend(day, "Food", 10 + 3 * (day.toEpochDay() - start.toEpochDay()));
+        }
+
+        Map<String, Object> forecast = service.getForecast(EMAIL, 14);
+
+        assertThat(forecast.get("trend")).isEqualTo("increasing");
+        List<Map<String, Object>> daily = daily(forecast);
+        assertThat((Double) daily.get(0).get("predicted")).isGreaterThan(150);
+        assertThat((Double) daily.get(13).get("predicted")).isGreaterThan((Double) daily.get(0).get("predicted") + 14);
+    }
+
+    @Test
+    void bandsWidenWithTheHorizon() {
+        for (LocalDate day = today.minusDays(120); day.isBefore(today); day = day.plusDays(1)) {
+            spend(day, "Food", 10 + (day.toEpochDay() * 7919 % 13));
+        }
+
+        List<Map<String, Object>> daily = daily(service.getForecast(EMAIL, 90));
+
+        double previous = 0;
+        for (Map<String, Object> point : daily) {
+            double width = (Double) point.get("upper") - (Double) point.get("predicted");
+            assertThat(width).isGreaterThanOrEqualTo(previous);
+            previous = width;
+        }
+        assertThat(previous).isPositive();
+    }
+
+    @Test
+    void todaysWritesWaitForTheDayToCloseWithoutARefit() {
+        for (LocalDate day = today.minusDays(60); day.isBefore(today); day = day.plusDays(1)) {
+            spend(day, "Food", 10);
+        }
+        service.getForecast(EMAIL, 7);
+
+        Expense lunch = expense(today, "Food", 500);
+        service.onExpenseChanged(new ExpenseChangedEvent(EMAIL, null, lunch, 1, 1));
+        Map<String, Object> forecast = service.getForecast(EMAIL, 7);
+
+        assertThat((Double) daily(forecast).get(0).get("predicted")).isCloseTo(10, within(1.0));
+        assertThat(forecast.get("fittedThrough")).isEqualTo(today.minusDays(1).toString());
+        verify(expenseRepository, times(1)).findAllByCreatedByAndDateBetweenOrderByDateDesc(eq(EMAIL), any(), any());
+    }
+
+    @Test
+    void backdatedWritesRefit() {
+        for (LocalDate day = today.minusDays(60); day.isBefore(today); day = day.plusDays(1)) {
+            spend(day, "Food", 10);
+        }
+        service.getForecast(EMAIL, 7);
+
+        Expense backdated = spend(today.minusDays(3), "Rent", 900);
+        service.onExpenseChanged(new ExpenseChangedEvent(EMAIL, null, backdated, 1, 1));
+        Map<String, Object> forecast = service.getForecast(EMAIL, 7);
+
+        verify(expenseRepository, times(2)).findAllByCreatedByAndDateBetweenOrderByDateDesc(eq(EMAIL), any(), any());
+        assertThat(categories(forecast)).extracting(category -> category.get("category")).contains("Rent");
+    }
+
+    @Test
+    void writesAlreadyInTheHistoryAreNotAppliedAgain() {
+        for (LocalDate day = today.minusDays(60); day.isBefore(today); day = day.plusDays(1)) {
+            spend(day, "Food", 10);
+        }
+        // Committed before the history query, its event delivered after it
+        Expense backdated = spend(today.minusDays(3), "Rent", 900);
+        changeSeq = 61;
+        service.getForecast(EMAIL, 7);
+
+        service.onExpenseChanged(new ExpenseChangedEvent(EMAIL, null, backdated, 1, 61));
+        service.getForecast(EMAIL, 7);
+
+        verify(expenseRepository, times(1)).findAllByCreatedByAndDateBetweenOrderByDateDesc(eq(EMAIL), any(), any());
+    }
+
+    @SuppressWarnings("unchecked")
+    private static List<Map<String, Object>> daily(Map<String, Object> forecast) {
+        return (List<Map<String, Object>>) forecast.get("dailyForecast");
+    }
+
+    @SuppressWarnings("unchecked")
+    private static List<Map<String, Object>> categories(Map<String, Object> forecast) {
+        return (List<Map<String, Object>>) forecast.get("categoryForecast");
+    }
+
+    private Expense spend(LocalDate day, String category, double amount) {
+        Expense expense = expense(day, category, amount);
+        history.add(expense);
+        return expense;
+    }
+
+    private static Expense expense(LocalDate day, String category, double amount) {
+        Expense expense = new Expense();
+        expense.setCreatedBy(EMAIL);
+        expense.setType(Expense.ExpenseType.EXPENSE);
+        expense.setDate(day);
+        expense.setCategory(category);
+        expense.setAmount(amount);
+        return expense;
+    }
+}
@@ -0,0 +1,235 @@
+package com.hamsacorp.expense.service;
+
+import com.hamsacorp.expense.event.ExpenseChangedEvent;
+import com.hamsacorp.expense.event.UserInvalidationEvent;
+import com.hamsacorp.expense.model.Expense;
+import com.hamsacorp.expense.repository.ExpenseChangeLogRepository;
+import com.hamsacorp.expense.repository.ExpenseRepository;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.transaction.PlatformTransactionManager;
+
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+/**
+ * The Fenwick trees against a brute-force sum over the same rows, as built from the grouped query and
+ * as kept up to date by write events.
+ */
+class RangeTotalsServiceTest {
+
+    private static final String EMAIL = "ranges@example.com";
+    private static final long SCALE = 10_000;
+
+    private final ExpenseRepository expenseRepository = mock(ExpenseRepository.class);
+    private final ExpenseChangeLogRepository changeLogRepository = mock(ExpenseChangeLogRepository.class);
+    private final DataVersionService dataVersionService = mock(DataVersionService.class);
+    private final Random random = new Random(42);
+
+    // What the database holds: fixed-point total per epoch day and type
+    private final Map<Long, long[]> rows = new HashMap<>();
+    private RangeTotalsService service;
+    private long changeSeq;
+    private long nextId = 1;
+
+    @BeforeEach
+    void setUp() {
+        service = new RangeTotalsService(mock(PlatformTransactionManager.class), 1_000_000);
+        ReflectionTestUtils.setField(service, "expenseRepository", expenseRepository);
+        ReflectionTestUtils.setField(service, "changeLogRepository", changeLogRepository);
+        ReflectionTestUtils.setField(service, "dataVersionService", dataVersionService);
+        when(expenseRepository.sumFixedPointAmountsByDayAndType(eq(EMAIL), anyLong())).thenAnswer(invocation -> {
+            List<Object[]> result = new ArrayList<>();
+            rows.forEach((day, amounts) -> {
+                for (Expense.ExpenseType type : Expense.ExpenseType.values()) {
+                    if (amounts[type.ordinal()] != 0) {
+                        result.add(new Object[] {day, type.name(), amounts[type.ordinal()]});
+                    }
+                }
+            });
+            return result;
+        });
+        when(changeLogRepository.findCounters(EMAIL)).thenAnswer(invocation -> new long[] {changeSeq, 0});
+    }
+
+    @Test
+    void totalsOfBuiltTreesMatchBruteForce() {
+        for (int i = 0; i < 2000; i++) {
+            insertRow(expense(LocalDate.of(2020, 1, 1).plusDays(random.nextInt(1500)), randomType(), randomAmount()));
+        }
+
+        assertRandomRanges(LocalDate.of(2019, 6, 1), 2000);
+    }
+
+    @Test
+    void rowsOutsideTheAcceptedDatesAreCounted() {
+        insertRow(expense(LocalDate.of(2024, 3, 1), Expense.ExpenseType.EXPENSE, 10));
+        insertRow(expense(LocalDate.of(1800, 1, 1), Expense.ExpenseType.EXPENSE, 1));
+        insertRow(expense(LocalDate.of(9999, 12, 31), Expense.ExpenseType.INCOME, 2));
+
+        assertThat(service.getTotals(EMAIL, LocalDate.of(1000, 1, 1), LocalDate.of(9999, 12, 31)))
+                .isEqualTo(new RangeTotalsService.Totals(11, 2, 0));
+        assertThat(service.getTotals(EMAIL, LocalDate.of(1900, 1, 1), LocalDate.of(2199, 12, 31)))
+                .isEqualTo(new RangeTotalsService.Totals(10, 0, 0));
+        assertThat(service.getTotals(EMAIL, LocalDate.of(9999, 12, 31), LocalDate.of(9999, 12, 31)).income()).isEqualTo(2);
+    }
+
+    @Test
+    void writesKeepLoadedTreesCurrent() {
+        List<Expense> expenses = new ArrayList<>();
+        for (int i = 0; i < 300; i++) {
+            Expense expense = expense(LocalDate.of(2023, 1, 1).plusDays(random.nextInt(400)), randomType(), randomAmount());
+            insertRow(expense);
+            expenses.add(expense);
+        }
+        service.getTotals(EMAIL, LocalDate.of(2023, 1, 1), LocalDate.of(2023, 1, 1)); // Loads the trees
+
+        for (int i = 0; i < 500; i++) {
+            int op = random.nextInt(3);
+            if (op == 0 || expenses.isEmpty()) {
+                // Up to ten years either side, so the trees have to regrow
+                Expense created = expense(LocalDate.of(2023, 1, 1).plusDays(random.nextInt(7300) - 3650), randomType(), randomAmount());
+                write(null, created);
+                expenses.add(created);
+            } else if (op == 1) {
+                Expense before = expenses.get(random.nextInt(expenses.size()));
+                Expense after = expense(before.getDate().plusDays(random.nextInt(60) - 30), randomType(), randomAmount());
+                after.setId(before.getId());
+                write(before, after);
+                expenses.set(expenses.indexOf(before), after);
+            } else {
+                Expense deleted = expenses.remove(random.nextInt(expenses.size()));
+                write(deleted, null);
+            }
+        }
+
+        assertRandomRanges(LocalDate.of(2012, 1, 1), 8000);
+        verify(expenseRepository, times(1)).sumFixedPointAmountsByDayAndType(eq(EMAIL), anyLong());
+    }
+
+    @Test
+    void deletingEverythingLeavesExactlyZero() {
+        List<Expense> expenses = new ArrayList<>();
+        for (int i = 0; i < 100; i++) {
+            Expense expense = expense(LocalDate.of(2024, 1, 1).plusDays(i % 7), Expense.ExpenseType.EXPENSE, 0.1 + i * 0.01);
+            insertRow(expense);
+            expenses.add(expense);
+        }
+        service.getTotals(EMAIL, LocalDate.of(2024, 1, 1), LocalDate.of(2024, 1, 31));
+
+        expenses.forEach(expense -> write(expense, null));
+
+        assertThat(service.getTotals(EMAIL, LocalDate.of(2024, 1, 1), LocalDate.of(2024, 1, 31)))
+                .isEqualTo(new RangeTotalsService.Totals(0, 0, 0));
+    }
+
+    @Test
+    void skipsWritesTheBuildAlreadyCovered() {
+        Expense expense = expense(LocalDate.of(2024, 5, 1), Expense.ExpenseType.EXPENSE, 25);
+        insertRow(expense); // Committed before the build, its event arrives after it
+        service.getTotals(EMAIL, LocalDate.of(2024, 5, 1), LocalDate.of(2024, 5, 1));
+
+        service.onExpenseChanged(new ExpenseChangedEvent(EMAIL, null, expense, 1, changeSeq));
+        assertThat(service.getTotals(EMAIL, LocalDate.of(2024, 5, 1), LocalDate.of(2024, 5, 1)).expenses()).isEqualTo(25);
+
+        write(null, expense(LocalDate.of(2024, 5, 1), Expense.ExpenseType.EXPENSE, 5));
+        assertThat(service.getTotals(EMAIL, LocalDate.of(2024, 5, 1), LocalDate.of(2024, 5, 1)).expenses()).isEqualTo(30);
+    }
+
+    @Test
+    void dropsTreesBuiltWhileAWriteWasPublished() {
+        insertRow(expense(LocalDate.of(2024, 5, 1), Expense.ExpenseType.INCOME, 100));
+        when(dataVersionService.getVersion(EMAIL)).thenReturn(1L, 2L, 2L, 2L);
+
+        service.getTotals(EMAIL, LocalDate.of(2024, 5, 1), LocalDate.of(2024, 5, 1));
+        service.getTotals(EMAIL, LocalDate.of(2024, 5, 1), LocalDate.of(2024, 5, 1));
+        service.getTotals(EMAIL, LocalDate.of(2024, 5, 1), LocalDate.of(2024, 5, 1));
+
+        verify(expenseRepository, times(2)).sumFixedPointAmountsByDayAndType(eq(EMAIL), anyLong());
+    }
+
+    @Test
+    void rebuildsAfterAnotherInstanceWrote() {
+        insertRow(expense(LocalDate.of(2024, 5, 1), Expense.ExpenseType.SAVINGS, 100));
+        service.getTotals(EMAIL, LocalDate.of(2024, 5, 1), LocalDate.of(2024, 5, 1));
+
+        insertRow(expense(LocalDate.of(2024, 5, 2), Expense.ExpenseType.SAVINGS, 50)); // No event on this instance
+        service.onUserInvalidated(new UserInvalidationEvent(EMAIL, 2));
+
+        assertThat(service.getTotals(EMAIL, LocalDate.of(2024, 5, 1), LocalDate.of(2024, 5, 31)).savings()).isEqualTo(150);
+    }
+
+    private void assertRandomRanges(LocalDate origin, int spanDays) {
+        for (int i = 0; i < 500; i++) {
+            LocalDate from = origin.plusDays(random.nextInt(spanDays));
+            LocalDate to = from.plusDays(random.nextInt(spanDays / 2) - 10);
+            assertThat(service.getTotals(EMAIL, from, to)).as("%s..%s", from, to).isEqualTo(bruteForce(from, to));
+        }
+    }
+
+    private RangeTotalsService.Totals bruteForce(LocalDate from, LocalDate to) {
+        long[] sums = new long[Expense.ExpenseType.values().length];
+        rows.forEach((day, amounts) -> {
+            if (day >= from.toEpochDay() && day <= to.toEpochDay()) {
+                for (int type = 0; type < sums.length; type++) {
+                    sums[type] += amounts[type];
+                }
+            }
+        });
+        return new RangeTotalsService.Totals((double) sums[Expense.ExpenseType.EXPENSE.ordinal()] / SCALE,
+                (double) sums[Expense.ExpenseType.INCOME.ordinal()] / SCALE, (double) sums[Expense.ExpenseType.SAVINGS.ordinal()] / SCALE);
+    }
+
+    // A write committed in the database and then published
+    private void write(Expense before, Expense after) {
+        if (before != null) {
+            addRow(before, -1);
+        }
+        if (after != null) {
+            addRow(after, 1);
+        }
+        changeSeq++;
+        service.onExpenseChanged(new ExpenseChangedEvent(EMAIL, before, after, changeSeq, changeSeq));
+    }
+
+    private void insertRow(Expense expense) {
+        addRow(expense, 1);
+        changeSeq++;
+    }
+
+    private void addRow(Expense expense, int sign) {
+        rows.computeIfAbsent(expense.getDate().toEpochDay(), day -> new long[Expense.ExpenseType.values().length])
+                [expense.getType().ordinal()] += sign * Math.round(expense.getAmount() * SCALE);
+    }
+
+    private Expense expense(LocalDate date, Expense.ExpenseType type, double amount) {
+        Expense expense = new Expense();
+        expense.setId(nextId++);
+        expense.setCreatedBy(EMAIL);
+        expense.setDate(date);
+        expense.setType(type);
+        expense.setAmount(amount);
+        return expense;
+    }
+
+    private Expense.ExpenseType randomType() {
+        return Expense.ExpenseType.values()[random.nextInt(Expense.ExpenseType.values().length)];
+    }
+
+    private double randomAmount() {
+        return random.nextInt(100_000) / 100.0;
+    }
+}
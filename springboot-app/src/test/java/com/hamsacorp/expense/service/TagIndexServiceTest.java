@@ -0,0 +1,142 @@
+package com.hamsacorp.expense.service;
+
+import com.hamsacorp.expense.event.ExpenseChangedEvent;
+import com.hamsacorp.expense.model.Expense;
+import com.hamsacorp.expense.repository.ExpenseChangeLogRepository;
+import com.hamsacorp.expense.repository.TagBitmapRepository;
+import com.hamsacorp.expense.sharding.ShardDirectory;
+import com.hamsacorp.expense.sharding.ShardWriteGuard;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.roaringbitmap.longlong.Roaring64NavigableMap;
+import org.springframework.jdbc.core.RowCallbackHandler;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.transaction.PlatformTransactionManager;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.verifyNoInteractions;
+import static org.mockito.Mockito.when;
+
+/** Which writes reach the in-memory bitmaps, and when a persisted snapshot is trusted. */
+class TagIndexServiceTest {
+
+    private static final String EMAIL = "tags@example.com";
+
+    private final TagBitmapRepository tagBitmapRepository = mock(TagBitmapRepository.class);
+    private final ExpenseChangeLogRepository changeLogRepository = mock(ExpenseChangeLogRepository.class);
+    private final DataVersionService dataVersionService = mock(DataVersionService.class);
+
+    // What expense_tags holds: id and tag (null for an untagged expense)
+    private final List<Object[]> rows = new ArrayList<>();
+    private TagIndexService service;
+    private long changeSeq;
+
+    @BeforeEach
+    void setUp() throws SQLException {
+        service = new TagIndexService(mock(PlatformTransactionManager.class), 3600, 1_000_000);
+        ReflectionTestUtils.setField(service, "tagBitmapRepository", tagBitmapRepository);
+        ReflectionTestUtils.setField(service, "changeLogRepository", changeLogRepository);
+        ReflectionTestUtils.setField(service, "dataVersionService", dataVersionService);
+        ReflectionTestUtils.setField(service, "shardDirectory", mock(ShardDirectory.class));
+        ReflectionTestUtils.setField(service, "shardWriteGuard", mock(ShardWriteGuard.class));
+        when(changeLogRepository.findCounters(EMAIL)).thenAnswer(invocation -> new long[] {changeSeq, 0});
+        doAnswer(invocation -> {
+            RowCallbackHandler handler = invocation.getArgument(1);
+            for (Object[] row : rows) {
+                ResultSet rs = mock(ResultSet.class);
+                when(rs.getLong(1)).thenReturn((Long) row[0]);
+                when(rs.getString(2)).thenReturn((String) row[1]);
+                handler.processRow(rs);
+            }
+            return null;
+        }).when(tagBitmapRepository).forEachExpenseTag(eq(EMAIL), any());
+    }
+
+    @AfterEach
+    void tearDown() {
+        service.shutdown();
+    }
+
+    @Test
+    void writesForUsersNotInMemoryLoadNothing() {
+        service.onExpenseChanged(new ExpenseChangedEvent(EMAIL, null, expense(1, "food"), 1, 1));
+
+        verifyNoInteractions(tagBitmapRepository, changeLogRepository, dataVersionService);
+    }
+
+    @Test
+    void writesAfterTheLoadAreApplied() {
+        rows.add(new Object[] {1L, "food"});
+        changeSeq = 1;
+        assertThat(service.match(EMAIL, List.of("food"), null, null).toArray()).containsExactly(1);
+
+        // Already in the rows the bitmaps were built from
+        service.onExpenseChanged(new ExpenseChangedEvent(EMAIL, null, expense(1, "food"), 1, 1));
+        service.onExpenseChanged(new ExpenseChangedEvent(EMAIL, null, expense(2, "food"), 2, 2));
+        service.onExpenseChanged(new ExpenseChangedEvent(EMAIL, expense(1, "food"), expense(1, "travel"), 3, 3));
+
+        assertThat(service.match(EMAIL, List.of("food"), null, null).toArray()).containsExactly(2);
+        assertThat(service.match(EMAIL, List.of("travel"), null, null).toArray()).containsExactly(1);
+    }
+
+    @Test
+    void snapshotBehindTheChangeCounterIsRebuilt() {
+        // Counts still match: the missed write renamed a tag in place
+        when(tagBitmapRepository.findByCreatedBy(EMAIL)).thenReturn(List.of(
+                new TagBitmapRepository.Snapshot("*", serialize(1), 4L),
+                new TagBitmapRepository.Snapshot("food", serialize(1), null)));
+        when(tagBitmapRepository.countExpensesAndTags(EMAIL)).thenReturn(new long[] {1, 1, 1});
+        rows.add(new Object[] {1L, "travel"});
+        changeSeq = 5;
+
+        assertThat(service.match(EMAIL, List.of("food"), null, null).isEmpty()).isTrue();
+        assertThat(service.match(EMAIL, List.of("travel"), null, null).toArray()).containsExactly(1);
+    }
+
+    @Test
+    void snapshotAtTheChangeCounterIsUsed() {
+        when(tagBitmapRepository.findByCreatedBy(EMAIL)).thenReturn(List.of(
+                new TagBitmapRepository.Snapshot("*", serialize(1, 2), 7L),
+                new TagBitmapRepository.Snapshot("food", serialize(2), null)));
+        when(tagBitmapRepository.countExpensesAndTags(EMAIL)).thenReturn(new long[] {2, 2, 1});
+        changeSeq = 7;
+
+        assertThat(service.match(EMAIL, List.of("food"), null, null).toArray()).containsExactly(2);
+        verify(tagBitmapRepository, never()).forEachExpenseTag(eq(EMAIL), any());
+    }
+
+    private static Expense expense(long id, String tag) {
+        Expense expense = new Expense();
+        expense.setId(id);
+        expense.setCreatedBy(EMAIL);
+        expense.setTags(Set.of(tag));
+        return expense;
+    }
+
+    private static byte[] serialize(long... ids) {
+        Roaring64NavigableMap bitmap = Roaring64NavigableMap.bitmapOf(ids);
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (DataOutputStream out = new DataOutputStream(bytes)) {
+            bitmap.serialize(out);
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+        return bytes.toByteArray();
+    }
+}
@@ -0,0 +1,81 @@
+package com.hamsacorp.expense.tracing;
+
+import jakarta.persistence.EntityManager;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.util.List;
+
+import static com.hamsacorp.expense.tracing.QueryTraces.assertNoRepeatedStatements;
+import static com.hamsacorp.expense.tracing.QueryTraces.assertStatementCount;
+import static com.hamsacorp.expense.tracing.QueryTraces.capture;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+@SpringBootTest
+class QueryCountingListenerTest {
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    @Autowired
+    private EntityManager entityManager;
+
+    @Autowired
+    private PlatformTransactionManager transactionManager;
+
+    @Test
+    void countsJdbcTemplateStatements() throws Exception {
+        QueryTrace trace = capture(() -> {
+            jdbcTemplate.queryForObject("SELECT 1", Integer.class);
+            jdbcTemplate.queryForObject("SELECT 2", Integer.class);
+        });
+
+        assertStatementCount(trace, 2);
+        assertThat(trace.getStatements()).containsExactly("SELECT 1", "SELECT 2");
+    }
+
+    @Test
+    void countsHibernateStatements() throws Exception {
+        QueryTrace trace = capture(() ->
+                new TransactionTemplate(transactionManager).executeWithoutResult(status ->
+                        entityManager.createNativeQuery("SELECT 1").getSingleResult()));
+
+        assertStatementCount(trace, 1);
+    }
+
+    @Test
+    void countsABatchAsOneStatement() throws Exception {
+        QueryTrace trace = capture(() ->
+                new TransactionTemplate(transactionManager).executeWithoutResult(status -> {
+                    jdbcTemplate.execute("CREATE TEMP TABLE query_count_check (n int) ON COMMIT DROP");
+                    jdbcTemplate.batchUpdate("INSERT INTO query_count_check VALUES (?)",
+                            List.of(new Object[]{1}, new Object[]{2}, new Object[]{3}));
+                }));
+
+        assertStatementCount(trace, 2);
+    }
+
+    @Test
+    void flagsRepeatedStatements() throws Exception {
+        QueryTrace trace = capture(() -> {
+            for (int i = 0; i < 3; i++) {
+                jdbcTemplate.queryForObject("SELECT ?", Integer.class, i);
+            }
+        });
+
+        assertNoRepeatedStatements(trace, 4);
+        assertThatThrownBy(() -> assertNoRepeatedStatements(trace, 3)).isInstanceOf(AssertionError.class);
+    }
+
+    @Test
+    void ignoresStatementsOutsideATrace() {
+        jdbcTemplate.queryForObject("SELECT 1", Integer.class);
+
+        assertThat(QueryTraceContext.current()).isNull();
+    }
+}
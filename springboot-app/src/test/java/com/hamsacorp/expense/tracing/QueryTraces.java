@@ -0,0 +1,62 @@
+package com.hamsacorp.expense.tracing;
+
+import java.util.Map;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Captures the statements of a block of code, e.g. a MockMvc request, and pins its query cost:
+ * <pre>
+ * assertStatementCount(capture(() -> mockMvc.perform(get("/api/expenses/summary")...)), 2);
+ * </pre>
+ */
+public final class QueryTraces {
+
+    @FunctionalInterface
+    public interface TracedBlock {
+        void run() throws Exception;
+    }
+
+    private QueryTraces() {
+    }
+
+    /** Runs the block with a fresh trace bound to this thread and returns it once the block completes. */
+    public static QueryTrace capture(TracedBlock block) throws Exception {
+        QueryTrace trace = QueryTraceContext.begin("capture");
+        assertThat(trace).as("capture inside another trace").isNotNull();
+        try {
+            block.run();
+        } finally {
+            QueryTraceContext.end(trace);
+        }
+        return trace;
+    }
+
+    public static QueryTrace assertStatementCount(QueryTrace trace, int expected) {
+        assertThat(trace.getStatementCount())
+                .as("SQL statements for %s: %s", trace.getName(), trace.getStatements())
+                .isEqualTo(expected);
+        return trace;
+    }
+
+    public static QueryTrace assertMaxStatementCount(QueryTrace trace, int max) {
+        assertThat(trace.getStatementCount())
+                .as("SQL statements for %s: %s", trace.getName(), trace.getStatements())
+                .isLessThanOrEqualTo(max);
+        return trace;
+    }
+
+    public static QueryTrace assertMaxRowCount(QueryTrace trace, long max) {
+        assertThat(trace.getRowCount())
+                .as("Rows for %s", trace.getName())
+                .isLessThanOrEqualTo(max);
+        return trace;
+    }
+
+    /** Fails when a statement was issued {@code threshold} or more times, the usual sign of an N+1. */
+    public static QueryTrace assertNoRepeatedStatements(QueryTrace trace, int threshold) {
+        Map<String, Integer> repeated = trace.getRepeatedStatements(threshold);
+        assertThat(repeated).as("Possible N+1 in %s", trace.getName()).isEmpty();
+        return trace;
+    }
+}
@@ -0,0 +1,87 @@
+#!/usr/bin/env bash
+# Startup benchmark for the API: time from launch to the first successful request, and resident
+# memory (RSS) right after it, for each way of running the app:
+#
+#   jvm     plain executable jar
+#   aot     same jar with Spring AOT initialization (-Dspring.aot.enabled=true)
+#   cds     AOT plus a class-data-sharing archive trained on a startup run (what the Dockerfile ships)
+#   native  GraalVM native image, if target/expense exists (./mvnw -Pnative native:compile)
+#
+# Needs the database the app is configured for (DB_HOST, DB_PORT, ... as usual) and Linux.
+#
+#   ./startup-benchmark.sh [runs]          default 5 runs per variant, medians reported
+#   SKIP_BUILD=1 ./startup-benchmark.sh    reuse the existing -Pprod build
+set -euo pipefail
+
+cd "$(dirname "$0")"
+RUNS=${1:-5}
+PORT=${BENCH_PORT:-3999}
+URL="http://localhost:$PORT/api/auth/exists?email=startup-benchmark@example.com"
+JAR=target/expense-0.0.1.jar
+WORK=target/startup-benchmark
+
+if [ "${SKIP_BUILD:-0}" != "1" ]; then
+    ./mvnw -B -q -Pprod -DskipTests package
+fi
+
+# Extracted layout and CDS archive, trained the same way as in the Dockerfile
+rm -rf "$WORK" && mkdir -p "$WORK/app"
+cp "$JAR" "$WORK/app.jar"
+java -Djarmode=tools -jar "$WORK/app.jar" extract --layers --destination "$WORK/extracted" > /dev/null
+for layer in dependencies spring-boot-loader snapshot-dependencies application; do
+    cp -r "$WORK/extracted/$layer/." "$WORK/app/"
+done
+(cd "$WORK/app" && java -XX:ArchiveClassesAtExit=app.jsa -Xlog:cds=off -Xlog:cds+dynamic=off \
+    -Dspring.aot.enabled=true -Dspring.context.exit=onRefresh \
+    -Dspring.jpa.hibernate.ddl-auto=none \
+    -Dspring.jpa.properties.hibernate.boot.allow_jdbc_metadata_access=false \
+    -Dspring.datasource.url=jdbc:postgresql://localhost:1/training \
+    -jar app.jar > ../training.log 2>&1)
+
+# Prints "<ms to first request> <rss kB>" for one launch of the given command in directory $1
+measure() {
+    local dir=$1; shift
+    local start pid elapsed rss
+    start=$(date +%s%N)
+    (cd "$dir" && exec "$@" --server.port="$PORT") > "$WORK/run.log" 2>&1 &
+    pid=$!
+    until curl -sf -o /dev/null "$URL"; do
+        if ! kill -0 "$pid" 2> /dev/null; then
+            echo "startup failed, see $WORK/run.log" >&2
+            exit 1
+        fi
+        sleep 0.02
+    done
+    elapsed=$(( ($(date +%s%N) - start) / 1000000 ))
+    rss=$(ps -o rss= -p "$pid" | tr -d ' ')
+    kill "$pid" && wait "$pid" 2> /dev/null || true
+    echo "$elapsed $rss"
+}
+
+median() {
+    sort -n | awk '{ v[NR] = $1 } END { print (NR % 2) ? v[(NR + 1) / 2] : int((v[NR / 2] + v[NR / 2 + 1]) / 2) }'
+}
+
+run_variant() {
+    local name=$1 dir=$2; shift 2
+    local times=() rss=()
+    for _ in $(seq "$RUNS"); do
+        read -r t r < <(measure "$dir" "$@")
+        times+=("$t"); rss+=("$r")
+    done
+    printf "%-8s %12s ms %10s MB\n" "$name" \
+        "$(printf '%s\n' "${times[@]}" | median)" \
+        "$(( $(printf '%s\n' "${rss[@]}" | median) / 1024 ))"
+}
+
+printf "%-8s %15s %13s   (median of %d runs)\n" variant first-request rss "$RUNS"
+# The extracted variants run from the training directory: a CDS archive is silently ignored unless
+# the classpath matches the one it was trained with exactly
+run_variant jvm . java -jar "$JAR"
+run_variant aot "$WORK/app" java -Dspring.aot.enabled=true -jar app.jar
+run_variant cds "$WORK/app" java -Xshare:on -XX:SharedArchiveFile=app.jsa -Dspring.aot.enabled=true -jar app.jar
+if [ -x target/expense ]; then
+    run_variant native . target/expense
+else
+    echo "native   skipped (build with ./mvnw -Pnative native:compile)"
+fi
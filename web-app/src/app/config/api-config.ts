@@ -12,6 +12,7 @@ const API_CONFIG = {
   SETTINGS: '/api/settings',
   EXPENSES: '/api/expenses',
   EXPENSES_SUMMARY: '/api/expenses/summary',
+  EXPENSES_DASHBOARD: '/api/expenses/dashboard',
   EXPENSES_MONTHLY_DETAILS: '/api/expenses/monthly-details',
   EXPENSES_YEARLY_DETAILS: '/api/expenses/yearly-details',
   EXPENSES_DAILY_DETAILS: '/api/expenses/daily-details',
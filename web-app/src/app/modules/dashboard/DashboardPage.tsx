@@ -8,7 +8,7 @@ import { useNavigate } from 'react-router-dom';
 import Header from '../../components/Header';
 import Footer from '../../components/Footer';
 import { RootState } from '../../store/store';
-import { fetchDashboardSummaryStart, fetchMonthlyDetailsStart, fetchYearlyDetailsStart, fetchDailyDetailsStart } from '../../store/slices/dashboardSlice';
+import { fetchDashboardStart } from '../../store/slices/dashboardSlice';
 // import ExpenseTable from './ExpenseTable';
 import MonthlyCharts from './MonthlyCharts';
 import YearlyCharts from './YearlyCharts';
@@ -34,23 +34,17 @@ const DashboardPage = () => {
   const { summary, dailyDetails, monthlyDetails, yearlyDetails } = useAppSelector((state: RootState) => state.dashboard);
 
   useEffect(() => {
-    dispatch(fetchDashboardSummaryStart());
-    
-    // If daily tab is active, fetch daily details for today
+    // Summary plus the active tab's details in a single request
+    const now = new Date();
     if (activeTab === 'daily') {
-      const today = new Date().toISOString().split('T')[0];
-      dispatch(fetchDailyDetailsStart({ date: today }));
+      const today = now.toISOString().split('T')[0];
+      dispatch(fetchDashboardStart({ widgets: ['summary', 'daily'], date: today }));
     } else if (activeTab === 'monthly') {
-      const now = new Date();
-      dispatch(fetchMonthlyDetailsStart({ 
-        year: now.getFullYear(), 
-        month: now.getMonth() + 1 
-      }));
+      dispatch(fetchDashboardStart({ widgets: ['summary', 'monthly'], year: now.getFullYear(), month: now.getMonth() + 1 }));
     } else if (activeTab === 'yearly') {
-      const now = new Date();
-      dispatch(fetchYearlyDetailsStart({ 
-        year: now.getFullYear()
-      }));
+      dispatch(fetchDashboardStart({ widgets: ['summary', 'yearly'], year: now.getFullYear() }));
+    } else {
+      dispatch(fetchDashboardStart({ widgets: ['summary'] }));
     }
   }, [dispatch, activeTab]);
 
@@ -64,23 +58,7 @@ const DashboardPage = () => {
       yearlyTotal: 0,
       customRangeTotal: 0
     });
-    
-    if (tab === 'daily') {
-      const today = new Date().toISOString().split('T')[0];
-      dispatch(fetchDailyDetailsStart({ date: today }));
-    } else if (tab === 'monthly') {
-      const now = new Date();
-      dispatch(fetchMonthlyDetailsStart({ 
-        year: now.getFullYear(), 
-        month: now.getMonth() + 1 
-      }));
-    } else if (tab === 'yearly') {
-      const now = new Date();
-      dispatch(fetchYearlyDetailsStart({ 
-        year: now.getFullYear()
-      }));
-    }
-    // Custom range will be handled by the CustomRangeCharts component
+    // Details for the new tab are fetched by the effect above; custom range is handled by CustomRangeCharts
   };
 
   const monthlyExpenses = summary?.monthlyExpenses ?? 0;
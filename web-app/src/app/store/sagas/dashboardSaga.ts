@@ -3,6 +3,9 @@ import { PayloadAction } from '@reduxjs/toolkit';
 import api from '../../utils/api';
 import API_CONFIG from '../../config/api-config';
 import {
+  DashboardWidget,
+  fetchDashboardStart,
+  fetchDashboardFailure,
   fetchDashboardSummaryStart,
   fetchDashboardSummarySuccess,
   fetchDashboardSummaryFailure,
@@ -20,6 +23,26 @@ import {
   fetchCustomRangeDetailsFailure,
 } from '../slices/dashboardSlice';
 
+function* handleFetchDashboard(action: PayloadAction<{ widgets: DashboardWidget[]; date?: string; year?: number; month?: number }>): Generator<any, void, any> {
+  try {
+    const { widgets, date, year, month } = action.payload;
+    const params = new URLSearchParams();
+    params.append('widgets', widgets.join(','));
+    if (date) params.append('date', date);
+    if (year) params.append('year', year.toString());
+    if (month) params.append('month', month.toString());
+
+    const response = yield call(api.get, `${API_CONFIG.EXPENSES_DASHBOARD}?${params.toString()}`);
+    const data = response.data;
+    if (data.summary) yield put(fetchDashboardSummarySuccess(data.summary));
+    if (data.daily) yield put(fetchDailyDetailsSuccess(data.daily));
+    if (data.monthly) yield put(fetchMonthlyDetailsSuccess(data.monthly));
+    if (data.yearly) yield put(fetchYearlyDetailsSuccess(data.yearly));
+  } catch (error: any) {
+    yield put(fetchDashboardFailure(error?.message || 'Failed to fetch dashboard'));
+  }
+}
+
 function* handleFetchDashboardSummary(): Generator<any, void, any> {
   try {
     const response = yield call(api.get, API_CONFIG.EXPENSES_SUMMARY);
@@ -88,6 +111,7 @@ function* handleFetchCustomRangeDetails(action: PayloadAction<{ startDate: strin
 }
 
 export default function* dashboardSaga() {
+  yield takeLatest(fetchDashboardStart.type, handleFetchDashboard);
   yield takeLatest(fetchDashboardSummaryStart.type, handleFetchDashboardSummary);
   yield takeLatest(fetchMonthlyDetailsStart.type, handleFetchMonthlyDetails);
   yield takeLatest(fetchYearlyDetailsStart.type, handleFetchYearlyDetails);
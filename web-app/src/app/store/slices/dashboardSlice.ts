@@ -190,6 +190,8 @@ export interface DashboardState {
   error: string | null;
 }
 
+export type DashboardWidget = 'summary' | 'daily' | 'monthly' | 'yearly';
+
 const initialState: DashboardState = {
   summary: null,
   monthlyDetails: null,
@@ -208,6 +210,22 @@ const dashboardSlice = createSlice({
   name: 'dashboard',
   initialState,
   reducers: {
+    // Composite fetch: one /dashboard request fills several widgets via their existing success actions
+    fetchDashboardStart(state, action: PayloadAction<{ widgets: DashboardWidget[]; date?: string; year?: number; month?: number }>) {
+      const { widgets } = action.payload;
+      state.loading = state.loading || widgets.includes('summary');
+      state.loadingDailyDetails = state.loadingDailyDetails || widgets.includes('daily');
+      state.loadingMonthlyDetails = state.loadingMonthlyDetails || widgets.includes('monthly');
+      state.loadingYearlyDetails = state.loadingYearlyDetails || widgets.includes('yearly');
+      state.error = null;
+    },
+    fetchDashboardFailure(state, action: PayloadAction<string>) {
+      state.loading = false;
+      state.loadingDailyDetails = false;
+      state.loadingMonthlyDetails = false;
+      state.loadingYearlyDetails = false;
+      state.error = action.payload;
+    },
     fetchDashboardSummaryStart(state) {
       state.loading = true;
       state.error = null;
@@ -277,6 +295,8 @@ const dashboardSlice = createSlice({
 });
 
 export const {
+  fetchDashboardStart,
+  fetchDashboardFailure,
   fetchDashboardSummaryStart,
   fetchDashboardSummarySuccess,
   fetchDashboardSummaryFailure,